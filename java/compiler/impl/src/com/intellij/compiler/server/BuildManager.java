@@ -354,7 +354,7 @@ public class BuildManager implements ApplicationComponent{
               if (channel != null) {
                 final CmdlineRemoteProto.Message.ControllerMessage message =
                   CmdlineRemoteProto.Message.ControllerMessage.newBuilder().setType(
-                    CmdlineRemoteProto.Message.ControllerMessage.Type.FS_EVENT).setFsEvent(data.createNextEvent()).build();
+                    CmdlineRemoteProto.Message.ControllerMessage.Type.FS_EVENT).setFsEvent(data.createSessionEvent()).build();
                 Channels.write(channel, CmdlineProtoUtil.toMessage(sessionId, message));
               }
             }
@@ -535,7 +535,6 @@ public class BuildManager implements ApplicationComponent{
             CmdlineRemoteProto.Message.ControllerMessage.GlobalSettings.newBuilder()
               .setGlobalOptionsPath(PathManager.getOptionsPath())
               .build();
-          CmdlineRemoteProto.Message.ControllerMessage.FSEvent currentFSChanges;
           final SequentialTaskExecutor projectTaskQueue;
           synchronized (myProjectDataMap) {
             ProjectData data = myProjectDataMap.get(projectPath);
@@ -543,34 +542,25 @@ public class BuildManager implements ApplicationComponent{
               data = new ProjectData(new SequentialTaskExecutor(myPooledThreadExecutor));
               myProjectDataMap.put(projectPath, data);
             }
-            if (isRebuild) {
-              data.dropChanges();
-            }
-            if (IS_UNIT_TEST_MODE) {
-              LOG.info("Scheduling build for " +
-                       projectPath +
-                       "; CHANGED: " +
-                       new HashSet<String>(data.myChanged) +
-                       "; DELETED: " +
-                       new HashSet<String>(data.myDeleted));
-            }
-            currentFSChanges = data.getAndResetRescanFlag() ? null : data.createNextEvent();
             projectTaskQueue = data.taskQueue;
           }
 
-          final CmdlineRemoteProto.Message.ControllerMessage params;
-          if (isRebuild) {
-            params = CmdlineProtoUtil.createBuildRequest(projectPath, scopes, Collections.<String>emptyList(), userData, globals, null);
-          }
-          else if (onlyCheckUpToDate) {
-            params = CmdlineProtoUtil.createUpToDateCheckRequest(projectPath, scopes, paths, userData, globals, currentFSChanges);
-          }
-          else {
-            params = CmdlineProtoUtil.createBuildRequest(projectPath, scopes, isMake ? Collections.<String>emptyList() : paths,
-                                                         userData, globals, currentFSChanges);
-          }
+          final BuilderMessageHandler messageHandler = new BuilderMessageHandlerWrapper(handler) {
+            @Override
+            public void handleBuildMessage(Channel channel, UUID sessionId, CmdlineRemoteProto.Message.BuilderMessage msg) {
+              final long appliedEventOrdinal = CmdlineProtoUtil.getAppliedFSEventOrdinal(msg);
+              if (appliedEventOrdinal < 0L) {
+                super.handleBuildMessage(channel, sessionId, msg);
+                return;
+              }
+              synchronized (myProjectDataMap) {
+                final ProjectData data = myProjectDataMap.get(projectPath);
+                if (data != null) {
+                  data.sessionEventApplied(sessionId, appliedEventOrdinal);
+                }
+              }
+            }
 
-          myMessageDispatcher.registerBuildMessageHandler(sessionId, new BuilderMessageHandlerWrapper(handler) {
             @Override
             public void sessionTerminated(UUID sessionId) {
               try {
@@ -580,18 +570,56 @@ public class BuildManager implements ApplicationComponent{
                 future.setDone();
               }
             }
-          }, params);
+          };
+          // build parameters are registered when the build process is about to start
+          myMessageDispatcher.registerBuildMessageHandler(sessionId, messageHandler, null);
 
           try {
             projectTaskQueue.submit(new Runnable() {
               @Override
               public void run() {
                 Throwable execFailure = null;
+                ProjectData data = null;
                 try {
                   if (project.isDisposed()) {
                     return;
                   }
                   myBuildsInProgress.put(projectPath, future);
+
+                  // the FS delta is taken only now because the previous session for the project has finished
+                  // and all the changes it might have missed are known
+                  CmdlineRemoteProto.Message.ControllerMessage.FSEvent currentFSChanges = null;
+                  synchronized (myProjectDataMap) {
+                    data = myProjectDataMap.get(projectPath);
+                    if (data != null) {
+                      if (isRebuild) {
+                        data.dropChanges();
+                      }
+                      if (IS_UNIT_TEST_MODE) {
+                        LOG.info("Starting build for " +
+                                 projectPath +
+                                 "; CHANGED: " +
+                                 new HashSet<String>(data.myChanged) +
+                                 "; DELETED: " +
+                                 new HashSet<String>(data.myDeleted));
+                      }
+                      currentFSChanges = data.startSession(sessionId);
+                    }
+                  }
+
+                  final CmdlineRemoteProto.Message.ControllerMessage params;
+                  if (isRebuild) {
+                    params = CmdlineProtoUtil.createBuildRequest(projectPath, scopes, Collections.<String>emptyList(), userData, globals, null);
+                  }
+                  else if (onlyCheckUpToDate) {
+                    params = CmdlineProtoUtil.createUpToDateCheckRequest(projectPath, scopes, paths, userData, globals, currentFSChanges);
+                  }
+                  else {
+                    params = CmdlineProtoUtil.createBuildRequest(projectPath, scopes, isMake ? Collections.<String>emptyList() : paths,
+                                                                 userData, globals, currentFSChanges);
+                  }
+                  myMessageDispatcher.registerBuildMessageHandler(sessionId, messageHandler, params);
+
                   final OSProcessHandler processHandler = launchBuildProcess(project, myListenPort, sessionId);
                   final StringBuilder stdErrOutput = new StringBuilder();
                   processHandler.addProcessListener(new ProcessAdapter() {
@@ -632,6 +660,11 @@ public class BuildManager implements ApplicationComponent{
                 }
                 finally {
                   myBuildsInProgress.remove(projectPath);
+                  if (data != null) {
+                    synchronized (myProjectDataMap) {
+                      data.finishSession();
+                    }
+                  }
                   if (myMessageDispatcher.getAssociatedChannel(sessionId) == null) {
                     // either the connection has never been established (process not started or execution failed), or no messages were sent from the launched process.
                     // in this case the session cannot be unregistered by the message dispatcher
@@ -1102,14 +1135,20 @@ public class BuildManager implements ApplicationComponent{
     }
   }
 
-  private static class ProjectData {
+  static class ProjectData {
     final SequentialTaskExecutor taskQueue;
     private final Set<String> myChanged = new THashSet<String>(FileUtil.PATH_HASHING_STRATEGY);
     private final Set<String> myDeleted = new THashSet<String>(FileUtil.PATH_HASHING_STRATEGY);
+    // events sent to the running build process which it hasn't acknowledged yet, it may finish before applying them
+    private final List<CmdlineRemoteProto.Message.ControllerMessage.FSEvent> mySessionEvents =
+      new ArrayList<CmdlineRemoteProto.Message.ControllerMessage.FSEvent>();
     private long myNextEventOrdinal = 0L;
+    private long myAppliedEventOrdinal = 0L;
+    @Nullable
+    private UUID mySessionId;
     private boolean myNeedRescan = true;
 
-    private ProjectData(SequentialTaskExecutor taskQueue) {
+    ProjectData(SequentialTaskExecutor taskQueue) {
       this.taskQueue = taskQueue;
     }
 
@@ -1138,6 +1177,77 @@ public class BuildManager implements ApplicationComponent{
       return builder.build();
     }
 
+    /**
+     * @return the event to be passed to the starting build process or {@code null} if the process must rescan the file system
+     */
+    @Nullable
+    public CmdlineRemoteProto.Message.ControllerMessage.FSEvent startSession(@NotNull UUID sessionId) {
+      mySessionId = sessionId;
+      mySessionEvents.clear();
+      if (getAndResetRescanFlag()) {
+        myAppliedEventOrdinal = myNextEventOrdinal;
+        return null;
+      }
+      final CmdlineRemoteProto.Message.ControllerMessage.FSEvent event = createNextEvent();
+      myAppliedEventOrdinal = event.getOrdinal();
+      return event;
+    }
+
+    public CmdlineRemoteProto.Message.ControllerMessage.FSEvent createSessionEvent() {
+      final CmdlineRemoteProto.Message.ControllerMessage.FSEvent event = createNextEvent();
+      mySessionEvents.add(event);
+      return event;
+    }
+
+    /**
+     * Called when the build process has acknowledged that the changes from the event with the given ordinal
+     * (and all the events sent before it) will be saved with its file system state.
+     */
+    public void sessionEventApplied(@NotNull UUID sessionId, long ordinal) {
+      if (!sessionId.equals(mySessionId)) {
+        return;
+      }
+      for (Iterator<CmdlineRemoteProto.Message.ControllerMessage.FSEvent> it = mySessionEvents.iterator(); it.hasNext(); ) {
+        final CmdlineRemoteProto.Message.ControllerMessage.FSEvent event = it.next();
+        if (event.getOrdinal() > ordinal) {
+          break;
+        }
+        myAppliedEventOrdinal = event.getOrdinal();
+        it.remove();
+      }
+    }
+
+    /**
+     * The build process stores the ordinal of the last event it has applied, so that the next process can detect
+     * whether it has missed some events. Events the finished process hasn't acknowledged are passed to the next process again.
+     */
+    public void finishSession() {
+      if (!myNeedRescan) {
+        myNextEventOrdinal = myAppliedEventOrdinal;
+        final Set<String> changed = new THashSet<String>(FileUtil.PATH_HASHING_STRATEGY);
+        final Set<String> deleted = new THashSet<String>(FileUtil.PATH_HASHING_STRATEGY);
+        for (CmdlineRemoteProto.Message.ControllerMessage.FSEvent event : mySessionEvents) {
+          deleted.removeAll(event.getChangedPathsList());
+          changed.addAll(event.getChangedPathsList());
+          changed.removeAll(event.getDeletedPathsList());
+          deleted.addAll(event.getDeletedPathsList());
+        }
+        // changes reported after the session has finished are newer
+        for (String path : changed) {
+          if (!myDeleted.contains(path)) {
+            myChanged.add(path);
+          }
+        }
+        for (String path : deleted) {
+          if (!myChanged.contains(path)) {
+            myDeleted.add(path);
+          }
+        }
+      }
+      mySessionEvents.clear();
+      mySessionId = null;
+    }
+
     public boolean getAndResetRescanFlag() {
       final boolean rescan = myNeedRescan;
       myNeedRescan = false;
@@ -1149,6 +1259,7 @@ public class BuildManager implements ApplicationComponent{
       myNextEventOrdinal = 0L;
       myChanged.clear();
       myDeleted.clear();
+      mySessionEvents.clear();
     }
   }
 
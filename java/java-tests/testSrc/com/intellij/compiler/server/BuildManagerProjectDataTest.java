@@ -0,0 +1,99 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.compiler.server;
+
+import com.intellij.util.concurrency.SequentialTaskExecutor;
+import junit.framework.TestCase;
+import org.jetbrains.jps.api.CmdlineRemoteProto;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+public class BuildManagerProjectDataTest extends TestCase {
+  private BuildManager.ProjectData myData;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myData = new BuildManager.ProjectData(new SequentialTaskExecutor(new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        command.run();
+      }
+    }));
+    // the first session always rescans the file system
+    UUID sessionId = UUID.randomUUID();
+    assertNull(myData.startSession(sessionId));
+    myData.finishSession();
+  }
+
+  public void testSessionStartDelta() {
+    myData.addChanged(Arrays.asList("/a", "/b"));
+    myData.addDeleted(Collections.singletonList("/b"));
+    CmdlineRemoteProto.Message.ControllerMessage.FSEvent delta = myData.startSession(UUID.randomUUID());
+    assertNotNull(delta);
+    assertEquals(1, delta.getOrdinal());
+    assertEquals(Collections.singletonList("/a"), delta.getChangedPathsList());
+    assertEquals(Collections.singletonList("/b"), delta.getDeletedPathsList());
+    myData.finishSession();
+
+    // the process has saved the ordinal of its start delta, the next one must continue from it
+    delta = myData.startSession(UUID.randomUUID());
+    assertNotNull(delta);
+    assertEquals(2, delta.getOrdinal());
+    assertEquals(0, delta.getChangedPathsCount());
+    assertEquals(0, delta.getDeletedPathsCount());
+  }
+
+  public void testAcknowledgedEventsAreNotResent() {
+    UUID sessionId = UUID.randomUUID();
+    CmdlineRemoteProto.Message.ControllerMessage.FSEvent delta = myData.startSession(sessionId);
+    assertNotNull(delta);
+    assertEquals(1, delta.getOrdinal());
+
+    myData.addChanged(Collections.singletonList("/a"));
+    assertEquals(2, myData.createSessionEvent().getOrdinal());
+    myData.addChanged(Collections.singletonList("/b"));
+    assertEquals(3, myData.createSessionEvent().getOrdinal());
+    myData.addDeleted(Collections.singletonList("/c"));
+    assertEquals(4, myData.createSessionEvent().getOrdinal());
+    myData.sessionEventApplied(sessionId, 2);
+    // acknowledgements from another session are ignored
+    myData.sessionEventApplied(UUID.randomUUID(), 4);
+    // changed after the session has finished
+    myData.addChanged(Collections.singletonList("/c"));
+    myData.finishSession();
+
+    delta = myData.startSession(UUID.randomUUID());
+    assertNotNull(delta);
+    assertEquals(3, delta.getOrdinal());
+    assertEquals(new HashSet<String>(Arrays.asList("/b", "/c")), new HashSet<String>(delta.getChangedPathsList()));
+    assertEquals(0, delta.getDeletedPathsCount());
+  }
+
+  public void testRebuildDropsSessionEvents() {
+    myData.startSession(UUID.randomUUID());
+    myData.addChanged(Collections.singletonList("/a"));
+    myData.createSessionEvent();
+    myData.dropChanges();
+    myData.finishSession();
+
+    assertNull(myData.startSession(UUID.randomUUID()));
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.formatter.java;
+
+import com.intellij.codeInsight.actions.ReformatCodeProcessor;
+import com.intellij.formatting.FormatTextRanges;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.codeStyle.CodeStyleManager;
+import com.intellij.psi.codeStyle.CodeStyleSettingsManager;
+import com.intellij.psi.impl.source.codeStyle.CodeFormatterFacade;
+import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Checks that formatting several files at once, which formats them in advance and then applies the prepared changes, gives the
+ * same result as formatting them one by one.
+ */
+public class JavaFormatterMultipleFilesTest extends LightCodeInsightFixtureTestCase {
+  private static final String[] TEXTS = {
+    "class A{int a;void foo(){if(a>0){a--;}}}",
+    "class B  {\n" + "  void bar( int x ,int y ) {\n" + "        int z=x+y;\n" + "  }\n" + "}",
+    "class C{\n" + "String s=\"\";\n" + "C(){s=s+\"c\";}\n" + "}",
+    "interface D{void run ( ) ;}"
+  };
+
+  public void testReformatSeveralFilesGivesSameResultAsSequential() {
+    PsiFile[] files = new PsiFile[TEXTS.length];
+    PsiFile[] sequentialFiles = new PsiFile[TEXTS.length];
+    for (int i = 0; i < TEXTS.length; i++) {
+      files[i] = myFixture.addFileToProject("multiple/File" + i + ".java", TEXTS[i]);
+      sequentialFiles[i] = myFixture.addFileToProject("sequential/File" + i + ".java", TEXTS[i]);
+    }
+
+    new ReformatCodeProcessor(getProject(), files, null, false).run();
+    for (PsiFile file : sequentialFiles) {
+      new ReformatCodeProcessor(getProject(), file, null, false).run();
+    }
+
+    for (int i = 0; i < TEXTS.length; i++) {
+      assertFalse(TEXTS[i].equals(sequentialFiles[i].getText()));
+      assertEquals(sequentialFiles[i].getText(), files[i].getText());
+    }
+  }
+
+  public void testPreparedChangesAreApplied() {
+    PsiFile file = myFixture.addFileToProject("prepared/B.java", TEXTS[1]);
+    CodeFormatterFacade codeFormatter = new CodeFormatterFacade(CodeStyleSettingsManager.getSettings(getProject()));
+    CodeFormatterFacade.PreparedChanges changes = codeFormatter.prepareText(file, new FormatTextRanges(file.getTextRange(), true));
+    assertNotNull(changes);
+    assertEquals(TEXTS[1], file.getText());
+
+    file.putUserData(CodeFormatterFacade.PREPARED_CHANGES_KEY, changes);
+    try {
+      reformat(file);
+      // applied changes are removed from the file
+      assertNull(file.getUserData(CodeFormatterFacade.PREPARED_CHANGES_KEY));
+    }
+    finally {
+      file.putUserData(CodeFormatterFacade.PREPARED_CHANGES_KEY, null);
+    }
+
+    PsiFile expected = myFixture.addFileToProject("expected/B.java", TEXTS[1]);
+    reformat(expected);
+    assertFalse(TEXTS[1].equals(file.getText()));
+    assertEquals(expected.getText(), file.getText());
+  }
+
+  public void testPreparedChangesAreNotAppliedAfterDocumentChange() {
+    final PsiFile file = myFixture.addFileToProject("stale/A.java", TEXTS[0]);
+    CodeFormatterFacade codeFormatter = new CodeFormatterFacade(CodeStyleSettingsManager.getSettings(getProject()));
+    CodeFormatterFacade.PreparedChanges changes = codeFormatter.prepareText(file, new FormatTextRanges(file.getTextRange(), true));
+    assertNotNull(changes);
+
+    final Document document = PsiDocumentManager.getInstance(getProject()).getDocument(file);
+    assertNotNull(document);
+    final String prefix = "import java.util.List;class E{}\n";
+    new WriteCommandAction.Simple(getProject()) {
+      @Override
+      protected void run() throws Throwable {
+        document.insertString(0, prefix);
+        PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+      }
+    }.execute();
+
+    file.putUserData(CodeFormatterFacade.PREPARED_CHANGES_KEY, changes);
+    try {
+      reformat(file);
+      assertSame(changes, file.getUserData(CodeFormatterFacade.PREPARED_CHANGES_KEY));
+    }
+    finally {
+      file.putUserData(CodeFormatterFacade.PREPARED_CHANGES_KEY, null);
+    }
+
+    PsiFile expected = myFixture.addFileToProject("expected/A.java", prefix + TEXTS[0]);
+    reformat(expected);
+    assertEquals(expected.getText(), file.getText());
+  }
+
+  private void reformat(@NotNull final PsiFile file) {
+    new WriteCommandAction.Simple(getProject()) {
+      @Override
+      protected void run() throws Throwable {
+        CodeStyleManager.getInstance(getProject()).reformatText(file, 0, file.getTextLength());
+      }
+    }.execute();
+  }
+}
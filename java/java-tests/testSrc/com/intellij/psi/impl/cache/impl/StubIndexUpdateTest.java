@@ -0,0 +1,84 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.impl.cache.impl;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiNamedElement;
+import com.intellij.psi.impl.java.stubs.index.JavaFieldNameIndex;
+import com.intellij.psi.impl.java.stubs.index.JavaMethodNameIndex;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+
+/**
+ * Checks that stub indices are correct after an edit which only writes the keys whose stubs have changed.
+ */
+public class StubIndexUpdateTest extends LightCodeInsightFixtureTestCase {
+  public void testEditAddsKeepsAndRemovesKeys() throws Exception {
+    final PsiFile file = myFixture.addFileToProject("a/A.java", "class A {\n" +
+                                                                "  int count;\n" +
+                                                                "  void kept() {}\n" +
+                                                                "  void removed() {}\n" +
+                                                                "}");
+    assertMethods("kept", 1);
+    assertMethods("removed", 1);
+    assertMethods("added", 0);
+    assertFields("count", 1);
+
+    // the new method precedes the kept one, so the stub id of the kept method changes as well
+    new WriteCommandAction.Simple(getProject()) {
+      @Override
+      protected void run() throws Throwable {
+        VfsUtil.saveText(file.getVirtualFile(), "class A {\n" +
+                                                "  int count;\n" +
+                                                "  void added() {}\n" +
+                                                "  void kept() {}\n" +
+                                                "  void kept(int i) {}\n" +
+                                                "}");
+      }
+    }.execute();
+
+    assertMethods("kept", 2);
+    assertMethods("removed", 0);
+    assertMethods("added", 1);
+    assertFields("count", 1);
+  }
+
+  private void assertMethods(@NotNull String name, int count) {
+    Collection<PsiMethod> methods = JavaMethodNameIndex.getInstance().get(name, getProject(), GlobalSearchScope.allScope(getProject()));
+    assertNamed(name, count, methods);
+  }
+
+  private void assertFields(@NotNull String name, int count) {
+    Collection<PsiField> fields = JavaFieldNameIndex.getInstance().get(name, getProject(), GlobalSearchScope.allScope(getProject()));
+    assertNamed(name, count, fields);
+  }
+
+  private static void assertNamed(@NotNull String name, int count, @NotNull Collection<? extends PsiElement> elements) {
+    assertEquals(elements.toString(), count, elements.size());
+    for (PsiElement element : elements) {
+      // a stale stub id would resolve to a different member of the file
+      assertEquals(name, ((PsiNamedElement)element).getName());
+    }
+  }
+}
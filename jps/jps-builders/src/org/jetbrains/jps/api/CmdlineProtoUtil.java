@@ -33,6 +33,8 @@ import static org.jetbrains.jps.api.CmdlineRemoteProto.Message.ControllerMessage
  *         Date: 4/17/12
  */
 public class CmdlineProtoUtil {
+  private static final String FS_EVENT_APPLIED_BUILDER_ID = "jps";
+  private static final String FS_EVENT_APPLIED_MESSAGE_TYPE = "fs-event-applied";
 
   public static CmdlineRemoteProto.Message.ControllerMessage createUpToDateCheckRequest(String project,
                                                                                         List<TargetTypeBuildScope> scopes,
@@ -200,6 +202,34 @@ public class CmdlineProtoUtil {
     return createBuildEvent(BuilderMessage.BuildEvent.Type.CUSTOM_BUILDER_MESSAGE, null, null, null, builderMessage);
   }
 
+  /**
+   * Acknowledges that the changes from the FS event will be saved with the build process file system state, so the controller
+   * doesn't need to pass the event to the next build session
+   */
+  public static BuilderMessage createFSEventAppliedMessage(long ordinal) {
+    return createCustomBuilderMessage(FS_EVENT_APPLIED_BUILDER_ID, FS_EVENT_APPLIED_MESSAGE_TYPE, String.valueOf(ordinal));
+  }
+
+  /**
+   * @return ordinal of the acknowledged FS event or {@code -1} if the message isn't an acknowledgement
+   * @see #createFSEventAppliedMessage(long)
+   */
+  public static long getAppliedFSEventOrdinal(BuilderMessage message) {
+    if (message.getType() != BuilderMessage.Type.BUILD_EVENT) {
+      return -1L;
+    }
+    final BuilderMessage.BuildEvent event = message.getBuildEvent();
+    if (event.getEventType() != BuilderMessage.BuildEvent.Type.CUSTOM_BUILDER_MESSAGE || !event.hasCustomBuilderMessage()) {
+      return -1L;
+    }
+    final BuilderMessage.BuildEvent.CustomBuilderMessage customMessage = event.getCustomBuilderMessage();
+    if (!FS_EVENT_APPLIED_BUILDER_ID.equals(customMessage.getBuilderId()) ||
+        !FS_EVENT_APPLIED_MESSAGE_TYPE.equals(customMessage.getMessageType())) {
+      return -1L;
+    }
+    return Long.parseLong(customMessage.getMessageText());
+  }
+
   public static BuilderMessage createBuildCompletedEvent(@Nullable String description, final BuilderMessage.BuildEvent.Status status) {
     return createBuildEvent(BuilderMessage.BuildEvent.Type.BUILD_COMPLETED, description, status, null, null);
   }
@@ -17,6 +17,7 @@ package org.jetbrains.jps.builders.java.dependencyView;
 
 import com.intellij.openapi.util.Pair;
 import gnu.trove.TIntHashSet;
+import gnu.trove.TObjectIntHashMap;
 import org.jetbrains.asm4.*;
 import org.jetbrains.asm4.signature.SignatureReader;
 import org.jetbrains.asm4.signature.SignatureVisitor;
@@ -30,12 +31,33 @@ import java.util.*;
  */
 
 class ClassfileAnalyzer {
+  private static final int MAX_CACHED_NAMES = 20000;
   private final DependencyContext myContext;
+  /**
+   * Owner, member and descriptor names repeat a lot among classes of the same compilation, so when the analyzer is reused for several
+   * classes the ids are taken from this map instead of the persistent enumerator
+   */
+  private final TObjectIntHashMap<String> myNameIds = new TObjectIntHashMap<String>();
 
   ClassfileAnalyzer(DependencyContext context) {
     this.myContext = context;
   }
 
+  private int getName(final String name) {
+    if (name == null) {
+      return myContext.get(null);
+    }
+    int id = myNameIds.get(name);
+    if (id == 0) {
+      id = myContext.get(name);
+      if (myNameIds.size() >= MAX_CACHED_NAMES) {
+        myNameIds.clear();
+      }
+      myNameIds.put(name, id);
+    }
+    return id;
+  }
+
   private static class Holder<T> {
     private T x = null;
 
@@ -163,13 +185,13 @@ class ClassfileAnalyzer {
 
       public void visit(String name, Object value) {
         final String methodDescr = getMethodDescr(value);
-        final int methodName = myContext.get(name);
+        final int methodName = getName(name);
 
         if (value instanceof Type) {
           final String className = ((Type)value).getClassName().replace('.', '/');
 
           if (className != null) {
-            myUsages.add(UsageRepr.createClassUsage(myContext, myContext.get(className)));
+            myUsages.add(UsageRepr.createClassUsage(myContext, getName(className)));
           }
         }
 
@@ -180,7 +202,7 @@ class ClassfileAnalyzer {
       }
 
       public void visitEnum(String name, String desc, String value) {
-        final int methodName = myContext.get(name);
+        final int methodName = getName(name);
         final String methodDescr = "()" + desc;
 
         myUsages.add(UsageRepr.createMethodUsage(myContext, methodName, myType.className, methodDescr));
@@ -190,11 +212,11 @@ class ClassfileAnalyzer {
       }
 
       public AnnotationVisitor visitAnnotation(String name, String desc) {
-        return new AnnotationCrawler((TypeRepr.ClassType)TypeRepr.getType(myContext, myContext.get(desc)), myTarget);
+        return new AnnotationCrawler((TypeRepr.ClassType)TypeRepr.getType(myContext, getName(desc)), myTarget);
       }
 
       public AnnotationVisitor visitArray(String name) {
-        myUsedArguments.add(myContext.get(name));
+        myUsedArguments.add(getName(name));
         return this;
       }
 
@@ -277,7 +299,7 @@ class ClassfileAnalyzer {
       }
 
       public void visitClassType(String name) {
-        final int className = myContext.get(name);
+        final int className = getName(name);
         myUsages.add(UsageRepr.createClassUsage(myContext, className));
         myUsages.add(UsageRepr.createClassAsGenericBoundUsage(myContext, className));
       }
@@ -323,7 +345,7 @@ class ClassfileAnalyzer {
     public Pair<ClassRepr, Set<UsageRepr.Usage>> getResult() {
       final ClassRepr repr =
         myTakeIntoAccount ? new ClassRepr(
-          myContext, myAccess, myFileName, myName, myContext.get(mySignature), myContext.get(mySuperClass), myInterfaces,
+          myContext, myAccess, myFileName, myName, getName(mySignature), getName(mySuperClass), myInterfaces,
           myFields,
           myMethods, myTargets, myRetentionPolicy, myContext
           .get(myOuterClassName.get()), myLocalClassFlag.get(), myAnonymousClassFlag.get(), myUsages) : null;
@@ -340,7 +362,7 @@ class ClassfileAnalyzer {
       myTakeIntoAccount = notPrivate(a);
 
       myAccess = a;
-      myName = myContext.get(n);
+      myName = getName(n);
       mySignature = sig;
       mySuperClass = s;
       myInterfaces = i;
@@ -348,14 +370,14 @@ class ClassfileAnalyzer {
       myClassNameHolder.set(n);
 
       if (mySuperClass != null) {
-        final int superclassName = myContext.get(mySuperClass);
+        final int superclassName = getName(mySuperClass);
         myUsages.add(UsageRepr.createClassUsage(myContext, superclassName));
         //myUsages.add(UsageRepr.createClassExtendsUsage(myContext, superclassName));
       }
 
       if (myInterfaces != null) {
         for (String it : myInterfaces) {
-          final int interfaceName = myContext.get(it);
+          final int interfaceName = getName(it);
           myUsages.add(UsageRepr.createClassUsage(myContext, interfaceName));
           //myUsages.add(UsageRepr.createClassExtendsUsage(myContext, interfaceName));
         }
@@ -386,7 +408,7 @@ class ClassfileAnalyzer {
       }
 
       return new AnnotationCrawler(
-        (TypeRepr.ClassType)TypeRepr.getType(myContext, myContext.get(desc)),
+        (TypeRepr.ClassType)TypeRepr.getType(myContext, getName(desc)),
         (myAccess & Opcodes.ACC_ANNOTATION) > 0 ? ElemType.ANNOTATION_TYPE : ElemType.TYPE
       );
     }
@@ -400,13 +422,13 @@ class ClassfileAnalyzer {
       processSignature(signature);
 
       if ((access & Opcodes.ACC_SYNTHETIC) == 0) {
-        myFields.add(new FieldRepr(myContext, access, myContext.get(n), myContext.get(desc), myContext.get(signature), value));
+        myFields.add(new FieldRepr(myContext, access, getName(n), getName(desc), getName(signature), value));
       }
 
       return new FieldVisitor(Opcodes.ASM4) {
         @Override
         public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
-          return new AnnotationCrawler((TypeRepr.ClassType)TypeRepr.getType(myContext, myContext.get(desc)), ElemType.FIELD);
+          return new AnnotationCrawler((TypeRepr.ClassType)TypeRepr.getType(myContext, getName(desc)), ElemType.FIELD);
         }
       };
     }
@@ -421,14 +443,14 @@ class ClassfileAnalyzer {
         @Override
         public void visitEnd() {
           if ((access & Opcodes.ACC_SYNTHETIC) == 0 || (access & Opcodes.ACC_BRIDGE) > 0) {
-            myMethods.add(new MethodRepr(myContext, access, myContext.get(n), myContext.get(signature), desc, exceptions, defaultValue.get()));
+            myMethods.add(new MethodRepr(myContext, access, getName(n), getName(signature), desc, exceptions, defaultValue.get()));
           }
         }
 
         @Override
         public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
           return new AnnotationCrawler(
-            (TypeRepr.ClassType)TypeRepr.getType(myContext, myContext.get(desc)), "<init>".equals(n) ? ElemType.CONSTRUCTOR : ElemType.METHOD
+            (TypeRepr.ClassType)TypeRepr.getType(myContext, getName(desc)), "<init>".equals(n) ? ElemType.CONSTRUCTOR : ElemType.METHOD
           );
         }
 
@@ -443,13 +465,13 @@ class ClassfileAnalyzer {
 
         @Override
         public AnnotationVisitor visitParameterAnnotation(int parameter, String desc, boolean visible) {
-          return new AnnotationCrawler((TypeRepr.ClassType)TypeRepr.getType(myContext, myContext.get(desc)), ElemType.PARAMETER);
+          return new AnnotationCrawler((TypeRepr.ClassType)TypeRepr.getType(myContext, getName(desc)), ElemType.PARAMETER);
         }
 
         @Override
         public void visitLdcInsn(Object cst) {
           if (cst instanceof Type) {
-            myUsages.add(UsageRepr.createClassUsage(myContext, myContext.get(((Type)cst).getInternalName())));
+            myUsages.add(UsageRepr.createClassUsage(myContext, getName(((Type)cst).getInternalName())));
           }
 
           super.visitLdcInsn(cst);
@@ -457,7 +479,7 @@ class ClassfileAnalyzer {
 
         @Override
         public void visitMultiANewArrayInsn(String desc, int dims) {
-          final TypeRepr.ArrayType typ = (TypeRepr.ArrayType)TypeRepr.getType(myContext, myContext.get(desc));
+          final TypeRepr.ArrayType typ = (TypeRepr.ArrayType)TypeRepr.getType(myContext, getName(desc));
           final TypeRepr.AbstractType element = typ.getDeepElementType();
 
           if (element instanceof TypeRepr.ClassType) {
@@ -474,14 +496,14 @@ class ClassfileAnalyzer {
         @Override
         public void visitLocalVariable(String n, String desc, String signature, Label start, Label end, int index) {
           processSignature(signature);
-          TypeRepr.getType(myContext, myContext.get(desc)).updateClassUsages(myContext, myName, myUsages);
+          TypeRepr.getType(myContext, getName(desc)).updateClassUsages(myContext, myName, myUsages);
           super.visitLocalVariable(n, desc, signature, start, end, index);
         }
 
         @Override
         public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
           if (type != null) {
-            TypeRepr.createClassType(myContext, myContext.get(type)).updateClassUsages(myContext, myName, myUsages);
+            TypeRepr.createClassType(myContext, getName(type)).updateClassUsages(myContext, myName, myUsages);
           }
 
           super.visitTryCatchBlock(start, end, handler, type);
@@ -489,8 +511,8 @@ class ClassfileAnalyzer {
 
         @Override
         public void visitTypeInsn(int opcode, String type) {
-          final TypeRepr.AbstractType typ = type.startsWith("[") ? TypeRepr.getType(myContext, myContext.get(type)) : TypeRepr.createClassType(
-            myContext, myContext.get(type));
+          final TypeRepr.AbstractType typ = type.startsWith("[") ? TypeRepr.getType(myContext, getName(type)) : TypeRepr.createClassType(
+            myContext, getName(type));
 
           if (opcode == Opcodes.NEW) {
             myUsages.add(UsageRepr.createClassUsage(myContext, ((TypeRepr.ClassType)typ).className));
@@ -510,9 +532,9 @@ class ClassfileAnalyzer {
 
         @Override
         public void visitFieldInsn(int opcode, String owner, String name, String desc) {
-          final int fieldName = myContext.get(name);
-          final int fieldOwner = myContext.get(owner);
-          final int descr = myContext.get(desc);
+          final int fieldName = getName(name);
+          final int fieldOwner = getName(owner);
+          final int descr = getName(desc);
 
           if (opcode == Opcodes.PUTFIELD || opcode == Opcodes.PUTSTATIC) {
             myUsages.add(UsageRepr.createFieldAssignUsage(myContext, fieldName, fieldOwner, descr));
@@ -528,8 +550,8 @@ class ClassfileAnalyzer {
 
         @Override
         public void visitMethodInsn(int opcode, String owner, String name, String desc) {
-          final int methodName = myContext.get(name);
-          final int methodOwner = myContext.get(owner);
+          final int methodName = getName(name);
+          final int methodOwner = getName(owner);
 
           myUsages.add(UsageRepr.createMethodUsage(myContext, methodName, methodOwner, desc));
           myUsages.add(UsageRepr.createMetaMethodUsage(myContext, methodName, methodOwner, desc));
@@ -580,7 +602,8 @@ class ClassfileAnalyzer {
   public Pair<ClassRepr, Set<UsageRepr.Usage>> analyze(final int fileName, final ClassReader cr) {
     final ClassCrawler visitor = new ClassCrawler(fileName);
 
-    cr.accept(visitor, 0);
+    // stack map frames are not needed for dependency analysis, skipping them saves decoding and allocations
+    cr.accept(visitor, ClassReader.SKIP_FRAMES);
 
     return visitor.getResult();
   }
@@ -38,31 +38,39 @@ class DependencyContext {
   private final int myEmptyName;
 
   UsageRepr.Usage getUsage(final UsageRepr.Usage u) {
-     final UsageRepr.Usage r = myUsageMap.get(u);
+    synchronized (myUsageMap) {
+      final UsageRepr.Usage r = myUsageMap.get(u);
 
-     if (r == null) {
-       myUsageMap.put(u, u);
-       return u;
-     }
+      if (r == null) {
+        myUsageMap.put(u, u);
+        return u;
+      }
 
-     return r;
-   }
+      return r;
+    }
+  }
 
   TypeRepr.AbstractType getType(final TypeRepr.AbstractType t) {
-    final TypeRepr.AbstractType r = myTypeMap.get(t);
+    synchronized (myTypeMap) {
+      final TypeRepr.AbstractType r = myTypeMap.get(t);
 
-    if (r != null) {
-      return r;
-    }
+      if (r != null) {
+        return r;
+      }
 
-    myTypeMap.put(t, t);
+      myTypeMap.put(t, t);
 
-    return t;
+      return t;
+    }
   }
 
   void clearMemoryCaches() {
-    myTypeMap.clear();
-    myUsageMap.clear();
+    synchronized (myTypeMap) {
+      myTypeMap.clear();
+    }
+    synchronized (myUsageMap) {
+      myUsageMap.clear();
+    }
   }
 
   static File getTableFile (final File rootDir, final String name) {
@@ -67,7 +67,17 @@ class IntIntPersistentMultiMaplet extends IntIntMultiMaplet {
 
   @Override
   public TIntHashSet get(final int key) {
-    final TIntHashSet collection = myCache.get(key);
+    TIntHashSet collection;
+    synchronized (myCache) {
+      collection = myCache.getIfCached(key);
+    }
+    if (collection == null) {
+      // the map is synchronized itself, load outside of the cache lock so that concurrent readers don't wait for each other's I/O
+      collection = myCache.createValue(key);
+      synchronized (myCache) {
+        myCache.put(key, collection);
+      }
+    }
     return collection == NULL_COLLECTION? null : collection;
   }
 
@@ -71,7 +71,16 @@ public class IntObjectPersistentMaplet<V> extends IntObjectMaplet<V>{
 
   @Override
   public V get(final int key) {
-    final Object obj = myCache.get(key);
+    Object obj;
+    synchronized (myCache) {
+      obj = myCache.getIfCached(key);
+    }
+    if (obj == null) {
+      obj = myCache.createValue(key);
+      synchronized (myCache) {
+        myCache.put(key, obj);
+      }
+    }
     return obj == NULL_OBJ? null : (V)obj;
   }
 
@@ -26,6 +26,7 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.asm4.ClassReader;
 import org.jetbrains.asm4.Opcodes;
 import org.jetbrains.jps.incremental.storage.FileKeyDescriptor;
+import org.jetbrains.jps.service.SharedThreadPool;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -33,6 +34,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.annotation.RetentionPolicy;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -50,6 +52,8 @@ public class Mappings {
   private static final IntInlineKeyDescriptor INT_KEY_DESCRIPTOR = new IntInlineKeyDescriptor();
   private static final int DEFAULT_SET_CAPACITY = 32;
   private static final float DEFAULT_SET_LOAD_FACTOR = 0.98f;
+  private static final boolean ourParallelDifferentiate = Boolean.parseBoolean(System.getProperty("jps.parallel.differentiate", "true"));
+  private static final int PARALLEL_DIFFERENTIATE_THRESHOLD = 64;
   private static final CollectionFactory<ClassRepr> ourClassSetConstructor = new CollectionFactory<ClassRepr>() {
     public Set<ClassRepr> create() {
       return new HashSet<ClassRepr>(DEFAULT_SET_CAPACITY, DEFAULT_SET_LOAD_FACTOR);
@@ -1818,63 +1822,109 @@ public class Mappings {
     private void calculateAffectedFiles(final DiffState state) {
       debug("Checking dependent classes:");
 
-      state.myDependants.forEach(new TIntProcedure() {
-        @Override
-        public boolean execute(final int depClass) {
-          final File depFile = myClassToSourceFile.get(depClass);
-
-          if (depFile == null || myAffectedFiles.contains(depFile) || myCompiledFiles.contains(depFile)) {
-            return true;
+      final int[] dependants = state.myDependants.toArray();
+      if (dependants.length < PARALLEL_DIFFERENTIATE_THRESHOLD || !ourParallelDifferentiate) {
+        for (int depClass : dependants) {
+          final File depFile = getAffectedDependantFile(state, depClass);
+          if (depFile != null) {
+            myAffectedFiles.add(depFile);
           }
+        }
+        return;
+      }
 
-          debug("Dependent class: ", depClass);
+      // dependants are checked concurrently, the storages are only read at this stage and the affected files are merged
+      // in the order of dependants afterwards, so the result is the same as in the sequential case
+      final File[] affected = new File[dependants.length];
+      final int tasksCount = Math.min(Runtime.getRuntime().availableProcessors(), dependants.length / PARALLEL_DIFFERENTIATE_THRESHOLD + 1);
+      final int taskSize = (dependants.length + tasksCount - 1) / tasksCount;
+      final List<Future<?>> futures = new ArrayList<Future<?>>(tasksCount);
+      for (int taskStart = 0; taskStart < dependants.length; taskStart += taskSize) {
+        final int from = taskStart;
+        final int to = Math.min(taskStart + taskSize, dependants.length);
+        futures.add(SharedThreadPool.getInstance().executeOnPooledThread(new Runnable() {
+          @Override
+          public void run() {
+            for (int i = from; i < to; i++) {
+              affected[i] = getAffectedDependantFile(state, dependants[i]);
+            }
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+          final Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+          if (cause instanceof Error) throw (Error)cause;
+          throw new RuntimeException(cause);
+        }
+      }
 
-          final ClassRepr classRepr = getReprByName(depFile, depClass);
+      for (File depFile : affected) {
+        if (depFile != null) {
+          myAffectedFiles.add(depFile);
+        }
+      }
+    }
 
-          if (classRepr == null) {
-            return true;
-          }
+    /**
+     * @return source file of the dependent class if it is affected by the changes, {@code null} otherwise. Doesn't modify any state,
+     * may be called concurrently.
+     */
+    @Nullable
+    private File getAffectedDependantFile(final DiffState state, final int depClass) {
+      final File depFile = myClassToSourceFile.get(depClass);
 
-          final Set<UsageRepr.Usage> depUsages = classRepr.getUsages();
+      if (depFile == null || myAffectedFiles.contains(depFile) || myCompiledFiles.contains(depFile)) {
+        return null;
+      }
 
-          if (depUsages == null || depUsages.isEmpty()) {
-            return true;
-          }
+      debug("Dependent class: ", depClass);
 
-          for (UsageRepr.Usage usage : depUsages) {
-            if (usage instanceof UsageRepr.AnnotationUsage) {
-              for (final UsageRepr.AnnotationUsage query : state.myAnnotationQuery) {
-                if (query.satisfies(usage)) {
-                  debug("Added file due to annotation query");
-                  myAffectedFiles.add(depFile);
+      final ClassRepr classRepr = getReprByName(depFile, depClass);
 
-                  return true;
-                }
-              }
-            }
-            else if (state.myAffectedUsages.contains(usage)) {
-              final Util.UsageConstraint constraint = state.myUsageConstraints.get(usage);
+      if (classRepr == null) {
+        return null;
+      }
 
-              if (constraint == null) {
-                debug("Added file with no constraints");
-                myAffectedFiles.add(depFile);
+      final Set<UsageRepr.Usage> depUsages = classRepr.getUsages();
 
-                return true;
-              }
-              else {
-                if (constraint.checkResidence(depClass)) {
-                  debug("Added file with satisfied constraint");
-                  myAffectedFiles.add(depFile);
+      if (depUsages == null || depUsages.isEmpty()) {
+        return null;
+      }
 
-                  return true;
-                }
-              }
+      for (UsageRepr.Usage usage : depUsages) {
+        if (usage instanceof UsageRepr.AnnotationUsage) {
+          for (final UsageRepr.AnnotationUsage query : state.myAnnotationQuery) {
+            if (query.satisfies(usage)) {
+              debug("Added file due to annotation query");
+              return depFile;
             }
           }
+        }
+        else if (state.myAffectedUsages.contains(usage)) {
+          final Util.UsageConstraint constraint = state.myUsageConstraints.get(usage);
 
-          return true;
+          if (constraint == null) {
+            debug("Added file with no constraints");
+            return depFile;
+          }
+          else {
+            if (constraint.checkResidence(depClass)) {
+              debug("Added file with satisfied constraint");
+              return depFile;
+            }
+          }
         }
-      });
+      }
+
+      return null;
     }
 
     boolean differentiate() {
@@ -2139,11 +2189,12 @@ public class Mappings {
   }
 
   public Callbacks.Backend getCallback() {
+    final ClassfileAnalyzer analyzer = new ClassfileAnalyzer(myContext);
     return new Callbacks.Backend() {
       public void associate(final String classFileName, final String sourceFileName, final ClassReader cr) {
         synchronized (myLock) {
           final int classFileNameS = myContext.get(classFileName);
-          final Pair<ClassRepr, Set<UsageRepr.Usage>> result = new ClassfileAnalyzer(myContext).analyze(classFileNameS, cr);
+          final Pair<ClassRepr, Set<UsageRepr.Usage>> result = analyzer.analyze(classFileNameS, cr);
           final ClassRepr repr = result.first;
           if (repr != null) {
             final Set<UsageRepr.Usage> localUsages = result.second;
@@ -72,7 +72,16 @@ public class ObjectObjectPersistentMultiMaplet<K, V extends Streamable> extends
 
   @Override
   public Collection<V> get(final K key) {
-    final Collection<V> collection = myCache.get(key);
+    Collection<V> collection;
+    synchronized (myCache) {
+      collection = myCache.getIfCached(key);
+    }
+    if (collection == null) {
+      collection = myCache.createValue(key);
+      synchronized (myCache) {
+        myCache.put(key, collection);
+      }
+    }
     return collection == NULL_COLLECTION? null : collection;
   }
 
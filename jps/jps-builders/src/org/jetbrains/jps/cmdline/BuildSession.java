@@ -31,6 +31,7 @@ import org.jetbrains.jps.api.*;
 import org.jetbrains.jps.builders.*;
 import org.jetbrains.jps.builders.java.JavaModuleBuildTargetType;
 import org.jetbrains.jps.builders.java.dependencyView.Callbacks;
+import org.jetbrains.jps.incremental.FSOperations;
 import org.jetbrains.jps.incremental.MessageHandler;
 import org.jetbrains.jps.incremental.TargetTypeRegistry;
 import org.jetbrains.jps.incremental.Utils;
@@ -66,7 +67,11 @@ final class BuildSession implements Runnable, CanceledStatus {
   private CmdlineRemoteProto.Message.ControllerMessage.FSEvent myInitialFSDelta;
   // state
   private final EventsProcessor myEventsProcessor = new EventsProcessor();
+  // ordinal of the last event whose changes will be saved with the FS state; the controller passes events
+  // which were not acknowledged by the session to the next session again
   private volatile long myLastEventOrdinal;
+  private final Object myFSStateLock = new Object();
+  private boolean myFSStateSaved = false;
   private volatile ProjectDescriptor myProjectDescriptor;
   private final Map<Pair<String, String>, ConstantSearchFuture> mySearchTasks = Collections.synchronizedMap(new HashMap<Pair<String, String>, ConstantSearchFuture>());
   private final ConstantSearch myConstantSearch = new ConstantSearch();
@@ -252,7 +257,11 @@ final class BuildSession implements Runnable, CanceledStatus {
   private void saveData(final BuildFSState fsState, File dataStorageRoot) {
     final boolean wasInterrupted = Thread.interrupted();
     try {
-      saveFsState(dataStorageRoot, fsState);
+      synchronized (myFSStateLock) {
+        // events arriving after this point won't be acknowledged
+        myFSStateSaved = true;
+        saveFsState(dataStorageRoot, fsState);
+      }
       final ProjectDescriptor pd = myProjectDescriptor;
       if (pd != null) {
         pd.release();
@@ -270,8 +279,14 @@ final class BuildSession implements Runnable, CanceledStatus {
       @Override
       public void run() {
         try {
-          applyFSEvent(myProjectDescriptor, event, true);
-          myLastEventOrdinal += 1;
+          synchronized (myFSStateLock) {
+            if (myFSStateSaved) {
+              return;
+            }
+            applyFSEvent(myProjectDescriptor, event, true);
+            myLastEventOrdinal = event.getOrdinal();
+          }
+          Channels.write(myChannel, CmdlineProtoUtil.toMessage(mySessionId, CmdlineProtoUtil.createFSEventAppliedMessage(event.getOrdinal())));
         }
         catch (IOException e) {
           LOG.error(e);
@@ -299,7 +314,7 @@ final class BuildSession implements Runnable, CanceledStatus {
     }
   }
 
-  private static void applyFSEvent(ProjectDescriptor pd, @Nullable CmdlineRemoteProto.Message.ControllerMessage.FSEvent event,
+  static void applyFSEvent(ProjectDescriptor pd, @Nullable CmdlineRemoteProto.Message.ControllerMessage.FSEvent event,
                                    final boolean saveEventStamp) throws IOException {
     if (event == null) {
       return;
@@ -307,6 +322,7 @@ final class BuildSession implements Runnable, CanceledStatus {
 
     final Timestamps timestamps = pd.timestamps.getStorage();
     boolean cacheCleared = false;
+    final List<FSOperations.ChangedStampFile> changedStampFiles = new ArrayList<FSOperations.ChangedStampFile>();
     for (String deleted : event.getDeletedPathsList()) {
       final File file = new File(deleted);
       Collection<BuildRootDescriptor> descriptor = pd.getBuildRootIndex().findAllParentDescriptors(file, null, null);
@@ -347,7 +363,12 @@ final class BuildSession implements Runnable, CanceledStatus {
                 pd.getFSCache().clear();
                 cacheCleared = true;
               }
-              pd.fsState.markDirty(null, file, descriptor, timestamps, saveEventStamp);
+              if (FSOperations.shouldCheckContentDigest(descriptor, stamp)) {
+                changedStampFiles.add(new FSOperations.ChangedStampFile(file, descriptor, fileStamp));
+              }
+              else {
+                pd.fsState.markDirty(null, file, descriptor, timestamps, saveEventStamp);
+              }
             }
             else {
               if (LOG.isDebugEnabled()) {
@@ -363,6 +384,9 @@ final class BuildSession implements Runnable, CanceledStatus {
         }
       }
     }
+    if (!changedStampFiles.isEmpty()) {
+      FSOperations.markDirtyIfContentChanged(null, pd, timestamps, changedStampFiles, saveEventStamp);
+    }
   }
 
   private static void updateFsStateOnDisk(File dataStorageRoot, DataInputStream original, final long ordinal) {
@@ -473,6 +497,8 @@ final class BuildSession implements Runnable, CanceledStatus {
       }
       final long savedOrdinal = in.readLong();
       if (savedOrdinal + 1L != myInitialFSDelta.getOrdinal()) {
+        LOG.info("Some file system events were missed (saved event ordinal " + savedOrdinal + ", current " +
+                 myInitialFSDelta.getOrdinal() + "), file system will be rescanned");
         return null;
       }
       return in;
@@ -29,6 +29,7 @@ import org.jetbrains.jps.builders.impl.BuildTargetChunk;
 import org.jetbrains.jps.builders.java.JavaBuilderUtil;
 import org.jetbrains.jps.builders.java.JavaSourceRootDescriptor;
 import org.jetbrains.jps.cmdline.ProjectDescriptor;
+import org.jetbrains.jps.incremental.storage.FileDigestStorage;
 import org.jetbrains.jps.incremental.storage.Timestamps;
 import org.jetbrains.jps.model.java.JpsJavaClasspathKind;
 import org.jetbrains.jps.model.java.JpsJavaExtensionService;
@@ -37,8 +38,7 @@ import org.jetbrains.jps.model.module.JpsModule;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
 
 /**
  * @author Eugene Zhuravlev
@@ -142,6 +142,9 @@ public class FSOperations {
                              boolean forceMarkDirty,
                              @Nullable THashSet<File> currentFiles,
                              @Nullable FileFilter filter) throws IOException {
+    // content digests are checked for files with changed timestamps only, and never on rebuild when all storages are empty anyway
+    final List<ChangedStampFile> changedStampFiles = !forceMarkDirty && !context.isProjectRebuild() && FileDigestStorage.ENABLED
+                                                     ? new ArrayList<ChangedStampFile>() : null;
     for (BuildRootDescriptor rd : context.getProjectDescriptor().getBuildRootIndex().getTargetRoots(target, context)) {
       if (!rd.getRootFile().exists() ||
           //temp roots are managed by compilers themselves
@@ -152,7 +155,62 @@ public class FSOperations {
         context.getProjectDescriptor().fsState.clearRecompile(rd);
       }
       final FSCache fsCache = rd.canUseFileCache() ? context.getProjectDescriptor().getFSCache() : FSCache.NO_CACHE;
-      traverseRecursively(context, rd, rd.getRootFile(), timestamps, forceMarkDirty, currentFiles, filter, fsCache);
+      traverseRecursively(context, rd, rd.getRootFile(), timestamps, forceMarkDirty, currentFiles, filter, fsCache, changedStampFiles);
+    }
+    if (changedStampFiles != null && !changedStampFiles.isEmpty()) {
+      markDirtyIfContentChanged(context, context.getProjectDescriptor(), timestamps, changedStampFiles, false);
+    }
+  }
+
+  /**
+   * @return true if a file whose timestamp differs from the stored one may still be up-to-date, so its content digest should be
+   * compared with the stored one by {@link #markDirtyIfContentChanged} before the file is marked dirty
+   */
+  public static boolean shouldCheckContentDigest(@NotNull BuildRootDescriptor rd, long storedStamp) {
+    // the file was up-to-date before, otherwise its stamp would have been removed
+    return FileDigestStorage.ENABLED && storedStamp != -1L && rd instanceof JavaSourceRootDescriptor;
+  }
+
+  /**
+   * Files whose timestamps changed but whose contents are the same as when they were compiled last time (e.g. after VCS branch switch)
+   * don't need to be recompiled, only their stored timestamps are updated.
+   */
+  public static void markDirtyIfContentChanged(@Nullable CompileContext context,
+                                               @NotNull ProjectDescriptor pd,
+                                               @NotNull Timestamps timestamps,
+                                               @NotNull List<ChangedStampFile> files,
+                                               boolean saveEventStamp) throws IOException {
+    final FileDigestStorage digestStorage = pd.dataManager.getFileDigests();
+    final Set<File> filesToHash = new THashSet<File>(FileUtil.FILE_HASHING_STRATEGY);
+    for (ChangedStampFile changed : files) {
+      changed.storedDigest = digestStorage.getDigest(changed.file, changed.rd.getTarget());
+      if (changed.storedDigest != null) {
+        filesToHash.add(changed.file);
+      }
+    }
+
+    final Map<File, byte[]> digests = FileDigestStorage.computeDigests(filesToHash);
+    for (ChangedStampFile changed : files) {
+      final byte[] digest = digests.get(changed.file);
+      if (digest != null && Arrays.equals(digest, changed.storedDigest)) {
+        timestamps.saveStamp(changed.file, changed.rd.getTarget(), changed.stamp);
+      }
+      else {
+        pd.fsState.markDirty(context, changed.file, changed.rd, timestamps, saveEventStamp);
+      }
+    }
+  }
+
+  public static class ChangedStampFile {
+    final File file;
+    final BuildRootDescriptor rd;
+    final long stamp;
+    byte[] storedDigest;
+
+    public ChangedStampFile(@NotNull File file, @NotNull BuildRootDescriptor rd, long stamp) {
+      this.file = file;
+      this.rd = rd;
+      this.stamp = stamp;
     }
   }
 
@@ -161,13 +219,14 @@ public class FSOperations {
                                           final File file,
                                           @NotNull final Timestamps tsStorage,
                                           final boolean forceDirty,
-                                          @Nullable Set<File> currentFiles, @Nullable FileFilter filter, @NotNull FSCache fsCache) throws IOException {
+                                          @Nullable Set<File> currentFiles, @Nullable FileFilter filter, @NotNull FSCache fsCache,
+                                          @Nullable List<ChangedStampFile> changedStampFiles) throws IOException {
     BuildRootIndex rootIndex = context.getProjectDescriptor().getBuildRootIndex();
     final File[] children = fsCache.getChildren(file);
     if (children != null) { // is directory
       if (children.length > 0 && rootIndex.isDirectoryAccepted(file, rd)) {
         for (File child : children) {
-          traverseRecursively(context, rd, child, tsStorage, forceDirty, currentFiles, filter, fsCache);
+          traverseRecursively(context, rd, child, tsStorage, forceDirty, currentFiles, filter, fsCache, changedStampFiles);
         }
       }
     }
@@ -175,7 +234,17 @@ public class FSOperations {
       if (rootIndex.isFileAccepted(file, rd) && (filter == null || filter.accept(file))) {
         boolean markDirty = forceDirty;
         if (!markDirty) {
-          markDirty = tsStorage.getStamp(file, rd.getTarget()) != FileSystemUtil.lastModified(file);
+          final long stamp = tsStorage.getStamp(file, rd.getTarget());
+          final long lastModified = FileSystemUtil.lastModified(file);
+          if (stamp != lastModified) {
+            if (changedStampFiles != null && shouldCheckContentDigest(rd, stamp)) {
+              // decide after its content is checked
+              changedStampFiles.add(new ChangedStampFile(file, rd, lastModified));
+            }
+            else {
+              markDirty = true;
+            }
+          }
         }
         if (markDirty) {
           // if it is full project rebuild, all storages are already completely cleared;
@@ -50,6 +50,7 @@ import org.jetbrains.jps.incremental.fs.BuildFSState;
 import org.jetbrains.jps.incremental.java.ExternalJavacDescriptor;
 import org.jetbrains.jps.incremental.messages.*;
 import org.jetbrains.jps.incremental.storage.BuildTargetConfiguration;
+import org.jetbrains.jps.incremental.storage.BuildTargetsState;
 import org.jetbrains.jps.incremental.storage.OneToManyPathsMapping;
 import org.jetbrains.jps.indices.ModuleExcludeIndex;
 import org.jetbrains.jps.model.java.JpsJavaExtensionService;
@@ -90,6 +91,9 @@ public class IncProjectBuilder {
     }
     MAX_BUILDER_THREADS = maxThreads;
   }
+  private static final boolean CRITICAL_PATH_SCHEDULING = Boolean.parseBoolean(System.getProperty(GlobalOptions.COMPILE_PARALLEL_CRITICAL_PATH_OPTION, "true"));
+  private static final boolean WRITE_BUILD_TRACE = Boolean.parseBoolean(System.getProperty(GlobalOptions.BUILD_TRACE_OPTION, "false"));
+  private static final String BUILD_TRACE_FILE_NAME = "build-trace.csv";
 
   private final ProjectDescriptor myProjectDescriptor;
   private final BuilderRegistry myBuilderRegistry;
@@ -109,6 +113,8 @@ public class IncProjectBuilder {
   private final float myTotalTargetsWork;
   private final int myTotalModuleLevelBuilderCount;
   private final List<Future> myAsyncTasks = Collections.synchronizedList(new ArrayList<Future>());
+  private final List<String> myBuildTrace = Collections.synchronizedList(new ArrayList<String>());
+  private long myBuildStartTime;
 
   public IncProjectBuilder(ProjectDescriptor pd, BuilderRegistry builderRegistry, Map<String, String> builderParams, CanceledStatus cs,
                            @Nullable Callbacks.ConstantAffectionResolver constantSearch) {
@@ -310,6 +316,8 @@ public class IncProjectBuilder {
 
   private void runBuild(final CompileContextImpl context, boolean forceCleanCaches) throws ProjectBuildException {
     context.setDone(0.0f);
+    myBuildStartTime = System.currentTimeMillis();
+    myBuildTrace.clear();
 
     LOG.info("Building project; isRebuild:" +
              context.isProjectRebuild() +
@@ -348,11 +356,38 @@ public class IncProjectBuilder {
       for (ModuleLevelBuilder builder : myBuilderRegistry.getModuleLevelBuilders()) {
         builder.buildFinished(context);
       }
+      if (WRITE_BUILD_TRACE) {
+        saveBuildTrace();
+      }
       context.processMessage(new ProgressMessage("Finished, saving caches..."));
     }
 
   }
 
+  private void saveBuildTrace() {
+    final File traceFile = new File(myProjectDescriptor.dataManager.getDataPaths().getDataStorageRoot(), BUILD_TRACE_FILE_NAME);
+    try {
+      FileUtil.createParentDirs(traceFile);
+      final BufferedWriter writer = new BufferedWriter(new FileWriter(traceFile));
+      try {
+        writer.write("start,duration,thread,targetType,target");
+        writer.newLine();
+        synchronized (myBuildTrace) {
+          for (String line : myBuildTrace) {
+            writer.write(line);
+            writer.newLine();
+          }
+        }
+      }
+      finally {
+        writer.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot save build trace to " + traceFile + ": " + e.getMessage());
+    }
+  }
+
   private void startTempDirectoryCleanupTask() {
     final File systemRoot = Utils.getSystemRoot();
     final String tempPath = System.getProperty("java.io.tmpdir", null);
@@ -592,9 +627,15 @@ public class IncProjectBuilder {
     private final BuildTargetChunk myChunk;
     private final Set<BuildChunkTask> myNotBuiltDependencies = new THashSet<BuildChunkTask>();
     private final List<BuildChunkTask> myTasksDependsOnThis = new ArrayList<BuildChunkTask>();
+    private final int myIndex;
+    /**
+     * estimated time needed to build this chunk and all chunks depending on it, used to build long dependency chains first
+     */
+    private long myCriticalPathWeight;
 
-    private BuildChunkTask(BuildTargetChunk chunk) {
+    private BuildChunkTask(BuildTargetChunk chunk, int index) {
       myChunk = chunk;
+      myIndex = index;
     }
 
     public BuildTargetChunk getChunk() {
@@ -634,6 +675,15 @@ public class IncProjectBuilder {
     private final Object myQueueLock = new Object();
     private final CountDownLatch myTasksCountDown;
     private final List<BuildChunkTask> myTasks;
+    private final PriorityQueue<BuildChunkTask> myReadyTasks = new PriorityQueue<BuildChunkTask>(11, new Comparator<BuildChunkTask>() {
+      @Override
+      public int compare(BuildChunkTask o1, BuildChunkTask o2) {
+        if (o1.myCriticalPathWeight != o2.myCriticalPathWeight) {
+          return o1.myCriticalPathWeight > o2.myCriticalPathWeight ? -1 : 1;
+        }
+        return o1.myIndex - o2.myIndex;
+      }
+    });
 
     private BuildParallelizer(CompileContext context) {
       myContext = context;
@@ -644,7 +694,7 @@ public class IncProjectBuilder {
       myTasks = new ArrayList<BuildChunkTask>(chunks.size());
       Map<BuildTarget<?>, BuildChunkTask> targetToTask = new THashMap<BuildTarget<?>, BuildChunkTask>();
       for (BuildTargetChunk chunk : chunks) {
-        BuildChunkTask task = new BuildChunkTask(chunk);
+        BuildChunkTask task = new BuildChunkTask(chunk, myTasks.size());
         myTasks.add(task);
         for (BuildTarget<?> target : chunk.getTargets()) {
           targetToTask.put(target, task);
@@ -662,9 +712,19 @@ public class IncProjectBuilder {
         }
       }
 
+      if (CRITICAL_PATH_SCHEDULING) {
+        computeCriticalPathWeights();
+      }
       myTasksCountDown = new CountDownLatch(myTasks.size());
     }
 
+    private void computeCriticalPathWeights() {
+      final Map<BuildTargetChunk, Long> weights = IncProjectBuilder.computeCriticalPathWeights(myContext);
+      for (BuildChunkTask task : myTasks) {
+        task.myCriticalPathWeight = weights.get(task.getChunk());
+      }
+    }
+
     public void buildInParallel() throws IOException, ProjectBuildException {
       List<BuildChunkTask> initialTasks = new ArrayList<BuildChunkTask>();
       for (BuildChunkTask task : myTasks) {
@@ -713,20 +773,28 @@ public class IncProjectBuilder {
       }
     }
 
-    private void queueTask(final BuildChunkTask task) {
-      final CompileContext chunkLocalContext = createContextWrapper(myContext);
+    private void queueTask(BuildChunkTask task) {
+      synchronized (myQueueLock) {
+        myReadyTasks.add(task);
+      }
+      // the executor may postpone the runnable, so the task to build is chosen when it actually starts
       myParallelBuildExecutor.execute(new Runnable() {
         @Override
         public void run() {
+          final BuildChunkTask readyTask;
+          synchronized (myQueueLock) {
+            readyTask = myReadyTasks.poll();
+          }
+          final CompileContext chunkLocalContext = createContextWrapper(myContext);
           try {
             try {
               if (myException.get() == null) {
-                buildChunkIfAffected(chunkLocalContext, myContext.getScope(), task.getChunk());
+                buildChunkIfAffected(chunkLocalContext, myContext.getScope(), readyTask.getChunk());
               }
             }
             finally {
               myContext.updateCompilationStartStamp();
-              myProjectDescriptor.dataManager.closeSourceToOutputStorages(Collections.singletonList(task.getChunk()));
+              myProjectDescriptor.dataManager.closeSourceToOutputStorages(Collections.singletonList(readyTask.getChunk()));
               myProjectDescriptor.dataManager.flush(true);
             }
           }
@@ -735,11 +803,11 @@ public class IncProjectBuilder {
             LOG.info(e);
           }
           finally {
-            LOG.debug("Finished compilation of " + task.getChunk().toString());
+            LOG.debug("Finished compilation of " + readyTask.getChunk().toString());
             myTasksCountDown.countDown();
             List<BuildChunkTask> nextTasks;
             synchronized (myQueueLock) {
-              nextTasks = task.markAsFinishedAndGetNextReadyTasks();
+              nextTasks = readyTask.markAsFinishedAndGetNextReadyTasks();
             }
             if (!nextTasks.isEmpty()) {
               queueTasks(nextTasks);
@@ -750,15 +818,95 @@ public class IncProjectBuilder {
     }
   }
 
+  /**
+   * Estimates for each chunk the time of the longest chain of chunks which can be built only after it (including the chunk itself).
+   * The estimation is based on the average build times of the targets recorded in the previous builds; chunks without history
+   * get the mean known cost, chunks not affected by the compile scope cost nothing.
+   */
+  @NotNull
+  public static Map<BuildTargetChunk, Long> computeCriticalPathWeights(@NotNull CompileContext context) {
+    final BuildTargetIndex targetIndex = context.getProjectDescriptor().getBuildTargetIndex();
+    final BuildTargetsState targetsState = context.getProjectDescriptor().getTargetsState();
+    final CompileScope scope = context.getScope();
+    final List<BuildTargetChunk> chunks = targetIndex.getSortedTargetChunks(context);
+
+    final Map<BuildTarget<?>, Integer> targetToChunk = new THashMap<BuildTarget<?>, Integer>();
+    for (int i = 0; i < chunks.size(); i++) {
+      for (BuildTarget<?> target : chunks.get(i).getTargets()) {
+        targetToChunk.put(target, i);
+      }
+    }
+
+    final long[] costs = new long[chunks.size()];
+    long knownCostsSum = 0;
+    int knownCostsCount = 0;
+    for (int i = 0; i < costs.length; i++) {
+      final BuildTargetChunk chunk = chunks.get(i);
+      if (!isAffected(scope, chunk)) {
+        continue;
+      }
+      long cost = -1;
+      for (BuildTarget<?> target : chunk.getTargets()) {
+        final long time = targetsState.getAverageBuildTime(target);
+        if (time >= 0) {
+          cost = Math.max(cost, 0) + time;
+        }
+      }
+      costs[i] = cost;
+      if (cost >= 0) {
+        knownCostsSum += cost;
+        knownCostsCount++;
+      }
+    }
+    final long defaultCost = knownCostsCount > 0 ? knownCostsSum / knownCostsCount : 0;
+
+    // chunks are sorted topologically, so a chunk is located after all chunks it depends on
+    final long[] weights = new long[chunks.size()];
+    for (int i = chunks.size() - 1; i >= 0; i--) {
+      // '+1' makes longer chains preferable when the costs are unknown
+      weights[i] += (costs[i] >= 0 ? costs[i] : defaultCost) + 1;
+      for (BuildTarget<?> target : chunks.get(i).getTargets()) {
+        for (BuildTarget<?> dependency : targetIndex.getDependencies(target, context)) {
+          final Integer dependencyChunk = targetToChunk.get(dependency);
+          if (dependencyChunk != null && dependencyChunk != i) {
+            weights[dependencyChunk] = Math.max(weights[dependencyChunk], weights[i]);
+          }
+        }
+      }
+    }
+
+    final Map<BuildTargetChunk, Long> result = new THashMap<BuildTargetChunk, Long>();
+    for (int i = 0; i < weights.length; i++) {
+      result.put(chunks.get(i), weights[i]);
+    }
+    return result;
+  }
+
   private void buildChunkIfAffected(CompileContext context, CompileScope scope, BuildTargetChunk chunk) throws ProjectBuildException {
     if (isAffected(scope, chunk)) {
-      buildTargetsChunk(context, chunk);
+      final long start = System.currentTimeMillis();
+      // up-to-date chunks take almost no time, recording it would make the averages meaningless
+      if (buildTargetsChunk(context, chunk)) {
+        registerBuildTime(chunk, start, System.currentTimeMillis() - start);
+      }
     }
     else {
       updateDoneFraction(context, chunk.getTargets().size());
     }
   }
 
+  private void registerBuildTime(BuildTargetChunk chunk, long start, long duration) {
+    final BuildTargetsState targetsState = myProjectDescriptor.getTargetsState();
+    final Set<BuildTarget<?>> targets = chunk.getTargets();
+    for (BuildTarget<?> target : targets) {
+      targetsState.registerBuildTime(target, duration / targets.size());
+      if (WRITE_BUILD_TRACE) {
+        myBuildTrace.add((start - myBuildStartTime) + "," + duration + "," + Thread.currentThread().getName() + "," +
+                         target.getTargetType().getTypeId() + ",\"" + target.getId().replace("\"", "\"\"") + "\"");
+      }
+    }
+  }
+
   private static boolean isAffected(CompileScope scope, BuildTargetChunk chunk) {
     for (BuildTarget<?> target : chunk.getTargets()) {
       if (scope.isAffected(target)) {
@@ -792,12 +940,14 @@ public class IncProjectBuilder {
       return runModuleLevelBuilders(context, new ModuleChunk(Collections.singleton((ModuleBuildTarget)target)));
     }
 
+    // target builders process dirty files only, so they do nothing if there are none
+    final boolean hasDirtyFiles = myProjectDescriptor.fsState.hasWorkToDo(target);
     final List<TargetBuilder<?, ?>> builders = BuilderRegistry.getInstance().getTargetBuilders();
     for (TargetBuilder<?, ?> builder : builders) {
       BuildOperations.buildTarget(target, context, builder);
       updateDoneFraction(context, 1.0f / builders.size());
     }
-    return true;
+    return hasDirtyFiles;
   }
 
   private void updateDoneFraction(CompileContext context, final float delta) {
@@ -806,7 +956,10 @@ public class IncProjectBuilder {
     context.setDone(processed / myTotalTargetsWork);
   }
 
-  private void buildTargetsChunk(CompileContext context, final BuildTargetChunk chunk) throws ProjectBuildException {
+  /**
+   * @return true if the chunk wasn't up-to-date, i.e. something was compiled, copied or deleted
+   */
+  private boolean buildTargetsChunk(CompileContext context, final BuildTargetChunk chunk) throws ProjectBuildException {
     boolean doneSomething;
     try {
       Utils.ERRORS_DETECTED_KEY.set(context, Boolean.FALSE);
@@ -831,6 +984,7 @@ public class IncProjectBuilder {
       //    }
       //  }));
       //}
+      return doneSomething;
     }
     catch (ProjectBuildException e) {
       throw e;
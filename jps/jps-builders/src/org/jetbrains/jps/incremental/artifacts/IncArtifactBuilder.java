@@ -19,6 +19,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.containers.MultiMap;
+import gnu.trove.THashMap;
 import gnu.trove.THashSet;
 import gnu.trove.TIntObjectHashMap;
 import org.jetbrains.annotations.NotNull;
@@ -75,7 +76,7 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
       return;
     }
 
-
+    Map<String, File> previousArchives = Collections.emptyMap();
     try {
       final Collection<String> deletedFiles = holder.getRemovedFiles(target);
 
@@ -129,6 +130,11 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
         }
       });
 
+      final Collection<ArtifactRootDescriptor> roots = pd.getBuildRootIndex().getTargetRoots(target, context);
+      final Set<String> outputsToDelete = new THashSet<String>(changedOutputPaths, FileUtil.PATH_HASHING_STRATEGY);
+      outputsToDelete.addAll(filesToDelete.keySet());
+      previousArchives = moveArchivesAside(roots, outputsToDelete);
+
       BuildOperations.cleanOutputsCorrespondingToChangedFiles(context, holder);
       for (String outputPath : changedOutputPaths) {
         outSrcMapping.remove(outputPath);
@@ -142,7 +148,7 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
 
       context.processMessage(new ProgressMessage("Building artifact '" + artifact.getName() + "': copying files..."));
       final Set<JarInfo> changedJars = new THashSet<JarInfo>();
-      for (ArtifactRootDescriptor descriptor : pd.getBuildRootIndex().getTargetRoots(target, context)) {
+      for (ArtifactRootDescriptor descriptor : roots) {
         context.checkCanceled();
         final Set<String> sourcePaths = filesToProcess.get(descriptor.getRootIndex());
         if (sourcePaths == null) continue;
@@ -171,13 +177,47 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
       }
       context.checkCanceled();
 
-      JarsBuilder builder = new JarsBuilder(changedJars, context, outputConsumer, outSrcMapping);
+      JarsBuilder builder = new JarsBuilder(changedJars, context, outputConsumer, outSrcMapping, previousArchives);
       builder.buildJars();
       runArtifactTasks(context, artifact, ArtifactBuildTaskProvider.ArtifactBuildPhase.POST_PROCESSING);
     }
     catch (IOException e) {
       throw new ProjectBuildException(e);
     }
+    finally {
+      for (File previousArchive : previousArchives.values()) {
+        FileUtil.delete(previousArchive);
+      }
+    }
+  }
+
+  /**
+   * Moves archives of the artifact which are going to be deleted to temporary files, so that {@link JarsBuilder} can copy unchanged
+   * entries from them instead of compressing everything again.
+   * @return map from output path of an archive to its previous version
+   */
+  private static Map<String, File> moveArchivesAside(Collection<ArtifactRootDescriptor> roots, Set<String> outputsToDelete) throws IOException {
+    if (!JarsBuilder.REUSE_PREVIOUS_ARCHIVES || outputsToDelete.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    final Map<String, File> result = new THashMap<String, File>(FileUtil.PATH_HASHING_STRATEGY);
+    for (ArtifactRootDescriptor root : roots) {
+      DestinationInfo destination = root.getDestinationInfo();
+      while (destination instanceof JarDestinationInfo) {
+        destination = ((JarDestinationInfo)destination).getJarInfo().getDestination();
+        final String outputPath = destination.getOutputFilePath();
+        if (destination instanceof ExplodedDestinationInfo && outputsToDelete.contains(outputPath) && !result.containsKey(outputPath)) {
+          final File archive = new File(FileUtil.toSystemDependentName(outputPath));
+          if (archive.isFile()) {
+            final File previous = FileUtil.createTempFile("artifactCompiler", "previous");
+            FileUtil.rename(archive, previous);
+            result.put(outputPath, previous);
+          }
+        }
+      }
+    }
+    return result;
   }
 
   private static void runArtifactTasks(CompileContext context, JpsArtifact artifact, ArtifactBuildTaskProvider.ArtifactBuildPhase phase)
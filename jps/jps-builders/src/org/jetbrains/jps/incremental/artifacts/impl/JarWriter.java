@@ -0,0 +1,448 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.artifacts.impl;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.io.zip.JBZipEntry;
+import com.intellij.util.io.zip.JBZipFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.service.SharedThreadPool;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes archives for {@link JarsBuilder}. If the previous version of the archive is available, entries whose content hasn't changed
+ * (i.e. has the same size and crc) are copied from it as is, other entries are compressed in parallel on the shared thread pool.
+ * Entries are written in the order they were added regardless of the order in which their compression finishes.
+ * <p/>
+ * Contents of the entries which are being compressed are kept in memory, so their total size is limited; entries larger than
+ * {@link #MAX_IN_MEMORY_ENTRY_SIZE} are compressed through a temporary file in the calling thread.
+ */
+class JarWriter {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.artifacts.impl.JarWriter");
+  private static final int MAX_PENDING_ENTRIES = Runtime.getRuntime().availableProcessors() * 4;
+  private static final long MAX_PENDING_BYTES = 32 * 1024 * 1024;
+  private static final int MAX_IN_MEMORY_ENTRY_SIZE = 4 * 1024 * 1024;
+  private final JBZipFile myOutput;
+  @Nullable private final JBZipFile myPrevious;
+  private final LinkedList<PendingEntry> myPendingEntries = new LinkedList<PendingEntry>();
+  private long myPendingBytes;
+  private final List<String> myCopiedEntries = new ArrayList<String>();
+  private int myCompressedEntriesCount;
+
+  JarWriter(@NotNull File outputFile, @Nullable File previousArchive) throws IOException {
+    myOutput = new JBZipFile(outputFile);
+    myPrevious = previousArchive != null ? openPreviousArchive(previousArchive) : null;
+  }
+
+  @Nullable
+  private static JBZipFile openPreviousArchive(@NotNull File archive) {
+    try {
+      return new JBZipFile(archive);
+    }
+    catch (IOException e) {
+      LOG.info("Cannot read previous version of archive " + archive + ", it will be rebuilt from scratch: " + e.getMessage());
+      return null;
+    }
+  }
+
+  void addManifest(@NotNull Manifest manifest) throws IOException {
+    final BufferExposingByteArrayOutputStream output = new BufferExposingByteArrayOutputStream();
+    manifest.write(output);
+    addEntry(JarFile.MANIFEST_NAME, output.toByteArray(), System.currentTimeMillis());
+  }
+
+  void addDirectory(@NotNull String path) throws IOException {
+    addPending(new EntryData(path, ZipEntry.STORED, System.currentTimeMillis(), 0, 0, ArrayUtil.EMPTY_BYTE_ARRAY, 0));
+  }
+
+  void addFile(@NotNull final String path, @NotNull final File file) throws IOException {
+    final long timestamp = file.lastModified();
+    final long length = file.length();
+    if (length > MAX_IN_MEMORY_ENTRY_SIZE) {
+      addLargeEntry(path, file, ZipEntry.DEFLATED, timestamp);
+      return;
+    }
+
+    addPending(new Callable<EntryData>() {
+      @Override
+      public EntryData call() throws IOException {
+        final byte[] content = FileUtil.loadFileBytes(file);
+        final long crc = computeCrc(content);
+        final JBZipEntry previousEntry = findUnchangedEntry(path, content.length, crc);
+        if (previousEntry != null) {
+          return new EntryData(path, timestamp, previousEntry);
+        }
+        return compress(path, content, crc, content.length == 0 ? ZipEntry.STORED : ZipEntry.DEFLATED, timestamp);
+      }
+    }, length);
+  }
+
+  /**
+   * Adds the entry extracted from another archive. The stream is read immediately, so it may be closed after the method returns.
+   */
+  void addEntry(@NotNull final String path, @NotNull InputStream input, @NotNull final ZipEntry sourceEntry, final long timestamp)
+    throws IOException {
+    if (sourceEntry.getSize() != -1 && sourceEntry.getCrc() != -1) {
+      final JBZipEntry previousEntry = findUnchangedEntry(path, sourceEntry.getSize(), sourceEntry.getCrc());
+      if (previousEntry != null) {
+        addPending(new EntryData(path, timestamp, previousEntry));
+        return;
+      }
+    }
+
+    final int method = sourceEntry.getMethod() == ZipEntry.STORED ? ZipEntry.STORED : ZipEntry.DEFLATED;
+    final BufferExposingByteArrayOutputStream buffer = new BufferExposingByteArrayOutputStream();
+    if (!readAtMost(input, buffer, MAX_IN_MEMORY_ENTRY_SIZE)) {
+      final File tempFile = FileUtil.createTempFile("jarEntry", "tmp");
+      try {
+        final OutputStream output = new BufferedOutputStream(new FileOutputStream(tempFile));
+        try {
+          output.write(buffer.getInternalBuffer(), 0, buffer.size());
+          FileUtil.copy(input, output);
+        }
+        finally {
+          output.close();
+        }
+        addLargeEntry(path, tempFile, method, timestamp);
+      }
+      finally {
+        FileUtil.delete(tempFile);
+      }
+      return;
+    }
+
+    final byte[] content = buffer.toByteArray();
+    addPending(new Callable<EntryData>() {
+      @Override
+      public EntryData call() throws IOException {
+        return compress(path, content, computeCrc(content), method, timestamp);
+      }
+    }, content.length);
+  }
+
+  private void addEntry(@NotNull final String path, @NotNull final byte[] content, final long timestamp) throws IOException {
+    addPending(new Callable<EntryData>() {
+      @Override
+      public EntryData call() throws IOException {
+        return compress(path, content, computeCrc(content), ZipEntry.DEFLATED, timestamp);
+      }
+    }, content.length);
+  }
+
+  /**
+   * Writes the entry right away without loading its content into memory.
+   */
+  private void addLargeEntry(@NotNull String path, @NotNull File file, int method, long timestamp) throws IOException {
+    flushPendingEntries();
+
+    final long length = file.length();
+    final long crc = computeCrc(file);
+    final JBZipEntry previousEntry = findUnchangedEntry(path, length, crc);
+    if (previousEntry != null) {
+      writeEntry(new EntryData(path, timestamp, previousEntry));
+      return;
+    }
+
+    final JBZipEntry entry = myOutput.getOrCreateEntry(path);
+    entry.setTime(timestamp);
+    entry.setMethod(method);
+    entry.setSize(length);
+    entry.setCrc(crc);
+    if (method == ZipEntry.STORED) {
+      writeRawData(entry, file);
+    }
+    else {
+      final File compressed = FileUtil.createTempFile("jarEntry", "deflated");
+      try {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+          final DeflaterOutputStream output = new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(compressed)), deflater);
+          try {
+            final InputStream input = new FileInputStream(file);
+            try {
+              FileUtil.copy(input, output);
+            }
+            finally {
+              input.close();
+            }
+          }
+          finally {
+            output.close();
+          }
+        }
+        finally {
+          deflater.end();
+        }
+        writeRawData(entry, compressed);
+      }
+      finally {
+        FileUtil.delete(compressed);
+      }
+    }
+    myCompressedEntriesCount++;
+  }
+
+  private static void writeRawData(@NotNull JBZipEntry entry, @NotNull File file) throws IOException {
+    final InputStream input = new BufferedInputStream(new FileInputStream(file));
+    try {
+      entry.setRawData(input, file.length());
+    }
+    finally {
+      input.close();
+    }
+  }
+
+  @Nullable
+  private JBZipEntry findUnchangedEntry(@NotNull String path, long size, long crc) {
+    if (myPrevious == null) return null;
+    final JBZipEntry entry = myPrevious.getEntry(path);
+    if (entry != null && entry.getSize() == size && entry.getCrc() == crc
+        && (entry.getMethod() == ZipEntry.STORED || entry.getMethod() == ZipEntry.DEFLATED)) {
+      return entry;
+    }
+    return null;
+  }
+
+  /**
+   * @param size number of bytes the task keeps in memory until its entry is written
+   */
+  private void addPending(@NotNull Callable<EntryData> callable, long size) throws IOException {
+    final FutureTask<EntryData> task = new FutureTask<EntryData>(callable);
+    SharedThreadPool.getInstance().execute(task);
+    myPendingEntries.addLast(new PendingEntry(task, size));
+    myPendingBytes += size;
+    while (myPendingEntries.size() > MAX_PENDING_ENTRIES || myPendingBytes > MAX_PENDING_BYTES) {
+      writeFirstPendingEntry();
+    }
+  }
+
+  private void addPending(@NotNull final EntryData data) throws IOException {
+    if (myPendingEntries.isEmpty()) {
+      writeEntry(data);
+    }
+    else {
+      final FutureTask<EntryData> task = new FutureTask<EntryData>(new Callable<EntryData>() {
+        @Override
+        public EntryData call() {
+          return data;
+        }
+      });
+      task.run();
+      myPendingEntries.addLast(new PendingEntry(task, 0));
+    }
+  }
+
+  private void writeFirstPendingEntry() throws IOException {
+    final PendingEntry pending = myPendingEntries.removeFirst();
+    myPendingBytes -= pending.mySize;
+    writeEntry(waitFor(pending.myFuture));
+  }
+
+  private void flushPendingEntries() throws IOException {
+    while (!myPendingEntries.isEmpty()) {
+      writeFirstPendingEntry();
+    }
+  }
+
+  private static EntryData waitFor(Future<EntryData> future) throws IOException {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+    catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException)cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+      throw new IOException(cause);
+    }
+  }
+
+  private void writeEntry(@NotNull EntryData data) throws IOException {
+    final JBZipEntry entry = myOutput.getOrCreateEntry(data.myPath);
+    entry.setTime(data.myTimestamp);
+    final JBZipEntry previousEntry = data.myPreviousEntry;
+    if (previousEntry != null) {
+      entry.setMethod(previousEntry.getMethod());
+      entry.setSize(previousEntry.getSize());
+      entry.setCrc(previousEntry.getCrc());
+      final InputStream input = previousEntry.getRawInputStream();
+      try {
+        entry.setRawData(input, previousEntry.getCompressedSize());
+      }
+      finally {
+        input.close();
+      }
+      myCopiedEntries.add(data.myPath);
+    }
+    else {
+      entry.setMethod(data.myMethod);
+      entry.setSize(data.mySize);
+      entry.setCrc(data.myCrc);
+      entry.setRawData(data.myRawData, data.myRawDataLength);
+      myCompressedEntriesCount++;
+    }
+  }
+
+  /**
+   * @return paths of the entries which were copied from the previous version of the archive without recompression
+   */
+  @NotNull
+  List<String> getCopiedEntries() {
+    return myCopiedEntries;
+  }
+
+  void close() throws IOException {
+    try {
+      flushPendingEntries();
+      if (myPrevious != null && LOG.isDebugEnabled()) {
+        LOG.debug(myCopiedEntries.size() + " entries copied from the previous archive, " + myCompressedEntriesCount + " entries compressed");
+      }
+    }
+    finally {
+      for (PendingEntry pending : myPendingEntries) {
+        pending.myFuture.cancel(false);
+      }
+      myPendingEntries.clear();
+      myPendingBytes = 0;
+      try {
+        myOutput.close();
+      }
+      finally {
+        if (myPrevious != null) {
+          myPrevious.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * @return <code>false</code> if the stream contains more than <code>limit</code> bytes, the stream is read only partially in that case
+   */
+  private static boolean readAtMost(@NotNull InputStream input, @NotNull OutputStream output, int limit) throws IOException {
+    final byte[] buffer = new byte[8192];
+    int total = 0;
+    int read;
+    while ((read = input.read(buffer)) > 0) {
+      output.write(buffer, 0, read);
+      total += read;
+      if (total > limit) return false;
+    }
+    return true;
+  }
+
+  private static long computeCrc(byte[] content) {
+    final CRC32 crc = new CRC32();
+    crc.update(content);
+    return crc.getValue();
+  }
+
+  private static long computeCrc(File file) throws IOException {
+    final CRC32 crc = new CRC32();
+    final InputStream input = new FileInputStream(file);
+    try {
+      final byte[] buffer = new byte[8192];
+      int read;
+      while ((read = input.read(buffer)) > 0) {
+        crc.update(buffer, 0, read);
+      }
+    }
+    finally {
+      input.close();
+    }
+    return crc.getValue();
+  }
+
+  private static EntryData compress(String path, byte[] content, long crc, int method, long timestamp) throws IOException {
+    if (method == ZipEntry.STORED) {
+      return new EntryData(path, method, timestamp, content.length, crc, content, content.length);
+    }
+
+    final BufferExposingByteArrayOutputStream output = new BufferExposingByteArrayOutputStream(content.length / 2 + 64);
+    final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try {
+      final DeflaterOutputStream stream = new DeflaterOutputStream(output, deflater);
+      stream.write(content);
+      stream.close();
+    }
+    finally {
+      deflater.end();
+    }
+    return new EntryData(path, method, timestamp, content.length, crc, output.getInternalBuffer(), output.size());
+  }
+
+  private static class PendingEntry {
+    private final Future<EntryData> myFuture;
+    private final long mySize;
+
+    private PendingEntry(Future<EntryData> future, long size) {
+      myFuture = future;
+      mySize = size;
+    }
+  }
+
+  private static class EntryData {
+    private final String myPath;
+    private final long myTimestamp;
+    private final int myMethod;
+    private final long mySize;
+    private final long myCrc;
+    private final byte[] myRawData;
+    private final int myRawDataLength;
+    @Nullable private final JBZipEntry myPreviousEntry;
+
+    private EntryData(String path, int method, long timestamp, long size, long crc, byte[] rawData, int rawDataLength) {
+      myPath = path;
+      myTimestamp = timestamp;
+      myMethod = method;
+      mySize = size;
+      myCrc = crc;
+      myRawData = rawData;
+      myRawDataLength = rawDataLength;
+      myPreviousEntry = null;
+    }
+
+    private EntryData(String path, long timestamp, @NotNull JBZipEntry previousEntry) {
+      myPath = path;
+      myTimestamp = timestamp;
+      myMethod = -1;
+      mySize = -1;
+      myCrc = -1;
+      myRawData = null;
+      myRawDataLength = 0;
+      myPreviousEntry = previousEntry;
+    }
+  }
+}
@@ -25,15 +25,18 @@ import org.jetbrains.jps.builders.BuildRootDescriptor;
 import org.jetbrains.jps.builders.BuildTarget;
 import org.jetbrains.jps.builders.FileProcessor;
 import org.jetbrains.jps.builders.impl.BuildTargetChunk;
+import org.jetbrains.jps.builders.java.JavaSourceRootDescriptor;
 import org.jetbrains.jps.incremental.CompileContext;
 import org.jetbrains.jps.incremental.CompileScope;
 import org.jetbrains.jps.incremental.ModuleBuildTarget;
 import org.jetbrains.jps.incremental.Utils;
+import org.jetbrains.jps.incremental.storage.FileDigestStorage;
 import org.jetbrains.jps.incremental.storage.Timestamps;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -166,6 +169,9 @@ public class BuildFSState extends FSState {
     if (files != null) {
       CompileScope scope = context.getScope();
       final long compilationStartStamp = context.getCompilationStartStamp();
+      final FileDigestStorage digestStorage = FileDigestStorage.ENABLED && rd instanceof JavaSourceRootDescriptor
+                                              ? context.getProjectDescriptor().dataManager.getFileDigests() : null;
+      final Map<File, Long> upToDateFiles = digestStorage != null ? new HashMap<File, Long>() : null;
       for (File file : files) {
         if (scope.isAffected(rd.getTarget(), file)) {
           final long currentFileStamp = FileSystemUtil.lastModified(file);
@@ -180,6 +186,9 @@ public class BuildFSState extends FSState {
           else {
             marked = true;
             stamps.saveStamp(file, rd.getTarget(), currentFileStamp);
+            if (upToDateFiles != null) {
+              upToDateFiles.put(file, currentFileStamp);
+            }
           }
         }
         else {
@@ -189,10 +198,28 @@ public class BuildFSState extends FSState {
           delta.markRecompile(rd, file);
         }
       }
+      if (upToDateFiles != null && !upToDateFiles.isEmpty()) {
+        saveDigests(digestStorage, rd.getTarget(), upToDateFiles);
+      }
     }
     return marked;
   }
 
+  private static void saveDigests(FileDigestStorage digestStorage, BuildTarget<?> target, Map<File, Long> files) throws IOException {
+    final Map<File, byte[]> digests = FileDigestStorage.computeDigests(files.keySet());
+    for (Map.Entry<File, Long> entry : files.entrySet()) {
+      final File file = entry.getKey();
+      final byte[] digest = digests.get(file);
+      // the digest is valid only if the file hasn't been changed while it was computed
+      if (digest != null && FileSystemUtil.lastModified(file) == entry.getValue().longValue()) {
+        digestStorage.saveDigest(file, target, digest);
+      }
+      else {
+        digestStorage.removeDigest(file, target);
+      }
+    }
+  }
+
   private static void setContextTargets(@Nullable CompileContext context, @Nullable Set<? extends BuildTarget<?>> targets) {
     if (context != null) {
       CONTEXT_TARGETS_KEY.set(context, targets);
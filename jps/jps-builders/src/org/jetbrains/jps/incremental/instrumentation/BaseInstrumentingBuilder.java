@@ -29,6 +29,14 @@ import org.jetbrains.jps.incremental.CompileContext;
 import org.jetbrains.jps.incremental.CompiledClass;
 import org.jetbrains.jps.incremental.messages.BuildMessage;
 import org.jetbrains.jps.incremental.messages.CompilerMessage;
+import org.jetbrains.jps.service.SharedThreadPool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Eugene Zhuravlev
@@ -36,6 +44,8 @@ import org.jetbrains.jps.incremental.messages.CompilerMessage;
  */
 public abstract class BaseInstrumentingBuilder extends ClassProcessingBuilder {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.instrumentation.BaseInstrumentingBuilder");
+  private static final boolean PARALLEL_INSTRUMENTATION = Boolean.parseBoolean(System.getProperty("jps.parallel.instrumentation", "true"));
+  private static final int PARALLEL_INSTRUMENTATION_THRESHOLD = 32;
   // every instance of builder must have its own marker!
   private final Key<Boolean> IS_INSTRUMENTED_KEY = Key.create("_instrumentation_marker_" + getPresentableName());
 
@@ -44,38 +54,85 @@ public abstract class BaseInstrumentingBuilder extends ClassProcessingBuilder {
   }
 
   @Override
-  protected final ExitCode performBuild(CompileContext context, ModuleChunk chunk, InstrumentationClassFinder finder, OutputConsumer outputConsumer) {
-    ExitCode exitCode = ExitCode.NOTHING_DONE;
-    for (CompiledClass compiledClass : outputConsumer.getCompiledClasses().values()) {
-      final BinaryContent originalContent = compiledClass.getContent();
-      final ClassReader reader = new ClassReader(originalContent.getBuffer(), originalContent.getOffset(), originalContent.getLength());
-      final int version = getClassFileVersion(reader);
-      if (IS_INSTRUMENTED_KEY.get(compiledClass, Boolean.FALSE) || !canInstrument(compiledClass, version)) {
-        // do not instrument the same content twice
-        continue;
+  protected final ExitCode performBuild(final CompileContext context, ModuleChunk chunk, final InstrumentationClassFinder finder, OutputConsumer outputConsumer) {
+    final Collection<CompiledClass> compiledClasses = outputConsumer.getCompiledClasses().values();
+    if (!PARALLEL_INSTRUMENTATION || !isThreadSafe() || compiledClasses.size() < PARALLEL_INSTRUMENTATION_THRESHOLD) {
+      boolean instrumented = false;
+      for (CompiledClass compiledClass : compiledClasses) {
+        instrumented |= instrumentClass(context, compiledClass, finder);
       }
-      final ClassWriter writer = new InstrumenterClassWriter(getAsmClassWriterFlags(version), finder);
-      try {
-        final BinaryContent instrumented = instrument(context, compiledClass, reader, writer, finder);
-        if (instrumented != null) {
-          compiledClass.setContent(instrumented);
-          finder.cleanCachedData(compiledClass.getClassName());
-          IS_INSTRUMENTED_KEY.set(compiledClass, Boolean.TRUE);
-          exitCode = ExitCode.OK;
+      return instrumented ? ExitCode.OK : ExitCode.NOTHING_DONE;
+    }
+
+    // classes are instrumented independently of each other, the finder synchronizes access to its caches
+    final List<CompiledClass> classes = new ArrayList<CompiledClass>(compiledClasses);
+    final int tasksCount = Math.min(Runtime.getRuntime().availableProcessors(), classes.size() / PARALLEL_INSTRUMENTATION_THRESHOLD + 1);
+    final int taskSize = (classes.size() + tasksCount - 1) / tasksCount;
+    final AtomicBoolean instrumented = new AtomicBoolean(false);
+    final List<Future<?>> futures = new ArrayList<Future<?>>(tasksCount);
+    for (int start = 0; start < classes.size(); start += taskSize) {
+      final List<CompiledClass> part = classes.subList(start, Math.min(start + taskSize, classes.size()));
+      futures.add(SharedThreadPool.getInstance().executeOnPooledThread(new Runnable() {
+        @Override
+        public void run() {
+          for (CompiledClass compiledClass : part) {
+            if (instrumentClass(context, compiledClass, finder)) {
+              instrumented.set(true);
+            }
+          }
         }
+      }));
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
       }
-      catch (Throwable e) {
-        LOG.info(e);
-        final String message = e.getMessage();
-        if (message != null) {
-          context.processMessage(new CompilerMessage(getPresentableName(), BuildMessage.Kind.ERROR, message, compiledClass.getSourceFile().getPath()));
-        }
-        else {
-          context.processMessage(new CompilerMessage(getPresentableName(), e));
-        }
+      catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
       }
     }
-    return exitCode;
+    return instrumented.get() ? ExitCode.OK : ExitCode.NOTHING_DONE;
+  }
+
+  private boolean instrumentClass(CompileContext context, CompiledClass compiledClass, InstrumentationClassFinder finder) {
+    final BinaryContent originalContent = compiledClass.getContent();
+    final ClassReader reader = new ClassReader(originalContent.getBuffer(), originalContent.getOffset(), originalContent.getLength());
+    final int version = getClassFileVersion(reader);
+    if (IS_INSTRUMENTED_KEY.get(compiledClass, Boolean.FALSE) || !canInstrument(compiledClass, version)) {
+      // do not instrument the same content twice
+      return false;
+    }
+    final ClassWriter writer = new InstrumenterClassWriter(getAsmClassWriterFlags(version), finder);
+    try {
+      final BinaryContent instrumented = instrument(context, compiledClass, reader, writer, finder);
+      if (instrumented != null) {
+        compiledClass.setContent(instrumented);
+        finder.cleanCachedData(compiledClass.getClassName());
+        IS_INSTRUMENTED_KEY.set(compiledClass, Boolean.TRUE);
+        return true;
+      }
+    }
+    catch (Throwable e) {
+      LOG.info(e);
+      final String message = e.getMessage();
+      if (message != null) {
+        context.processMessage(new CompilerMessage(getPresentableName(), BuildMessage.Kind.ERROR, message, compiledClass.getSourceFile().getPath()));
+      }
+      else {
+        context.processMessage(new CompilerMessage(getPresentableName(), e));
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return {@code true} if {@link #instrument} may be invoked for different classes concurrently
+   */
+  protected boolean isThreadSafe() {
+    return false;
   }
 
   protected abstract boolean canInstrument(CompiledClass compiledClass, int classFileVersion);
@@ -19,6 +19,8 @@ import org.jetbrains.jps.incremental.CompileContext;
 import org.jetbrains.jps.javac.OutputFileObject;
 
 /**
+* Processors are invoked for different classes concurrently, so implementations must be thread-safe.
+*
 * @author Eugene Zhuravlev
 *         Date: 1/21/12
 */
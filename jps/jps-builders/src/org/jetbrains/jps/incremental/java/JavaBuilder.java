@@ -102,6 +102,7 @@ public class JavaBuilder extends ModuleLevelBuilder {
     };
 
   private final Executor myTaskRunner;
+  private final Executor myPostProcessorsRunner;
   private static final List<ClassPostProcessor> ourClassProcessors = new ArrayList<ClassPostProcessor>();
   private static final Set<JpsModuleType<?>> ourCompilableModuleTypes;
   static {
@@ -118,6 +119,8 @@ public class JavaBuilder extends ModuleLevelBuilder {
   public JavaBuilder(Executor tasksExecutor) {
     super(BuilderCategory.TRANSLATOR);
     myTaskRunner = new SequentialTaskExecutor(tasksExecutor);
+    // post-processing of different classes is independent, only saving of the results must be sequential
+    myPostProcessorsRunner = tasksExecutor;
     //add here class processors in the sequence they should be executed
   }
 
@@ -178,15 +181,6 @@ public class JavaBuilder extends ModuleLevelBuilder {
         }
       });
 
-      if (JavaBuilderUtil.isCompileJavaIncrementally(context)) {
-        final ProjectBuilderLogger logger = context.getLoggingManager().getProjectBuilderLogger();
-        if (logger.isEnabled()) {
-          if (filesToCompile.size() > 0) {
-            logger.logCompiledFiles(filesToCompile, BUILDER_NAME, "Compiling files:");
-          }
-        }
-      }
-
       return compile(context, chunk, dirtyFilesHolder, filesToCompile, outputConsumer);
     }
     catch (ProjectBuildException e) {
@@ -358,7 +352,32 @@ public class JavaBuilder extends ModuleLevelBuilder {
     if (LOG.isDebugEnabled()) {
       LOG.debug("Compiling chunk [" + chunk.getName() + "] with options: \"" + StringUtil.join(options, " ") + "\"");
     }
+    String cacheKey = null;
+    if (JavaOutputCache.ENABLED && sourcePath.isEmpty() && (profile == null || !profile.isEnabled())) {
+      cacheKey = JavaOutputCache.computeKey(
+        context, chunk, files, options, classpath, platformCp, outs, useEclipseCompiler(context) ? "eclipse" : "javac"
+      );
+    }
     try {
+      if (cacheKey != null) {
+        final List<OutputFileObject> cached = JavaOutputCache.load(context, cacheKey);
+        if (cached != null) {
+          LOG.info("Classes for " + files.size() + " java files of module " + chunk.getName() + " are taken from the output cache");
+          for (OutputFileObject fileObject : cached) {
+            classesConsumer.save(fileObject);
+          }
+          return true;
+        }
+        classesConsumer.startCapturing();
+      }
+
+      if (JavaBuilderUtil.isCompileJavaIncrementally(context)) {
+        final ProjectBuilderLogger logger = context.getLoggingManager().getProjectBuilderLogger();
+        if (logger.isEnabled()) {
+          logger.logCompiledFiles(files, BUILDER_NAME, "Compiling files:");
+        }
+      }
+
       final boolean rc;
       if (USE_EMBEDDED_JAVAC) {
         final boolean useEclipse = useEclipseCompiler(context);
@@ -378,6 +397,9 @@ public class JavaBuilder extends ModuleLevelBuilder {
         }
         rc = future.getMessageHandler().isTerminatedSuccessfully();
       }
+      if (cacheKey != null && rc && !context.getCancelStatus().isCanceled()) {
+        JavaOutputCache.store(context, cacheKey, classesConsumer.getCapturedOutputs());
+      }
       return rc;
     }
     finally {
@@ -393,12 +415,16 @@ public class JavaBuilder extends ModuleLevelBuilder {
   }
 
   private void submitAsyncTask(final CompileContext context, final Runnable taskRunnable) {
+    submitAsyncTask(context, taskRunnable, myTaskRunner);
+  }
+
+  private static void submitAsyncTask(final CompileContext context, final Runnable taskRunnable, Executor executor) {
     final TasksCounter counter = COUNTER_KEY.get(context);
 
     assert counter != null;
 
     counter.incTaskCount();
-    myTaskRunner.execute(new Runnable() {
+    executor.execute(new Runnable() {
       public void run() {
         try {
           taskRunnable.run();
@@ -851,6 +877,7 @@ public class JavaBuilder extends ModuleLevelBuilder {
   private class ClassProcessingConsumer implements OutputFileConsumer {
     private final CompileContext myContext;
     private final OutputFileConsumer myDelegateOutputFileSink;
+    @Nullable private List<OutputFileObject> myCapturedOutputs;
 
     public ClassProcessingConsumer(CompileContext context, OutputFileConsumer sink) {
       myContext = context;
@@ -861,7 +888,24 @@ public class JavaBuilder extends ModuleLevelBuilder {
       };
     }
 
+    /**
+     * Remembers classes as they are produced by the compiler, before they are modified by post-processors
+     */
+    public void startCapturing() {
+      myCapturedOutputs = Collections.synchronizedList(new ArrayList<OutputFileObject>());
+    }
+
+    @NotNull
+    public List<OutputFileObject> getCapturedOutputs() {
+      return myCapturedOutputs != null ? myCapturedOutputs : Collections.<OutputFileObject>emptyList();
+    }
+
     public void save(@NotNull final OutputFileObject fileObject) {
+      if (myCapturedOutputs != null && JavaFileObject.Kind.CLASS == fileObject.getKind() && fileObject.getContent() != null) {
+        myCapturedOutputs.add(new OutputFileObject(null, fileObject.getOutputRoot(), fileObject.getRelativePath(), fileObject.getFile(),
+                                                   fileObject.getKind(), fileObject.getClassName(), fileObject.getSourceUri(),
+                                                   fileObject.getContent()));
+      }
       if (JavaFileObject.Kind.CLASS != fileObject.getKind()) {
         // generated sources or resources must be saved synchronously, because some compilers (e.g. eclipse)
         // may want to read generated text for further compilation
@@ -876,6 +920,15 @@ public class JavaBuilder extends ModuleLevelBuilder {
         }
       }
 
+      final Runnable saveTask = new Runnable() {
+        public void run() {
+          myDelegateOutputFileSink.save(fileObject);
+        }
+      };
+      if (ourClassProcessors.isEmpty()) {
+        submitAsyncTask(myContext, saveTask);
+        return;
+      }
       submitAsyncTask(myContext, new Runnable() {
         public void run() {
           try {
@@ -884,10 +937,11 @@ public class JavaBuilder extends ModuleLevelBuilder {
             }
           }
           finally {
-            myDelegateOutputFileSink.save(fileObject);
+            // the task is submitted before the counter is decremented, so compilation won't finish before the file is saved
+            submitAsyncTask(myContext, saveTask);
           }
         }
-      });
+      }, myPostProcessorsRunner);
     }
   }
 
@@ -0,0 +1,460 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.java;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.IOUtil;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.ModuleChunk;
+import org.jetbrains.jps.builders.BuildRootIndex;
+import org.jetbrains.jps.builders.BuildTarget;
+import org.jetbrains.jps.builders.BuildTargetIndex;
+import org.jetbrains.jps.builders.java.JavaModuleBuildTargetType;
+import org.jetbrains.jps.builders.java.JavaSourceRootDescriptor;
+import org.jetbrains.jps.incremental.BinaryContent;
+import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.incremental.FSCache;
+import org.jetbrains.jps.incremental.GlobalContextKey;
+import org.jetbrains.jps.incremental.ModuleBuildTarget;
+import org.jetbrains.jps.incremental.storage.BuildDataManager;
+import org.jetbrains.jps.incremental.storage.FileDigestStorage;
+import org.jetbrains.jps.incremental.storage.Timestamps;
+import org.jetbrains.jps.javac.OutputFileObject;
+
+import javax.tools.JavaFileObject;
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Local cache of classes produced by the java compiler for a module chunk. An entry is keyed by the digest of the contents of all chunk
+ * sources, compiler options and the state of the compilation classpath (source digests saved by the build for dependency modules,
+ * timestamps for other classpath entries), so when the same sources are compiled against the same dependencies again (e.g. after switching back to a VCS branch) the classes are taken from the cache instead of running the compiler.
+ * <p/>
+ * The cache stores classes exactly as they were produced by the compiler: restored classes are passed through the same output sink,
+ * so instrumentation and dependency mappings are handled as for freshly compiled classes.
+ */
+class JavaOutputCache {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.java.JavaOutputCache");
+  static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("jps.java.output.cache", "true"));
+  private static final long MAX_CACHE_SIZE = getMaxCacheSize();
+  private static final int VERSION = 2;
+  private static final String CACHE_DIR_NAME = "java-output-cache";
+  private static final String ENTRY_EXTENSION = ".classes";
+  private static final GlobalContextKey<Map<File, String>> DIRECTORY_DIGESTS_KEY = GlobalContextKey.create("_classpath_directory_digests_");
+  private static final GlobalContextKey<Map<File, ModuleBuildTarget>> OUTPUT_DIRECTORY_TARGETS_KEY =
+    GlobalContextKey.create("_output_directory_targets_");
+  private static final GlobalContextKey<Map<ModuleBuildTarget, String>> TARGET_DIGESTS_KEY = GlobalContextKey.create("_target_source_digests_");
+
+  private JavaOutputCache() {
+  }
+
+  private static long getMaxCacheSize() {
+    try {
+      return Long.parseLong(System.getProperty("jps.java.output.cache.size.mb", "256")) * 1024 * 1024;
+    }
+    catch (NumberFormatException e) {
+      return 256L * 1024 * 1024;
+    }
+  }
+
+  /**
+   * @return key of the cache entry for compilation of the given files or {@code null} if the compilation result cannot be cached,
+   * e.g. because only some of the chunk sources are compiled, so the result depends on classes compiled previously
+   */
+  @Nullable
+  static String computeKey(@NotNull CompileContext context, @NotNull ModuleChunk chunk, @NotNull Collection<File> files,
+                           @NotNull List<String> options, @NotNull Collection<File> classpath, @NotNull Collection<File> platformCp,
+                           @NotNull Map<File, Set<File>> outputs, @NotNull String compilerId) throws IOException {
+    final Set<File> allSources = collectChunkSources(context, chunk);
+    if (allSources == null || allSources.size() != files.size() || !allSources.containsAll(files)) {
+      return null;
+    }
+    final Map<File, byte[]> sourceDigests = FileDigestStorage.computeDigests(files);
+    if (sourceDigests.size() != files.size()) {
+      return null;
+    }
+
+    final MessageDigest digest = createDigest();
+    update(digest, "version:" + VERSION + ":" + compilerId + ":" + System.getProperty("java.version"));
+    for (String option : options) {
+      update(digest, option);
+    }
+    final List<File> outputRoots = new ArrayList<File>(outputs.keySet());
+    Collections.sort(outputRoots);
+    for (File root : outputRoots) {
+      update(digest, "out:" + root.getPath());
+      final List<File> sourceRoots = new ArrayList<File>(outputs.get(root));
+      Collections.sort(sourceRoots);
+      for (File sourceRoot : sourceRoots) {
+        update(digest, sourceRoot.getPath());
+      }
+    }
+    final List<File> sources = new ArrayList<File>(sourceDigests.keySet());
+    Collections.sort(sources);
+    for (File source : sources) {
+      update(digest, "src:" + source.getPath());
+      digest.update(sourceDigests.get(source));
+    }
+    final Set<ModuleBuildTarget> dependencies = new LinkedHashSet<ModuleBuildTarget>();
+    for (File file : platformCp) {
+      update(digest, "platform:" + getClasspathEntryDigest(context, file, outputs.keySet(), dependencies));
+    }
+    for (File file : classpath) {
+      update(digest, "cp:" + getClasspathEntryDigest(context, file, outputs.keySet(), dependencies));
+    }
+    if (!dependencies.isEmpty()) {
+      final String dependenciesDigest = getDependenciesDigest(context, chunk, dependencies);
+      if (dependenciesDigest == null) {
+        return null;
+      }
+      update(digest, "deps:" + dependenciesDigest);
+    }
+    return toHex(digest.digest());
+  }
+
+  @Nullable
+  private static Set<File> collectChunkSources(CompileContext context, ModuleChunk chunk) {
+    final BuildRootIndex rootIndex = context.getProjectDescriptor().getBuildRootIndex();
+    final FSCache fsCache = context.getProjectDescriptor().getFSCache();
+    final Set<File> result = new THashSet<File>(FileUtil.FILE_HASHING_STRATEGY);
+    for (ModuleBuildTarget target : chunk.getTargets()) {
+      if (!rootIndex.getTempTargetRoots(target, context).isEmpty()) {
+        return null;
+      }
+      for (JavaSourceRootDescriptor descriptor : rootIndex.getTargetRoots(target, context)) {
+        collectSources(rootIndex, fsCache, descriptor, descriptor.getRootFile(), result);
+      }
+    }
+    return result;
+  }
+
+  private static void collectSources(BuildRootIndex rootIndex, FSCache fsCache, JavaSourceRootDescriptor descriptor, File file, Set<File> result) {
+    final File[] children = fsCache.getChildren(file);
+    if (children != null) {
+      if (children.length > 0 && rootIndex.isDirectoryAccepted(file, descriptor)) {
+        for (File child : children) {
+          collectSources(rootIndex, fsCache, descriptor, child, result);
+        }
+      }
+    }
+    else if (JavaBuilder.JAVA_SOURCES_FILTER.accept(file) && rootIndex.isFileAccepted(file, descriptor)) {
+      result.add(file);
+    }
+  }
+
+  private static String getClasspathEntryDigest(CompileContext context, File file, Set<File> ownOutputs,
+                                                Set<ModuleBuildTarget> dependencies) throws IOException {
+    if (ownOutputs.contains(file)) {
+      // the chunk is compiled completely, so its previous output doesn't affect the result
+      return file.getPath();
+    }
+    if (!file.isDirectory()) {
+      return file.getPath() + ":" + file.length() + ":" + file.lastModified();
+    }
+    final ModuleBuildTarget target = getOutputDirectoryTargets(context).get(file);
+    if (target != null) {
+      // outputs of dependencies are represented by the state of their sources stored by the build, see getDependenciesDigest()
+      dependencies.add(target);
+      return file.getPath();
+    }
+
+    // a directory with classes which is not produced by the build, e.g. a library
+    Map<File, String> digests;
+    synchronized (DIRECTORY_DIGESTS_KEY) {
+      digests = DIRECTORY_DIGESTS_KEY.get(context);
+      if (digests == null) {
+        digests = Collections.synchronizedMap(new HashMap<File, String>());
+        DIRECTORY_DIGESTS_KEY.set(context, digests);
+      }
+    }
+    String result = digests.get(file);
+    if (result == null) {
+      final MessageDigest digest = createDigest();
+      updateWithDirectory(digest, file, "");
+      result = file.getPath() + ":" + toHex(digest.digest());
+      digests.put(file, result);
+    }
+    return result;
+  }
+
+  private static Map<File, ModuleBuildTarget> getOutputDirectoryTargets(CompileContext context) {
+    synchronized (OUTPUT_DIRECTORY_TARGETS_KEY) {
+      Map<File, ModuleBuildTarget> result = OUTPUT_DIRECTORY_TARGETS_KEY.get(context);
+      if (result == null) {
+        result = new THashMap<File, ModuleBuildTarget>(FileUtil.FILE_HASHING_STRATEGY);
+        final BuildTargetIndex targetIndex = context.getProjectDescriptor().getBuildTargetIndex();
+        for (JavaModuleBuildTargetType type : JavaModuleBuildTargetType.ALL_TYPES) {
+          for (ModuleBuildTarget target : targetIndex.getAllTargets(type)) {
+            final File outputDir = target.getOutputDir();
+            if (outputDir != null) {
+              result.put(outputDir, target);
+            }
+          }
+        }
+        OUTPUT_DIRECTORY_TARGETS_KEY.set(context, result);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Classes in the outputs of the given targets are determined by the sources of these targets and of the targets they depend on,
+   * so instead of hashing the classes the digest is computed from the source digests (or timestamps) saved by the build. The dependencies
+   * are built before the chunk, so the saved state corresponds to their current outputs.
+   *
+   * @return digest of the saved state of sources of the targets and all their dependencies or {@code null} if some sources haven't been
+   * built yet
+   */
+  @Nullable
+  private static String getDependenciesDigest(CompileContext context, ModuleChunk chunk, Set<ModuleBuildTarget> targets) throws IOException {
+    final BuildTargetIndex targetIndex = context.getProjectDescriptor().getBuildTargetIndex();
+    final Set<ModuleBuildTarget> allTargets = new THashSet<ModuleBuildTarget>();
+    final Deque<ModuleBuildTarget> queue = new ArrayDeque<ModuleBuildTarget>(targets);
+    while (!queue.isEmpty()) {
+      final ModuleBuildTarget target = queue.removeFirst();
+      if (chunk.getTargets().contains(target) || !allTargets.add(target)) {
+        continue;
+      }
+      for (BuildTarget<?> dependency : targetIndex.getDependencies(target, context)) {
+        if (dependency instanceof ModuleBuildTarget) {
+          queue.addLast((ModuleBuildTarget)dependency);
+        }
+      }
+    }
+
+    final List<String> digests = new ArrayList<String>(allTargets.size());
+    for (ModuleBuildTarget target : allTargets) {
+      final String targetDigest = getTargetDigest(context, target);
+      if (targetDigest == null) {
+        return null;
+      }
+      digests.add(targetDigest);
+    }
+    Collections.sort(digests);
+    final MessageDigest digest = createDigest();
+    for (String targetDigest : digests) {
+      update(digest, targetDigest);
+    }
+    return toHex(digest.digest());
+  }
+
+  @Nullable
+  private static String getTargetDigest(CompileContext context, ModuleBuildTarget target) throws IOException {
+    Map<ModuleBuildTarget, String> digests;
+    synchronized (TARGET_DIGESTS_KEY) {
+      digests = TARGET_DIGESTS_KEY.get(context);
+      if (digests == null) {
+        digests = Collections.synchronizedMap(new HashMap<ModuleBuildTarget, String>());
+        TARGET_DIGESTS_KEY.set(context, digests);
+      }
+    }
+    String result = digests.get(target);
+    if (result == null) {
+      result = computeTargetDigest(context, target);
+      digests.put(target, result != null ? result : "");
+    }
+    return result == null || result.isEmpty() ? null : result;
+  }
+
+  @Nullable
+  private static String computeTargetDigest(CompileContext context, ModuleBuildTarget target) throws IOException {
+    final BuildDataManager dataManager = context.getProjectDescriptor().dataManager;
+    final FileDigestStorage digestStorage = FileDigestStorage.ENABLED ? dataManager.getFileDigests() : null;
+    final Timestamps timestamps = context.getProjectDescriptor().timestamps.getStorage();
+    final List<String> sources = new ArrayList<String>(dataManager.getSourceToOutputMap(target).getSources());
+    Collections.sort(sources);
+    final MessageDigest digest = createDigest();
+    update(digest, target.getTargetType().getTypeId() + ":" + target.getId());
+    for (String source : sources) {
+      final File file = new File(source);
+      update(digest, source);
+      final byte[] sourceDigest = digestStorage != null ? digestStorage.getDigest(file, target) : null;
+      if (sourceDigest != null) {
+        digest.update(sourceDigest);
+      }
+      else {
+        final long stamp = timestamps.getStamp(file, target);
+        if (stamp == -1L) {
+          return null;
+        }
+        update(digest, String.valueOf(stamp));
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  private static void updateWithDirectory(MessageDigest digest, File dir, String relativePath) {
+    final File[] children = dir.listFiles();
+    if (children == null) return;
+    Arrays.sort(children);
+    for (File child : children) {
+      final String childPath = relativePath + "/" + child.getName();
+      if (child.isDirectory()) {
+        updateWithDirectory(digest, child, childPath);
+      }
+      else {
+        update(digest, childPath + ":" + child.length() + ":" + child.lastModified());
+      }
+    }
+  }
+
+  /**
+   * @return outputs stored in the cache or {@code null} if there is no entry for the key
+   */
+  @Nullable
+  static List<OutputFileObject> load(@NotNull CompileContext context, @NotNull String key) {
+    final File entryFile = getEntryFile(context, key);
+    if (!entryFile.exists()) {
+      return null;
+    }
+    try {
+      final DataInputStream input = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(entryFile))));
+      try {
+        if (input.readInt() != VERSION) {
+          return null;
+        }
+        int count = input.readInt();
+        final List<OutputFileObject> result = new ArrayList<OutputFileObject>(count);
+        while (count-- > 0) {
+          final String outputRoot = IOUtil.readString(input);
+          final String relativePath = IOUtil.readString(input);
+          final File file = new File(IOUtil.readString(input));
+          final String className = IOUtil.readString(input);
+          final String sourcePath = IOUtil.readString(input);
+          final byte[] content = new byte[input.readInt()];
+          input.readFully(content);
+          result.add(new OutputFileObject(null, outputRoot.isEmpty() ? null : new File(outputRoot), relativePath, file, JavaFileObject.Kind.CLASS,
+                                          className.isEmpty() ? null : className,
+                                          sourcePath.isEmpty() ? null : new File(sourcePath).toURI(), new BinaryContent(content)));
+        }
+        //noinspection ResultOfMethodCallIgnored
+        entryFile.setLastModified(System.currentTimeMillis());
+        return result;
+      }
+      finally {
+        input.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot read cached classes from " + entryFile + ": " + e.getMessage());
+      FileUtil.delete(entryFile);
+      return null;
+    }
+  }
+
+  static void store(@NotNull CompileContext context, @NotNull String key, @NotNull Collection<OutputFileObject> outputs) {
+    final File entryFile = getEntryFile(context, key);
+    final File tempFile = new File(entryFile.getPath() + ".tmp");
+    try {
+      FileUtil.createParentDirs(tempFile);
+      final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(new FileOutputStream(tempFile))));
+      try {
+        output.writeInt(VERSION);
+        output.writeInt(outputs.size());
+        for (OutputFileObject object : outputs) {
+          final File outputRoot = object.getOutputRoot();
+          final File sourceFile = object.getSourceFile();
+          final String className = object.getClassName();
+          final BinaryContent content = object.getContent();
+          assert content != null : object.getFile();
+          IOUtil.writeString(outputRoot != null ? outputRoot.getPath() : "", output);
+          IOUtil.writeString(object.getRelativePath(), output);
+          IOUtil.writeString(object.getFile().getPath(), output);
+          IOUtil.writeString(className != null ? className : "", output);
+          IOUtil.writeString(sourceFile != null ? sourceFile.getPath() : "", output);
+          output.writeInt(content.getLength());
+          output.write(content.getBuffer(), content.getOffset(), content.getLength());
+        }
+      }
+      finally {
+        output.close();
+      }
+      FileUtil.rename(tempFile, entryFile);
+    }
+    catch (IOException e) {
+      LOG.info("Cannot store compiled classes to " + entryFile + ": " + e.getMessage());
+      FileUtil.delete(tempFile);
+      return;
+    }
+    evictOldEntries(entryFile.getParentFile());
+  }
+
+  private static void evictOldEntries(File cacheDir) {
+    final File[] entries = cacheDir.listFiles();
+    if (entries == null) return;
+    long totalSize = 0;
+    for (File entry : entries) {
+      totalSize += entry.length();
+    }
+    if (totalSize <= MAX_CACHE_SIZE) return;
+
+    Arrays.sort(entries, new Comparator<File>() {
+      @Override
+      public int compare(File o1, File o2) {
+        final long m1 = o1.lastModified();
+        final long m2 = o2.lastModified();
+        return m1 < m2 ? -1 : m1 == m2 ? 0 : 1;
+      }
+    });
+    for (File entry : entries) {
+      if (totalSize <= MAX_CACHE_SIZE) break;
+      if (entry.getName().endsWith(ENTRY_EXTENSION)) {
+        totalSize -= entry.length();
+        FileUtil.delete(entry);
+      }
+    }
+  }
+
+  private static File getEntryFile(CompileContext context, String key) {
+    final File dataRoot = context.getProjectDescriptor().dataManager.getDataPaths().getDataStorageRoot();
+    return new File(new File(dataRoot, CACHE_DIR_NAME), key + ENTRY_EXTENSION);
+  }
+
+  private static void update(MessageDigest digest, String s) {
+    try {
+      digest.update(s.getBytes("UTF-8"));
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+    digest.update((byte)0);
+  }
+
+  private static String toHex(byte[] bytes) {
+    final StringBuilder builder = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -37,10 +37,11 @@ import java.util.Map;
  *         Date: 10/7/11
  */
 public class BuildDataManager implements StorageOwner {
-  private static final int VERSION = 19;
+  private static final int VERSION = 20;
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.storage.BuildDataManager");
   private static final String SRC_TO_FORM_STORAGE = "src-form";
   private static final String MAPPINGS_STORAGE = "mappings";
+  private static final String FILE_DIGESTS_STORAGE = "file-digests";
 
   private final Object mySourceToOutputLock = new Object();
   private final Map<BuildTarget<?>, SourceToOutputMappingImpl> mySourceToOutputs = new HashMap<BuildTarget<?>, SourceToOutputMappingImpl>();
@@ -54,6 +55,7 @@ public class BuildDataManager implements StorageOwner {
   };
 
   private final OneToManyPathsMapping mySrcToFormMap;
+  private final FileDigestStorage myFileDigests;
   private final Mappings myMappings;
   private final BuildDataPaths myDataPaths;
   private final BuildTargetsState myTargetsState;
@@ -63,6 +65,7 @@ public class BuildDataManager implements StorageOwner {
     myDataPaths = dataPaths;
     myTargetsState = targetsState;
     mySrcToFormMap = new OneToManyPathsMapping(new File(getSourceToFormsRoot(), "data"));
+    myFileDigests = new FileDigestStorage(new File(getFileDigestsRoot(), "data"), targetsState);
     myMappings = new Mappings(getMappingsRoot(), useMemoryTempCaches);
     myVersionFile = new File(myDataPaths.getDataStorageRoot(), "version.dat");
   }
@@ -103,6 +106,10 @@ public class BuildDataManager implements StorageOwner {
     return myMappings;
   }
 
+  public FileDigestStorage getFileDigests() {
+    return myFileDigests;
+  }
+
   public void cleanTargetStorages(BuildTarget<?> target) throws IOException {
     try {
       synchronized (myTargetStoragesLock) {
@@ -142,6 +149,7 @@ public class BuildDataManager implements StorageOwner {
       finally {
         try {
           wipeStorage(getSourceToFormsRoot(), mySrcToFormMap);
+          wipeStorage(getFileDigestsRoot(), myFileDigests);
         }
         finally {
           final Mappings mappings = myMappings;
@@ -170,6 +178,7 @@ public class BuildDataManager implements StorageOwner {
       }
     }
     mySrcToFormMap.flush(memoryCachesOnly);
+    myFileDigests.flush(memoryCachesOnly);
     final Mappings mappings = myMappings;
     if (mappings != null) {
       synchronized (mappings) {
@@ -199,6 +208,7 @@ public class BuildDataManager implements StorageOwner {
       finally {
         try {
           closeStorage(mySrcToFormMap);
+          closeStorage(myFileDigests);
         }
         finally {
           final Mappings mappings = myMappings;
@@ -258,6 +268,10 @@ public class BuildDataManager implements StorageOwner {
     return new File(myDataPaths.getDataStorageRoot(), SRC_TO_FORM_STORAGE);
   }
 
+  private File getFileDigestsRoot() {
+    return new File(myDataPaths.getDataStorageRoot(), FILE_DIGESTS_STORAGE);
+  }
+
   private File getMappingsRoot() {
     return new File(myDataPaths.getDataStorageRoot(), MAPPINGS_STORAGE);
   }
@@ -96,6 +96,17 @@ public class BuildTargetsState {
     return getTypeState(target.getTargetType()).getConfiguration(target);
   }
 
+  /**
+   * @return average time (in ms) spent on building the target in the previous builds or -1 if it is unknown
+   */
+  public long getAverageBuildTime(@NotNull BuildTarget<?> target) {
+    return getTypeState(target.getTargetType()).getAverageBuildTime(target);
+  }
+
+  public void registerBuildTime(@NotNull BuildTarget<?> target, long time) {
+    getTypeState(target.getTargetType()).registerBuildTime(target, time);
+  }
+
   private BuildTargetTypeState getTypeState(BuildTargetType<?> type) {
     BuildTargetTypeState state = myTypeStates.get(type);
     if (state == null) {
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.storage;
+
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.io.DataExternalizer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.builders.BuildTarget;
+import org.jetbrains.jps.service.SharedThreadPool;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Stores digests of source files contents as of the moment their timestamps were saved to {@link Timestamps}. A file
+ * whose timestamp has changed (e.g. after a VCS branch switch) but whose content digest is the same doesn't need to be recompiled.
+ */
+public class FileDigestStorage extends AbstractStateStorage<File, FileDigestStorage.DigestPerTarget[]> {
+  public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("jps.use.content.digests", "true"));
+  private static final int PARALLEL_HASHING_THRESHOLD = 16;
+  private final BuildTargetsState myTargetsState;
+
+  public FileDigestStorage(File storePath, BuildTargetsState targetsState) throws IOException {
+    super(storePath, new FileKeyDescriptor(), new StateExternalizer());
+    myTargetsState = targetsState;
+  }
+
+  @Nullable
+  public byte[] getDigest(File file, BuildTarget<?> target) throws IOException {
+    final DigestPerTarget[] state = getState(file);
+    if (state != null) {
+      int targetId = myTargetsState.getBuildTargetId(target);
+      for (DigestPerTarget digestPerTarget : state) {
+        if (digestPerTarget.targetId == targetId) {
+          return digestPerTarget.digest;
+        }
+      }
+    }
+    return null;
+  }
+
+  public void saveDigest(File file, BuildTarget<?> target, @NotNull byte[] digest) throws IOException {
+    final int targetId = myTargetsState.getBuildTargetId(target);
+    final DigestPerTarget newItem = new DigestPerTarget(targetId, digest);
+    final DigestPerTarget[] state = getState(file);
+    if (state == null) {
+      update(file, new DigestPerTarget[]{newItem});
+      return;
+    }
+    for (int i = 0; i < state.length; i++) {
+      if (state[i].targetId == targetId) {
+        if (Arrays.equals(state[i].digest, digest)) return;
+        state[i] = newItem;
+        update(file, state);
+        return;
+      }
+    }
+    update(file, ArrayUtil.append(state, newItem));
+  }
+
+  public void removeDigest(File file, BuildTarget<?> target) throws IOException {
+    final DigestPerTarget[] state = getState(file);
+    if (state != null) {
+      int targetId = myTargetsState.getBuildTargetId(target);
+      for (int i = 0; i < state.length; i++) {
+        if (state[i].targetId == targetId) {
+          if (state.length == 1) {
+            remove(file);
+          }
+          else {
+            update(file, ArrayUtil.remove(state, i));
+          }
+          break;
+        }
+      }
+    }
+  }
+
+  @NotNull
+  public static byte[] computeDigest(@NotNull File file) throws IOException {
+    final MessageDigest md5 = createDigest();
+    final byte[] buffer = new byte[8192];
+    final InputStream stream = new FileInputStream(file);
+    try {
+      int read;
+      while ((read = stream.read(buffer)) > 0) {
+        md5.update(buffer, 0, read);
+      }
+    }
+    finally {
+      stream.close();
+    }
+    return md5.digest();
+  }
+
+  /**
+   * Computes digests of the given files using the shared thread pool.
+   * @return digests of the files, files which can't be read are missing in the result
+   */
+  @NotNull
+  public static Map<File, byte[]> computeDigests(@NotNull Collection<File> files) {
+    final Map<File, byte[]> result = Collections.synchronizedMap(new HashMap<File, byte[]>());
+    if (files.size() < PARALLEL_HASHING_THRESHOLD) {
+      new DigestTask(files, result).run();
+      return result;
+    }
+
+    final List<File> fileList = new ArrayList<File>(files);
+    final int tasksCount = Math.min(Runtime.getRuntime().availableProcessors(), fileList.size() / PARALLEL_HASHING_THRESHOLD + 1);
+    final int taskSize = (fileList.size() + tasksCount - 1) / tasksCount;
+    final List<Future<?>> futures = new ArrayList<Future<?>>(tasksCount);
+    for (int start = 0; start < fileList.size(); start += taskSize) {
+      final List<File> part = fileList.subList(start, Math.min(start + taskSize, fileList.size()));
+      futures.add(SharedThreadPool.getInstance().executeOnPooledThread(new DigestTask(part, result)));
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      }
+      catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      }
+    }
+    return result;
+  }
+
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static class DigestTask implements Runnable {
+    private final Collection<File> myFiles;
+    private final Map<File, byte[]> myResult;
+
+    private DigestTask(Collection<File> files, Map<File, byte[]> result) {
+      myFiles = files;
+      myResult = result;
+    }
+
+    @Override
+    public void run() {
+      for (File file : myFiles) {
+        try {
+          myResult.put(file, computeDigest(file));
+        }
+        catch (IOException ignored) {
+          // the file will be considered changed
+        }
+      }
+    }
+  }
+
+  public static class DigestPerTarget {
+    public final int targetId;
+    public final byte[] digest;
+
+    public DigestPerTarget(int targetId, byte[] digest) {
+      this.targetId = targetId;
+      this.digest = digest;
+    }
+  }
+
+  private static class StateExternalizer implements DataExternalizer<DigestPerTarget[]> {
+    public void save(DataOutput out, DigestPerTarget[] value) throws IOException {
+      out.writeInt(value.length);
+      for (DigestPerTarget target : value) {
+        out.writeInt(target.targetId);
+        out.writeByte(target.digest.length);
+        out.write(target.digest);
+      }
+    }
+
+    public DigestPerTarget[] read(DataInput in) throws IOException {
+      int size = in.readInt();
+      DigestPerTarget[] targets = new DigestPerTarget[size];
+      for (int i = 0; i < size; i++) {
+        int id = in.readInt();
+        byte[] digest = new byte[in.readUnsignedByte()];
+        in.readFully(digest);
+        targets[i] = new DigestPerTarget(id, digest);
+      }
+      return targets;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.javac;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Package listings of classpath archives shared by all compilations performed in the process. The build process is kept alive
+ * between builds, so the central directory of a library jar is read only once and then re-read only if the jar's
+ * timestamp or length has changed.
+ */
+class ArchiveListingCache {
+  static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("jps.javac.cache.archive.listings", "true"));
+  private static final Map<File, SoftReference<Listing>> ourListings = new HashMap<File, SoftReference<Listing>>();
+
+  private ArchiveListingCache() {
+  }
+
+  /**
+   * @return listing of the archive or {@code null} if the archive cannot be read
+   */
+  @Nullable
+  static Listing getListing(@NotNull File archive) {
+    final long timestamp = archive.lastModified();
+    final long length = archive.length();
+    synchronized (ourListings) {
+      final SoftReference<Listing> ref = ourListings.get(archive);
+      final Listing listing = ref != null ? ref.get() : null;
+      if (listing != null && listing.myTimestamp == timestamp && listing.myLength == length) {
+        return listing;
+      }
+    }
+
+    final Listing listing;
+    try {
+      listing = readListing(archive, timestamp, length);
+    }
+    catch (IOException e) {
+      synchronized (ourListings) {
+        ourListings.remove(archive);
+      }
+      return null;
+    }
+    synchronized (ourListings) {
+      ourListings.put(archive, new SoftReference<Listing>(listing));
+    }
+    return listing;
+  }
+
+  private static Listing readListing(File archive, long timestamp, long length) throws IOException {
+    final Map<String, List<String>> directories = new HashMap<String, List<String>>();
+    final ZipFile zip = new ZipFile(archive);
+    try {
+      for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+        final String entryName = entries.nextElement().getName();
+        final int slash = entryName.lastIndexOf('/');
+        final String fileName = entryName.substring(slash + 1);
+        if (fileName.length() == 0) {
+          continue; // directory entry
+        }
+        final String dirName = entryName.substring(0, slash + 1);
+        List<String> files = directories.get(dirName);
+        if (files == null) {
+          files = new ArrayList<String>();
+          directories.put(dirName, files);
+        }
+        files.add(fileName);
+      }
+    }
+    finally {
+      zip.close();
+    }
+
+    final Map<String, String[]> result = new HashMap<String, String[]>(directories.size());
+    for (Map.Entry<String, List<String>> entry : directories.entrySet()) {
+      final List<String> files = entry.getValue();
+      result.put(entry.getKey(), files.toArray(new String[files.size()]));
+    }
+    return new Listing(timestamp, length, result);
+  }
+
+  static final class Listing {
+    private final long myTimestamp;
+    private final long myLength;
+    /**
+     * directory path with trailing slash ("" for the root) -> names of the files in this directory
+     */
+    private final Map<String, String[]> myDirectories;
+
+    private Listing(long timestamp, long length, Map<String, String[]> directories) {
+      myTimestamp = timestamp;
+      myLength = length;
+      myDirectories = directories;
+    }
+
+    @Nullable
+    String[] getFiles(@NotNull String directory) {
+      return myDirectories.get(directory);
+    }
+
+    @NotNull
+    Collection<String> getDirectories() {
+      return myDirectories.keySet();
+    }
+  }
+}
@@ -21,6 +21,7 @@ import com.sun.tools.javac.file.RelativePath;
 import com.sun.tools.javac.util.Context;
 import com.sun.tools.javac.util.List;
 import com.sun.tools.javac.util.ListBuffer;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.jps.incremental.Utils;
 
 import javax.lang.model.SourceVersion;
@@ -34,6 +35,8 @@ import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.CharsetDecoder;
 import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  * WARNING: Loaded via reflection, do not delete
@@ -45,6 +48,7 @@ class OptimizedFileManager17 extends com.sun.tools.javac.file.JavacFileManager {
   private final Map<File, Archive> myArchives;
   private final Map<File, Boolean> myIsFile = new HashMap<File, Boolean>();
   private final Map<File, File[]> myDirectoryCache = new HashMap<File, File[]>();
+  private final Map<File, ZipFile> myOpenedZipFiles = new HashMap<File, ZipFile>();
   public static final File[] NULL_FILE_ARRAY = new File[0];
 
   private static final String _OS_NAME = System.getProperty("os.name").toLowerCase(Locale.US);
@@ -98,6 +102,13 @@ class OptimizedFileManager17 extends com.sun.tools.javac.file.JavacFileManager {
       }
       
       if (isFile) {
+        // platform classes may be read from ct.sym instead of rt.jar, so only the class path is listed via the shared cache
+        final ArchiveListingCache.Listing listing =
+          ArchiveListingCache.ENABLED && location == StandardLocation.CLASS_PATH ? ArchiveListingCache.getListing(root) : null;
+        if (listing != null) {
+          listCachedArchive(root, listing, subdirectory.getPath(), kinds, recurse, results);
+          continue;
+        }
         // Not a directory; either a file or non-existant, create the archive
         try {
           if (archive == null) {
@@ -146,6 +157,54 @@ class OptimizedFileManager17 extends com.sun.tools.javac.file.JavacFileManager {
     }
   }
   
+  private void listCachedArchive(File archive, ArchiveListingCache.Listing listing, String subdirectory, Set<JavaFileObject.Kind> fileKinds, boolean recurse, ListBuffer<JavaFileObject> resultList) {
+    final String[] files = listing.getFiles(subdirectory);
+    if (files != null) {
+      for (String file : files) {
+        if (isValidFile(file, fileKinds)) {
+          resultList.append(new ArchiveFileObject(this, archive, subdirectory + file));
+        }
+      }
+    }
+    if (recurse) {
+      for (String dir : listing.getDirectories()) {
+        if (dir.length() > subdirectory.length() && dir.startsWith(subdirectory)) {
+          listCachedArchive(archive, listing, dir, fileKinds, false, resultList);
+        }
+      }
+    }
+  }
+
+  private ZipFile getZipFile(File archive) throws IOException {
+    synchronized (myOpenedZipFiles) {
+      ZipFile zip = myOpenedZipFiles.get(archive);
+      if (zip == null) {
+        zip = new ZipFile(archive);
+        myOpenedZipFiles.put(archive, zip);
+      }
+      return zip;
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      super.close();
+    }
+    finally {
+      synchronized (myOpenedZipFiles) {
+        for (ZipFile zip : myOpenedZipFiles.values()) {
+          try {
+            zip.close();
+          }
+          catch (IOException ignored) {
+          }
+        }
+        myOpenedZipFiles.clear();
+      }
+    }
+  }
+
   private void listDirectory(File directory, Set<JavaFileObject.Kind> fileKinds, ListBuffer<JavaFileObject> resultList, boolean canUseCache) {
     final File[] files = listChildren(directory, canUseCache);
     if (files != null) {
@@ -399,5 +458,137 @@ class OptimizedFileManager17 extends com.sun.tools.javac.file.JavacFileManager {
     }
   }
 
+  /**
+   * Entry of a class path archive listed via {@link ArchiveListingCache}. The archive itself is opened only when the content
+   * of some entry is requested.
+   */
+  private class ArchiveFileObject extends BaseFileObject {
+    private final File myArchive;
+    private final String myEntryName;
+    private final String myName;
+
+    public ArchiveFileObject(JavacFileManager fileManager, File archive, String entryName) {
+      super(fileManager);
+      myArchive = archive;
+      myEntryName = entryName;
+      myName = entryName.substring(entryName.lastIndexOf('/') + 1);
+    }
+
+    @Override
+    public URI toUri() {
+      return createJarUri(myArchive, myEntryName);
+    }
+
+    @Override
+    public String getName() {
+      return myArchive.getPath() + "(" + myEntryName + ")";
+    }
+
+    @Override
+    public String getShortName() {
+      return myArchive.getName() + "(" + myEntryName + ")";
+    }
+
+    @Override
+    public JavaFileObject.Kind getKind() {
+      return getKind(myName);
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+      final ZipFile zip = getZipFile(myArchive);
+      final ZipEntry entry = zip.getEntry(myEntryName);
+      if (entry == null) {
+        throw new FileNotFoundException(getName());
+      }
+      return zip.getInputStream(entry);
+    }
+
+    @Override
+    public OutputStream openOutputStream() throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Writer openWriter() throws IOException {
+      throw new UnsupportedOperationException();
+    }
 
+    @Override
+    public long getLastModified() {
+      try {
+        final ZipEntry entry = getZipFile(myArchive).getEntry(myEntryName);
+        return entry != null ? entry.getTime() : 0L;
+      }
+      catch (IOException e) {
+        return 0L;
+      }
+    }
+
+    @Override
+    public boolean delete() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected CharsetDecoder getDecoder(boolean ignoreEncodingErrors) {
+      return fileManager.getDecoder(fileManager.getEncodingName(), ignoreEncodingErrors);
+    }
+
+    @Override
+    protected String inferBinaryName(Iterable<? extends File> path) {
+      return removeExtension(myEntryName).replace('/', '.');
+    }
+
+    @Override
+    public boolean isNameCompatible(@NotNull String cn, @NotNull JavaFileObject.Kind kind) {
+      if (kind == Kind.OTHER && getKind() != kind) {
+        return false;
+      }
+      return myName.equals(cn + kind.extension);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof ArchiveFileObject)) {
+        return false;
+      }
+      final ArchiveFileObject o = (ArchiveFileObject)other;
+      return myArchive.equals(o.myArchive) && myEntryName.equals(o.myEntryName);
+    }
+
+    @Override
+    public int hashCode() {
+      return myArchive.hashCode() * 31 + myEntryName.hashCode();
+    }
+
+    @Override
+    public CharBuffer getCharContent(boolean ignoreEncodingErrors) throws IOException {
+      CharBuffer cb = fileManager.getCachedContent(this);
+      if (cb == null) {
+        final InputStream in = openInputStream();
+        try {
+          final ByteBuffer bb = fileManager.makeByteBuffer(in);
+          final JavaFileObject prev = fileManager.log.useSource(this);
+          try {
+            cb = fileManager.decode(bb, ignoreEncodingErrors);
+          }
+          finally {
+            fileManager.log.useSource(prev);
+          }
+          fileManager.recycleByteBuffer(bb);
+          if (!ignoreEncodingErrors) {
+            fileManager.cache(this, cb);
+          }
+        }
+        finally {
+          in.close();
+        }
+      }
+      return cb;
+    }
+  }
 }
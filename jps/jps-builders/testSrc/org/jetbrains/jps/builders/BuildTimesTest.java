@@ -0,0 +1,112 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.builders;
+
+import com.intellij.util.PathUtil;
+import org.jetbrains.jps.api.CanceledStatus;
+import org.jetbrains.jps.builders.impl.BuildTargetChunk;
+import org.jetbrains.jps.builders.java.JavaModuleBuildTargetType;
+import org.jetbrains.jps.builders.logging.BuildLoggingManager;
+import org.jetbrains.jps.cmdline.ProjectDescriptor;
+import org.jetbrains.jps.incremental.*;
+import org.jetbrains.jps.incremental.storage.BuildTargetsState;
+import org.jetbrains.jps.model.module.JpsModule;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class BuildTimesTest extends JpsBuildTestCase {
+  public void testBuildTimeIsStored() {
+    String a = createFile("src/A.java", "class A{}");
+    JpsModule m = addModule("m", PathUtil.getParentPath(a));
+    rebuildAll();
+
+    ProjectDescriptor descriptor = createProjectDescriptor(new BuildLoggingManager(new TestProjectBuilderLogger()));
+    try {
+      ModuleBuildTarget target = new ModuleBuildTarget(m, JavaModuleBuildTargetType.PRODUCTION);
+      assertTrue(descriptor.getTargetsState().getAverageBuildTime(target) >= 0);
+    }
+    finally {
+      descriptor.release();
+    }
+  }
+
+  public void testUpToDateBuildIsNotRecorded() {
+    String a = createFile("src/A.java", "class A{}");
+    JpsModule m = addModule("m", PathUtil.getParentPath(a));
+    rebuildAll();
+    ModuleBuildTarget target = new ModuleBuildTarget(m, JavaModuleBuildTargetType.PRODUCTION);
+    long averageTime = getAverageBuildTime(target);
+
+    makeAll().assertUpToDate();
+    assertEquals(averageTime, getAverageBuildTime(target));
+  }
+
+  private long getAverageBuildTime(ModuleBuildTarget target) {
+    ProjectDescriptor descriptor = createProjectDescriptor(new BuildLoggingManager(new TestProjectBuilderLogger()));
+    try {
+      return descriptor.getTargetsState().getAverageBuildTime(target);
+    }
+    finally {
+      descriptor.release();
+    }
+  }
+
+  public void testRecordedTimesDefineCriticalPath() throws Exception {
+    JpsModule a = addModule("a", PathUtil.getParentPath(createFile("a/A.java", "class A{}")));
+    JpsModule b = addModule("b", PathUtil.getParentPath(createFile("b/B.java", "class B{}")));
+    JpsModule c = addModule("c", PathUtil.getParentPath(createFile("c/C.java", "class C{}")));
+    b.getDependenciesList().addModuleDependency(a);
+    rebuildAll();
+
+    ProjectDescriptor descriptor = createProjectDescriptor(new BuildLoggingManager(new TestProjectBuilderLogger()));
+    try {
+      ModuleBuildTarget targetA = new ModuleBuildTarget(a, JavaModuleBuildTargetType.PRODUCTION);
+      ModuleBuildTarget targetB = new ModuleBuildTarget(b, JavaModuleBuildTargetType.PRODUCTION);
+      ModuleBuildTarget targetC = new ModuleBuildTarget(c, JavaModuleBuildTargetType.PRODUCTION);
+      BuildTargetsState state = descriptor.getTargetsState();
+      // make the recorded times dominate over the times of the real build above
+      for (int i = 0; i < 20; i++) {
+        state.registerBuildTime(targetA, 1000);
+        state.registerBuildTime(targetB, 1000);
+        state.registerBuildTime(targetC, 100000);
+      }
+
+      CompileContext context = new CompileContextImpl(CompileScopeTestBuilder.make().allModules().build(), descriptor, MessageHandler.DEAF,
+                                                      Collections.<String, String>emptyMap(), CanceledStatus.NULL);
+      Map<BuildTarget<?>, Long> weights = getWeights(IncProjectBuilder.computeCriticalPathWeights(context));
+      // 'c' is built alone, but it takes longer than the whole 'a' -> 'b' chain
+      assertTrue(weights.get(targetC) > weights.get(targetA));
+      // 'b' can be built only after 'a', so the chain starting from 'a' includes it
+      assertTrue(weights.get(targetA) > weights.get(targetB));
+      assertTrue(weights.get(targetA) >= state.getAverageBuildTime(targetA) + state.getAverageBuildTime(targetB));
+    }
+    finally {
+      descriptor.release();
+    }
+  }
+
+  private static Map<BuildTarget<?>, Long> getWeights(Map<BuildTargetChunk, Long> chunkWeights) {
+    Map<BuildTarget<?>, Long> weights = new HashMap<BuildTarget<?>, Long>();
+    for (Map.Entry<BuildTargetChunk, Long> entry : chunkWeights.entrySet()) {
+      for (BuildTarget<?> target : entry.getKey().getTargets()) {
+        weights.put(target, entry.getValue());
+      }
+    }
+    return weights;
+  }
+}
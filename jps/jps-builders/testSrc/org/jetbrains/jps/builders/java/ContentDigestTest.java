@@ -0,0 +1,51 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.builders.java;
+
+import com.intellij.util.PathUtil;
+import org.jetbrains.jps.builders.JpsBuildTestCase;
+import org.jetbrains.jps.incremental.java.JavaBuilder;
+
+public class ContentDigestTest extends JpsBuildTestCase {
+  public void testTouchedFileIsNotRecompiled() {
+    String a = createFile("src/A.java", "class A{}");
+    createFile("src/B.java", "class B{}");
+    addModule("m", PathUtil.getParentPath(a));
+    rebuildAll();
+
+    change(a);
+    makeAll().assertUpToDate();
+    makeAll().assertUpToDate();
+
+    change(a, "class A{ int i; }");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME, "src/A.java");
+  }
+
+  public void testRevertedFileIsRecompiled() {
+    String a = createFile("src/A.java", "class A{}");
+    // compiling only a part of the module sources bypasses the java output cache
+    createFile("src/B.java", "class B{}");
+    addModule("m", PathUtil.getParentPath(a));
+    rebuildAll();
+
+    change(a, "class A{ int i; }");
+    makeAll().assertSuccessful();
+    change(a, "class A{}");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME, "src/A.java");
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.builders.java;
+
+import com.intellij.util.PathUtil;
+import org.jetbrains.jps.builders.JpsBuildTestCase;
+import org.jetbrains.jps.incremental.java.JavaBuilder;
+import org.jetbrains.jps.model.module.JpsModule;
+
+import java.io.File;
+
+import static com.intellij.util.io.TestFileSystemBuilder.fs;
+
+public class JavaOutputCacheTest extends JpsBuildTestCase {
+  public void testClassesRestoredFromCache() {
+    String a = createFile("src/A.java", "class A{}");
+    JpsModule m = addModule("m", PathUtil.getParentPath(a));
+    rebuildAll();
+    assertEquals(1, getCacheEntriesCount());
+
+    rebuildAll();
+    assertEquals(1, getCacheEntriesCount());
+    assertOutput(m, fs().file("A.class"));
+
+    change(a, "class A{ int i; }");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME, "src/A.java");
+    assertEquals(2, getCacheEntriesCount());
+
+    // switching back to the previous version takes the classes from the cache without running javac
+    change(a, "class A{}");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME);
+    assertEquals(2, getCacheEntriesCount());
+    assertOutput(m, fs().file("A.class"));
+  }
+
+  public void testDependencyChangeChangesKey() {
+    String a = createFile("a/A.java", "public class A{ public static final int C = 1; }");
+    String b = createFile("b/B.java", "class B{ int x = A.C; }");
+    JpsModule depModule = addModule("a", PathUtil.getParentPath(a));
+    JpsModule main = addModule("b", PathUtil.getParentPath(b));
+    main.getDependenciesList().addModuleDependency(depModule);
+    rebuildAll();
+    assertEquals(2, getCacheEntriesCount());
+
+    change(a, "public class A{ public static final int C = 2; }");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME, "a/A.java", "b/B.java");
+    assertEquals(4, getCacheEntriesCount());
+
+    // the dependent module was compiled against the same version of the dependency, so both are restored
+    change(a, "public class A{ public static final int C = 1; }");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME);
+    assertEquals(4, getCacheEntriesCount());
+  }
+
+  private int getCacheEntriesCount() {
+    File[] files = new File(myDataStorageRoot, "java-output-cache").listFiles();
+    return files != null ? files.length : 0;
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.cmdline;
+
+import com.intellij.openapi.util.io.FileSystemUtil;
+import com.intellij.util.PathUtil;
+import org.jetbrains.jps.api.CmdlineRemoteProto;
+import org.jetbrains.jps.builders.JpsBuildTestCase;
+import org.jetbrains.jps.builders.TestProjectBuilderLogger;
+import org.jetbrains.jps.builders.java.JavaModuleBuildTargetType;
+import org.jetbrains.jps.builders.logging.BuildLoggingManager;
+import org.jetbrains.jps.incremental.ModuleBuildTarget;
+import org.jetbrains.jps.model.module.JpsModule;
+
+import java.io.File;
+import java.io.IOException;
+
+public class BuildSessionTest extends JpsBuildTestCase {
+  public void testTouchedFileFromFSEventIsNotMarkedDirty() throws IOException {
+    String a = createFile("src/A.java", "class A{}");
+    JpsModule m = addModule("m", PathUtil.getParentPath(a));
+    rebuildAll();
+
+    change(a);
+    ProjectDescriptor descriptor = createProjectDescriptor(new BuildLoggingManager(new TestProjectBuilderLogger()));
+    try {
+      ModuleBuildTarget target = new ModuleBuildTarget(m, JavaModuleBuildTargetType.PRODUCTION);
+      descriptor.fsState.markInitialScanPerformed(target);
+      BuildSession.applyFSEvent(descriptor, createEvent(1, a), false);
+      assertFalse(descriptor.fsState.hasWorkToDo(target));
+      assertEquals(FileSystemUtil.lastModified(new File(a)), descriptor.timestamps.getStorage().getStamp(new File(a), target));
+
+      change(a, "class A{ int i; }");
+      BuildSession.applyFSEvent(descriptor, createEvent(2, a), false);
+      assertTrue(descriptor.fsState.hasWorkToDo(target));
+    }
+    finally {
+      descriptor.release();
+    }
+  }
+
+  private static CmdlineRemoteProto.Message.ControllerMessage.FSEvent createEvent(long ordinal, String changedPath) {
+    return CmdlineRemoteProto.Message.ControllerMessage.FSEvent.newBuilder().setOrdinal(ordinal).addChangedPaths(changedPath).build();
+  }
+}
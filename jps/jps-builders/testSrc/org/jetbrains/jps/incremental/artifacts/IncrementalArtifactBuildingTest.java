@@ -18,6 +18,7 @@ package org.jetbrains.jps.incremental.artifacts;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.PathUtil;
 import org.jetbrains.jps.builders.CompileScopeTestBuilder;
+import org.jetbrains.jps.incremental.artifacts.impl.JarsBuilder;
 import org.jetbrains.jps.model.artifact.JpsArtifact;
 import org.jetbrains.jps.model.artifact.elements.JpsPackagingElementFactory;
 import org.jetbrains.jps.model.module.JpsModule;
@@ -78,6 +79,20 @@ public class IncrementalArtifactBuildingTest extends ArtifactBuilderTestCase {
     buildAllAndAssertUpToDate();
   }
 
+  public void testPackChangedFileWithExtractedDirectory() {
+    String file = createFile("dir/a.txt", "aaa");
+    final JpsArtifact a = addArtifact(archive("a.jar").fileCopy(file).extractedDir(getJUnitJarPath(), "/junit/textui/"));
+    buildAll();
+    assertOutput(a, fs().archive("a.jar").file("a.txt", "aaa").file("ResultPrinter.class").file("TestRunner.class"));
+    assertCompiled(JarsBuilder.REUSED_ENTRIES_LOG_ID);
+
+    change(file, "xxx");
+    buildAll();
+    assertOutput(a, fs().archive("a.jar").file("a.txt", "xxx").file("ResultPrinter.class").file("TestRunner.class"));
+    assertCompiled(JarsBuilder.REUSED_ENTRIES_LOG_ID, "out/artifacts/a/a.jar!/ResultPrinter.class", "out/artifacts/a/a.jar!/TestRunner.class");
+    buildAllAndAssertUpToDate();
+  }
+
   public void testRemoveDeletedFileFromArchive() {
     String file1 = createFile("dir/a.txt");
     createFile("dir/b.txt");
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.javac;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ArchiveListingCacheTest extends TestCase {
+  private File myJar;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myJar = FileUtil.createTempFile("listing", ".jar");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myJar);
+    super.tearDown();
+  }
+
+  public void testListingIsReusedUntilArchiveChanges() throws IOException {
+    writeJar("a/A.class", "a/b/B.class");
+    final ArchiveListingCache.Listing listing = ArchiveListingCache.getListing(myJar);
+    assertNotNull(listing);
+    assertFiles(listing, "a/", "A.class");
+    assertFiles(listing, "a/b/", "B.class");
+    assertSame(listing, ArchiveListingCache.getListing(myJar));
+
+    // same timestamp, different length
+    final long timestamp = myJar.lastModified();
+    writeJar("a/A.class", "a/b/B.class", "a/C.class");
+    assertTrue(myJar.setLastModified(timestamp));
+    final ArchiveListingCache.Listing grown = ArchiveListingCache.getListing(myJar);
+    assertNotNull(grown);
+    assertNotSame(listing, grown);
+    assertFiles(grown, "a/", "A.class", "C.class");
+
+    // same length, different timestamp
+    writeJar("a/A.class", "a/b/B.class", "a/D.class");
+    assertTrue(myJar.setLastModified(timestamp + 10000));
+    final ArchiveListingCache.Listing touched = ArchiveListingCache.getListing(myJar);
+    assertNotNull(touched);
+    assertNotSame(grown, touched);
+    assertFiles(touched, "a/", "A.class", "D.class");
+    assertSame(touched, ArchiveListingCache.getListing(myJar));
+  }
+
+  public void testUnreadableArchive() throws IOException {
+    FileUtil.writeToFile(myJar, "not a zip");
+    assertNull(ArchiveListingCache.getListing(myJar));
+  }
+
+  private static void assertFiles(ArchiveListingCache.Listing listing, String directory, String... expected) {
+    final String[] files = listing.getFiles(directory);
+    assertNotNull(directory, files);
+    Arrays.sort(files);
+    assertEquals(Arrays.asList(expected), Arrays.asList(files));
+  }
+
+  private void writeJar(String... entries) throws IOException {
+    final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(myJar));
+    try {
+      for (String entry : entries) {
+        out.putNextEntry(new ZipEntry(entry));
+        out.closeEntry();
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+}
@@ -23,12 +23,18 @@ import org.jetbrains.annotations.NotNull;
  * {@code 'index <-> (start; end)'} and provides convenient way for working with them, e.g. find index by particular offset that
  * belongs to target <code>(start; end)</code> segment etc.
  * <p/>
+ * {@link #shiftSegments(int, int) Shifting} the tail of the array is lazy: offsets of the segments starting from {@link #myShiftIndex} are
+ * stored without {@link #myPendingShift}, and only the segments between the previous and the new shift positions are updated.
+ * So repeated changes at nearby offsets (e.g. typing) don't iterate over all following segments.
+ * <p/>
  * Not thread-safe.
  */
 public class SegmentArray {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.editor.ex.util.SegmentArray");
   private int[] myStarts;
   private int[] myEnds;
+  private int myShiftIndex;
+  private int myPendingShift;
 
   protected int mySegmentCount = 0;
   protected static final int INITIAL_SIZE = 64;
@@ -50,16 +56,43 @@ public class SegmentArray {
       mySegmentCount = i + 1;
     }
 
+    final int shift = getPendingShift(i);
     myStarts = reallocateArray(myStarts, i);
-    myStarts[i] = startOffset;
+    myStarts[i] = startOffset - shift;
 
     myEnds = reallocateArray(myEnds, i);
-    myEnds[i] = endOffset;
+    myEnds[i] = endOffset - shift;
   }
 
   protected void replace(int startOffset, @NotNull SegmentArray data, int len) {
+    data.applyPendingShift();
     System.arraycopy(data.myStarts, 0, myStarts, startOffset, len);
     System.arraycopy(data.myEnds, 0, myEnds, startOffset, len);
+    excludePendingShift(startOffset, startOffset + len);
+  }
+
+  private int getPendingShift(int index) {
+    return index >= myShiftIndex ? myPendingShift : 0;
+  }
+
+  /**
+   * Makes the pending shift not applicable to the just stored raw offsets in the given index range
+   */
+  private void excludePendingShift(int startIndex, int endIndex) {
+    if (myPendingShift == 0) return;
+    for (int i = Math.max(startIndex, myShiftIndex); i < endIndex; i++) {
+      myStarts[i] -= myPendingShift;
+      myEnds[i] -= myPendingShift;
+    }
+  }
+
+  private void applyPendingShift() {
+    if (myPendingShift == 0) return;
+    for (int i = myShiftIndex; i < mySegmentCount; i++) {
+      myStarts[i] += myPendingShift;
+      myEnds[i] += myPendingShift;
+    }
+    myPendingShift = 0;
   }
 
   static int calcCapacity(int currentArraySize, int index) {
@@ -104,10 +137,10 @@ public class SegmentArray {
 
     while (start < end) {
       int i = (start + end) / 2;
-      if (offset < myStarts[i]) {
+      if (offset < myStarts[i] + getPendingShift(i)) {
         end = i - 1;
       }
-      else if (offset >= myEnds[i]) {
+      else if (offset >= myEnds[i] + getPendingShift(i)) {
         start = i + 1;
       }
       else {
@@ -116,13 +149,13 @@ public class SegmentArray {
     }
 
     // This means that there is a gap at given offset
-    assert myStarts[start] <= offset && offset < myEnds[start] : start;
+    assert myStarts[start] + getPendingShift(start) <= offset && offset < myEnds[start] + getPendingShift(start) : start;
 
     return start;
   }
 
   public int getLastValidOffset() {
-    return mySegmentCount == 0 ? 0 : myEnds[mySegmentCount - 1];
+    return mySegmentCount == 0 ? 0 : myEnds[mySegmentCount - 1] + getPendingShift(mySegmentCount - 1);
   }
 
   public final void changeSegmentLength(int startIndex, int change) {
@@ -133,23 +166,50 @@ public class SegmentArray {
   }
 
   public final void shiftSegments(int startIndex, int shift) {
-    for (int i = startIndex; i < mySegmentCount; i++) {
-      myStarts[i] += shift;
-      myEnds[i] += shift;
-      if (myStarts[i] < 0 || myEnds[i] < 0) {
-        LOG.error("Error shifting segments: myStarts[" + i + "] = " + myStarts[i] + ", myEnds[" + i + "] = " + myEnds[i]);
+    if (shift == 0 || startIndex >= mySegmentCount) return;
+    startIndex = Math.max(startIndex, 0);
+
+    if (myPendingShift == 0) {
+      myShiftIndex = startIndex;
+    }
+    else if (startIndex > myShiftIndex) {
+      // segments between the old and the new shift positions get the old pending shift only
+      for (int i = myShiftIndex; i < startIndex; i++) {
+        myStarts[i] += myPendingShift;
+        myEnds[i] += myPendingShift;
+      }
+      myShiftIndex = startIndex;
+    }
+    else if (startIndex < myShiftIndex) {
+      // segments between the new and the old shift positions get the new shift only
+      for (int i = startIndex; i < myShiftIndex; i++) {
+        myStarts[i] -= myPendingShift;
+        myEnds[i] -= myPendingShift;
       }
+      myShiftIndex = startIndex;
+    }
+    myPendingShift += shift;
+
+    if (getSegmentStart(startIndex) < 0) {
+      LOG.error("Error shifting segments: start of segment " + startIndex + " = " + getSegmentStart(startIndex));
     }
   }
 
   public void removeAll() {
     mySegmentCount = 0;
+    myPendingShift = 0;
   }
 
   public void remove(int startIndex, int endIndex) {
     myStarts = remove(myStarts, startIndex, endIndex);
     myEnds = remove(myEnds, startIndex, endIndex);
     mySegmentCount -= endIndex - startIndex;
+    if (myShiftIndex >= endIndex) {
+      myShiftIndex -= endIndex - startIndex;
+    }
+    else if (myShiftIndex > startIndex) {
+      myShiftIndex = startIndex;
+    }
   }
 
   @NotNull
@@ -161,9 +221,17 @@ public class SegmentArray {
   }
 
   protected void insert(@NotNull SegmentArray segmentArray, int startIndex) {
-    myStarts = insert(myStarts, segmentArray.myStarts, startIndex, segmentArray.getSegmentCount());
-    myEnds = insert(myEnds, segmentArray.myEnds, startIndex, segmentArray.getSegmentCount());
-    mySegmentCount += segmentArray.getSegmentCount();
+    segmentArray.applyPendingShift();
+    final int insertCount = segmentArray.getSegmentCount();
+    myStarts = insert(myStarts, segmentArray.myStarts, startIndex, insertCount);
+    myEnds = insert(myEnds, segmentArray.myEnds, startIndex, insertCount);
+    mySegmentCount += insertCount;
+    if (myShiftIndex > startIndex) {
+      myShiftIndex += insertCount;
+    }
+    else {
+      excludePendingShift(startIndex, startIndex + insertCount);
+    }
   }
 
   @NotNull
@@ -180,14 +248,14 @@ public class SegmentArray {
     if (index < 0 || index >= mySegmentCount) {
       throw new IndexOutOfBoundsException("Wrong line: " + index + ". Available lines count: " + mySegmentCount);
     }
-    return myStarts[index];
+    return myStarts[index] + getPendingShift(index);
   }
 
   public int getSegmentEnd(int index) {
     if (index < 0 || index >= mySegmentCount) {
       throw new IndexOutOfBoundsException("Wrong line: " + index + ". Available lines count: " + mySegmentCount);
     }
-    return myEnds[index];
+    return myEnds[index] + getPendingShift(index);
   }
 
 
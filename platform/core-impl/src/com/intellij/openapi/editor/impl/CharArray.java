@@ -24,6 +24,7 @@ import com.intellij.util.LocalTimeCounter;
 import com.intellij.util.text.CharArrayCharSequence;
 import com.intellij.util.text.CharArrayUtil;
 import com.intellij.util.text.CharSequenceBackedByArray;
+import com.intellij.util.text.ImmutableText;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -55,6 +56,13 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
    */
   private static final int MAX_DEFERRED_CHANGES_NUMBER = 10000;
 
+  /**
+   * If set, the text is stored as {@link ImmutableText} instead of the flat array, so a modification takes O(log n) regardless of
+   * the text size and {@link #getImmutableCharSequence()} doesn't need to copy the text.
+   */
+  @SuppressWarnings("UseOfArchaicSystemPropertyAccessors")
+  private static final boolean USE_ROPE = Boolean.getBoolean("idea.document.rope.text");
+
   private final TextChangesStorage myDeferredChangesStorage;
 
   private volatile int myStart; // start offset in myArray (used as an optimization when call substring())
@@ -67,6 +75,7 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   private volatile int myDeferredShift;
   private volatile boolean myDeferredChangeMode;
   private volatile boolean myHasDeferredChanges;
+  private volatile ImmutableText myRope; // not null if the text is stored as a rope; myArray holds its flattened copy then, if any
   // this lock is for mutual exclusion during read action access
   // (some fields are changed in read action too)
   private final Lock lock = new ReentrantLock();
@@ -100,10 +109,18 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
 
   // bufferSize == 0 means unbounded
   CharArray(final int bufferSize, @NotNull char[] data, int length) {
+    this(bufferSize, data, length, USE_ROPE);
+  }
+
+  CharArray(final int bufferSize, @NotNull char[] data, int length, boolean useRope) {
     myBufferSize = bufferSize;
     myDeferredChangesStorage = new TextChangesStorage();
     myArray = Arrays.copyOf(data, length);
     myCount = length;
+    if (useRope && !myDebug) {
+      myRope = ImmutableText.valueOf(new CharArrayCharSequence(myArray, 0, length));
+      myArray = null;
+    }
 
     if (myDebug) {
       myDebugArray = new CharArray(bufferSize, data, length) {
@@ -166,6 +183,11 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   protected abstract void assertReadAccess();
 
   private void setText(@NotNull CharSequence chars) {
+    if (myRope != null) {
+      updateRope(ImmutableText.valueOf(chars.toString()));
+      trimToSize();
+      return;
+    }
     assertConsistency();
     myOriginalSequence = chars.toString();
     myArray = null;
@@ -184,6 +206,7 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   }
 
   private void assertConsistency() {
+    if (myRope != null) return;
     if (isDeferredChangeMode()) {
       assert myOriginalSequence == null;
     }
@@ -255,6 +278,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   }
 
   private void doReplace(int startOffset, int endOffset, @NotNull CharSequence newString) {
+    if (myRope != null) {
+      updateRope(myRope.replace(startOffset, endOffset, newString));
+      return;
+    }
     prepareForModification();
 
     if (isDeferredChangeMode()) {
@@ -292,6 +319,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     if (startIndex == endIndex) {
       return;
     }
+    if (myRope != null) {
+      updateRope(myRope.delete(startIndex, endIndex));
+      return;
+    }
     prepareForModification();
 
     if (isDeferredChangeMode()) {
@@ -320,6 +351,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   }
 
   private void doInsert(@NotNull CharSequence s, final int startIndex) {
+    if (myRope != null) {
+      updateRope(myRope.insert(startIndex, s));
+      return;
+    }
     prepareForModification();
 
     if (isDeferredChangeMode()) {
@@ -341,6 +376,22 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     }
   }
 
+  private void updateRope(@NotNull ImmutableText rope) {
+    myRope = rope;
+    myCount = rope.length();
+    myArray = null;
+    myStringRef = null;
+  }
+
+  /**
+   * @return text which is not affected by subsequent modifications of this char array
+   */
+  @NotNull
+  public CharSequence getImmutableCharSequence() {
+    ImmutableText rope = myRope;
+    return rope != null ? rope : toString();
+  }
+
   /**
    * Stores given change at collection of deferred changes (merging it with others if necessary) and updates current object
    * state ({@link #length() length} etc).
@@ -391,7 +442,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     assertConsistency();
     String str = myStringRef == null ? null : myStringRef.get();
     if (str == null) {
-      if (myHasDeferredChanges) {
+      if (myRope != null) {
+        str = myRope.toString();
+      }
+      else if (myHasDeferredChanges) {
         str = substring(0, length()).toString();
       }
       else {
@@ -419,6 +473,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     if (i < 0 || i >= length()) {
       throw new IndexOutOfBoundsException("Wrong offset: " + i + "; count:" + length());
     }
+    ImmutableText rope = myRope;
+    if (rope != null) {
+      return rope.charAt(i);
+    }
     i += myStart;
     final char result;
     if (!myHasDeferredChanges) {
@@ -448,6 +506,9 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     assertReadAccess();
     assertConsistency();
     if (start == 0 && end == length()) return this;
+    if (myRope != null) {
+      return myRope.subtext(start, end);
+    }
     if (myOriginalSequence != null) {
       return myOriginalSequence.subSequence(start, end);
     }
@@ -460,6 +521,14 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   public char[] getChars() {
     assertReadAccess();
     assertConsistency();
+    ImmutableText rope = myRope;
+    if (rope != null) {
+      char[] flattened = myArray;
+      if (flattened == null) {
+        myArray = flattened = rope.toCharArray();
+      }
+      return flattened;
+    }
     char[] array = myArray;
     CharSequence originalSequence = myOriginalSequence;
     if (myHasDeferredChanges || originalSequence != null && array == null) {
@@ -484,6 +553,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   public void getChars(@NotNull final char[] dst, final int dstOffset) {
     assertReadAccess();
     assertConsistency();
+    if (myRope != null) {
+      myRope.getChars(0, length(), dst, dstOffset);
+      return;
+    }
     flushDeferredChanged();
     if (myOriginalSequence == null) {
       System.arraycopy(myArray, myStart, dst, dstOffset, length());
@@ -517,7 +590,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   private CharSequence doSubString(int start, int end) {
     if (start == end) return "";
     final CharSequence result;
-    if (myOriginalSequence == null) {
+    if (myRope != null) {
+      result = myRope.subtext(start, end);
+    }
+    else if (myOriginalSequence == null) {
       result = myDeferredChangesStorage.substring(myArray, start + myStart, end + myStart);
     }
     else {
@@ -601,7 +677,7 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
    * @param deferredChangeMode    flag that defines if <code>'defer changes'</code> mode should be used by the current object
    */
   public void setDeferredChangeMode(boolean deferredChangeMode) {
-    if (!DISABLE_DEFERRED_PROCESSING) {
+    if (!DISABLE_DEFERRED_PROCESSING && myRope == null) { // rope modifications are cheap anyway
       if (deferredChangeMode) {
         if (myDebug) {
           myDebugArray.setText(myDebugTextOnBatchUpdateStart = toString());
@@ -644,6 +644,15 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
     return myText.getCharArray();
   }
 
+  /**
+   * @return snapshot of the document text which may be processed in a background thread while the document is being modified.
+   * Taking a snapshot is cheap if the text is stored as a rope (<code>idea.document.rope.text</code>), otherwise the text is copied.
+   */
+  @NotNull
+  public CharSequence getImmutableCharSequence() {
+    return myText.getImmutableCharSequence();
+  }
+
 
   @Override
   public void addDocumentListener(@NotNull DocumentListener listener) {
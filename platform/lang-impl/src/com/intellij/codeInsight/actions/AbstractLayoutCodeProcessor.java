@@ -157,6 +157,16 @@ public abstract class AbstractLayoutCodeProcessor {
   protected abstract FutureTask<Boolean> preprocessFile(@NotNull PsiFile file, boolean processChangedTextOnly)
     throws IncorrectOperationException;
 
+  /**
+   * Is called under read action with progress before {@link #preprocessFile(PsiFile, boolean) preprocessing} the files when more
+   * than one file is processed, so that the work which doesn't modify the files may be done for all of them at once.
+   *
+   * @param files                   files to process
+   * @param processChangedTextOnly  flag that defines is only the changed text (in terms of VCS change) should be processed
+   */
+  protected void prepareFiles(@NotNull List<PsiFile> files, boolean processChangedTextOnly) {
+  }
+
   public void run() {
     if (myDirectory != null){
       runProcessDirectory(myDirectory, myIncludeSubdirs);
@@ -237,6 +247,11 @@ public abstract class AbstractLayoutCodeProcessor {
       progress.setText(myProgressText);
     }
 
+    if (files.size() > 1) {
+      prepareFiles(Collections.unmodifiableList(files), myProcessChangedTextOnly);
+      if (progress != null && progress.isCanceled()) return null;
+    }
+
     final List<FutureTask<Boolean>> tasks = new ArrayList<FutureTask<Boolean>>(files.size());
     for(int i = 0; i < files.size(); i++) {
       PsiFile file = files.get(i);
@@ -17,22 +17,33 @@
 package com.intellij.codeInsight.actions;
 
 import com.intellij.codeInsight.CodeInsightBundle;
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.formatting.FormatTextRanges;
 import com.intellij.formatting.FormattingProgressTask;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.PsiDirectory;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.codeStyle.CodeStyleManager;
+import com.intellij.psi.codeStyle.CodeStyleSettingsManager;
+import com.intellij.psi.impl.source.codeStyle.CodeFormatterFacade;
 import com.intellij.util.IncorrectOperationException;
+import com.intellij.util.Processor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ReformatCodeProcessor extends AbstractLayoutCodeProcessor {
   
@@ -43,6 +54,9 @@ public class ReformatCodeProcessor extends AbstractLayoutCodeProcessor {
   private final Collection<TextRange> myRanges = new ArrayList<TextRange>();
   private static final String PROGRESS_TEXT = CodeInsightBundle.message("reformat.progress.common.text");
 
+  private final Map<PsiFile, CodeFormatterFacade.PreparedChanges> myPreparedChanges =
+    new ConcurrentHashMap<PsiFile, CodeFormatterFacade.PreparedChanges>();
+
   public ReformatCodeProcessor(Project project, boolean processChangedTextOnly) {
     super(project, COMMAND_NAME, PROGRESS_TEXT, processChangedTextOnly);
   }
@@ -75,6 +89,43 @@ public class ReformatCodeProcessor extends AbstractLayoutCodeProcessor {
     super(project, files, PROGRESS_TEXT, commandName, postRunnable, processChangedTextOnly);
   }
 
+  /**
+   * Formats copies of the files in parallel, so that the write phase only has to apply the resulting changes to the documents.
+   * Is done for the whole files only since the changed ranges are computed later, right before formatting.
+   */
+  @Override
+  protected void prepareFiles(@NotNull List<PsiFile> files, boolean processChangedTextOnly) {
+    if (processChangedTextOnly || !myRanges.isEmpty()) {
+      return;
+    }
+    final CodeFormatterFacade codeFormatter = new CodeFormatterFacade(CodeStyleSettingsManager.getSettings(myProject));
+    final ProgressIndicator progress = ProgressManager.getInstance().getProgressIndicator();
+    final AtomicInteger preparedCount = new AtomicInteger();
+    final int filesCount = files.size();
+    // the changes are an optimization only, so fail fast instead of waiting for read action if a write action is pending
+    JobLauncher.getInstance().invokeConcurrentlyUnderProgress(files, progress, true, new Processor<PsiFile>() {
+      @Override
+      public boolean process(PsiFile file) {
+        if (file.isWritable()) {
+          try {
+            CodeFormatterFacade.PreparedChanges changes =
+              codeFormatter.prepareText(file, new FormatTextRanges(file.getTextRange(), true));
+            if (changes != null) {
+              myPreparedChanges.put(file, changes);
+            }
+          }
+          catch (IncorrectOperationException e) {
+            LOG.error(e);
+          }
+        }
+        if (progress != null) {
+          progress.setFraction((double)preparedCount.incrementAndGet() / filesCount);
+        }
+        return true;
+      }
+    });
+  }
+
   @Override
   @NotNull
   protected FutureTask<Boolean> preprocessFile(@NotNull final PsiFile file, final boolean processChangedTextOnly)
@@ -91,6 +142,7 @@ public class ReformatCodeProcessor extends AbstractLayoutCodeProcessor {
           if (myRanges.isEmpty()) {
             myRanges.add(file.getTextRange());
           }
+          file.putUserData(CodeFormatterFacade.PREPARED_CHANGES_KEY, myPreparedChanges.remove(file));
           CodeStyleManager.getInstance(myProject).reformatText(file, myRanges);
           return !FormattingProgressTask.FORMATTING_CANCELLED_FLAG.get();
         }
@@ -100,6 +152,7 @@ public class ReformatCodeProcessor extends AbstractLayoutCodeProcessor {
         }
         finally {
           myRanges.clear();
+          file.putUserData(CodeFormatterFacade.PREPARED_CHANGES_KEY, null);
         }
       }
     });
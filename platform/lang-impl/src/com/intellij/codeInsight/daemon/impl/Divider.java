@@ -29,13 +29,17 @@ import com.intellij.util.containers.Stack;
 import gnu.trove.TIntStack;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 /**
  * User: cdr
  */
 public class Divider {
   private static final int STARTING_TREE_HEIGHT = 10;
+  private static final int MAX_OUTSIDE_REGIONS = 16;
 
   public static void divideInsideAndOutside(@NotNull PsiFile file,
                                             int startOffset,
@@ -134,4 +138,53 @@ public class Divider {
       }
     }
   }
+
+  /**
+   * Splits the elements found outside the priority range into chunks to be processed one after another, nearest to the priority
+   * range first. Chunks correspond to the text regions following and preceding the priority range alternately, going outward;
+   * elements which don't fit into a single region (e.g. the parents of the visible elements) make up the last chunk.
+   * Elements keep their relative order, so children still precede their parents.
+   */
+  @NotNull
+  public static List<List<PsiElement>> splitOutward(@NotNull List<PsiElement> outside,
+                                                    @NotNull TextRange priorityRange,
+                                                    int startOffset,
+                                                    int endOffset) {
+    int regionLength = Math.max(1, Math.max(priorityRange.getLength(), (endOffset - startOffset) / MAX_OUTSIDE_REGIONS));
+    SortedMap<Integer, List<PsiElement>> regions = new TreeMap<Integer, List<PsiElement>>();
+    List<PsiElement> rest = new ArrayList<PsiElement>();
+    for (PsiElement element : outside) {
+      int region = getRegionIndex(element.getTextRange(), priorityRange, regionLength);
+      if (region < 0) {
+        rest.add(element);
+        continue;
+      }
+      List<PsiElement> elements = regions.get(region);
+      if (elements == null) {
+        elements = new ArrayList<PsiElement>();
+        regions.put(region, elements);
+      }
+      elements.add(element);
+    }
+    List<List<PsiElement>> result = new ArrayList<List<PsiElement>>(regions.values());
+    if (!rest.isEmpty()) {
+      result.add(rest);
+    }
+    return result;
+  }
+
+  // even indices are for the regions after the priority range, odd ones are for the regions before it; -1 if the range doesn't fit
+  private static int getRegionIndex(@NotNull TextRange range, @NotNull TextRange priorityRange, int regionLength) {
+    int start = range.getStartOffset();
+    int end = range.getEndOffset();
+    if (start >= priorityRange.getEndOffset()) {
+      int index = (start - priorityRange.getEndOffset()) / regionLength;
+      return end <= priorityRange.getEndOffset() + (long)(index + 1) * regionLength ? 2 * index : -1;
+    }
+    if (end <= priorityRange.getStartOffset()) {
+      int index = (priorityRange.getStartOffset() - end) / regionLength;
+      return start >= priorityRange.getStartOffset() - (long)(index + 1) * regionLength ? 2 * index + 1 : -1;
+    }
+    return -1;
+  }
 }
@@ -277,7 +277,8 @@ public class GeneralHighlightingPass extends ProgressableTextEditorHighlightingP
             }
           };
         }
-      }, outside, progress, filteredVisitors, gotHighlights, forceHighlightParents);
+      }, Divider.splitOutward(outside, myPriorityRange, myStartOffset, myEndOffset), progress, filteredVisitors, gotHighlights,
+                        forceHighlightParents);
 
       if (myUpdateAll) {
         ((DaemonCodeAnalyzerImpl)daemonCodeAnalyzer).getFileStatusMap().setErrorFoundFlag(myDocument, myErrorFound);
@@ -581,9 +582,13 @@ public class GeneralHighlightingPass extends ProgressableTextEditorHighlightingP
     return new ArrayList<HighlightInfo>(myHighlights);
   }
 
+  /**
+   * Visits elements1, runs after1 and then visits the chunks of elements2 one by one.
+   * Found highlights are applied to the editor incrementally.
+   */
   private void collectHighlights(@NotNull final List<PsiElement> elements1,
                                  @NotNull final Runnable after1,
-                                 @NotNull final List<PsiElement> elements2,
+                                 @NotNull final List<List<PsiElement>> elements2,
                                  @NotNull final ProgressIndicator progress,
                                  @NotNull final HighlightVisitor[] visitors,
                                  @NotNull final Set<HighlightInfo> gotHighlights,
@@ -593,7 +598,14 @@ public class GeneralHighlightingPass extends ProgressableTextEditorHighlightingP
     // TODO - add color scheme to holder
     final HighlightInfoHolder holder = createInfoHolder(myFile);
 
-    final int chunkSize = Math.max(1, (elements1.size()+elements2.size()) / 100); // one percent precision is enough
+    int elementsCount = elements1.size();
+    final List<List<PsiElement>> lists = new ArrayList<List<PsiElement>>(elements2.size() + 1);
+    lists.add(elements1);
+    for (List<PsiElement> chunk : elements2) {
+      elementsCount += chunk.size();
+      lists.add(chunk);
+    }
+    final int chunkSize = Math.max(1, elementsCount / 100); // one percent precision is enough
 
     final Map<TextRange, RangeMarker> ranges2markersCache = new THashMap<TextRange, RangeMarker>();
     final TransferToEDTQueue<HighlightInfo> myTransferToEDTQueue
@@ -620,8 +632,7 @@ public class GeneralHighlightingPass extends ProgressableTextEditorHighlightingP
       public void run() {
         Stack<Pair<TextRange, List<HighlightInfo>>> nested = new Stack<Pair<TextRange, List<HighlightInfo>>>();
         boolean failed = false;
-        //noinspection unchecked
-        for (List<PsiElement> elements : new List[]{elements1, elements2}) {
+        for (List<PsiElement> elements : lists) {
           nested.clear();
           int nextLimit = chunkSize;
           for (int i = 0; i < elements.size(); i++) {
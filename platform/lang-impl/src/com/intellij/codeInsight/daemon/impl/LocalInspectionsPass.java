@@ -328,12 +328,11 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
 
     ApplicationManager.getApplication().assertReadAccessAllowed();
     LocalInspectionTool tool = toolWrapper.getTool();
-    final boolean[] applyIncrementally = {isOnTheFly};
     ProblemsHolder holder = new ProblemsHolder(iManager, myFile, isOnTheFly) {
         @Override
         public void registerProblem(@NotNull ProblemDescriptor descriptor) {
           super.registerProblem(descriptor);
-          if (applyIncrementally[0]) {
+          if (isOnTheFly) {
             addDescriptorIncrementally(descriptor, toolWrapper, indicator);
           }
         }
@@ -348,7 +347,6 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
     if (holder.hasResults()) {
       appendDescriptors(myFile, holder.getResults(), toolWrapper);
     }
-    applyIncrementally[0] = false; // do not apply incrementally outside visible range
     return true;
   }
 
@@ -380,13 +378,18 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
                                            @NotNull List<InspectionContext> init,
                                            @NotNull List<LocalInspectionToolWrapper> wrappers,
                                            boolean checkDumbAwareness) {
+    // visit the elements nearest to the visible range first, so that their problems are shown earlier
+    final List<List<PsiElement>> chunks = Divider.splitOutward(elements, myPriorityRange, myStartOffset, myEndOffset);
     Processor<InspectionContext> processor =
       new Processor<InspectionContext>() {
         @Override
         public boolean process(InspectionContext context) {
-          indicator.checkCanceled();
           ApplicationManager.getApplication().assertReadAccessAllowed();
-          acceptElements(elements, context.visitor, context.languageIds);
+          for (List<PsiElement> chunk : chunks) {
+            indicator.checkCanceled();
+            acceptElements(chunk, context.visitor, context.languageIds);
+          }
+          indicator.checkCanceled();
           advanceProgress(1);
           context.tool.getTool().inspectionFinished(session, context.holder);
 
@@ -21,7 +21,6 @@ import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.text.StringUtil;
-import gnu.trove.TIntArrayList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -103,10 +102,14 @@ public class ConsoleBuffer {
   /**
    * Holds information about lexical division by offsets of the text that is not yet pushed to document.
    * <p/>
-   * Target offsets are anchored to the {@link #myDeferredOutput deferred buffer}.
+   * Target offsets are anchored to the {@link #myDeferredOutput deferred buffer}, but are stored shifted by {@link #myTokensShift},
+   * and the tokens before {@link #myFirstTokenIndex} are already cut from the buffer. That allows to cut text from the buffer start
+   * without touching all the tokens, see {@link #trimDeferredOutputIfNecessary(int)}. Use {@link #getDeferredTokens()} to get
+   * tokens with actual offsets.
    */
   private final List<TokenInfo> myDeferredTokens = new ArrayList<TokenInfo>();
-  private final Set<ConsoleViewContentType> myDeferredTypes = new HashSet<ConsoleViewContentType>();
+  private int myFirstTokenIndex;
+  private int myTokensShift;
 
   public ConsoleBuffer() {
     this(useCycleBuffer(), getCycleBufferSize(), DEFAULT_CYCLIC_BUFFER_UNIT_SIZE);
@@ -160,11 +163,33 @@ public class ConsoleBuffer {
   }
 
   public List<TokenInfo> getDeferredTokens() {
+    normalizeTokens();
     return myDeferredTokens;
   }
 
   public Set<ConsoleViewContentType> getDeferredTokenTypes() {
-    return myDeferredTypes;
+    Set<ConsoleViewContentType> result = new HashSet<ConsoleViewContentType>();
+    for (int i = myFirstTokenIndex; i < myDeferredTokens.size(); i++) {
+      result.add(myDeferredTokens.get(i).contentType);
+    }
+    return result;
+  }
+
+  /**
+   * Drops tokens which are already cut from the buffer and applies {@link #myTokensShift} to the remaining ones
+   */
+  private void normalizeTokens() {
+    if (myFirstTokenIndex > 0) {
+      myDeferredTokens.subList(0, myFirstTokenIndex).clear();
+      myFirstTokenIndex = 0;
+    }
+    if (myTokensShift != 0) {
+      for (TokenInfo token : myDeferredTokens) {
+        token.startOffset -= myTokensShift;
+        token.endOffset -= myTokensShift;
+      }
+      myTokensShift = 0;
+    }
   }
 
   public Deque<StringBuilder> getDeferredOutput() {
@@ -216,8 +241,9 @@ public class ConsoleBuffer {
       }
     }
     myDeferredOutputLength = 0;
-    myDeferredTypes.clear();
     myDeferredTokens.clear();
+    myFirstTokenIndex = 0;
+    myTokensShift = 0;
     if (clearUserInputAsWell) {
       myDeferredUserInput = new StringBuffer();
     }
@@ -283,8 +309,6 @@ public class ConsoleBuffer {
       s = s.substring(s.length() - numberOfSymbolsToProceed);
     }
 
-    myDeferredTypes.add(contentType);
-
     s = StringUtil.convertLineSeparators(s, true);
 
     myDeferredOutputLength += s.length();
@@ -395,7 +419,6 @@ public class ConsoleBuffer {
     }
 
     final int numberOfSymbolsToRemove = Math.min(myDeferredOutputLength, myDeferredOutputLength + numberOfNewSymbols - myCyclicBufferSize);
-    myDeferredTypes.clear();
 
     if (DEBUG_PROCESSING) {
       log("Starting console trimming. Need to delete %d symbols (deferred output length: %d, number of new symbols: %d, "
@@ -407,54 +430,52 @@ public class ConsoleBuffer {
 
     Context context = new Context(numberOfSymbolsToRemove);
 
-    TIntArrayList indicesOfTokensToRemove = new TIntArrayList();
-    for (int i = 0; i < myDeferredTokens.size(); i++) {
+    // Only the tokens affected by the removal are processed here, offsets of the remaining ones are adjusted via myTokensShift.
+    List<TokenInfo> keptTokens = new ArrayList<TokenInfo>();
+    int i = myFirstTokenIndex;
+    for (; i < myDeferredTokens.size() && context.canContinueProcessing(); i++) {
       TokenInfo tokenInfo = myDeferredTokens.get(i);
-      tokenInfo.startOffset -= context.removedSymbolsNumber;
-      tokenInfo.endOffset -= context.removedSymbolsNumber;
-
-      if (!context.canContinueProcessing()) {
-        // Just update token offsets.
-        myDeferredTypes.add(tokenInfo.contentType);
-        if (context.removedSymbolsNumber == 0) {
-          break;
-        }
-        continue;
-      }
+      tokenInfo.startOffset -= myTokensShift + context.removedSymbolsNumber;
+      tokenInfo.endOffset -= myTokensShift + context.removedSymbolsNumber;
 
       int tokenLength = tokenInfo.getLength();
 
       // Don't remove input text.
       if (myContentTypesToNotStripOnCycling.contains(tokenInfo.contentType)) {
         skip(context, tokenLength);
-        myDeferredTypes.add(tokenInfo.contentType);
+        keptTokens.add(tokenInfo);
         continue;
       }
 
       int removedTokenSymbolsNumber = remove(context, tokenLength);
-      if (removedTokenSymbolsNumber == tokenLength) {
-        indicesOfTokensToRemove.add(i);
-      }
-      else {
+      if (removedTokenSymbolsNumber != tokenLength) {
         tokenInfo.endOffset -= removedTokenSymbolsNumber;
-        myDeferredTypes.add(tokenInfo.contentType);
+        keptTokens.add(tokenInfo);
       }
     }
 
-    for (int i = indicesOfTokensToRemove.size() - 1; i >= 0; i--) {
-      myDeferredTokens.remove(indicesOfTokensToRemove.get(i));
+    TokenInfo firstToken = null;
+    int firstTokenStart = 0;
+    if (!keptTokens.isEmpty()) {
+      firstToken = keptTokens.get(0);
+      firstTokenStart = firstToken.startOffset;
+    }
+    else if (i < myDeferredTokens.size()) {
+      firstToken = myDeferredTokens.get(i);
+      firstTokenStart = firstToken.startOffset - myTokensShift - context.removedSymbolsNumber;
+    }
+    if (firstToken != null && firstTokenStart > 0) {
+      final HyperlinkInfo hyperlinkInfo = firstToken.getHyperlinkInfo();
+      keptTokens.add(0, hyperlinkInfo != null ? new HyperlinkTokenInfo(ConsoleViewContentType.USER_INPUT, 0, firstTokenStart, hyperlinkInfo)
+                                              : new TokenInfo(ConsoleViewContentType.USER_INPUT, 0, firstTokenStart));
     }
 
-    if (!myDeferredTokens.isEmpty()) {
-      TokenInfo tokenInfo = myDeferredTokens.get(0);
-      if (tokenInfo.startOffset > 0) {
-        final HyperlinkInfo hyperlinkInfo = tokenInfo.getHyperlinkInfo();
-        myDeferredTokens
-          .add(0, hyperlinkInfo != null ? new HyperlinkTokenInfo(ConsoleViewContentType.USER_INPUT, 0, tokenInfo.startOffset, hyperlinkInfo)
-                                        : new TokenInfo(ConsoleViewContentType.USER_INPUT, 0, tokenInfo.startOffset));
-        myDeferredTypes.add(ConsoleViewContentType.USER_INPUT);
-      }
+    myTokensShift += context.removedSymbolsNumber;
+    for (TokenInfo tokenInfo : keptTokens) {
+      tokenInfo.startOffset += myTokensShift;
+      tokenInfo.endOffset += myTokensShift;
     }
+    replaceProcessedTokens(i, keptTokens);
 
     if (numberOfNewSymbols + myDeferredOutputLength > myCyclicBufferSize) {
       int result = myCyclicBufferSize - myDeferredOutputLength;
@@ -466,6 +487,34 @@ public class ConsoleBuffer {
     return numberOfNewSymbols;
   }
 
+  /**
+   * Replaces tokens in [{@link #myFirstTokenIndex}, processedEnd) range by the given ones. The tokens are put at the range end,
+   * so usually no other tokens are moved.
+   */
+  private void replaceProcessedTokens(int processedEnd, @NotNull List<TokenInfo> tokens) {
+    if (processedEnd >= myDeferredTokens.size() && tokens.isEmpty()) {
+      myDeferredTokens.clear();
+      myFirstTokenIndex = 0;
+      myTokensShift = 0;
+      return;
+    }
+    if (processedEnd < tokens.size()) {
+      myDeferredTokens.subList(myFirstTokenIndex, processedEnd).clear();
+      myDeferredTokens.addAll(myFirstTokenIndex, tokens);
+    }
+    else {
+      myFirstTokenIndex = processedEnd - tokens.size();
+      for (int i = 0; i < tokens.size(); i++) {
+        myDeferredTokens.set(myFirstTokenIndex + i, tokens.get(i));
+      }
+    }
+
+    // compact the list when most of it is occupied by the tokens already cut from the buffer and keep the shift bounded
+    if (myFirstTokenIndex > myDeferredTokens.size() / 2 || myTokensShift > Integer.MAX_VALUE / 2) {
+      normalizeTokens();
+    }
+  }
+
   private static void skip(@NotNull Context context, int symbolsToSkipNumber) {
     int remainingNumberOfBufferSymbols = context.currentBuffer.length() - context.bufferOffset;
     if (remainingNumberOfBufferSymbols < symbolsToSkipNumber) {
@@ -86,12 +86,14 @@ import java.io.IOException;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableConsoleView, DataProvider, OccurenceNavigator {
   @NonNls private static final String CONSOLE_VIEW_POPUP_MENU = "ConsoleView.PopupMenu";
   private static final Logger LOG = Logger.getInstance("#com.intellij.execution.impl.ConsoleViewImpl");
 
   private static final int DEFAULT_FLUSH_DELAY = SystemProperties.getIntProperty("console.flush.delay.ms", 200);
+  private static final boolean APPLY_FILTERS_IN_BACKGROUND = SystemProperties.getBooleanProperty("console.filters.in.background", true);
 
   public static final Key<ConsoleViewImpl> CONSOLE_VIEW_IN_EDITOR_VIEW = Key.create("CONSOLE_VIEW_IN_EDITOR_VIEW");
 
@@ -242,6 +244,23 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
   @Nullable private final InputFilter myInputMessageFilter;
 
   private final Alarm myFoldingAlarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, this);
+
+  /**
+   * Applies {@link #myCustomFilter} and {@link #myPredefinedMessageFilter} to the flushed lines, so that the EDT only adds
+   * highlighters for their results. Requests are processed sequentially in the order they were queued.
+   */
+  private final Alarm myFilterAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+  /**
+   * Total length of the text queued to {@link #myFilterAlarm} but not processed yet. When it exceeds the cyclic buffer size,
+   * the oldest requests are skipped as their text is going to be (or already is) cut from the document anyway.
+   */
+  private final AtomicInteger myPendingFilterTextLength = new AtomicInteger();
+  private volatile int myFilterTicket;
+  /**
+   * Number of symbols cut from the document start (by the cyclic buffer) so far; used to map offsets computed by the filters to the
+   * current document offsets
+   */
+  private long myRemovedHeadLength;
   private final List<FoldRegion> myPendingFoldRegions = new ArrayList<FoldRegion>();
 
   private FileType myFileType;
@@ -635,6 +654,7 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
         document = editor.getDocument();
         myFoldingAlarm.cancelAllRequests();
         cancelHeavyAlarm();
+        myFilterTicket++;
       }
       CommandProcessor.getInstance().executeCommand(myProject, new Runnable() {
         @Override
@@ -682,18 +702,29 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
           myEditor.getScrollingModel().accumulateViewportChanges();
         }
         try {
-          String[] strings = text.split("\\r");
-          for (int i = 0; i < strings.length - 1; i++) {
-            document.insertString(document.getTextLength(), strings[i]);
-            int lastLine = document.getLineCount() - 1;
-            if (lastLine >= 0) {
-              ConsoleUtil.updateTokensOnTextRemoval(myTokens, document.getTextLength(), document.getTextLength() + 1);
-              document.deleteString(document.getLineStartOffset(lastLine), document.getTextLength());
+          if (text.indexOf('\r') < 0) {
+            // evict the head once for the whole batch instead of letting the document trim itself after the insertion
+            int bufferSize = myBuffer.isUseCyclicBuffer() ? myBuffer.getCyclicBufferSize() : 0;
+            int toRemove = bufferSize > 0 ? Math.min(document.getTextLength(), document.getTextLength() + text.length() - bufferSize) : 0;
+            if (toRemove > 0) {
+              document.deleteString(0, toRemove);
             }
+            document.insertString(document.getTextLength(), text);
           }
-          if (strings.length > 0) {
-            document.insertString(document.getTextLength(), strings[strings.length - 1]);
-            myContentSize -= strings.length - 1;
+          else {
+            String[] strings = text.split("\\r");
+            for (int i = 0; i < strings.length - 1; i++) {
+              document.insertString(document.getTextLength(), strings[i]);
+              int lastLine = document.getLineCount() - 1;
+              if (lastLine >= 0) {
+                ConsoleUtil.updateTokensOnTextRemoval(myTokens, document.getTextLength(), document.getTextLength() + 1);
+                document.deleteString(document.getLineStartOffset(lastLine), document.getTextLength());
+              }
+            }
+            if (strings.length > 0) {
+              document.insertString(document.getTextLength(), strings[strings.length - 1]);
+              myContentSize -= strings.length - 1;
+            }
           }
         }
         finally {
@@ -834,6 +865,14 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
 
     final int bufferSize = myBuffer.isUseCyclicBuffer() ? myBuffer.getCyclicBufferSize() : 0;
     editor.getDocument().setCyclicBufferSize(bufferSize);
+    editor.getDocument().addDocumentListener(new DocumentAdapter() {
+      @Override
+      public void documentChanged(DocumentEvent event) {
+        if (event.getOffset() == 0 && event.getNewLength() == 0) {
+          myRemovedHeadLength += event.getOldLength();
+        }
+      }
+    });
 
     editor.putUserData(CONSOLE_VIEW_IN_EDITOR_VIEW, this);
 
@@ -946,7 +985,12 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     ApplicationManager.getApplication().assertIsDispatchThread();
     PsiDocumentManager.getInstance(myProject).commitAllDocuments();
     if (canHighlightHyperlinks) {
-      myHyperlinks.highlightHyperlinks(myCustomFilter, myPredefinedMessageFilter, line1, endLine);
+      if (APPLY_FILTERS_IN_BACKGROUND && !ApplicationManager.getApplication().isUnitTestMode()) {
+        highlightHyperlinksInBackground(line1, endLine);
+      }
+      else {
+        myHyperlinks.highlightHyperlinks(myCustomFilter, myPredefinedMessageFilter, line1, endLine);
+      }
     }
     
     if (myAllowHeavyFilters && myPredefinedMessageFilter.isAnyHeavy() && myPredefinedMessageFilter.shouldRunHeavy()) {
@@ -957,6 +1001,90 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     }
   }
 
+  /**
+   * Takes a snapshot of the given lines and applies the filters to it on {@link #myFilterAlarm}. Results are added to the editor
+   * on the EDT for the lines which are still present in the document.
+   */
+  private void highlightHyperlinksInBackground(int line1, int endLine) {
+    final Document document = myEditor.getDocument();
+    final int startLine = Math.max(0, line1);
+    if (startLine > endLine) return;
+
+    final String[] lines = new String[endLine - startLine + 1];
+    int textLength = 0;
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = EditorHyperlinkSupport.getLineText(document, startLine + i, true);
+      textLength += lines[i].length();
+    }
+    final int startOffset = document.getLineStartOffset(startLine);
+    final long removedHeadLength = myRemovedHeadLength;
+    final int ticket = myFilterTicket;
+    final int length = textLength;
+    myPendingFilterTextLength.addAndGet(length);
+    myFilterAlarm.addRequest(new Runnable() {
+      @Override
+      public void run() {
+        final Filter.Result[] results;
+        try {
+          boolean evicted = myBuffer.isUseCyclicBuffer() && myPendingFilterTextLength.get() - length >= myBuffer.getCyclicBufferSize();
+          if (evicted || ticket != myFilterTicket || myProject.isDisposed()) return;
+          results = applyFilters(lines, startOffset);
+        }
+        finally {
+          myPendingFilterTextLength.addAndGet(-length);
+        }
+        if (results == null || myFlushAlarm.isDisposed()) return;
+        addFlushRequest(new MyFlushRunnable() {
+          @Override
+          public void doRun() {
+            if (ticket != myFilterTicket || myEditor == null) return;
+            addFilterResults(lines, results, startOffset, (int)(removedHeadLength - myRemovedHeadLength));
+          }
+
+          @Override
+          public boolean equals(Object o) {
+            // every batch of filter results has to be applied, so it must not be merged with another queued request
+            return this == o;
+          }
+        });
+      }
+    }, 0);
+  }
+
+  @Nullable
+  private Filter.Result[] applyFilters(@NotNull String[] lines, int startOffset) {
+    Filter.Result[] results = new Filter.Result[lines.length];
+    boolean found = false;
+    int lineEndOffset = startOffset;
+    for (int i = 0; i < lines.length; i++) {
+      final String line = lines[i];
+      lineEndOffset += line.length();
+      final int endOffset = lineEndOffset;
+      results[i] = ApplicationManager.getApplication().runReadAction(new Computable<Filter.Result>() {
+        @Override
+        public Filter.Result compute() {
+          Filter.Result result = myCustomFilter.applyFilter(line, endOffset);
+          return result != null ? result : myPredefinedMessageFilter.applyFilter(line, endOffset);
+        }
+      });
+      found |= results[i] != null;
+    }
+    return found ? results : null;
+  }
+
+  private void addFilterResults(@NotNull String[] lines, @NotNull Filter.Result[] results, int startOffset, int offsetDelta) {
+    CharSequence text = myEditor.getDocument().getCharsSequence();
+    int lineStartOffset = startOffset + offsetDelta;
+    for (int i = 0; i < lines.length; i++) {
+      // the line may have been cut by the cyclic buffer or rewritten by '\r' since the snapshot was taken
+      if (results[i] != null && lineStartOffset >= 0 && lineStartOffset + lines[i].length() <= text.length() &&
+          CharArrayUtil.regionMatches(text, lineStartOffset, lines[i])) {
+        myHyperlinks.highlightHyperlinks(results[i], offsetDelta);
+      }
+      lineStartOffset += lines[i].length();
+    }
+  }
+
   private void runHeavyFilters(int line1, int endLine) {
     final int startLine = Math.max(0, line1);
 
@@ -46,7 +46,6 @@ import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.StringUtil;
-import com.intellij.openapi.util.text.TrigramBuilder;
 import com.intellij.openapi.vfs.*;
 import com.intellij.openapi.vfs.ex.VirtualFileManagerEx;
 import com.intellij.psi.*;
@@ -64,6 +63,7 @@ import com.intellij.util.PatternUtil;
 import com.intellij.util.Processor;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexImpl;
 import gnu.trove.THashSet;
 import gnu.trove.TIntHashSet;
 import gnu.trove.TIntIterator;
@@ -317,6 +317,32 @@ public class FindInProjectUtil {
     });
   }
 
+  @NotNull
+  private static Collection<PsiFile> addFilesTooLargeToIndex(@NotNull Collection<PsiFile> filesForFastWordSearch,
+                                                             @NotNull Project project,
+                                                             @Nullable PsiDirectory psiDirectory,
+                                                             @NotNull FileIndex fileIndex,
+                                                             @Nullable Pattern fileMaskRegExp,
+                                                             @Nullable GlobalSearchScope customScope) {
+    List<PsiFile> result = new ArrayList<PsiFile>(filesForFastWordSearch);
+    PsiManager psiManager = PsiManager.getInstance(project);
+    VirtualFile directory = psiDirectory == null ? null : psiDirectory.getVirtualFile();
+    boolean searchInLibraries = directory == null && customScope != null && customScope.isSearchInLibraries();
+    for (VirtualFile virtualFile : ((FileBasedIndexImpl)FileBasedIndex.getInstance()).getFilesTooLargeToIndex()) {
+      ProgressManager.checkCanceled();
+      if ((fileIndex.isInContent(virtualFile) || searchInLibraries) &&
+          (directory == null || VfsUtilCore.isAncestor(directory, virtualFile, false)) &&
+          (fileMaskRegExp == null || fileMaskRegExp.matcher(virtualFile.getName()).matches()) &&
+          (customScope == null || customScope.contains(virtualFile))) {
+        PsiFile psiFile = psiManager.findFile(virtualFile);
+        if (psiFile != null && !filesForFastWordSearch.contains(psiFile)) {
+          result.add(psiFile);
+        }
+      }
+    }
+    return result;
+  }
+
   @NotNull
   private static Collection<PsiFile> getFilesToSearchInReadAction(@NotNull final FindModel findModel,
                                                                   @NotNull final Project project,
@@ -333,9 +359,14 @@ public class FindInProjectUtil {
       Pair<Boolean, Collection<PsiFile>> fastWords = getFilesForFastWordSearch(findModel, project, psiDirectory, fileMaskRegExp, module, fileIndex);
       final Collection<PsiFile> filesForFastWordSearch = fastWords.getSecond();
 
-      if (fastWords.getFirst() && canOptimizeForFastWordSearch(findModel)) return filesForFastWordSearch;
+      final boolean onlyNotIndexedFiles = fastWords.getFirst() && canOptimizeForFastWordSearch(findModel);
+      if (onlyNotIndexedFiles && !TrigramIndex.ENABLED) return filesForFastWordSearch;
 
       final GlobalSearchScope customScope = toGlobal(project, findModel.getCustomScope());
+      if (onlyNotIndexedFiles) {
+        // files which are too large to be indexed can't be narrowed by the indices and always have to be scanned
+        return addFilesTooLargeToIndex(filesForFastWordSearch, project, psiDirectory, fileIndex, fileMaskRegExp, customScope);
+      }
 
       class EnumContentIterator implements ContentIterator {
         final List<PsiFile> myFiles = new ArrayList<PsiFile>(filesForFastWordSearch);
@@ -442,8 +473,9 @@ public class FindInProjectUtil {
     boolean fast = false;
 
     String stringToFind = findModel.getStringToFind();
+    boolean regExp = findModel.isRegularExpressions();
     if (TrigramIndex.ENABLED) {
-      TIntHashSet trigrams = TrigramBuilder.buildTrigram(stringToFind);
+      TIntHashSet trigrams = TrigramIndex.getTrigrams(stringToFind, regExp);
       TIntIterator it = trigrams.iterator();
       while (it.hasNext()) {
         keys.add(it.next());
@@ -459,7 +491,8 @@ public class FindInProjectUtil {
         }
 
         filterMaskedFiles(resultFiles, fileMaskRegExp);
-        if (resultFiles.isEmpty()) return new Pair<Boolean, Collection<PsiFile>>(true, resultFiles);
+        // words of a regular expression have nothing to do with the words of the text it matches
+        if (resultFiles.isEmpty() || regExp) return new Pair<Boolean, Collection<PsiFile>>(true, resultFiles);
       }
     }
 
@@ -467,7 +500,7 @@ public class FindInProjectUtil {
     // $ is used to separate words when indexing plain-text files but not when indexing
     // Java identifiers, so we can't consistently break a string containing $ characters into words
 
-    fast |= findModel.isWholeWordsOnly() && stringToFind.indexOf('$') < 0;
+    fast |= !regExp && findModel.isWholeWordsOnly() && stringToFind.indexOf('$') < 0;
 
     List<String> words = StringUtil.getWordsInStringLongestFirst(stringToFind);
 
@@ -531,7 +564,7 @@ public class FindInProjectUtil {
   }
 
   private static boolean canOptimizeForFastWordSearch(@NotNull final FindModel findModel) {
-    return !findModel.isRegularExpressions()
+    return (!findModel.isRegularExpressions() || TrigramIndex.ENABLED)
            && (findModel.getCustomScope() == null || findModel.getCustomScope() instanceof GlobalSearchScope);
   }
 
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import com.intellij.openapi.util.text.TrigramBuilder;
+import gnu.trove.TIntHashSet;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Extracts literal strings that must occur in any text matched by a {@link java.util.regex.Pattern}, so that
+ * the {@link TrigramIndex} can be used to narrow down the set of files a regular expression search has to scan.
+ * <p/>
+ * The analysis is deliberately conservative: whenever a construct cannot be understood (alternation, back references,
+ * comments mode and so on) the corresponding part of the pattern simply contributes no literals.
+ */
+public class RegExpTrigramUtil {
+  private RegExpTrigramUtil() {
+  }
+
+  @NotNull
+  public static TIntHashSet buildTrigrams(@NotNull String regExp) {
+    TIntHashSet result = new TIntHashSet();
+    for (String literal : getRequiredLiterals(regExp)) {
+      result.addAll(TrigramBuilder.buildTrigram(literal).toArray());
+    }
+    return result;
+  }
+
+  /**
+   * @return literals every match of the given regular expression contains, or empty list if none could be determined
+   */
+  @NotNull
+  public static List<String> getRequiredLiterals(@NotNull String regExp) {
+    Parser parser = new Parser(regExp);
+    try {
+      List<String> literals = parser.parseAlternation();
+      if (parser.myOffset != regExp.length()) return Collections.emptyList();
+      return literals;
+    }
+    catch (UnsupportedRegExpException e) {
+      return Collections.emptyList();
+    }
+  }
+
+  private static class UnsupportedRegExpException extends Exception {
+  }
+
+  private static class Parser {
+    private final String myText;
+    private int myOffset;
+
+    private Parser(@NotNull String text) {
+      myText = text;
+    }
+
+    @NotNull
+    private List<String> parseAlternation() throws UnsupportedRegExpException {
+      List<String> literals = parseSequence();
+      boolean alternatives = false;
+      while (myOffset < myText.length() && myText.charAt(myOffset) == '|') {
+        myOffset++;
+        parseSequence();
+        alternatives = true;
+      }
+      return alternatives ? Collections.<String>emptyList() : literals;
+    }
+
+    @NotNull
+    private List<String> parseSequence() throws UnsupportedRegExpException {
+      List<String> literals = new ArrayList<String>();
+      StringBuilder run = new StringBuilder();
+
+      while (myOffset < myText.length()) {
+        char c = myText.charAt(myOffset);
+        if (c == '|' || c == ')') break;
+
+        if (c == '^' || c == '$') {
+          myOffset++;
+          continue;
+        }
+
+        if (c == '(') {
+          flush(run, literals);
+          List<String> inner = parseGroup();
+          if (isRequired(parseQuantifier())) {
+            literals.addAll(inner);
+          }
+          continue;
+        }
+
+        if (c == '[') {
+          flush(run, literals);
+          skipCharClass();
+          parseQuantifier();
+          continue;
+        }
+
+        if (c == '.') {
+          flush(run, literals);
+          myOffset++;
+          parseQuantifier();
+          continue;
+        }
+
+        if (c == '*' || c == '+' || c == '?' || c == '{') {
+          throw new UnsupportedRegExpException();
+        }
+
+        String literal;
+        if (c == '\\') {
+          if (myOffset + 1 >= myText.length()) throw new UnsupportedRegExpException();
+          char next = myText.charAt(myOffset + 1);
+          if (next == 'Q') {
+            int end = myText.indexOf("\\E", myOffset + 2);
+            literal = end < 0 ? myText.substring(myOffset + 2) : myText.substring(myOffset + 2, end);
+            myOffset = end < 0 ? myText.length() : end + 2;
+            run.append(literal);
+            continue;
+          }
+          if ("bBAzZG".indexOf(next) >= 0) {
+            myOffset += 2;
+            continue;
+          }
+          literal = parseEscape(next);
+        }
+        else {
+          literal = String.valueOf(c);
+          myOffset++;
+        }
+
+        if (literal == null) {
+          flush(run, literals);
+          parseQuantifier();
+          continue;
+        }
+
+        Quantifier quantifier = parseQuantifier();
+        if (quantifier == null) {
+          run.append(literal);
+        }
+        else {
+          if (isRequired(quantifier)) {
+            run.append(literal);
+          }
+          // a repeated or optional atom breaks the run of characters known to be adjacent in the text
+          flush(run, literals);
+        }
+      }
+
+      flush(run, literals);
+      return literals;
+    }
+
+    /**
+     * @return the escaped character as a literal, or null if the escape denotes something other than one fixed character
+     */
+    private String parseEscape(char next) throws UnsupportedRegExpException {
+      myOffset += 2;
+      switch (next) {
+        case 't': return "\t";
+        case 'n': return "\n";
+        case 'r': return "\r";
+        case 'f': return "\f";
+        case 'a': return "\u0007";
+        case 'e': return "\u001B";
+        case 'p':
+        case 'P':
+          if (myOffset < myText.length() && myText.charAt(myOffset) == '{') {
+            skipPast('}');
+          }
+          else {
+            myOffset++;
+          }
+          return null;
+        case 'k':
+          skipPast('>');
+          return null;
+        case 'c':
+          myOffset++;
+          return null;
+        case 'x':
+          if (myOffset < myText.length() && myText.charAt(myOffset) == '{') {
+            skipPast('}');
+          }
+          else {
+            myOffset += 2;
+          }
+          return null;
+        case 'u':
+          myOffset += 4;
+          return null;
+        case '0':
+          for (int i = 0; i < 3 && myOffset < myText.length() && isOctalDigit(myText.charAt(myOffset)); i++) myOffset++;
+          return null;
+      }
+      if (Character.isLetterOrDigit(next)) {
+        // character classes (\d, \w, \s...) and back references
+        while (Character.isDigit(next) && myOffset < myText.length() && Character.isDigit(myText.charAt(myOffset))) myOffset++;
+        return null;
+      }
+      return String.valueOf(next);
+    }
+
+    @NotNull
+    private List<String> parseGroup() throws UnsupportedRegExpException {
+      myOffset++; // '('
+      boolean keepLiterals = true;
+      if (myOffset < myText.length() && myText.charAt(myOffset) == '?') {
+        myOffset++;
+        if (myOffset >= myText.length()) throw new UnsupportedRegExpException();
+        char kind = myText.charAt(myOffset);
+        if (kind == ':' || kind == '>') {
+          myOffset++;
+        }
+        else if (kind == '=' || kind == '!') {
+          myOffset++;
+          keepLiterals = false;
+        }
+        else if (kind == '<') {
+          myOffset++;
+          if (myOffset < myText.length() && (myText.charAt(myOffset) == '=' || myText.charAt(myOffset) == '!')) {
+            myOffset++;
+            keepLiterals = false;
+          }
+          else {
+            skipPast('>');
+          }
+        }
+        else {
+          // inline flags: (?idmsux-idmsux) or (?idmsux-idmsux:X)
+          int start = myOffset;
+          while (myOffset < myText.length() && myText.charAt(myOffset) != ')' && myText.charAt(myOffset) != ':') myOffset++;
+          if (myOffset >= myText.length()) throw new UnsupportedRegExpException();
+          String flags = myText.substring(start, myOffset);
+          int minus = flags.indexOf('-');
+          if ((minus < 0 ? flags : flags.substring(0, minus)).indexOf('x') >= 0) {
+            // whitespace and comments are ignored in this mode, literal text can't be taken as is
+            throw new UnsupportedRegExpException();
+          }
+          if (myText.charAt(myOffset) == ')') {
+            myOffset++;
+            return Collections.emptyList();
+          }
+          myOffset++;
+        }
+      }
+
+      List<String> literals = parseAlternation();
+      if (myOffset >= myText.length() || myText.charAt(myOffset) != ')') throw new UnsupportedRegExpException();
+      myOffset++;
+      return keepLiterals ? literals : Collections.<String>emptyList();
+    }
+
+    private void skipCharClass() throws UnsupportedRegExpException {
+      myOffset++; // '['
+      int depth = 1;
+      if (myOffset < myText.length() && myText.charAt(myOffset) == '^') myOffset++;
+      if (myOffset < myText.length() && myText.charAt(myOffset) == ']') myOffset++;
+      while (myOffset < myText.length()) {
+        char c = myText.charAt(myOffset++);
+        if (c == '\\') {
+          myOffset++;
+        }
+        else if (c == '[') {
+          depth++;
+        }
+        else if (c == ']' && --depth == 0) {
+          return;
+        }
+      }
+      throw new UnsupportedRegExpException();
+    }
+
+    private Quantifier parseQuantifier() throws UnsupportedRegExpException {
+      if (myOffset >= myText.length()) return null;
+      Quantifier result;
+      char c = myText.charAt(myOffset);
+      if (c == '*' || c == '?') {
+        result = Quantifier.OPTIONAL;
+        myOffset++;
+      }
+      else if (c == '+') {
+        result = Quantifier.REPEATED;
+        myOffset++;
+      }
+      else if (c == '{') {
+        int end = myText.indexOf('}', myOffset);
+        if (end < 0) throw new UnsupportedRegExpException();
+        String bounds = myText.substring(myOffset + 1, end);
+        int comma = bounds.indexOf(',');
+        String min = (comma < 0 ? bounds : bounds.substring(0, comma)).trim();
+        try {
+          result = Integer.parseInt(min) > 0 ? Quantifier.REPEATED : Quantifier.OPTIONAL;
+        }
+        catch (NumberFormatException e) {
+          throw new UnsupportedRegExpException();
+        }
+        myOffset = end + 1;
+      }
+      else {
+        return null;
+      }
+      // reluctant and possessive forms don't change the set of possible matches
+      if (myOffset < myText.length() && (myText.charAt(myOffset) == '?' || myText.charAt(myOffset) == '+')) myOffset++;
+      return result;
+    }
+
+    private void skipPast(char c) throws UnsupportedRegExpException {
+      int end = myText.indexOf(c, myOffset);
+      if (end < 0) throw new UnsupportedRegExpException();
+      myOffset = end + 1;
+    }
+
+    private static boolean isRequired(Quantifier quantifier) {
+      return quantifier != Quantifier.OPTIONAL;
+    }
+
+    private static boolean isOctalDigit(char c) {
+      return c >= '0' && c <= '7';
+    }
+
+    private static void flush(@NotNull StringBuilder run, @NotNull List<String> literals) {
+      if (run.length() > 0) {
+        literals.add(run.toString());
+        run.setLength(0);
+      }
+    }
+  }
+
+  private enum Quantifier {OPTIONAL, REPEATED}
+}
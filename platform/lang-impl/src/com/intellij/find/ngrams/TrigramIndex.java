@@ -21,7 +21,10 @@ package com.intellij.find.ngrams;
 
 import com.intellij.openapi.util.text.TrigramBuilder;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
 import com.intellij.util.io.EnumeratorIntegerDescriptor;
 import com.intellij.util.io.KeyDescriptor;
 import gnu.trove.THashMap;
@@ -29,10 +32,13 @@ import gnu.trove.TIntHashSet;
 import gnu.trove.TIntProcedure;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Map;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
 
-public class TrigramIndex extends ScalarIndexExtension<Integer> {
-  public static final boolean ENABLED = "true".equals(System.getProperty("idea.internal.trigramindex.enabled"));
+public class TrigramIndex extends ScalarIndexExtension<Integer> implements CustomInputsIndexFileBasedIndexExtension<Integer> {
+  public static final boolean ENABLED = SystemProperties.getBooleanProperty("idea.internal.trigramindex.enabled", true);
 
   public static final ID<Integer,Void> INDEX_ID = ID.create("Trigram.Index");
 
@@ -62,8 +68,8 @@ public class TrigramIndex extends ScalarIndexExtension<Integer> {
       @Override
       @NotNull
       public Map<Integer, Void> map(FileContent inputData) {
-        final Map<Integer, Void> result = new THashMap<Integer, Void>();
         TIntHashSet built = TrigramBuilder.buildTrigram(inputData.getContentAsText());
+        final Map<Integer, Void> result = new THashMap<Integer, Void>(built.size());
         built.forEach(new TIntProcedure() {
           @Override
           public boolean execute(int value) {
@@ -76,6 +82,50 @@ public class TrigramIndex extends ScalarIndexExtension<Integer> {
     };
   }
 
+  @NotNull
+  @Override
+  public DataExternalizer<Collection<Integer>> createExternalizer() {
+    return new DataExternalizer<Collection<Integer>>() {
+      // trigrams of a file are stored sorted and delta-encoded, which takes one or two bytes per trigram instead of four
+      @Override
+      public void save(DataOutput out, Collection<Integer> value) throws IOException {
+        int[] trigrams = new int[value.size()];
+        int i = 0;
+        for (Integer trigram : value) {
+          trigrams[i++] = trigram;
+        }
+        Arrays.sort(trigrams);
+
+        DataInputOutputUtil.writeINT(out, trigrams.length);
+        int prev = 0;
+        for (int trigram : trigrams) {
+          DataInputOutputUtil.writeINT(out, trigram - prev);
+          prev = trigram;
+        }
+      }
+
+      @Override
+      public Collection<Integer> read(DataInput in) throws IOException {
+        int size = DataInputOutputUtil.readINT(in);
+        List<Integer> trigrams = new ArrayList<Integer>(size);
+        int prev = 0;
+        for (int i = 0; i < size; i++) {
+          prev += DataInputOutputUtil.readINT(in);
+          trigrams.add(prev);
+        }
+        return trigrams;
+      }
+    };
+  }
+
+  /**
+   * @return trigrams any text matching the given pattern must contain, empty set if the pattern can't be narrowed down
+   */
+  @NotNull
+  public static TIntHashSet getTrigrams(@NotNull String stringToFind, boolean regularExpression) {
+    return regularExpression ? RegExpTrigramUtil.buildTrigrams(stringToFind) : TrigramBuilder.buildTrigram(stringToFind);
+  }
+
   @Override
   public KeyDescriptor<Integer> getKeyDescriptor() {
     return EnumeratorIntegerDescriptor.INSTANCE;
@@ -98,6 +148,6 @@ public class TrigramIndex extends ScalarIndexExtension<Integer> {
 
   @Override
   public int getVersion() {
-    return ENABLED ? 2 : 1;
+    return ENABLED ? 3 : 1;
   }
 }
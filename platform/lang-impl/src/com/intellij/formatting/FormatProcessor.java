@@ -17,6 +17,7 @@
 package com.intellij.formatting;
 
 import com.intellij.lang.Language;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.TextChange;
@@ -1391,7 +1392,8 @@ class FormatProcessor {
       myProgressCallback.beforeApplyingFormatChanges(myBlocksToModify);
 
       final int blocksToModifyCount = myBlocksToModify.size();
-      final boolean bulkReformat = blocksToModifyCount > 50;
+      // bulk mode is EDT-only and makes no sense for detached documents formatted in background
+      final boolean bulkReformat = blocksToModifyCount > 50 && ApplicationManager.getApplication().isDispatchThread();
       DocumentEx updatedDocument = bulkReformat ? getAffectedDocument(myModel) : null;
       if (updatedDocument != null) {
         updatedDocument.setInBulkUpdate(true);
@@ -116,6 +116,16 @@ public abstract class FormatterEx{
                                        TextRange affectedRange);
 
   public abstract void setProgressTask(@NotNull FormattingProgressTask progressIndicator);
+
+  /**
+   * Formats given model right away without touching the state shared between formatter calls (progress task and
+   * {@link #isDisabled() disabled} flag), so it may be called from different threads at once. Is intended to be used for the models
+   * built over documents which are not bound to a PSI file.
+   */
+  public abstract void formatDetached(@NotNull FormattingModel model,
+                                      @NotNull CodeStyleSettings settings,
+                                      @NotNull CommonCodeStyleSettings.IndentOptions indentOptions,
+                                      @NotNull FormatTextRanges affectedRanges) throws IncorrectOperationException;
   
   public interface IndentInfoStorage {
     void saveIndentInfo(IndentInfo info, int startOffset);
@@ -193,6 +193,20 @@ public class FormatterImpl extends FormatterEx
     execute(task);
   }
 
+  @Override
+  public void formatDetached(@NotNull FormattingModel model,
+                             @NotNull CodeStyleSettings settings,
+                             @NotNull CommonCodeStyleSettings.IndentOptions indentOptions,
+                             @NotNull FormatTextRanges affectedRanges) throws IncorrectOperationException {
+    FormatProcessor processor = new FormatProcessor(
+      model.getDocumentModel(), model.getRootBlock(), settings, indentOptions, affectedRanges, FormattingProgressCallback.EMPTY
+    );
+    processor.format(model, true);
+    //noinspection StatementWithEmptyBody
+    while (!processor.iteration()) {
+    }
+  }
+
   public void formatWithoutModifications(final FormattingDocumentModel model,
                                          final Block rootBlock,
                                          final CodeStyleSettings settings,
@@ -29,14 +29,21 @@ import com.intellij.openapi.command.CommandProcessor;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.*;
 import com.intellij.openapi.editor.actionSystem.EditorActionManager;
+import com.intellij.openapi.editor.event.DocumentAdapter;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.ex.DocumentEx;
 import com.intellij.openapi.editor.ex.util.EditorUtil;
+import com.intellij.openapi.editor.impl.DocumentImpl;
+import com.intellij.openapi.editor.impl.TextChangeImpl;
 import com.intellij.openapi.extensions.Extensions;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.JDOMUtil;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.Segment;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.util.UserDataHolder;
+import com.intellij.openapi.util.WriteExternalException;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiElement;
@@ -55,6 +62,7 @@ import com.intellij.testFramework.LightVirtualFile;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.util.containers.ContainerUtilRt;
 import com.intellij.util.text.CharArrayUtil;
+import org.jdom.Element;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -77,12 +85,45 @@ public class CodeFormatterFacade {
   public static final Key<Boolean> WRAP_LONG_LINE_DURING_FORMATTING_IN_PROGRESS_KEY
     = new Key<Boolean>("WRAP_LONG_LINE_DURING_FORMATTING_IN_PROGRESS_KEY");
 
+  /**
+   * Holds {@link #prepareText(PsiFile, FormatTextRanges) precomputed} formatting changes for the file, which are used by
+   * {@link #processText(PsiFile, FormatTextRanges, boolean)} instead of formatting the file again if they are still applicable.
+   * The changes are removed from the file once applied.
+   */
+  public static final Key<PreparedChanges> PREPARED_CHANGES_KEY = Key.create("PREPARED_FORMATTING_CHANGES");
+
   private final CodeStyleSettings mySettings;
+  private Element mySettingsSnapshot;
 
   public CodeFormatterFacade(CodeStyleSettings settings) {
     mySettings = settings;
   }
 
+  /**
+   * Settings are mutable and may be changed in place, so prepared changes remember their serialized form. It is computed once
+   * since the same facade is used for preparing changes for all the files.
+   */
+  @Nullable
+  private synchronized Element getSettingsSnapshot() {
+    if (mySettingsSnapshot == null) {
+      mySettingsSnapshot = serialize(mySettings);
+    }
+    return mySettingsSnapshot;
+  }
+
+  @Nullable
+  private static Element serialize(@NotNull CodeStyleSettings settings) {
+    Element element = new Element("settings");
+    try {
+      settings.writeExternal(element);
+    }
+    catch (WriteExternalException e) {
+      LOG.error(e);
+      return null;
+    }
+    return element;
+  }
+
   public ASTNode processElement(ASTNode element) {
     TextRange range = element.getTextRange();
     return processRange(element, range.getStartOffset(), range.getEndOffset());
@@ -203,25 +244,24 @@ public class CodeFormatterFacade {
             return;
           }
 
-          final FormattingModel originalModel = CoreFormatterUtil.buildModel(builder, file, mySettings, FormattingMode.REFORMAT);
-          final FormattingModel model = new DocumentBasedFormattingModel(originalModel.getRootBlock(),
-                                                                         document,
-                                                                         project, mySettings, file.getFileType(), file);
-
-          FormatterEx formatter = FormatterEx.getInstanceEx();
-          if (CodeStyleManager.getInstance(project).isSequentialProcessingAllowed()) {
-            formatter.setProgressTask(new FormattingProgressTask(project, file, document));
+          PreparedChanges preparedChanges = file.getUserData(PREPARED_CHANGES_KEY);
+          if (preparedChanges != null && preparedChanges.isApplicable(document, textRanges, mySettings)) {
+            preparedChanges.apply(project, document);
+            file.putUserData(PREPARED_CHANGES_KEY, null);
           }
+          else {
+            final FormattingModel originalModel = CoreFormatterUtil.buildModel(builder, file, mySettings, FormattingMode.REFORMAT);
+            final FormattingModel model = new DocumentBasedFormattingModel(originalModel.getRootBlock(),
+                                                                           document,
+                                                                           project, mySettings, file.getFileType(), file);
+
+            FormatterEx formatter = FormatterEx.getInstanceEx();
+            if (CodeStyleManager.getInstance(project).isSequentialProcessingAllowed()) {
+              formatter.setProgressTask(new FormattingProgressTask(project, file, document));
+            }
 
-          CommonCodeStyleSettings.IndentOptions indentOptions = null;
-          if (builder instanceof FormattingModelBuilderEx) {
-            indentOptions = ((FormattingModelBuilderEx)builder).getIndentOptionsToUse(file, ranges, mySettings);
-          }
-          if (indentOptions == null) {
-            indentOptions  = mySettings.getIndentOptions(file.getFileType());
+            formatter.format(model, mySettings, getIndentOptions(builder, file, ranges), ranges);
           }
-          
-          formatter.format(model, mySettings, indentOptions, ranges);
           for (FormatTextRanges.FormatTextRange range : textRanges) {
             TextRange textRange = range.getTextRange();
             wrapLongLinesIfNecessary(file, document, textRange.getStartOffset(), textRange.getEndOffset());
@@ -234,6 +274,133 @@ public class CodeFormatterFacade {
     }
   }
 
+  /**
+   * Formats a copy of the file text and remembers the resulting changes, so that subsequent
+   * {@link #processText(PsiFile, FormatTextRanges, boolean)} call just applies them if the result is stored under
+   * {@link #PREPARED_CHANGES_KEY} and neither the document nor the settings are changed in between. Modifies neither the file nor
+   * its document, so it may be called for different files concurrently under read action.
+   *
+   * @return formatting changes or <code>null</code> if the file can't be formatted in advance
+   */
+  @Nullable
+  public PreparedChanges prepareText(@NotNull PsiFile file, @NotNull FormatTextRanges ranges) throws IncorrectOperationException {
+    final Project project = file.getProject();
+    final Document document = PsiDocumentManager.getInstance(project).getDocument(file);
+    if (document == null || document instanceof DocumentWindow || file.getTextLength() == 0) {
+      return null;
+    }
+    if (PsiDocumentManager.getInstance(project).isUncommited(document)) {
+      return null;
+    }
+    final FormattingModelBuilder builder = LanguageFormatting.INSTANCE.forContext(file);
+    if (builder == null) {
+      return null;
+    }
+
+    long modificationStamp = document.getModificationStamp();
+    List<TextRange> textRanges = new ArrayList<TextRange>();
+    for (FormatTextRanges.FormatTextRange range : ranges.getRanges()) {
+      textRanges.add(range.getTextRange());
+    }
+
+    DocumentImpl copy = new DocumentImpl(document.getCharsSequence(), true);
+    final List<TextChange> changes = new ArrayList<TextChange>();
+    copy.addDocumentListener(new DocumentAdapter() {
+      @Override
+      public void documentChanged(DocumentEvent e) {
+        changes.add(new TextChangeImpl(e.getNewFragment().toString(), e.getOffset(), e.getOffset() + e.getOldLength()));
+      }
+    });
+
+    final FormattingModel originalModel = CoreFormatterUtil.buildModel(builder, file, mySettings, FormattingMode.REFORMAT);
+    final FormattingModel model = new DocumentBasedFormattingModel(originalModel.getRootBlock(),
+                                                                   copy,
+                                                                   project, mySettings, file.getFileType(), file) {
+      @Override
+      public void commitChanges() {
+        // the copy is not bound to the file
+      }
+    };
+    FormatterEx.getInstanceEx().formatDetached(model, mySettings, getIndentOptions(builder, file, ranges), ranges);
+    return new PreparedChanges(modificationStamp, textRanges, getSettingsSnapshot(), changes);
+  }
+
+  @NotNull
+  private CommonCodeStyleSettings.IndentOptions getIndentOptions(@NotNull FormattingModelBuilder builder,
+                                                                 @NotNull PsiFile file,
+                                                                 @NotNull FormatTextRanges ranges) {
+    CommonCodeStyleSettings.IndentOptions indentOptions = null;
+    if (builder instanceof FormattingModelBuilderEx) {
+      indentOptions = ((FormattingModelBuilderEx)builder).getIndentOptionsToUse(file, ranges, mySettings);
+    }
+    if (indentOptions == null) {
+      indentOptions  = mySettings.getIndentOptions(file.getFileType());
+    }
+    return indentOptions;
+  }
+
+  /**
+   * Result of {@link #prepareText(PsiFile, FormatTextRanges)}: document changes made by the formatter to the copy of the file text.
+   */
+  public static class PreparedChanges {
+    private final long myModificationStamp;
+    private final List<TextRange> myRanges;
+    @Nullable private final Element mySettings;
+    private final List<TextChange> myChanges;
+
+    private PreparedChanges(long modificationStamp,
+                            @NotNull List<TextRange> ranges,
+                            @Nullable Element settings,
+                            @NotNull List<TextChange> changes) {
+      myModificationStamp = modificationStamp;
+      myRanges = ranges;
+      mySettings = settings;
+      myChanges = changes;
+    }
+
+    private boolean isApplicable(@NotNull Document document,
+                                 @NotNull List<FormatTextRanges.FormatTextRange> ranges,
+                                 @NotNull CodeStyleSettings settings) {
+      if (document.getModificationStamp() != myModificationStamp || mySettings == null || ranges.size() != myRanges.size()) {
+        return false;
+      }
+      for (int i = 0; i < ranges.size(); i++) {
+        if (!ranges.get(i).getTextRange().equals(myRanges.get(i))) {
+          return false;
+        }
+      }
+      // the settings object may be replaced or modified in place in between, so the values are compared
+      Element current = serialize(settings);
+      return current != null && JDOMUtil.areElementsEqual(mySettings, current);
+    }
+
+    private void apply(@NotNull Project project, @NotNull Document document) {
+      // the same criteria the formatter uses for switching the document to bulk mode
+      boolean bulkUpdate = myChanges.size() > 50 && document instanceof DocumentEx;
+      if (bulkUpdate) {
+        ((DocumentEx)document).setInBulkUpdate(true);
+      }
+      try {
+        for (TextChange change : myChanges) {
+          document.replaceString(change.getStart(), change.getEnd(), change.getText());
+        }
+      }
+      finally {
+        if (bulkUpdate) {
+          ((DocumentEx)document).setInBulkUpdate(false);
+        }
+      }
+
+      CodeEditUtil.allowToMarkNodesForPostponedFormatting(false);
+      try {
+        PsiDocumentManager.getInstance(project).commitDocument(document);
+      }
+      finally {
+        CodeEditUtil.allowToMarkNodesForPostponedFormatting(true);
+      }
+    }
+  }
+
   private static TextRange preprocess(@NotNull final ASTNode node, @NotNull TextRange range) {
     TextRange result = range;
     PsiElement psi = node.getPsi();
@@ -27,11 +27,15 @@ import org.jetbrains.annotations.Nullable;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 public class SerializedStubTree {
   private final byte[] myBytes;
   private final int myLength;
   private Stub myStubElement;
+  private volatile Map<StubIndexKey, Map<Object, StubIdList>> myIndexedStubs;
 
   public SerializedStubTree(final byte[] bytes, int length, @Nullable Stub stubElement) {
     myBytes = bytes;
@@ -61,6 +65,38 @@ public class SerializedStubTree {
     return SerializationManagerEx.getInstanceEx().deserialize(new UnsyncByteArrayInputStream(myBytes));
   }
 
+  /**
+   * Stub index keys of the tree. When the tree has just been built they are computed right from the in-memory stub,
+   * otherwise the tree is deserialized once and the result is kept along with the bytes, so updating stub indices
+   * doesn't need to deserialize the tree every time. The result must not be modified.
+   */
+  @NotNull
+  public Map<StubIndexKey, Map<Object, StubIdList>> getIndexedStubs() throws SerializerNotFoundException {
+    Map<StubIndexKey, Map<Object, StubIdList>> indexedStubs = myIndexedStubs;
+    if (indexedStubs == null) {
+      myIndexedStubs = indexedStubs = indexStubTree((ObjectStubBase)getStub(true));
+    }
+    return indexedStubs;
+  }
+
+  @NotNull
+  private static Map<StubIndexKey, Map<Object, StubIdList>> indexStubTree(@NotNull ObjectStubBase root) {
+    final Map<StubIndexKey, Map<Object, int[]>> map = new ObjectStubTree(root, false).indexStubTree();
+    if (map.isEmpty()) return Collections.emptyMap();
+
+    final Map<StubIndexKey, Map<Object, StubIdList>> result = new HashMap<StubIndexKey, Map<Object, StubIdList>>(map.size());
+    for (Map.Entry<StubIndexKey, Map<Object, int[]>> entry : map.entrySet()) {
+      final Map<Object, int[]> value = entry.getValue();
+      final Map<Object, StubIdList> stubLists = new HashMap<Object, StubIdList>(value.size());
+      for (Map.Entry<Object, int[]> keyEntry : value.entrySet()) {
+        final int[] ints = keyEntry.getValue();
+        stubLists.put(keyEntry.getKey(), ints.length == 1 ? new StubIdList(ints[0]) : new StubIdList(ints, ints.length));
+      }
+      result.put(entry.getKey(), stubLists);
+    }
+    return result;
+  }
+
   public boolean equals(final Object that) {
     if (this == that) {
       return true;
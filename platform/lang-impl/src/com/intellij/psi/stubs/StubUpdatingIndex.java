@@ -31,6 +31,7 @@ import com.intellij.util.indexing.*;
 import com.intellij.util.io.DataExternalizer;
 import com.intellij.util.io.IntInlineKeyDescriptor;
 import com.intellij.util.io.KeyDescriptor;
+import gnu.trove.THashMap;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.DataInput;
@@ -124,7 +125,15 @@ public class StubUpdatingIndex extends CustomImplementationFileBasedIndexExtensi
             SerializationManagerEx.getInstanceEx().serialize(rootStub, bytes);
 
             final int key = Math.abs(FileBasedIndex.getFileId(inputData.getFile()));
-            result.put(key, new SerializedStubTree(bytes.getInternalBuffer(), bytes.size(), rootStub));
+            final SerializedStubTree tree = new SerializedStubTree(bytes.getInternalBuffer(), bytes.size(), rootStub);
+            try {
+              // feed stub indices from the in-memory tree while we have it
+              tree.getIndexedStubs();
+            }
+            catch (SerializerNotFoundException e) {
+              LOG.error(e);
+            }
+            result.put(key, tree);
           }
         });
 
@@ -215,7 +224,18 @@ public class StubUpdatingIndex extends CustomImplementationFileBasedIndexExtensi
       final Map<Object, StubIdList> _oldMap = oldMap != null ? oldMap : Collections.<Object, StubIdList>emptyMap();
       final Map<Object, StubIdList> _newMap = newMap != null ? newMap : Collections.<Object, StubIdList>emptyMap();
 
-      stubIndex.updateIndex(key, inputId, _oldMap, _newMap);
+      // write only the keys whose stubs have changed
+      final Map<Object, StubIdList> removed = new THashMap<Object, StubIdList>();
+      for (Map.Entry<Object, StubIdList> entry : _oldMap.entrySet()) {
+        if (!entry.getValue().equals(_newMap.get(entry.getKey()))) removed.put(entry.getKey(), entry.getValue());
+      }
+      final Map<Object, StubIdList> added = new THashMap<Object, StubIdList>();
+      for (Map.Entry<Object, StubIdList> entry : _newMap.entrySet()) {
+        if (!entry.getValue().equals(_oldMap.get(entry.getKey()))) added.put(entry.getKey(), entry.getValue());
+      }
+      if (removed.isEmpty() && added.isEmpty()) continue;
+
+      stubIndex.updateIndex(key, inputId, removed, added);
     }
   }
 
@@ -314,29 +334,11 @@ public class StubUpdatingIndex extends CustomImplementationFileBasedIndexExtensi
       }
     }
 
+    @NotNull
     private static Map<StubIndexKey, Map<Object, StubIdList>> getStubTree(@NotNull final Map<Integer, SerializedStubTree> data)
       throws SerializerNotFoundException {
-      final Map<StubIndexKey, Map<Object, StubIdList>> stubTree;
-      if (!data.isEmpty()) {
-        final SerializedStubTree stub = data.values().iterator().next();
-        ObjectStubBase root = (ObjectStubBase)stub.getStub(true);
-        Map<StubIndexKey, Map<Object, int[]>> map = new ObjectStubTree(root, false).indexStubTree();
-
-        // xxx:fix refs inplace
-        stubTree = (Map)map;
-        for(StubIndexKey key:map.keySet()) {
-          Map<Object, int[]> value = map.get(key);
-          for(Object k: value.keySet()) {
-            int[] ints = value.get(k);
-            StubIdList stubList = ints.length == 1 ? new StubIdList(ints[0]) : new StubIdList(ints, ints.length);
-            ((Map<Object, StubIdList>)(Map)value).put(k, stubList);
-          }
-        }
-      }
-      else {
-        stubTree = Collections.emptyMap();
-      }
-      return stubTree;
+      if (data.isEmpty()) return Collections.emptyMap();
+      return data.values().iterator().next().getIndexedStubs();
     }
 
     /*MUST be called under the WriteLock*/
@@ -100,6 +100,8 @@ public class FileBasedIndexImpl extends FileBasedIndex {
   private final Set<ID<?, ?>> myNotRequiringContentIndices = new THashSet<ID<?, ?>>();
   private final Set<ID<?, ?>> myRequiringContentIndices = new THashSet<ID<?, ?>>();
   private final Set<FileType> myNoLimitCheckTypes = new THashSet<FileType>();
+  // files skipped by the indexing because of their size, so that searches which can't rely on the indices don't need to look for them
+  private final Set<VirtualFile> myTooLargeFiles = new ConcurrentHashSet<VirtualFile>();
 
   private final PerIndexDocumentVersionMap myLastIndexedDocStamps = new PerIndexDocumentVersionMap();
   @NotNull private final ChangedFilesCollector myChangedFilesCollector;
@@ -128,6 +130,7 @@ public class FileBasedIndexImpl extends FileBasedIndex {
   private volatile int myFilesModCount;
   private final AtomicInteger myUpdatingFiles = new AtomicInteger();
   private final ConcurrentHashSet<Project> myProjectsBeingUpdated = new ConcurrentHashSet<Project>();
+  private final AtomicInteger myBatchUpdatesCount = new AtomicInteger();
 
   @SuppressWarnings({"FieldCanBeLocal", "UnusedDeclaration"}) private volatile boolean myInitialized;
   // need this variable for memory barrier
@@ -389,8 +392,20 @@ public class FileBasedIndexImpl extends FileBasedIndex {
       try {
         storage = new MapIndexStorage<K, V>(
           IndexInfrastructure.getStorageFile(name),
-          extension.getKeyDescriptor(),
-          extension.getValueExternalizer(),
+          new NotNullFactory<KeyDescriptor<K>>() {
+            @NotNull
+            @Override
+            public KeyDescriptor<K> create() {
+              return extension.getKeyDescriptor();
+            }
+          },
+          new NotNullFactory<DataExternalizer<V>>() {
+            @NotNull
+            @Override
+            public DataExternalizer<V> create() {
+              return extension.getValueExternalizer();
+            }
+          },
           extension.getCacheSize(),
           extension.isKeyHighlySelective()
         );
@@ -490,12 +505,11 @@ public class FileBasedIndexImpl extends FileBasedIndex {
       index = new MapReduceIndex<K, V, FileContent>(indexId, extension.getIndexer(), storage);
     }
 
-    final KeyDescriptor<K> keyDescriptor = extension.getKeyDescriptor();
     index.setInputIdToDataKeysIndex(new Factory<PersistentHashMap<Integer, Collection<K>>>() {
       @Override
       public PersistentHashMap<Integer, Collection<K>> create() {
         try {
-          return createIdToDataKeysIndex(indexId, keyDescriptor, storage);
+          return createIdToDataKeysIndex(extension, storage);
         }
         catch (IOException e) {
           throw new RuntimeException(e);
@@ -507,15 +521,18 @@ public class FileBasedIndexImpl extends FileBasedIndex {
   }
 
   @NotNull
-  private static <K> PersistentHashMap<Integer, Collection<K>> createIdToDataKeysIndex(@NotNull final ID<K, ?> indexId,
-                                                                                       @NotNull final KeyDescriptor<K> keyDescriptor,
+  private static <K> PersistentHashMap<Integer, Collection<K>> createIdToDataKeysIndex(@NotNull FileBasedIndexExtension<K, ?> extension,
                                                                                        @NotNull MemoryIndexStorage<K, ?> storage)
     throws IOException {
+    final ID<K, ?> indexId = extension.getName();
+    final KeyDescriptor<K> keyDescriptor = extension.getKeyDescriptor();
     final File indexStorageFile = IndexInfrastructure.getInputIndexStorageFile(indexId);
     final Ref<Boolean> isBufferingMode = new Ref<Boolean>(false);
     final TIntObjectHashMap<Collection<K>> tempMap = new TIntObjectHashMap<Collection<K>>();
 
-    final DataExternalizer<Collection<K>> dataExternalizer = new DataExternalizer<Collection<K>>() {
+    final DataExternalizer<Collection<K>> dataExternalizer = extension instanceof CustomInputsIndexFileBasedIndexExtension
+                                                             ? ((CustomInputsIndexFileBasedIndexExtension<K>)extension).createExternalizer()
+                                                             : new DataExternalizer<Collection<K>>() {
       @Override
       public void save(DataOutput out, @NotNull Collection<K> value) throws IOException {
         try {
@@ -1013,6 +1030,37 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     }
   }
 
+  /**
+   * Switches all indices into the batch update mode (see {@link MapIndexStorage#setBatchUpdateMode(boolean)}) until the matching
+   * {@link #finishBatchUpdate()} call. Intended for massive updates like initial indexing or large VCS updates.
+   */
+  void startBatchUpdate() {
+    if (myBatchUpdatesCount.getAndIncrement() == 0) {
+      setBatchUpdateMode(true);
+    }
+  }
+
+  void finishBatchUpdate() {
+    if (myBatchUpdatesCount.decrementAndGet() == 0) {
+      setBatchUpdateMode(false);
+    }
+  }
+
+  private void setBatchUpdateMode(boolean batchUpdateMode) {
+    for (ID<?, ?> indexId : myIndices.keySet()) {
+      final UpdatableIndex<?, ?, FileContent> index = getIndex(indexId);
+      if (index instanceof MapReduceIndex) {
+        try {
+          ((MapReduceIndex)index).setBatchUpdateMode(batchUpdateMode);
+        }
+        catch (RuntimeException e) {
+          LOG.info(e);
+          requestRebuild(indexId);
+        }
+      }
+    }
+  }
+
   void filesUpdateFinished(@NotNull Project project) {
     myProjectsBeingUpdated.remove(project);
     ++myFilesModCount;
@@ -1166,37 +1214,29 @@ public class FileBasedIndexImpl extends FileBasedIndex {
 
       try {
         index.getReadLock().lock();
-        final List<TIntHashSet> locals = new ArrayList<TIntHashSet>();
+        final List<int[]> locals = new ArrayList<int[]>();
         for (K dataKey : dataKeys) {
-          TIntHashSet local = new TIntHashSet();
-          locals.add(local);
-          final ValueContainer<V> container = index.getData(dataKey);
-
-          for (final Iterator<V> valueIt = container.getValueIterator(); valueIt.hasNext(); ) {
-            final V value = valueIt.next();
-            for (final ValueContainer.IntIterator inputIdsIterator = container.getInputIdsIterator(value); inputIdsIterator.hasNext(); ) {
-              final int id = inputIdsIterator.next();
-              local.add(id);
-            }
+          final int[] local = collectInputIds(index.getData(dataKey));
+          if (local.length == 0) {
+            return true;
           }
+          locals.add(local);
         }
 
         if (locals.isEmpty()) {
           return true;
         }
 
-        Collections.sort(locals, new Comparator<TIntHashSet>() {
+        Collections.sort(locals, new Comparator<int[]>() {
           @Override
-          public int compare(TIntHashSet o1, TIntHashSet o2) {
-            return o1.size() - o2.size();
+          public int compare(int[] o1, int[] o2) {
+            return o1.length - o2.length;
           }
         });
 
         final PersistentFS fs = (PersistentFS)ManagingFS.getInstance();
-        TIntIterator ids = join(locals).iterator();
         ProjectIndexableFilesFilter projectIndexableFilesFilter = projectIndexableFiles(project);
-        while (ids.hasNext()) {
-          int id = ids.next();
+        for (int id : SortedIdSet.intersect(locals)) {
           if (projectIndexableFilesFilter != null && !projectIndexableFilesFilter.contains(id)) continue;
           //VirtualFile file = IndexInfrastructure.findFileById(fs, id);
           VirtualFile file = IndexInfrastructure.findFileByIdIfCached(fs, id);
@@ -1226,23 +1266,28 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     return true;
   }
 
+  /**
+   * @return sorted ids of all inputs associated with any value of the container
+   */
   @NotNull
-  private static TIntHashSet join(@NotNull List<TIntHashSet> locals) {
-    TIntHashSet result = locals.get(0);
-    if (locals.size() > 1) {
-      TIntIterator it = result.iterator();
-
-      while (it.hasNext()) {
-        int id = it.next();
-        for (int i = 1; i < locals.size(); i++) {
-          if (!locals.get(i).contains(id)) {
-            it.remove();
-            break;
-          }
-        }
+  private static <V> int[] collectInputIds(@NotNull ValueContainer<V> container) {
+    List<ValueContainer.IntIterator> iterators = new ArrayList<ValueContainer.IntIterator>(container.size());
+    int total = 0;
+    for (final Iterator<V> valueIt = container.getValueIterator(); valueIt.hasNext(); ) {
+      final ValueContainer.IntIterator inputIdsIterator = container.getInputIdsIterator(valueIt.next());
+      iterators.add(inputIdsIterator);
+      total += inputIdsIterator.size();
+    }
+
+    int[] ids = new int[total];
+    int size = 0;
+    for (ValueContainer.IntIterator iterator : iterators) {
+      while (iterator.hasNext()) {
+        ids[size++] = iterator.next();
       }
     }
-    return result;
+    size = SortedIdSet.sortAndRemoveDuplicates(ids, size);
+    return size == ids.length ? ids : Arrays.copyOf(ids, size);
   }
 
   @Override
@@ -1771,6 +1816,7 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     @Override
     public void fileDeleted(@NotNull final VirtualFileEvent event) {
       myFilesToUpdate.remove(event.getFile()); // no need to update it anymore
+      myTooLargeFiles.remove(event.getFile());
     }
 
     @Override
@@ -2090,7 +2136,9 @@ public class FileBasedIndexImpl extends FileBasedIndex {
       final VirtualFile file = fileContent.getVirtualFile();
       final boolean reallyRemoved = myFilesToUpdate.remove(file);
       if (reallyRemoved && file.isValid()) {
-        if (onlyRemoveOutdatedData || isTooLarge(file)) {
+        boolean tooLarge = isTooLarge(file);
+        updateTooLargeFiles(file, tooLarge);
+        if (onlyRemoveOutdatedData || tooLarge) {
           // on shutdown there is no need to re-index the file, just remove outdated data from indices
           final List<ID<?, ?>> affected = new ArrayList<ID<?, ?>>();
           for (final ID<?, ?> indexId : myRequiringContentIndices) {  // non requiring content indices should be flushed
@@ -2138,7 +2186,9 @@ public class FileBasedIndexImpl extends FileBasedIndex {
             FileTypeManagerImpl.cacheFileType(file, file.getFileType());
 
             boolean oldStuff = true;
-            if (!isTooLarge(file)) {
+            boolean tooLarge = isTooLarge(file);
+            updateTooLargeFiles(file, tooLarge);
+            if (!tooLarge) {
               for (ID<?, ?> indexId : myIndices.keySet()) {
                 try {
                   if (needsFileContentLoading(indexId) && shouldIndexFile(file, indexId)) {
@@ -2217,6 +2267,32 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     return !(file instanceof NewVirtualFile);
   }
 
+  private void updateTooLargeFiles(@NotNull VirtualFile file, boolean tooLarge) {
+    if (tooLarge) {
+      myTooLargeFiles.add(file);
+    }
+    else {
+      myTooLargeFiles.remove(file);
+    }
+  }
+
+  /**
+   * @return valid files which are not indexed because of their size, among the files scanned for indexing so far
+   */
+  @NotNull
+  public List<VirtualFile> getFilesTooLargeToIndex() {
+    List<VirtualFile> result = new ArrayList<VirtualFile>(myTooLargeFiles.size());
+    for (VirtualFile file : myTooLargeFiles) {
+      if (file.isValid()) {
+        result.add(file);
+      }
+      else {
+        myTooLargeFiles.remove(file);
+      }
+    }
+    return result;
+  }
+
   private boolean isTooLarge(@NotNull VirtualFile file) {
     if (SingleRootFileViewProvider.isTooLargeForIntelligence(file)) {
       final FileType type = file.getFileType();
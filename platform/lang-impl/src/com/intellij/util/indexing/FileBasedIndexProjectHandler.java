@@ -40,6 +40,7 @@ import com.intellij.openapi.vfs.VirtualFileVisitor;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class FileBasedIndexProjectHandler extends AbstractProjectComponent implements IndexableFileSet {
   private final FileBasedIndexImpl myIndex;
@@ -115,6 +116,10 @@ public class FileBasedIndexProjectHandler extends AbstractProjectComponent imple
   }
 
   private class RefreshCacheUpdater implements CacheUpdater {
+    private static final int BATCH_UPDATE_THRESHOLD = 1000;
+    // set and reset on different threads
+    private final AtomicBoolean myBatchUpdate = new AtomicBoolean();
+
     @Override
     public int getNumberOfPendingUpdateJobs() {
       return myIndex.getNumberOfPendingInvalidations();
@@ -123,6 +128,10 @@ public class FileBasedIndexProjectHandler extends AbstractProjectComponent imple
     @Override
     public VirtualFile[] queryNeededFiles(ProgressIndicator indicator) {
       Collection<VirtualFile> files = myIndex.getFilesToUpdate(myProject);
+      if (files.size() >= BATCH_UPDATE_THRESHOLD && myBatchUpdate.compareAndSet(false, true)) {
+        // e.g. after a large VCS update
+        myIndex.startBatchUpdate();
+      }
       return VfsUtilCore.toVirtualFileArray(files);
     }
 
@@ -133,10 +142,18 @@ public class FileBasedIndexProjectHandler extends AbstractProjectComponent imple
 
     @Override
     public void updatingDone() {
+      finishBatchUpdate();
     }
 
     @Override
     public void canceled() {
+      finishBatchUpdate();
+    }
+
+    private void finishBatchUpdate() {
+      if (myBatchUpdate.compareAndSet(true, false)) {
+        myIndex.finishBatchUpdate();
+      }
     }
   }
 }
@@ -17,21 +17,22 @@
 package com.intellij.util.indexing;
 
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.NotNullFactory;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.CommonProcessors;
 import com.intellij.util.Processor;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.SLRUCache;
-import com.intellij.util.io.DataExternalizer;
-import com.intellij.util.io.KeyDescriptor;
-import com.intellij.util.io.PersistentMap;
+import com.intellij.util.io.*;
+import gnu.trove.THashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -41,16 +42,26 @@ import java.util.concurrent.locks.ReentrantLock;
 */
 public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Value>{
   private static final Logger LOG = Logger.getInstance("#com.intellij.util.indexing.MapIndexStorage");
+  // the data is split into this number of independent segments, so that reads of keys from different segments don't block each other
+  private static final int SEGMENTS_COUNT = Math.max(1, SystemProperties.getIntProperty("idea.index.storage.segments", 4));
   private PersistentMap<Key, ValueContainer<Value>> myMap;
   private SLRUCache<Key, ChangeTrackingValueContainer<Value>> myCache;
   private final File myStorageFile;
+  private final NotNullFactory<? extends KeyDescriptor<Key>> myKeyDescriptorFactory;
   private final KeyDescriptor<Key> myKeyDescriptor;
   private final int myCacheSize;
 
   private final Lock l = new ReentrantLock();
+  private final NotNullFactory<? extends DataExternalizer<Value>> myDataExternalizerFactory;
   private final DataExternalizer<Value> myDataExternalizer;
   private boolean myHighKeySelectivity;
 
+  // In batch update mode changed value containers evicted from the cache are not written immediately but collected here
+  // and written all together ordered by key hash, so that the underlying enumerator is accessed mostly sequentially
+  private static final int MAX_PENDING_UPDATES = 16 * 1024;
+  private boolean myBatchUpdateMode;
+  private final THashMap<Key, ChangeTrackingValueContainer<Value>> myPendingUpdates = new THashMap<Key, ChangeTrackingValueContainer<Value>>();
+
   public MapIndexStorage(@NotNull File storageFile,
                          @NotNull KeyDescriptor<Key> keyDescriptor,
                          @NotNull DataExternalizer<Value> valueExternalizer,
@@ -64,49 +75,60 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
                          @NotNull DataExternalizer<Value> valueExternalizer,
                          final int cacheSize,
                          boolean highKeySelectivity) throws IOException {
+    this(storageFile, sameInstance(keyDescriptor), sameInstance(valueExternalizer), cacheSize, highKeySelectivity);
+  }
+
+  /**
+   * Descriptors and externalizers often keep reusable buffers, so if the factories create new instances, every segment of the storage
+   * gets its own ones and the segments can be accessed concurrently.
+   */
+  public MapIndexStorage(@NotNull File storageFile,
+                         @NotNull NotNullFactory<? extends KeyDescriptor<Key>> keyDescriptorFactory,
+                         @NotNull NotNullFactory<? extends DataExternalizer<Value>> valueExternalizerFactory,
+                         final int cacheSize,
+                         boolean highKeySelectivity) throws IOException {
 
     myStorageFile = storageFile;
-    myKeyDescriptor = keyDescriptor;
+    myKeyDescriptorFactory = keyDescriptorFactory;
+    myKeyDescriptor = keyDescriptorFactory.create();
     myCacheSize = cacheSize;
-    myDataExternalizer = valueExternalizer;
+    myDataExternalizerFactory = valueExternalizerFactory;
+    myDataExternalizer = valueExternalizerFactory.create();
     myHighKeySelectivity = highKeySelectivity;
     initMapAndCache();
   }
 
+  @NotNull
+  private static <T> NotNullFactory<T> sameInstance(@NotNull final T instance) {
+    return new NotNullFactory<T>() {
+      @NotNull
+      @Override
+      public T create() {
+        return instance;
+      }
+    };
+  }
+
   private void initMapAndCache() throws IOException {
-    final ValueContainerMap<Key, Value> map = new ValueContainerMap<Key, Value>(myStorageFile, myKeyDescriptor, myDataExternalizer);
+    final PersistentMap<Key, ValueContainer<Value>> map = createMap();
     myCache = new SLRUCache<Key, ChangeTrackingValueContainer<Value>>(myCacheSize, (int)(Math.ceil(myCacheSize * 0.25)) /* 25% from the main cache size*/) {
       @Override
       @NotNull
       public ChangeTrackingValueContainer<Value> createValue(final Key key) {
-        return new ChangeTrackingValueContainer<Value>(new ChangeTrackingValueContainer.Initializer<Value>() {
-          @NotNull
-          @Override
-          public Object getLock() {
-            return map.getDataAccessLock();
-          }
-
-          @Nullable
-          @Override
-          public ValueContainer<Value> compute() {
-            ValueContainer<Value> value;
-            try {
-              value = map.get(key);
-              if (value == null) {
-                value = new ValueContainerImpl<Value>();
-              }
-            }
-            catch (IOException e) {
-              throw new RuntimeException(e);
-            }
-            return value;
-          }
-        });
+        final ChangeTrackingValueContainer<Value> pending = myPendingUpdates.remove(key);
+        if (pending != null) {
+          return pending;
+        }
+        return createValueContainer(getValueContainerMap(map, key), key);
       }
 
       @Override
       protected void onDropFromCache(final Key key, @NotNull final ChangeTrackingValueContainer<Value> valueContainer) {
         if (valueContainer.isDirty()) {
+          if (myBatchUpdateMode) {
+            addPendingUpdate(key, valueContainer);
+            return;
+          }
           try {
             map.put(key, valueContainer);
           }
@@ -120,12 +142,126 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
     myMap = map;
   }
 
+  @NotNull
+  private PersistentMap<Key, ValueContainer<Value>> createMap() throws IOException {
+    if (SEGMENTS_COUNT == 1) {
+      return new ValueContainerMap<Key, Value>(myStorageFile, myKeyDescriptor, myDataExternalizer);
+    }
+
+    // segments are accessed concurrently, so the instances shared by all of them (if the factories don't create new ones) are synchronized
+    final KeyDescriptor<Key> sharedKeyDescriptor = myKeyDescriptorFactory.create() == myKeyDescriptorFactory.create()
+                                                   ? new SynchronizedKeyDescriptor<Key>(myKeyDescriptor) : null;
+    final DataExternalizer<Value> sharedExternalizer = myDataExternalizerFactory.create() == myDataExternalizerFactory.create()
+                                                       ? new SynchronizedDataExternalizer<Value>(myDataExternalizer) : null;
+    KeyDescriptor<Key> segmentChooser = sharedKeyDescriptor != null ? sharedKeyDescriptor
+                                                                    : new SynchronizedKeyDescriptor<Key>(myKeyDescriptorFactory.create());
+    return new StripedPersistentHashMap<Key, ValueContainer<Value>>(
+      myStorageFile, segmentChooser, new StripedPersistentHashMap.SegmentFactory<Key, ValueContainer<Value>>() {
+        @NotNull
+        @Override
+        public PersistentHashMap<Key, ValueContainer<Value>> createSegment(@NotNull File segmentFile,
+                                                                          @NotNull PagedFileStorage.StorageLockContext lockContext)
+          throws IOException {
+          KeyDescriptor<Key> keyDescriptor = sharedKeyDescriptor != null ? sharedKeyDescriptor : myKeyDescriptorFactory.create();
+          DataExternalizer<Value> valueExternalizer = sharedExternalizer != null ? sharedExternalizer : myDataExternalizerFactory.create();
+          return new ValueContainerMap<Key, Value>(segmentFile, keyDescriptor, valueExternalizer, lockContext);
+        }
+      }, SEGMENTS_COUNT);
+  }
+
+  @NotNull
+  private static <Key, Value> ValueContainerMap<Key, Value> getValueContainerMap(@NotNull PersistentMap<Key, ValueContainer<Value>> map,
+                                                                                 Key key) {
+    if (map instanceof StripedPersistentHashMap) {
+      return (ValueContainerMap<Key, Value>)((StripedPersistentHashMap<Key, ValueContainer<Value>>)map).segmentFor(key);
+    }
+    return (ValueContainerMap<Key, Value>)map;
+  }
+
+  @NotNull
+  private ChangeTrackingValueContainer<Value> createValueContainer(@NotNull final ValueContainerMap<Key, Value> map, final Key key) {
+    return new ChangeTrackingValueContainer<Value>(new ChangeTrackingValueContainer.Initializer<Value>() {
+      @NotNull
+      @Override
+      public Object getLock() {
+        return map.getDataAccessLock();
+      }
+
+      @Nullable
+      @Override
+      public ValueContainer<Value> compute() {
+        ValueContainer<Value> value;
+        try {
+          value = map.get(key);
+          if (value == null) {
+            value = new ValueContainerImpl<Value>();
+          }
+        }
+        catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        return value;
+      }
+    });
+  }
+
+  private void addPendingUpdate(final Key key, @NotNull final ChangeTrackingValueContainer<Value> valueContainer) {
+    valueContainer.dropMergedData(); // will be recomputed from disk and the delta if requested again
+    myPendingUpdates.put(key, valueContainer);
+    if (myPendingUpdates.size() >= MAX_PENDING_UPDATES) {
+      writePendingUpdates();
+    }
+  }
+
+  private void writePendingUpdates() {
+    if (myPendingUpdates.isEmpty()) return;
+
+    final List<Key> keys = new ArrayList<Key>(myPendingUpdates.keySet());
+    Collections.sort(keys, new Comparator<Key>() {
+      @Override
+      public int compare(Key k1, Key k2) {
+        final int h1 = myKeyDescriptor.getHashCode(k1);
+        final int h2 = myKeyDescriptor.getHashCode(k2);
+        return h1 < h2 ? -1 : h1 == h2 ? 0 : 1;
+      }
+    });
+    try {
+      for (Key key : keys) {
+        myMap.put(key, myPendingUpdates.get(key));
+        // keep the changes which aren't written yet, so that they aren't lost if writing of another key fails
+        myPendingUpdates.remove(key);
+      }
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Batch update mode is meant for massive updates (initial indexing, large VCS updates): changes of many inputs are
+   * accumulated in memory and written in key hash order instead of one by one. The pending changes are written on
+   * {@link #flush()} or when the mode is turned off.
+   */
+  public void setBatchUpdateMode(boolean batchUpdateMode) {
+    l.lock();
+    try {
+      myBatchUpdateMode = batchUpdateMode;
+      if (!batchUpdateMode) {
+        writePendingUpdates();
+      }
+    }
+    finally {
+      l.unlock();
+    }
+  }
+
   @Override
   public void flush() {
     l.lock();
     try {
       if (!myMap.isClosed() && myMap.isDirty()) {
         myCache.clear();
+        writePendingUpdates();
         myMap.force();
       }
     }
@@ -164,6 +300,7 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
       LOG.error(e);
     }
     try {
+      myPendingUpdates.clear();
       FileUtil.delete(myStorageFile);
       initMapAndCache();
     }
@@ -187,6 +324,7 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
     l.lock();
     try {
       myCache.clear(); // this will ensure that all new keys are made into the map
+      writePendingUpdates();
       return myMap.processKeys(processor);
     }
     catch (IOException e) {
@@ -251,6 +389,10 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
         cached.addValue(inputId, value);
         return;
       }
+      if (myBatchUpdateMode) {
+        addValueInBatchMode(key, inputId, value);
+        return;
+      }
       // do not pollute the cache with highly selective data
       ChangeTrackingValueContainer<Value> valueContainer = new ChangeTrackingValueContainer<Value>(null);
       valueContainer.addValue(inputId, value);
@@ -261,6 +403,24 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
     }
   }
 
+  private void addValueInBatchMode(final Key key, final int inputId, final Value value) {
+    l.lock();
+    try {
+      ChangeTrackingValueContainer<Value> pending = myPendingUpdates.get(key);
+      if (pending == null) {
+        pending = createValueContainer(getValueContainerMap(myMap, key), key);
+        pending.addValue(inputId, value);
+        addPendingUpdate(key, pending);
+      }
+      else {
+        pending.addValue(inputId, value);
+      }
+    }
+    finally {
+      l.unlock();
+    }
+  }
+
   @Override
   public void removeAllValues(Key key, int inputId) throws StorageException {
     try {
@@ -273,4 +433,61 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
     }
   }
 
+  private static class SynchronizedKeyDescriptor<Key> implements KeyDescriptor<Key> {
+    private final KeyDescriptor<Key> myDelegate;
+
+    private SynchronizedKeyDescriptor(@NotNull KeyDescriptor<Key> delegate) {
+      myDelegate = delegate;
+    }
+
+    @Override
+    public int getHashCode(Key value) {
+      synchronized (myDelegate) {
+        return myDelegate.getHashCode(value);
+      }
+    }
+
+    @Override
+    public boolean isEqual(Key val1, Key val2) {
+      synchronized (myDelegate) {
+        return myDelegate.isEqual(val1, val2);
+      }
+    }
+
+    @Override
+    public void save(DataOutput out, Key value) throws IOException {
+      synchronized (myDelegate) {
+        myDelegate.save(out, value);
+      }
+    }
+
+    @Override
+    public Key read(DataInput in) throws IOException {
+      synchronized (myDelegate) {
+        return myDelegate.read(in);
+      }
+    }
+  }
+
+  private static class SynchronizedDataExternalizer<Value> implements DataExternalizer<Value> {
+    private final DataExternalizer<Value> myDelegate;
+
+    private SynchronizedDataExternalizer(@NotNull DataExternalizer<Value> delegate) {
+      myDelegate = delegate;
+    }
+
+    @Override
+    public void save(DataOutput out, Value value) throws IOException {
+      synchronized (myDelegate) {
+        myDelegate.save(out, value);
+      }
+    }
+
+    @Override
+    public Value read(DataInput in) throws IOException {
+      synchronized (myDelegate) {
+        return myDelegate.read(in);
+      }
+    }
+  }
 }
@@ -144,6 +144,26 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
     }
   }
 
+  /**
+   * @see MapIndexStorage#setBatchUpdateMode(boolean)
+   */
+  public void setBatchUpdateMode(boolean batchUpdateMode) {
+    IndexStorage<Key, Value> storage = myStorage;
+    if (storage instanceof MemoryIndexStorage) {
+      storage = ((MemoryIndexStorage<Key, Value>)storage).getBackendStorage();
+    }
+    if (storage instanceof MapIndexStorage) {
+      final Lock lock = getWriteLock();
+      lock.lock();
+      try {
+        ((MapIndexStorage<Key, Value>)storage).setBatchUpdateMode(batchUpdateMode);
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+  }
+
   @Override
   public final Lock getReadLock() {
     return myLock.readLock();
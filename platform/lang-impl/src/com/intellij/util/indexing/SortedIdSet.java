@@ -0,0 +1,303 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Set of input ids kept in sorted int arrays. Takes considerably less memory than a hash set for the keys with a lot of
+ * associated inputs, iterates ids in ascending order (which allows to delta-encode them on disk) and can be intersected
+ * with other sorted id lists without building intermediate hash sets.
+ * <p/>
+ * Ids are split into blocks of limited size, so an addition or removal in the middle of a large set shifts one block only.
+ * Input ids are mostly added in ascending order, so additions usually append to the last block.
+ */
+final class SortedIdSet implements Cloneable {
+  private static final int MAX_BLOCK_SIZE = 1024;
+
+  // each block starts with the number of ids in it, followed by the ids; ids of a block are less than the ids of the next one
+  private int[][] myBlocks;
+  private int myBlockCount;
+  private int mySize;
+
+  SortedIdSet(int initialCapacity) {
+    myBlocks = new int[][]{new int[Math.min(Math.max(initialCapacity, 1), MAX_BLOCK_SIZE) + 1]};
+    myBlockCount = 1;
+  }
+
+  boolean add(int id) {
+    final int blockIndex = findBlock(id);
+    int[] block = myBlocks[blockIndex];
+    final int blockSize = block[0];
+    int pos = Arrays.binarySearch(block, 1, blockSize + 1, id);
+    if (pos >= 0) return false;
+    pos = -pos - 1;
+
+    if (blockSize == MAX_BLOCK_SIZE) {
+      if (pos == blockSize + 1 && blockIndex == myBlockCount - 1) {
+        // appending to the full last block: start a new one instead of splitting
+        block = new int[]{0, 0, 0, 0};
+        insertBlock(blockIndex + 1, block);
+        pos = 1;
+      }
+      else {
+        splitBlock(blockIndex);
+        return add(id);
+      }
+    }
+    else if (block.length == blockSize + 1) {
+      block = copyOf(block, Math.min(MAX_BLOCK_SIZE, blockSize * 3 / 2 + 1) + 1);
+      myBlocks[blockIndex] = block;
+    }
+
+    System.arraycopy(block, pos, block, pos + 1, block[0] + 1 - pos);
+    block[pos] = id;
+    block[0]++;
+    mySize++;
+    return true;
+  }
+
+  boolean remove(int id) {
+    final int blockIndex = findBlock(id);
+    final int[] block = myBlocks[blockIndex];
+    final int blockSize = block[0];
+    final int pos = Arrays.binarySearch(block, 1, blockSize + 1, id);
+    if (pos < 0) return false;
+
+    System.arraycopy(block, pos + 1, block, pos, blockSize - pos);
+    block[0]--;
+    mySize--;
+
+    if (block[0] == 0 && myBlockCount > 1) {
+      removeBlock(blockIndex);
+    }
+    else if (blockIndex + 1 < myBlockCount && block[0] + myBlocks[blockIndex + 1][0] <= MAX_BLOCK_SIZE / 2) {
+      mergeWithNext(blockIndex);
+    }
+    else if (blockIndex > 0 && block[0] + myBlocks[blockIndex - 1][0] <= MAX_BLOCK_SIZE / 2) {
+      mergeWithNext(blockIndex - 1);
+    }
+    return true;
+  }
+
+  boolean contains(int id) {
+    if (mySize == 0) return false;
+    final int[] block = myBlocks[findBlock(id)];
+    return Arrays.binarySearch(block, 1, block[0] + 1, id) >= 0;
+  }
+
+  int size() {
+    return mySize;
+  }
+
+  boolean isEmpty() {
+    return mySize == 0;
+  }
+
+  /**
+   * @return iterator over the ids in ascending order
+   */
+  @NotNull
+  ValueContainer.IntIterator iterator() {
+    return new ValueContainer.IntIterator() {
+      private int myBlockIndex;
+      private int myPos = 1;
+      private int myRemaining = mySize;
+
+      @Override
+      public boolean hasNext() {
+        return myRemaining > 0;
+      }
+
+      @Override
+      public int next() {
+        int[] block = myBlocks[myBlockIndex];
+        while (myPos > block[0]) {
+          block = myBlocks[++myBlockIndex];
+          myPos = 1;
+        }
+        myRemaining--;
+        return block[myPos++];
+      }
+
+      @Override
+      public int size() {
+        return mySize;
+      }
+    };
+  }
+
+  @NotNull
+  int[] toArray() {
+    final int[] result = new int[mySize];
+    int size = 0;
+    for (int i = 0; i < myBlockCount; i++) {
+      final int[] block = myBlocks[i];
+      System.arraycopy(block, 1, result, size, block[0]);
+      size += block[0];
+    }
+    return result;
+  }
+
+  void compact() {
+    for (int i = 0; i < myBlockCount; i++) {
+      final int[] block = myBlocks[i];
+      if (block.length - 1 >= 3 * Math.max(1, block[0])) {
+        myBlocks[i] = copyOf(block, Math.max(block[0], 1) + 1);
+      }
+    }
+    if (myBlocks.length >= 3 * myBlockCount) {
+      myBlocks = copyOf(myBlocks, myBlockCount);
+    }
+  }
+
+  // index of the first block which last id is not less than the given one, or of the last block
+  private int findBlock(int id) {
+    int low = 0;
+    int high = myBlockCount - 1;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      final int[] block = myBlocks[mid];
+      if (block[block[0]] < id) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private void splitBlock(int blockIndex) {
+    final int[] block = myBlocks[blockIndex];
+    final int leftSize = block[0] / 2;
+    final int rightSize = block[0] - leftSize;
+    final int[] right = new int[rightSize + 1 + rightSize / 2];
+    right[0] = rightSize;
+    System.arraycopy(block, leftSize + 1, right, 1, rightSize);
+    block[0] = leftSize;
+    insertBlock(blockIndex + 1, right);
+  }
+
+  private void mergeWithNext(int blockIndex) {
+    final int[] block = myBlocks[blockIndex];
+    final int[] next = myBlocks[blockIndex + 1];
+    final int[] merged = block.length > block[0] + next[0] ? block : copyOf(block, block[0] + next[0] + 1);
+    System.arraycopy(next, 1, merged, merged[0] + 1, next[0]);
+    merged[0] += next[0];
+    myBlocks[blockIndex] = merged;
+    removeBlock(blockIndex + 1);
+  }
+
+  private void insertBlock(int blockIndex, @NotNull int[] block) {
+    if (myBlockCount == myBlocks.length) {
+      myBlocks = copyOf(myBlocks, myBlockCount * 3 / 2 + 1);
+    }
+    System.arraycopy(myBlocks, blockIndex, myBlocks, blockIndex + 1, myBlockCount - blockIndex);
+    myBlocks[blockIndex] = block;
+    myBlockCount++;
+  }
+
+  private void removeBlock(int blockIndex) {
+    System.arraycopy(myBlocks, blockIndex + 1, myBlocks, blockIndex, myBlockCount - blockIndex - 1);
+    myBlocks[--myBlockCount] = null;
+  }
+
+  @Override
+  public SortedIdSet clone() {
+    try {
+      final SortedIdSet clone = (SortedIdSet)super.clone();
+      clone.myBlocks = new int[myBlockCount][];
+      for (int i = 0; i < myBlockCount; i++) {
+        clone.myBlocks[i] = copyOf(myBlocks[i], Math.max(myBlocks[i][0], 1) + 1);
+      }
+      return clone;
+    }
+    catch (CloneNotSupportedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static int[] copyOf(int[] ids, int newLength) {
+    final int[] result = new int[newLength];
+    System.arraycopy(ids, 0, result, 0, Math.min(ids.length, newLength));
+    return result;
+  }
+
+  private static int[][] copyOf(int[][] blocks, int newLength) {
+    final int[][] result = new int[newLength][];
+    System.arraycopy(blocks, 0, result, 0, Math.min(blocks.length, newLength));
+    return result;
+  }
+
+  /**
+   * Sorts the given ids and removes duplicates.
+   * @return the number of distinct ids placed at the beginning of the array
+   */
+  static int sortAndRemoveDuplicates(@NotNull int[] ids, int length) {
+    if (length == 0) return 0;
+    boolean sorted = true;
+    for (int i = 1; i < length && sorted; i++) {
+      sorted = ids[i - 1] < ids[i];
+    }
+    if (sorted) return length;
+
+    Arrays.sort(ids, 0, length);
+    int result = 1;
+    for (int i = 1; i < length; i++) {
+      if (ids[i] != ids[result - 1]) {
+        ids[result++] = ids[i];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Intersects sorted id lists, the shortest one should go first.
+   * @return sorted ids contained in all given lists
+   */
+  @NotNull
+  static int[] intersect(@NotNull List<int[]> sortedIds) {
+    int[] result = sortedIds.get(0);
+    int resultLength = result.length;
+
+    for (int i = 1; i < sortedIds.size() && resultLength > 0; i++) {
+      final int[] other = sortedIds.get(i);
+      int newLength = 0;
+      int from = 0;
+      for (int j = 0; j < resultLength && from < other.length; j++) {
+        final int id = result[j];
+        final int pos = Arrays.binarySearch(other, from, other.length, id);
+        if (pos >= 0) {
+          if (result == sortedIds.get(0)) {
+            result = result.clone(); // don't modify the caller's data
+          }
+          result[newLength++] = id;
+          from = pos + 1;
+        }
+        else {
+          from = -pos - 1;
+        }
+      }
+      resultLength = newLength;
+    }
+
+    return resultLength == result.length ? result : copyOf(result, resultLength);
+  }
+}
@@ -36,7 +36,11 @@ public class UnindexedFilesUpdater implements CacheUpdater {
 
   private final FileBasedIndexImpl myIndex;
   private final Project myProject;
+  private static final int BATCH_UPDATE_THRESHOLD = 1000;
+
   private final AtomicBoolean myFinishedUpdate = new AtomicBoolean();
+  // set and reset on different threads
+  private final AtomicBoolean myBatchUpdate = new AtomicBoolean();
   private long myStarted;
 
   public UnindexedFilesUpdater(final Project project, FileBasedIndexImpl index) {
@@ -60,6 +64,9 @@ public class UnindexedFilesUpdater implements CacheUpdater {
     LOG.info("Unindexed files update started: " + files.size() + " files to update");
     myFinishedUpdate.set(false);
     myStarted = System.currentTimeMillis();
+    if (files.size() >= BATCH_UPDATE_THRESHOLD && myBatchUpdate.compareAndSet(false, true)) {
+      myIndex.startBatchUpdate();
+    }
     return VfsUtilCore.toVirtualFileArray(files);
   }
 
@@ -72,6 +79,7 @@ public class UnindexedFilesUpdater implements CacheUpdater {
   @Override
   public void updatingDone() {
     if (myFinishedUpdate.compareAndSet(false, true)) {
+      finishBatchUpdate();
       myIndex.filesUpdateFinished(myProject);
       LOG.info("Unindexed files update done in " + (System.currentTimeMillis() - myStarted) + " ms");
     }
@@ -80,8 +88,15 @@ public class UnindexedFilesUpdater implements CacheUpdater {
   @Override
   public void canceled() {
     if (myFinishedUpdate.compareAndSet(false, true)) {
+      finishBatchUpdate();
       myIndex.filesUpdateFinished(myProject);
       LOG.info("Unindexed files update canceled");
     }
   }
+
+  private void finishBatchUpdate() {
+    if (myBatchUpdate.compareAndSet(true, false)) {
+      myIndex.finishBatchUpdate();
+    }
+  }
 }
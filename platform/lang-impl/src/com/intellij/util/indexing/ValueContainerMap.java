@@ -5,6 +5,7 @@ import com.intellij.util.io.*;
 import com.intellij.util.io.DataOutputStream;
 import gnu.trove.TIntHashSet;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
 import java.util.Iterator;
@@ -20,7 +21,15 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
                     @NotNull KeyDescriptor<Key> keyKeyDescriptor,
                     @NotNull DataExternalizer<Value> valueExternalizer) throws IOException {
 
-    super(file, keyKeyDescriptor, new ValueContainerExternalizer<Value>(valueExternalizer));
+    this(file, keyKeyDescriptor, valueExternalizer, null);
+  }
+
+  ValueContainerMap(@NotNull final File file,
+                    @NotNull KeyDescriptor<Key> keyKeyDescriptor,
+                    @NotNull DataExternalizer<Value> valueExternalizer,
+                    @Nullable PagedFileStorage.StorageLockContext lockContext) throws IOException {
+
+    super(file, keyKeyDescriptor, new ValueContainerExternalizer<Value>(valueExternalizer), PersistentHashMap.INITIAL_INDEX_SIZE, lockContext);
     myValueContainerExternalizer = (ValueContainerExternalizer<Value>)myValueExternalizer;
   }
 
@@ -86,15 +95,28 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
         myExternalizer.save(out, value);
 
         final ValueContainer.IntIterator ids = container.getInputIdsIterator(value);
-        if (ids != null) {
-          DataInputOutputUtil.writeSINT(out, ids.size());
-          while (ids.hasNext()) {
-            final int id = ids.next();
-            DataInputOutputUtil.writeSINT(out, id);
-          }
+        if (ids == null) {
+          DataInputOutputUtil.writeSINT(out, 0);
+        }
+        else if (ids.size() == 1) {
+          DataInputOutputUtil.writeSINT(out, 1);
+          DataInputOutputUtil.writeSINT(out, ids.next());
         }
         else {
-          DataInputOutputUtil.writeSINT(out, 0);
+          // negative count marks the list of ids as sorted and delta-encoded, positive one denotes plain ids
+          final int[] sortedIds = new int[ids.size()];
+          int size = 0;
+          while (ids.hasNext()) {
+            sortedIds[size++] = ids.next();
+          }
+          size = SortedIdSet.sortAndRemoveDuplicates(sortedIds, size);
+
+          DataInputOutputUtil.writeSINT(out, -size);
+          int prev = 0;
+          for (int i = 0; i < size; i++) {
+            DataInputOutputUtil.writeINT(out, sortedIds[i] - prev);
+            prev = sortedIds[i];
+          }
         }
       }
     }
@@ -115,9 +137,18 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
           for (int valueIdx = 0; valueIdx < valueCount; valueIdx++) {
             final T value = myExternalizer.read(in);
             final int idCount = DataInputOutputUtil.readSINT(in);
-            for (int i = 0; i < idCount; i++) {
-              final int id = DataInputOutputUtil.readSINT(in);
-              valueContainer.addValue(id, value);
+            if (idCount < 0) {
+              int id = 0;
+              for (int i = 0; i < -idCount; i++) {
+                id += DataInputOutputUtil.readINT(in);
+                valueContainer.addValue(id, value);
+              }
+            }
+            else {
+              for (int i = 0; i < idCount; i++) {
+                final int id = DataInputOutputUtil.readSINT(in);
+                valueContainer.addValue(id, value);
+              }
             }
           }
         }
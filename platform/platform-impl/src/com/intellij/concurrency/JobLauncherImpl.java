@@ -29,6 +29,7 @@ import org.jetbrains.annotations.NotNull;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author cdr
@@ -42,18 +43,26 @@ public class JobLauncherImpl extends JobLauncher {
                                                       @NotNull final Processor<T> thingProcessor) throws ProcessCanceledException {
     final Job<String> job = new JobImpl<String>(Job.DEFAULT_PRIORITY, failFastOnAcquireReadAction);
 
-    final int chunkSize = Math.max(1, things.size() / JobSchedulerImpl.CORES_COUNT / 20);
-    for (int i = 0; i < things.size(); i += chunkSize) {
-      // this job chunk is i..i+chunkSize-1
-      final int finalI = i;
+    // Instead of queueing a task per chunk (which makes all workers contend for the scheduler queue when there are thousands of
+    // tiny elements) queue one task per core; each of them claims the next chunk from the shared counter until all chunks are taken,
+    // so a worker which got cheap elements just takes more chunks.
+    final int size = things.size();
+    final int chunkSize = Math.max(1, size / JobSchedulerImpl.CORES_COUNT / 20);
+    final int chunksCount = (size + chunkSize - 1) / chunkSize;
+    final AtomicInteger nextChunkStart = new AtomicInteger();
+    for (int i = 0; i < Math.min(JobSchedulerImpl.CORES_COUNT, chunksCount); i++) {
       job.addTask(new Runnable() {
         public void run() {
           try {
-            for (int k = finalI; k < finalI + chunkSize && k < things.size(); k++) {
-              T thing = things.get(k);
-              if (!thingProcessor.process(thing)) {
-                job.cancel();
-                break;
+            while (!job.isCanceled()) {
+              final int start = nextChunkStart.getAndAdd(chunkSize);
+              if (start >= size) break;
+              for (int k = start; k < start + chunkSize && k < size; k++) {
+                T thing = things.get(k);
+                if (!thingProcessor.process(thing)) {
+                  job.cancel();
+                  return;
+                }
               }
             }
           }
@@ -288,14 +288,26 @@ public class EditorHyperlinkSupport {
         result = predefinedMessageFilter.applyFilter(text, endOffset);
       }
       if (result != null) {
-        for (Filter.ResultItem resultItem : result.getResultItems()) {
-          if (resultItem.hyperlinkInfo != null) {
-            addHyperlink(resultItem.highlightStartOffset, resultItem.highlightEndOffset, resultItem.highlightAttributes, resultItem.hyperlinkInfo);
-          }
-          else if (resultItem.highlightAttributes != null) {
-            addHighlighter(resultItem.highlightStartOffset, resultItem.highlightEndOffset, resultItem.highlightAttributes);
-          }
-        }
+        highlightHyperlinks(result, 0);
+      }
+    }
+  }
+
+  /**
+   * Adds hyperlinks and highlighters for the given filter result
+   *
+   * @param offsetDelta value to add to the result item offsets, e.g. when the result was computed for the text which has been
+   *                    shifted in the document since then
+   */
+  public void highlightHyperlinks(@NotNull Filter.Result result, int offsetDelta) {
+    for (Filter.ResultItem resultItem : result.getResultItems()) {
+      int start = resultItem.highlightStartOffset + offsetDelta;
+      int end = resultItem.highlightEndOffset + offsetDelta;
+      if (resultItem.hyperlinkInfo != null) {
+        addHyperlink(start, end, resultItem.highlightAttributes, resultItem.hyperlinkInfo);
+      }
+      else if (resultItem.highlightAttributes != null) {
+        addHighlighter(start, end, resultItem.highlightAttributes);
       }
     }
   }
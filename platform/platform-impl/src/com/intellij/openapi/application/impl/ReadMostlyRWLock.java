@@ -0,0 +1,249 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.application.impl;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-write lock optimized for the case when there are many concurrent readers and writers are rare.
+ * <p/>
+ * Each reader thread has its own slot with the read hold count, so acquiring the read lock when no writer is around writes only
+ * thread-confined volatile state and doesn't touch any counter shared between readers. A writer announces itself via
+ * {@link #myWriteRequested} and then waits until all reader slots are released.
+ * <p/>
+ * Like the non-fair {@link java.util.concurrent.locks.ReentrantReadWriteLock} used before, the lock prefers writers: once a writer has
+ * requested the lock, new readers block (and {@link #tryReadLock()} fails) until the write lock is released. Both read and write locks
+ * are reentrant; the thread holding the write lock may acquire the read lock as well.
+ */
+class ReadMostlyRWLock {
+  private final Object myMonitor = new Object();
+  private final List<Reader> myReaders = new CopyOnWriteArrayList<Reader>();
+  private final ThreadLocal<Reader> myReader = new ThreadLocal<Reader>() {
+    @Override
+    protected Reader initialValue() {
+      Reader reader = new Reader(Thread.currentThread());
+      myReaders.add(reader);
+      return reader;
+    }
+  };
+
+  private volatile boolean myWriteRequested;
+  private volatile Thread myWriter;
+  private int myWriteHoldCount; // accessed by the writer thread only
+
+  private final AtomicLong myBlockedReadLocks = new AtomicLong();
+  private final AtomicLong myReadWaitNanos = new AtomicLong();
+  private final AtomicLong myBlockedWriteLocks = new AtomicLong();
+  private final AtomicLong myWriteWaitNanos = new AtomicLong();
+
+  private static class Reader {
+    private final WeakReference<Thread> myThread;
+    private volatile int myHoldCount;
+
+    private Reader(@NotNull Thread thread) {
+      myThread = new WeakReference<Thread>(thread);
+    }
+  }
+
+  void readLockInterruptibly() throws InterruptedException {
+    Reader reader = myReader.get();
+    if (reader.myHoldCount > 0 || myWriter == Thread.currentThread()) {
+      reader.myHoldCount++;
+      return;
+    }
+
+    long waitStart = 0;
+    while (true) {
+      // volatile write followed by volatile read: either the writer sees our slot or we see its request
+      reader.myHoldCount = 1;
+      if (!myWriteRequested) break;
+      releaseReadSlot(reader);
+
+      if (waitStart == 0) {
+        waitStart = System.nanoTime();
+        myBlockedReadLocks.incrementAndGet();
+      }
+      synchronized (myMonitor) {
+        while (myWriteRequested) {
+          myMonitor.wait();
+        }
+      }
+    }
+    if (waitStart != 0) {
+      myReadWaitNanos.addAndGet(System.nanoTime() - waitStart);
+    }
+  }
+
+  /**
+   * Acquires the read lock only if no writer holds or waits for the write lock
+   */
+  boolean tryReadLock() {
+    Reader reader = myReader.get();
+    if (reader.myHoldCount > 0 || myWriter == Thread.currentThread()) {
+      reader.myHoldCount++;
+      return true;
+    }
+
+    reader.myHoldCount = 1;
+    if (!myWriteRequested) return true;
+    releaseReadSlot(reader);
+    return false;
+  }
+
+  void readUnlock() {
+    Reader reader = myReader.get();
+    int holdCount = reader.myHoldCount;
+    if (holdCount <= 0) {
+      throw new IllegalMonitorStateException("Read lock is not held by " + Thread.currentThread());
+    }
+    if (holdCount > 1) {
+      reader.myHoldCount = holdCount - 1;
+    }
+    else {
+      releaseReadSlot(reader);
+    }
+  }
+
+  private void releaseReadSlot(@NotNull Reader reader) {
+    reader.myHoldCount = 0;
+    if (myWriteRequested) {
+      synchronized (myMonitor) {
+        myMonitor.notifyAll();
+      }
+    }
+  }
+
+  int getReadHoldCount() {
+    return myReader.get().myHoldCount;
+  }
+
+  void writeLockInterruptibly() throws InterruptedException {
+    if (myWriter == Thread.currentThread()) {
+      myWriteHoldCount++;
+      return;
+    }
+
+    long waitStart = 0;
+    synchronized (myMonitor) {
+      while (myWriteRequested) {
+        // another writer is active or pending
+        if (waitStart == 0) waitStart = System.nanoTime();
+        myMonitor.wait();
+      }
+      myWriteRequested = true;
+      try {
+        while (hasActiveReaders()) {
+          if (waitStart == 0) waitStart = System.nanoTime();
+          myMonitor.wait();
+        }
+      }
+      catch (InterruptedException e) {
+        myWriteRequested = false;
+        myMonitor.notifyAll();
+        throw e;
+      }
+    }
+    if (waitStart != 0) {
+      myBlockedWriteLocks.incrementAndGet();
+      myWriteWaitNanos.addAndGet(System.nanoTime() - waitStart);
+    }
+    myWriter = Thread.currentThread();
+    myWriteHoldCount = 1;
+  }
+
+  /**
+   * Acquires the write lock only if it's not held by another thread and there are no active readers
+   */
+  boolean tryWriteLock() {
+    if (myWriter == Thread.currentThread()) {
+      myWriteHoldCount++;
+      return true;
+    }
+
+    synchronized (myMonitor) {
+      if (myWriteRequested) return false;
+      myWriteRequested = true;
+      if (hasActiveReaders()) {
+        myWriteRequested = false;
+        myMonitor.notifyAll();
+        return false;
+      }
+    }
+    myWriter = Thread.currentThread();
+    myWriteHoldCount = 1;
+    return true;
+  }
+
+  void writeUnlock() {
+    if (myWriter != Thread.currentThread()) {
+      throw new IllegalMonitorStateException("Write lock is not held by " + Thread.currentThread());
+    }
+    if (--myWriteHoldCount > 0) return;
+
+    myWriter = null;
+    synchronized (myMonitor) {
+      myWriteRequested = false;
+      myMonitor.notifyAll();
+    }
+  }
+
+  boolean isWriteLockedByCurrentThread() {
+    return myWriter == Thread.currentThread();
+  }
+
+  private boolean hasActiveReaders() {
+    Thread current = Thread.currentThread();
+    for (Reader reader : myReaders) {
+      Thread thread = reader.myThread.get();
+      if (reader.myHoldCount > 0 && thread != current) {
+        return true;
+      }
+      if (thread == null) {
+        // the thread is gone and its slot can't be used anymore
+        myReaders.remove(reader);
+      }
+    }
+    return false;
+  }
+
+  long getBlockedReadLocksCount() {
+    return myBlockedReadLocks.get();
+  }
+
+  long getReadWaitTimeMs() {
+    return myReadWaitNanos.get() / 1000000;
+  }
+
+  long getBlockedWriteLocksCount() {
+    return myBlockedWriteLocks.get();
+  }
+
+  long getWriteWaitTimeMs() {
+    return myWriteWaitNanos.get() / 1000000;
+  }
+
+  @Override
+  public String toString() {
+    return "ReadMostlyRWLock{readers=" + myReaders.size() +
+           ", blocked reads=" + getBlockedReadLocksCount() + " (" + getReadWaitTimeMs() + "ms)" +
+           ", blocked writes=" + getBlockedWriteLocksCount() + " (" + getWriteWaitTimeMs() + "ms)}";
+  }
+}
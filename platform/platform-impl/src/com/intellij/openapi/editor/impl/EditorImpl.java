@@ -86,6 +86,7 @@ import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.ContainerUtilRt;
 import com.intellij.util.containers.Convertor;
 import com.intellij.util.messages.MessageBusConnection;
+import com.intellij.util.text.CharArrayCharSequence;
 import com.intellij.util.text.CharArrayUtil;
 import com.intellij.util.ui.ButtonlessScrollBarUI;
 import com.intellij.util.ui.MacUIUtil;
@@ -2134,8 +2135,8 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
     Point position = new Point(0, visibleLine * lineHeight);
     char[] prefixText = myPrefixText;
     if (clipStartVisualPos.line == 0 && prefixText != null) {
-      position.x = drawBackground(g, myPrefixAttributes.getBackgroundColor(), prefixText, 0, prefixText.length, position,
-                                  myPrefixAttributes.getFontType(),
+      position.x = drawBackground(g, myPrefixAttributes.getBackgroundColor(), new CharArrayCharSequence(prefixText), 0, prefixText.length,
+                                  position, myPrefixAttributes.getFontType(),
                                   defaultBackground, clip);
     }
 
@@ -2197,7 +2198,7 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
       // background is already drawn.
       boolean[] caretRowPainted = new boolean[1];
 
-      char[] text = myDocument.getChars();
+      CharSequence text = myDocument.getCharsSequence();
 
       while (!iterationState.atEnd() && !lIterator.atEnd()) {
         int hEnd = iterationState.getEndOffset();
@@ -2241,8 +2242,8 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
                 defaultBackground, clip, softWrapsToSkip, caretRowPainted
               );
             }
-            char[] chars = collapsedFolderAt.getPlaceholderText().toCharArray();
-            position.x = drawBackground(g, backColor, chars, 0, chars.length, position, fontType, defaultBackground, clip);
+            String placeholder = collapsedFolderAt.getPlaceholderText();
+            position.x = drawBackground(g, backColor, placeholder, 0, placeholder.length(), position, fontType, defaultBackground, clip);
           }
           else if (hEnd > lEnd - lIterator.getSeparatorLength()) {
             position.x = drawSoftWrapAwareBackground(
@@ -2338,7 +2339,7 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
 
   private int drawSoftWrapAwareBackground(@NotNull Graphics g,
                                           Color backColor,
-                                          @NotNull char[] text,
+                                          @NotNull CharSequence text,
                                           int start,
                                           int end,
                                           @NotNull Point position,
@@ -2407,7 +2408,7 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
     paintSelectionOnFirstSoftWrapLineIfNecessary(g, position, clip, defaultBackground, fontType);
 
     int i = CharArrayUtil.lastIndexOf(softWrapText, "\n", softWrapText.length()) + 1;
-    int width = getTextSegmentWidth(CharArrayUtil.fromSequence(softWrapText), i, softWrapText.length(), 0, fontType, clip)
+    int width = getTextSegmentWidth(softWrapText, i, softWrapText.length(), 0, fontType, clip)
                 + getSoftWrapModel().getMinDrawingWidthInPixels(SoftWrapDrawingType.AFTER_SOFT_WRAP);
     position.x = 0;
     position.y += getLineHeight();
@@ -2541,7 +2542,7 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
 
   private int drawBackground(@NotNull Graphics g,
                              Color backColor,
-                             @NotNull char[] text,
+                             @NotNull CharSequence text,
                              int start,
                              int end,
                              @NotNull Point position,
@@ -2623,7 +2624,7 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
 
     Point position = new Point(0, visibleLine * lineHeight);
     if (startLine == 0 && myPrefixText != null) {
-      position.x = drawStringWithSoftWraps(g, myPrefixText, 0, myPrefixText.length, position, clip,
+      position.x = drawStringWithSoftWraps(g, myPrefixText, 0, 0, myPrefixText.length, position, clip,
                                            myPrefixAttributes.getEffectColor(), myPrefixAttributes.getEffectType(),
                                            myPrefixAttributes.getFontType(), myPrefixAttributes.getForegroundColor(), logicalPosition);
     }
@@ -2650,7 +2651,8 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
       int fontType = attributes.getFontType();
       g.setColor(currentColor);
 
-      final char[] chars = myDocument.getRawChars();
+      // copy only the painted text: the whole document may be stored as a rope, and flattening it on every repaint is too expensive
+      final char[] chars = CharArrayUtil.fromSequence(myDocument.getCharsSequence().subSequence(clipStartOffset, clipEndOffset));
 
       while (!iterationState.atEnd() && !lIterator.atEnd()) {
         int hEnd = iterationState.getEndOffset();
@@ -2658,7 +2660,7 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
         if (hEnd >= lEnd) {
           FoldRegion collapsedFolderAt = myFoldingModel.getCollapsedRegionAtOffset(start);
           if (collapsedFolderAt == null) {
-            drawStringWithSoftWraps(g, chars, start, lEnd - lIterator.getSeparatorLength(), position, clip, effectColor,
+            drawStringWithSoftWraps(g, chars, clipStartOffset, start, lEnd - lIterator.getSeparatorLength(), position, clip, effectColor,
                                     effectType, fontType, currentColor, logicalPosition);
             position.x = 0;
             if (position.y > clip.y + clip.height) {
@@ -2677,7 +2679,8 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
             SoftWrap softWrap = mySoftWrapModel.getSoftWrap(collapsedFolderAt.getStartOffset());
             if (softWrap != null) {
               position.x = drawStringWithSoftWraps(
-                g, chars, collapsedFolderAt.getStartOffset(), collapsedFolderAt.getStartOffset(), position, clip, effectColor, effectType,
+                g, chars, clipStartOffset, collapsedFolderAt.getStartOffset(), collapsedFolderAt.getStartOffset(), position, clip,
+                effectColor, effectType,
                 fontType, currentColor, logicalPosition
               );
             }
@@ -2690,8 +2693,8 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
             BorderEffect.paintFoldedEffect(g, foldingXStart, position.y, position.x, getLineHeight(), effectColor, effectType);
           }
           else {
-            position.x = drawStringWithSoftWraps(g, chars, start, Math.min(hEnd, lEnd - lIterator.getSeparatorLength()), position, clip,
-                                                 effectColor, effectType, fontType, currentColor, logicalPosition);
+            position.x = drawStringWithSoftWraps(g, chars, clipStartOffset, start, Math.min(hEnd, lEnd - lIterator.getSeparatorLength()),
+                                                 position, clip, effectColor, effectType, fontType, currentColor, logicalPosition);
           }
 
           iterationState.advance();
@@ -2930,12 +2933,16 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
                                       @JdkConstants.FontStyle int fontType,
                                       Color fontColor,
                                       @NotNull Ref<LogicalPosition> startDrawingLogicalPosition) {
-    return drawStringWithSoftWraps(g, text.toCharArray(), 0, text.length(), position, clip, effectColor, effectType,
+    return drawStringWithSoftWraps(g, text.toCharArray(), 0, 0, text.length(), position, clip, effectColor, effectType,
                                    fontType, fontColor, startDrawingLogicalPosition);
   }
 
+  /**
+   * @param textStartOffset document offset of the first char of the given text; start and end are document offsets
+   */
   private int drawStringWithSoftWraps(@NotNull Graphics g,
                                       final char[] text,
+                                      final int textStartOffset,
                                       final int start,
                                       final int end,
                                       @NotNull Point position,
@@ -3002,7 +3009,7 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
       // Draw token text before the wrap.
       if (softWrap.getStart() > startToUse) {
         position.x = drawString(
-          g, text, startToUse, softWrap.getStart(), position, clip, null, null, fontType, fontColor
+          g, text, startToUse - textStartOffset, softWrap.getStart() - textStartOffset, position, clip, null, null, fontType, fontColor
         );
       }
 
@@ -3046,7 +3053,8 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
       position.x += mySoftWrapModel.paint(g, SoftWrapDrawingType.AFTER_SOFT_WRAP, position.x, position.y, getLineHeight());
       myForceRefreshFont = true;
     }
-    return position.x = drawString(g, text, startToUse, end, position, clip, effectColor, effectType, fontType, fontColor);
+    return position.x = drawString(g, text, startToUse - textStartOffset, end - textStartOffset, position, clip, effectColor, effectType,
+                                   fontType, fontColor);
   }
 
   private int drawString(@NotNull Graphics g,
@@ -3330,7 +3338,7 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
     UIUtil.drawLine(g, x + WAVE_SEGMENT_LENGTH / 2, y, x + WAVE_SEGMENT_LENGTH, y + WAVE_HEIGHT);
   }
 
-  private int getTextSegmentWidth(@NotNull char[] text,
+  private int getTextSegmentWidth(@NotNull CharSequence text,
                                   int start,
                                   int end,
                                   int xStart,
@@ -3339,7 +3347,7 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
     int x = xStart;
 
     for (int i = start; i < end && xStart < clip.x + clip.width; i++) {
-      char c = text[i];
+      char c = text.charAt(i);
       if (c == '\t') {
         x = EditorUtil.nextTabStop(x, this);
       }
@@ -4400,12 +4408,12 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
         g.fillRect(x, y, myWidth, lineHeight - 1);
         final LogicalPosition startPosition = getCaretModel().getLogicalPosition();
         final int offset = logicalPositionToOffset(startPosition);
-        char[] chars = myDocument.getRawChars();
-        if (chars.length > offset) {
+        CharSequence chars = myDocument.getCharsSequence();
+        if (chars.length() > offset) {
           FoldRegion folding = myFoldingModel.getCollapsedRegionAtOffset(offset);
           final char ch;
           if (folding == null || folding.isExpanded()) {
-            ch = chars[offset];
+            ch = chars.charAt(offset);
           }
           else {
             VisualPosition visual = getCaretModel().getVisualPosition();
@@ -4414,7 +4422,7 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
               ch = folding.getPlaceholderText().charAt(visual.column - foldingPosition.column);
             }
             else {
-              ch = chars[offset];
+              ch = chars.charAt(offset);
             }
           }
           IterationState state = null;
@@ -70,7 +70,7 @@ class CacheUpdateRunner {
       final FileContentQueue queue = new FileContentQueue();
       Collection<VirtualFile> files = mySession.getFilesToUpdate();
       final double total = files.size();
-      queue.queue(files, indicator);
+      queue.queue(files, indicator, getContentLoadingThreadsCount());
 
       Consumer<VirtualFile> progressUpdater = new Consumer<VirtualFile>() {
         // need set here to handle queue.pushbacks after checkCancelled() in order
@@ -141,10 +141,7 @@ class CacheUpdateRunner {
 
     final Ref<Boolean> isFinished = new Ref<Boolean>(Boolean.FALSE);
     try {
-      int threadsCount = Registry.intValue("caches.indexerThreadsCount");
-      if (threadsCount <= 0) {
-        threadsCount = Math.min(PROC_COUNT, 4);
-      }
+      int threadsCount = getIndexingThreadsCount();
       if (threadsCount == 1) {
         Runnable process = new MyRunnable(innerIndicator, queue, isFinished, progressUpdater, processInReadAction, application);
         ProgressManager.getInstance().runProcess(process, innerIndicator);
@@ -168,6 +165,24 @@ class CacheUpdateRunner {
     return isFinished.get();
   }
 
+  private static int getIndexingThreadsCount() {
+    int threadsCount = Registry.intValue("caches.indexerThreadsCount");
+    if (threadsCount <= 0) {
+      // keep the previous default on small machines, leave one core for the content loading and the UI on bigger ones
+      threadsCount = Math.max(PROC_COUNT - 1, Math.min(PROC_COUNT, 4));
+    }
+    return threadsCount;
+  }
+
+  private static int getContentLoadingThreadsCount() {
+    int threadsCount = Registry.intValue("caches.contentLoaderThreadsCount");
+    if (threadsCount <= 0) {
+      // content loading is mostly I/O and decompression, a quarter of the indexing threads is enough to keep them busy
+      threadsCount = Math.max(1, Math.min(getIndexingThreadsCount() / 4, 4));
+    }
+    return threadsCount;
+  }
+
   private static boolean waitForAll(Ref[] finishedRefs, Future<?>[] futures) {
     try {
       for (Future<?> future : futures) {
@@ -29,9 +29,12 @@ import org.jetbrains.annotations.Nullable;
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
 * @author peter
@@ -52,21 +55,32 @@ public class FileContentQueue {
   private volatile boolean myContentLoadingThreadTerminated = false;
 
   public void queue(final Collection<VirtualFile> files, @NotNull final ProgressIndicator indicator) {
+    queue(files, indicator, 1);
+  }
+
+  /**
+   * Loads content of the given files using several pooled threads, so that reading and decompressing file contents
+   * is not limited by a single core when there are many indexing threads consuming the queue.
+   */
+  public void queue(final Collection<VirtualFile> files, @NotNull final ProgressIndicator indicator, int loadingThreadsCount) {
+    final Iterator<VirtualFile> iterator = files.iterator();
+    final AtomicInteger activeLoadingThreads = new AtomicInteger(loadingThreadsCount);
+    final AtomicBoolean loadingCanceled = new AtomicBoolean();
+
     final Runnable contentLoadingRunnable = new Runnable() {
       public void run() {
+        boolean completed = false;
         try {
-          for (VirtualFile file : files) {
+          while (true) {
             indicator.checkCanceled();
+            final VirtualFile file;
+            synchronized (iterator) {
+              if (!iterator.hasNext()) break;
+              file = iterator.next();
+            }
             addLast(file, indicator);
           }
-
-          // put end-of-queue marker only if not canceled
-          try {
-            myQueue.put(new FileContent(null));
-          }
-          catch (InterruptedException e) {
-            LOG.error(e);
-          }
+          completed = true;
         }
         catch (ProcessCanceledException e) {
           // Do nothing, exit the thread.
@@ -75,12 +89,28 @@ public class FileContentQueue {
           LOG.error(e);
         }
         finally {
-          myContentLoadingThreadTerminated = true;
+          if (!completed) {
+            loadingCanceled.set(true);
+          }
+          if (activeLoadingThreads.decrementAndGet() == 0) {
+            // put end-of-queue marker only if not canceled
+            if (!loadingCanceled.get()) {
+              try {
+                myQueue.put(new FileContent(null));
+              }
+              catch (InterruptedException e) {
+                LOG.error(e);
+              }
+            }
+            myContentLoadingThreadTerminated = true;
+          }
         }
       }
     };
 
-    ApplicationManager.getApplication().executeOnPooledThread(contentLoadingRunnable);
+    for (int i = 0; i < loadingThreadsCount; i++) {
+      ApplicationManager.getApplication().executeOnPooledThread(contentLoadingRunnable);
+    }
   }
 
   private void addLast(VirtualFile file, @NotNull final ProgressIndicator indicator) throws InterruptedException {
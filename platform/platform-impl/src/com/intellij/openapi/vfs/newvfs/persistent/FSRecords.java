@@ -42,6 +42,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.io.*;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static com.intellij.util.io.IOUtil.deleteAllFilesStartingWith;
@@ -86,8 +87,17 @@ public class FSRecords implements Forceable {
 
   private static final String CHILDREN_ATT = "FsRecords.DIRECTORY_CHILDREN";
 
+  // Locks are split by storage and must be taken in the order records -> attributes -> contents.
+  // Names enumerator is synchronized on its own and enumerated names never change, so name id lookups don't lock.
+
+  // records table, including attribute and content record ids of files: every read is done under r and every write under w
   private static final ReentrantReadWriteLock.ReadLock r;
   private static final ReentrantReadWriteLock.WriteLock w;
+  // the attributes storage
+  private static final ReentrantReadWriteLock.ReadLock ar;
+  private static final ReentrantReadWriteLock.WriteLock aw;
+  // reference counts of the contents storage records, the records themselves are guarded by the storage
+  private static final ReentrantLock cw;
 
   private static volatile int ourLocalModificationCount = 0;
   private static volatile boolean ourIsDisposed;
@@ -102,6 +112,12 @@ public class FSRecords implements Forceable {
     ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
     r = lock.readLock();
     w = lock.writeLock();
+
+    ReentrantReadWriteLock attributesLock = new ReentrantReadWriteLock();
+    ar = attributesLock.readLock();
+    aw = attributesLock.writeLock();
+
+    cw = new ReentrantLock();
   }
 
   static class DbConnection {
@@ -573,22 +589,35 @@ public class FSRecords implements Forceable {
     }
   }
 
+  // should be called under w lock
   private static void deleteContentAndAttributes(int id) throws IOException {
-    int content_page = getContentRecordId(id);
-    if (content_page != 0) {
-      getContentStorage().releaseRecord(content_page);
-    }
-
-    int att_page = getAttributeRecordId(id);
-    if (att_page != 0) {
-      final DataInputStream attStream = getAttributesStorage().readStream(att_page);
-      while (attStream.available() > 0) {
-        DataInputOutputUtil.readINT(attStream); // Attribute ID;
-        int attAddress = DataInputOutputUtil.readINT(attStream);
-        getAttributesStorage().deleteRecord(attAddress);
+    try {
+      cw.lock();
+      int content_page = getContentRecordId(id);
+      if (content_page != 0) {
+        getContentStorage().releaseRecord(content_page);
       }
-      attStream.close();
-      getAttributesStorage().deleteRecord(att_page);
+    }
+    finally {
+      cw.unlock();
+    }
+
+    try {
+      aw.lock();
+      int att_page = getAttributeRecordId(id);
+      if (att_page != 0) {
+        final DataInputStream attStream = getAttributesStorage().readStream(att_page);
+        while (attStream.available() > 0) {
+          DataInputOutputUtil.readINT(attStream); // Attribute ID;
+          int attAddress = DataInputOutputUtil.readINT(attStream);
+          getAttributesStorage().deleteRecord(attAddress);
+        }
+        attStream.close();
+        getAttributesStorage().deleteRecord(att_page);
+      }
+    }
+    finally {
+      aw.unlock();
     }
   }
 
@@ -818,9 +847,11 @@ public class FSRecords implements Forceable {
   public static boolean wereChildrenAccessed(int id) {
     try {
       r.lock();
+      ar.lock();
       try {
         return findAttributePage(id, CHILDREN_ATT, false) != 0;
       } finally {
+        ar.unlock();
         r.unlock();
       }
     }
@@ -943,13 +974,7 @@ public class FSRecords implements Forceable {
 
   public static int getNameId(String name) {
     try {
-      r.lock();
-      try {
-        return getNames().enumerate(name);
-      }
-      finally {
-        r.unlock();
-      }
+      return getNames().enumerate(name);
     }
     catch (Throwable e) {
       throw DbConnection.handleError(e);
@@ -958,14 +983,8 @@ public class FSRecords implements Forceable {
 
   public static String getName(int id) {
     try {
-      r.lock();
-      try {
-        final int nameId = getRecordInt(id, NAME_OFFSET);
-        return nameId != 0 ? getNames().valueOf(nameId) : "";
-      }
-      finally {
-        r.unlock();
-      }
+      final int nameId = getNameId(id);
+      return nameId != 0 ? getNames().valueOf(nameId) : "";
     }
     catch (Throwable e) {
       throw DbConnection.handleError(e);
@@ -974,13 +993,7 @@ public class FSRecords implements Forceable {
 
   public static String getNameByNameId(int nameId) {
     try {
-      r.lock();
-      try {
-        return nameId != 0 ? getNames().valueOf(nameId) : "";
-      }
-      finally {
-        r.unlock();
-      }
+      return nameId != 0 ? getNames().valueOf(nameId) : "";
     }
     catch (Throwable e) {
       throw DbConnection.handleError(e);
@@ -1131,6 +1144,7 @@ public class FSRecords implements Forceable {
       finally {
         r.unlock();
       }
+      // content storage guards its records itself
       return getContentStorage().readStream(page);
     }
     catch (Throwable e) {
@@ -1152,13 +1166,7 @@ public class FSRecords implements Forceable {
   static DataInputStream readAttributeWithLock(int fileId, String attId) {
     try {
       synchronized (attId) {
-        try {
-          r.lock();
-          return readAttribute(fileId, attId);
-        }
-        finally {
-          r.unlock();
-        }
+        return readAttribute(fileId, attId);
       }
     }
     catch (Throwable e) {
@@ -1166,14 +1174,22 @@ public class FSRecords implements Forceable {
     }
   }
 
-  // should be called under r or w lock
   @Nullable
   private static DataInputStream readAttribute(int fileId, String attId) throws IOException {
-    int page = findAttributePage(fileId, attId, false);
-    if (page == 0) return null;
-    return getAttributesStorage().readStream(page);
+    try {
+      r.lock();
+      ar.lock();
+      int page = findAttributePage(fileId, attId, false);
+      if (page == 0) return null;
+      return getAttributesStorage().readStream(page);
+    }
+    finally {
+      ar.unlock();
+      r.unlock();
+    }
   }
 
+  // should be called under r and ar locks; when toWrite, under aw and, if the file has no attributes record yet, under w
   private static int findAttributePage(int fileId, @NotNull String attrId, boolean toWrite) throws IOException {
     checkFileIsValid(fileId);
 
@@ -1220,6 +1236,7 @@ public class FSRecords implements Forceable {
     return 0;
   }
 
+  // should be called under r or w lock
   private static void checkFileIsValid(int fileId) {
     assert fileId > 0 : fileId;
     // TODO: This assertion is a bit timey, will remove when bug is caught.
@@ -1228,7 +1245,8 @@ public class FSRecords implements Forceable {
 
   public static int acquireFileContent(int fileId) {
     try {
-      w.lock();
+      r.lock();
+      cw.lock();
       int record = getContentRecordId(fileId);
       if (record > 0) getContentStorage().acquireRecord(record);
       return record;
@@ -1237,7 +1255,8 @@ public class FSRecords implements Forceable {
       throw DbConnection.handleError(e);
     }
     finally {
-      w.unlock();
+      cw.unlock();
+      r.unlock();
     }
   }
 
@@ -1320,6 +1339,7 @@ public class FSRecords implements Forceable {
       RefCountingStorage contentStorage = getContentStorage();
       try {
         w.lock();
+        cw.lock();
         incModCount(fileId);
 
         checkFileIsValid(myFileId);
@@ -1333,6 +1353,7 @@ public class FSRecords implements Forceable {
         page = recordId;
       }
       finally {
+        cw.unlock();
         w.unlock();
       }
 
@@ -1360,13 +1381,31 @@ public class FSRecords implements Forceable {
         synchronized (myAttributeId) {
           final BufferExposingByteArrayOutputStream _out = (BufferExposingByteArrayOutputStream)out;
           final int page;
+          boolean downgraded = false;
           try {
             w.lock();
             incModCount(myFileId);
-            page = findAttributePage(myFileId, myAttributeId, true);
+            if (getAttributeRecordId(myFileId) != 0) {
+              // the page lookup won't modify the records table, so let the readers of other storages in
+              r.lock();
+              w.unlock();
+              downgraded = true;
+            }
+            try {
+              aw.lock();
+              page = findAttributePage(myFileId, myAttributeId, true);
+            }
+            finally {
+              aw.unlock();
+            }
           }
           finally {
-            w.unlock();
+            if (downgraded) {
+              r.unlock();
+            }
+            else {
+              w.unlock();
+            }
           }
           getAttributesStorage().writeBytes(page, new ByteSequence(_out.getInternalBuffer(), 0, _out.size()), myFixedSize);
         }
@@ -1380,6 +1419,8 @@ public class FSRecords implements Forceable {
   public static void dispose() {
     try {
       w.lock();
+      aw.lock();
+      cw.lock();
       DbConnection.force();
       DbConnection.closeFiles();
     }
@@ -1388,6 +1429,8 @@ public class FSRecords implements Forceable {
     }
     finally {
       ourIsDisposed = true;
+      cw.unlock();
+      aw.unlock();
       w.unlock();
     }
   }
@@ -1401,6 +1444,8 @@ public class FSRecords implements Forceable {
 
     try {
       r.lock();
+      ar.lock();
+      cw.lock();
       final int fileLength = (int)getRecords().length();
       assert fileLength % RECORD_SIZE == 0;
       int recordCount = fileLength / RECORD_SIZE;
@@ -1420,6 +1465,8 @@ public class FSRecords implements Forceable {
       }
     }
     finally {
+      cw.unlock();
+      ar.unlock();
       r.unlock();
     }
 
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.daemon.impl;
+
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.impl.FakePsiElement;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DividerTest extends TestCase {
+  private static final TextRange PRIORITY_RANGE = new TextRange(400, 500);
+
+  // root [0,1000)
+  //   d [210,290)
+  //   p [350,650)
+  //     b [350,390)
+  //     q [500,650)
+  //       e [500,600)
+  //         a [520,530)
+  //       c [610,650)
+  private final PsiElement d = element("d", 210, 290);
+  private final PsiElement b = element("b", 350, 390);
+  private final PsiElement a = element("a", 520, 530);
+  private final PsiElement e = element("e", 500, 600);
+  private final PsiElement c = element("c", 610, 650);
+  private final PsiElement q = element("q", 500, 650);
+  private final PsiElement p = element("p", 350, 650);
+  private final PsiElement root = element("root", 0, 1000);
+
+  // the order Divider collects the elements outside the priority range in
+  private final List<PsiElement> myOutside = Arrays.asList(d, b, a, e, c, q, p, root);
+
+  public void testRegionsAlternateOutward() {
+    List<List<PsiElement>> chunks = Divider.splitOutward(myOutside, PRIORITY_RANGE, 0, 1000);
+    assertEquals(5, chunks.size());
+    assertEquals(Arrays.asList(a, e), chunks.get(0)); // [500,600) after the priority range
+    assertEquals(Arrays.asList(b), chunks.get(1));    // [300,400) before it
+    assertEquals(Arrays.asList(c), chunks.get(2));    // [600,700) after it
+    assertEquals(Arrays.asList(d), chunks.get(3));    // [200,300) before it
+  }
+
+  public void testSpanningElementsGoToLastChunk() {
+    List<List<PsiElement>> chunks = Divider.splitOutward(myOutside, PRIORITY_RANGE, 0, 1000);
+    assertEquals(Arrays.asList(q, p, root), chunks.get(chunks.size() - 1));
+  }
+
+  public void testChildrenPrecedeParents() {
+    List<PsiElement> visited = new ArrayList<PsiElement>();
+    for (List<PsiElement> chunk : Divider.splitOutward(myOutside, PRIORITY_RANGE, 0, 1000)) {
+      visited.addAll(chunk);
+    }
+    assertEquals(myOutside.size(), visited.size());
+    for (int i = 0; i < visited.size(); i++) {
+      for (int j = i + 1; j < visited.size(); j++) {
+        TextRange earlier = visited.get(i).getTextRange();
+        TextRange later = visited.get(j).getTextRange();
+        assertFalse(visited.get(i) + " is visited before its child " + visited.get(j),
+                    earlier.contains(later) && !earlier.equals(later));
+      }
+    }
+  }
+
+  public void testWholeTextInPriorityRange() {
+    List<List<PsiElement>> chunks = Divider.splitOutward(Arrays.asList(root), new TextRange(0, 1000), 0, 1000);
+    assertEquals(1, chunks.size());
+    assertEquals(Arrays.asList(root), chunks.get(0));
+  }
+
+  @NotNull
+  private static PsiElement element(@NotNull final String name, int start, int end) {
+    final TextRange range = new TextRange(start, end);
+    return new FakePsiElement() {
+      @Override
+      public PsiElement getParent() {
+        return null;
+      }
+
+      @Override
+      public TextRange getTextRange() {
+        return range;
+      }
+
+      @Override
+      public String toString() {
+        return name;
+      }
+    };
+  }
+}
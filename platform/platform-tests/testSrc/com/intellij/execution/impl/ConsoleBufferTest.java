@@ -2,6 +2,8 @@ package com.intellij.execution.impl;
 
 import com.intellij.execution.ui.ConsoleViewContentType;
 import com.intellij.openapi.editor.markup.TextAttributes;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Before;
 import org.junit.Test;
@@ -10,6 +12,8 @@ import java.util.*;
 
 import static com.intellij.execution.impl.ConsoleViewImpl.TokenInfo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Denis Zhdanov
@@ -113,6 +117,31 @@ public class ConsoleBufferTest {
     );
   }
   
+  @Test
+  public void cyclingInterleavedOutputPerformance() {
+    PlatformTestUtil.startPerformanceTest("Printing interleaved output to the full cyclic buffer", 700, new ThrowableRunnable() {
+      @Override
+      public void run() throws Exception {
+        ConsoleBuffer buffer = new ConsoleBuffer(true, 1024 * 1024, 256);
+        for (int i = 0; i < 200000; i++) {
+          buffer.print("12:00:00 [main] INFO com.example.Server - processed request #" + i + "\n", i % 2 == 0 ? NORMAL_OUTPUT : BORING_OUTPUT, null);
+        }
+        assertEquals(1024 * 1024, buffer.getLength());
+
+        // tokens of the trimmed text are dropped lazily, the remaining ones must still cover the whole buffer
+        List<TokenInfo> tokens = buffer.getDeferredTokens();
+        assertFalse(tokens.isEmpty());
+        int offset = 0;
+        for (TokenInfo token : tokens) {
+          assertEquals(offset, token.startOffset);
+          assertTrue(token.endOffset > token.startOffset);
+          offset = token.endOffset;
+        }
+        assertEquals(buffer.getLength(), offset);
+      }
+    }).cpuBound().assertTiming();
+  }
+
   private static List<String> s(String ... strings) {
     return Arrays.asList(strings);
   }
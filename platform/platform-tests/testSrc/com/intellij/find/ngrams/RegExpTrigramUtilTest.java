@@ -0,0 +1,68 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class RegExpTrigramUtilTest extends TestCase {
+  public void testPlainLiteral() {
+    assertLiterals("getFilesWithKey", "getFilesWithKey");
+  }
+
+  public void testEscapes() {
+    assertLiterals("foo\\.bar\\(\\)", "foo.bar()");
+    assertLiterals("\\Qa+b*c\\E\\d+x", "a+b*c", "x");
+  }
+
+  public void testCharClassesAndQuantifiers() {
+    assertLiterals("public\\s+static\\s+void", "public", "static", "void");
+    assertLiterals("colou?r", "colo", "r");
+    assertLiterals("ab+c", "ab", "c");
+    assertLiterals("abc[xyz]*def", "abc", "def");
+    assertLiterals("abc{2,}de", "abc", "de");
+    assertLiterals("abc{0,3}de", "ab", "de");
+  }
+
+  public void testGroups() {
+    assertLiterals("foo(bar)baz", "foo", "bar", "baz");
+    assertLiterals("foo(?:bar)?baz", "foo", "baz");
+    assertLiterals("(?i)select\\s+from", "select", "from");
+    assertLiterals("foo(?=bar)", "foo");
+    assertLiterals("(?<name>abc)\\k<name>", "abc");
+  }
+
+  public void testAlternation() {
+    assertLiterals("foo|bar");
+    assertLiterals("prefix(foo|bar)suffix", "prefix", "suffix");
+  }
+
+  public void testAnchors() {
+    assertLiterals("^import\\b", "import");
+  }
+
+  public void testUnsupported() {
+    assertLiterals("(?x)a b c");
+    assertLiterals("abc(");
+    assertLiterals("*abc");
+  }
+
+  private static void assertLiterals(String regExp, String... expected) {
+    assertEquals(expected.length == 0 ? Collections.<String>emptyList() : Arrays.asList(expected), RegExpTrigramUtil.getRequiredLiterals(regExp));
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.application.impl;
+
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ReadMostlyRWLockTest extends TestCase {
+  private static final int TIMEOUT_SECONDS = 10;
+
+  public void testReentrancy() throws Exception {
+    ReadMostlyRWLock lock = new ReadMostlyRWLock();
+    lock.readLockInterruptibly();
+    lock.readLockInterruptibly();
+    assertEquals(2, lock.getReadHoldCount());
+    lock.readUnlock();
+    lock.readUnlock();
+    assertEquals(0, lock.getReadHoldCount());
+
+    lock.writeLockInterruptibly();
+    assertTrue(lock.tryWriteLock());
+    assertTrue(lock.tryReadLock());
+    lock.readUnlock();
+    lock.writeUnlock();
+    assertTrue(lock.isWriteLockedByCurrentThread());
+    lock.writeUnlock();
+    assertFalse(lock.isWriteLockedByCurrentThread());
+  }
+
+  public void testWriterWaitsForReadersAndBlocksNewOnes() throws Exception {
+    final ReadMostlyRWLock lock = new ReadMostlyRWLock();
+    lock.readLockInterruptibly();
+
+    final CountDownLatch writeLocked = new CountDownLatch(1);
+    final CountDownLatch releaseWriter = new CountDownLatch(1);
+    final AtomicBoolean released = new AtomicBoolean();
+    FutureTask<Void> writerTask = new FutureTask<Void>(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        lock.writeLockInterruptibly();
+        writeLocked.countDown();
+        assertTrue(releaseWriter.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        released.set(true);
+        lock.writeUnlock();
+        return null;
+      }
+    });
+    Thread writer = new Thread(writerTask, "writer");
+    writer.start();
+    waitUntilWaiting(writer);
+    assertEquals(1, writeLocked.getCount());
+    assertFalse(lock.tryWriteLock());
+
+    final CountDownLatch readerStarted = new CountDownLatch(1);
+    FutureTask<Boolean> readerTask = new FutureTask<Boolean>(new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        assertFalse(lock.tryReadLock());
+        readerStarted.countDown();
+        lock.readLockInterruptibly();
+        boolean sawRelease = released.get();
+        lock.readUnlock();
+        return sawRelease;
+      }
+    });
+    Thread reader = new Thread(readerTask, "reader");
+    reader.start();
+    assertTrue(readerStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    waitUntilWaiting(reader);
+    assertFalse(readerTask.isDone());
+    assertEquals(1, lock.getBlockedReadLocksCount());
+
+    lock.readUnlock();
+    assertTrue(writeLocked.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertFalse(readerTask.isDone());
+    releaseWriter.countDown();
+
+    writerTask.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    assertTrue(readerTask.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(1, lock.getBlockedReadLocksCount());
+    assertEquals(1, lock.getBlockedWriteLocksCount());
+  }
+
+  private static void waitUntilWaiting(@NotNull Thread thread) {
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+    while (thread.getState() != Thread.State.WAITING) {
+      assertTrue(thread.getName() + " is not blocked: " + thread.getState(), thread.isAlive());
+      assertTrue(thread.getName() + " did not block in time", System.currentTimeMillis() < deadline);
+      Thread.yield();
+    }
+  }
+}
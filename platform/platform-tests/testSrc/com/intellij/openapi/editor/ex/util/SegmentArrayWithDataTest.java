@@ -0,0 +1,103 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.ex.util;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SegmentArrayWithDataTest extends TestCase {
+  public void testLazyShiftMatchesEagerModel() {
+    Random random = new Random(17);
+    SegmentArrayWithData segments = new SegmentArrayWithData();
+    List<int[]> model = new ArrayList<int[]>(); // {start, end, data}
+    for (int i = 0; i < 1000; i++) {
+      segments.setElementAt(i, i * 10, i * 10 + 10, i % 100);
+      model.add(new int[]{i * 10, i * 10 + 10, i % 100});
+    }
+
+    for (int step = 0; step < 5000; step++) {
+      int index = random.nextInt(model.size());
+      switch (random.nextInt(4)) {
+        case 0:
+          int shift = random.nextInt(20);
+          segments.shiftSegments(index, shift);
+          for (int i = index; i < model.size(); i++) {
+            model.get(i)[0] += shift;
+            model.get(i)[1] += shift;
+          }
+          break;
+        case 1:
+          int change = random.nextInt(5);
+          segments.changeSegmentLength(index, change);
+          model.get(index)[1] += change;
+          for (int i = index + 1; i < model.size(); i++) {
+            model.get(i)[0] += change;
+            model.get(i)[1] += change;
+          }
+          break;
+        case 2:
+          if (model.size() > 10) {
+            int end = Math.min(model.size(), index + 1 + random.nextInt(3));
+            segments.remove(index, end);
+            model.subList(index, end).clear();
+          }
+          break;
+        default:
+          int start = model.get(index)[0];
+          SegmentArrayWithData inserted = new SegmentArrayWithData();
+          int count = 1 + random.nextInt(3);
+          int[][] newSegments = new int[count][];
+          for (int i = 0; i < count; i++) {
+            newSegments[i] = new int[]{start, start, random.nextInt(100)};
+            inserted.setElementAt(i, start, start, newSegments[i][2]);
+          }
+          int end = Math.min(model.size(), index + random.nextInt(3));
+          segments.replace(index, end, inserted);
+          model.subList(index, end).clear();
+          for (int i = count - 1; i >= 0; i--) {
+            model.add(index, newSegments[i]);
+          }
+      }
+
+      assertEquals(model.size(), segments.getSegmentCount());
+      int probe = random.nextInt(model.size());
+      assertEquals(model.get(probe)[0], segments.getSegmentStart(probe));
+      assertEquals(model.get(probe)[1], segments.getSegmentEnd(probe));
+      assertEquals(model.get(probe)[2], segments.getSegmentData(probe));
+    }
+
+    for (int i = 0; i < model.size(); i++) {
+      assertEquals(model.get(i)[0], segments.getSegmentStart(i));
+      assertEquals(model.get(i)[1], segments.getSegmentEnd(i));
+    }
+    assertEquals(model.get(model.size() - 1)[1], segments.getLastValidOffset());
+  }
+
+  public void testFindSegmentIndexAfterShift() {
+    SegmentArrayWithData segments = new SegmentArrayWithData();
+    for (int i = 0; i < 10; i++) {
+      segments.setElementAt(i, i * 10, i * 10 + 10, 0);
+    }
+    segments.changeSegmentLength(3, 5);
+    assertEquals(3, segments.findSegmentIndex(44));
+    assertEquals(4, segments.findSegmentIndex(45));
+    assertEquals(9, segments.findSegmentIndex(104));
+    assertEquals(105, segments.getLastValidOffset());
+  }
+}
@@ -21,6 +21,7 @@ import com.intellij.openapi.util.Pair;
 import com.intellij.util.LocalTimeCounter;
 import com.intellij.util.containers.Stack;
 import com.intellij.util.text.CharSequenceBackedByArray;
+import com.intellij.util.text.ImmutableText;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jmock.Expectations;
@@ -80,7 +81,7 @@ public class CharArrayTest {
       });
     }});
     
-    init(10);
+    init(10, myConfig != null && myConfig.rope());
     if (myConfig != null) {
       myArray.insert(myConfig.text(), 0);
       myArray.setDeferredChangeMode(myConfig.deferred());
@@ -141,8 +142,39 @@ public class CharArrayTest {
     assertArrayEquals("1".toCharArray(), subsSequence.getChars());
   }
   
-  private void init(int size) {
-    myArray = new CharArray(size, new char[0], 0) {
+  @Config(text = "01234567", rope = true)
+  @Test
+  public void ropeModifications() {
+    assertTrue(myArray.getImmutableCharSequence() instanceof ImmutableText);
+    myArray.setDeferredChangeMode(true);
+
+    replace(1, 3, "abc");
+    assertFalse(myArray.hasDeferredChanges());
+    checkText("0abc34567");
+
+    myArray.remove(0, 2, myArray.substring(0, 2));
+    checkText("bc34567");
+
+    myArray.insert("XY", 7);
+    checkText("bc34567XY");
+  }
+
+  @Config(text = "01234567", rope = true)
+  @Test
+  public void ropeIsFlattenedOncePerModification() {
+    char[] chars = myArray.getChars();
+    assertEquals("01234567", new String(chars, 0, myArray.length()));
+    assertSame(chars, myArray.getChars());
+
+    replace(0, 1, "a");
+    char[] changed = myArray.getChars();
+    assertNotSame(chars, changed);
+    assertEquals("a1234567", new String(changed, 0, myArray.length()));
+    assertSame(changed, myArray.getChars());
+  }
+
+  private void init(int size, final boolean rope) {
+    myArray = new CharArray(size, new char[0], 0, rope) {
       @NotNull
       @Override
       protected DocumentEvent beforeChangedUpdate(int offset, CharSequence oldString, CharSequence newString,
@@ -161,6 +193,11 @@ public class CharArrayTest {
       @Override
       protected void assertReadAccess() {
       }
+
+      @Override
+      boolean isDebug() {
+        return !rope && super.isDebug(); // the debug mode keeps the text in the array
+      }
     };
   }
 
@@ -239,5 +276,6 @@ public class CharArrayTest {
   private @interface Config {
     String text() default "";
     boolean deferred() default false;
+    boolean rope() default false;
   }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class SortedIdSetTest extends TestCase {
+  public void testAddRemove() {
+    SortedIdSet set = new SortedIdSet(1);
+    assertTrue(set.add(10));
+    assertTrue(set.add(20));
+    assertTrue(set.add(5));
+    assertTrue(set.add(15));
+    assertFalse(set.add(10));
+    assertEquals(4, set.size());
+    assertTrue(Arrays.equals(new int[]{5, 10, 15, 20}, set.toArray()));
+
+    assertTrue(set.remove(10));
+    assertFalse(set.remove(10));
+    assertFalse(set.contains(10));
+    assertTrue(set.contains(15));
+    assertEquals(3, set.size());
+
+    SortedIdSet clone = set.clone();
+    clone.add(1);
+    assertEquals(3, set.size());
+    assertEquals(4, clone.size());
+  }
+
+  public void testLargeSetMatchesTreeSet() {
+    Random random = new Random(42);
+    SortedIdSet set = new SortedIdSet(3);
+    TreeSet<Integer> expected = new TreeSet<Integer>();
+    for (int i = 0; i < 20000; i++) {
+      assertEquals(expected.add(i * 3), set.add(i * 3)); // mostly ascending additions
+    }
+    for (int i = 0; i < 100000; i++) {
+      int id = random.nextInt(80000);
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(id), set.remove(id));
+      }
+      else {
+        assertEquals(expected.add(id), set.add(id));
+      }
+      if (i % 1000 == 0) set.compact();
+    }
+    assertEquals(expected.size(), set.size());
+    for (int i = 0; i < 80000; i++) {
+      assertEquals(expected.contains(i), set.contains(i));
+    }
+
+    ValueContainer.IntIterator iterator = set.clone().iterator();
+    assertEquals(expected.size(), iterator.size());
+    for (int id : expected) {
+      assertTrue(iterator.hasNext());
+      assertEquals(id, iterator.next());
+    }
+    assertFalse(iterator.hasNext());
+
+    for (int id : new ArrayList<Integer>(expected)) {
+      assertTrue(set.remove(id));
+    }
+    assertTrue(set.isEmpty());
+    assertFalse(set.iterator().hasNext());
+  }
+
+  public void testSortAndRemoveDuplicates() {
+    int[] ids = {5, 3, 5, 1, 3, 0};
+    int size = SortedIdSet.sortAndRemoveDuplicates(ids, 5);
+    assertEquals(3, size);
+    assertEquals(1, ids[0]);
+    assertEquals(3, ids[1]);
+    assertEquals(5, ids[2]);
+  }
+
+  public void testIntersect() {
+    int[] first = {2, 4, 6, 8};
+    int[] result = SortedIdSet.intersect(Arrays.asList(first, new int[]{1, 2, 3, 4, 8, 9}, new int[]{0, 4, 8, 100}));
+    assertTrue(Arrays.equals(new int[]{4, 8}, result));
+    assertTrue(Arrays.equals(new int[]{2, 4, 6, 8}, first));
+    assertEquals(0, SortedIdSet.intersect(Arrays.asList(new int[]{1}, new int[]{2})).length);
+  }
+}
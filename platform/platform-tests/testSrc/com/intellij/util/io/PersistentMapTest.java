@@ -210,6 +210,44 @@ public class PersistentMapTest extends TestCase {
     }
   }
 
+  public void testOnlineCompaction() throws IOException {
+    final int stringsCount = 1000;
+    List<String> strings = new ArrayList<String>(stringsCount);
+    for (int i = 0; i < stringsCount; ++i) {
+      final String key = createRandomString();
+      strings.add(key);
+      myMap.put(key, key + "_value");
+    }
+    for (int i = 0; i < stringsCount / 2; ++i) {
+      myMap.put(strings.get(i), strings.get(i) + "_new_value");
+    }
+    myMap.appendData(strings.get(stringsCount - 1), new PersistentHashMap.ValueDataAppender() {
+      @Override
+      public void append(DataOutput out) throws IOException {
+        out.writeUTF("_appended");
+      }
+    });
+
+    assertTrue(myMap.getGarbageRatio() > 0);
+    final long sizeBefore = myMap.getValueStorageSize();
+
+    assertTrue(myMap.compactOnline());
+
+    assertEquals(0, myMap.getGarbageSize());
+    assertEquals(0.0, myMap.getGarbageRatio());
+    assertEquals(stringsCount, myMap.getLiveKeysCount());
+    assertTrue(myMap.getValueStorageSize() < sizeBefore);
+    for (int i = 0; i < stringsCount - 1; ++i) {
+      final String key = strings.get(i);
+      assertEquals(i < stringsCount / 2 ? key + "_new_value" : key + "_value", myMap.get(key));
+    }
+
+    myMap.close();
+    myMap = new PersistentHashMap<String, String>(myFile, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+    assertEquals(strings.get(0) + "_new_value", myMap.get(strings.get(0)));
+    assertEquals(strings.get(stringsCount - 2) + "_value", myMap.get(strings.get(stringsCount - 2)));
+  }
+
   public void testOpeningWithCompact2() throws IOException {
     File file = FileUtil.createTempFile("persistent", "map");
 
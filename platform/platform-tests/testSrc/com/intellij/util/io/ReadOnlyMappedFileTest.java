@@ -0,0 +1,166 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import junit.framework.TestCase;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+public class ReadOnlyMappedFileTest extends TestCase {
+  private static final int INTS_COUNT = 1024 * 1024;
+  private File myFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myFile = FileUtil.createTempFile("mapped", "file");
+    writeInts(myFile, 0, INTS_COUNT, false);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myFile);
+    super.tearDown();
+  }
+
+  private static void writeInts(File file, int from, int to, boolean append) throws IOException {
+    final DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append)));
+    try {
+      for (int i = from; i < to; i++) {
+        stream.writeInt(i);
+      }
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  public void testReadsAcrossSegments() throws IOException {
+    final ReadOnlyMappedFile file = new ReadOnlyMappedFile(myFile, 64 * 1024 + 1); // segments aren't aligned with the values
+    try {
+      for (int i = 0; i < INTS_COUNT; i += 7) {
+        assertEquals(i, file.getInt(i * 4L));
+      }
+      assertEquals(((long)5 << 32) + 6, file.getLong(5 * 4L));
+      assertEquals(((long)16384 << 32) + 16385, file.getLong(16384 * 4L));
+
+      final byte[] bytes = new byte[200 * 1024];
+      file.get(65534, bytes, 0, bytes.length);
+      assertEquals(16384, Bits.getInt(bytes, 2));
+      assertEquals(66000, Bits.getInt(bytes, 66000 * 4 - 65534));
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  public void testAppendedDataIsVisible() throws IOException {
+    final ReadOnlyMappedFile file = new ReadOnlyMappedFile(myFile);
+    try {
+      assertEquals(INTS_COUNT - 1, file.getInt((INTS_COUNT - 1) * 4L));
+      writeInts(myFile, INTS_COUNT, INTS_COUNT + 10, true);
+      assertEquals(INTS_COUNT + 9, file.getInt((INTS_COUNT + 9) * 4L));
+      try {
+        file.getInt((INTS_COUNT + 10) * 4L);
+        fail();
+      }
+      catch (IOException ignored) {
+      }
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  public void testSegmentCompletedByAppendIsMapped() throws IOException {
+    final int segmentSize = 3 * 1024 * 1024; // the file ends in the middle of the second segment
+    final ReadOnlyMappedFile file = new ReadOnlyMappedFile(myFile, segmentSize);
+    try {
+      assertEquals(INTS_COUNT - 1, file.getInt((INTS_COUNT - 1) * 4L));
+      assertEquals(((long)(segmentSize / 4 - 1) << 32) + segmentSize / 4, file.getLong(segmentSize - 4));
+
+      writeInts(myFile, INTS_COUNT, 2 * segmentSize / 4 + 10, true);
+      assertEquals(INTS_COUNT, file.getInt(INTS_COUNT * 4L));
+      assertEquals(2 * segmentSize / 4 - 1, file.getInt(2 * segmentSize - 4));
+      assertEquals(2 * segmentSize / 4 + 9, file.getInt(2 * segmentSize + 36));
+
+      final byte[] bytes = new byte[16];
+      file.get(2 * segmentSize - 8, bytes, 0, bytes.length);
+      assertEquals(2 * segmentSize / 4 - 2, Bits.getInt(bytes, 0));
+      assertEquals(2 * segmentSize / 4 + 1, Bits.getInt(bytes, 12));
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  public void testReadPerformance() throws IOException {
+    final int reads = 10 * INTS_COUNT;
+    final int[] addresses = new int[reads];
+    final Random random = new Random(0);
+    for (int i = 0; i < reads; i++) {
+      addresses[i] = random.nextInt(INTS_COUNT) * 4;
+    }
+    final long[] sums = new long[2];
+
+    PlatformTestUtil.startPerformanceTest("PagedFileStorage random reads", 1500, new ThrowableRunnable() {
+      @Override
+      public void run() throws Exception {
+        final PagedFileStorage storage = new PagedFileStorage(myFile, new PagedFileStorage.StorageLock());
+        long sum = 0;
+        storage.lock();
+        try {
+          for (int address : addresses) {
+            sum += storage.getInt(address);
+          }
+          storage.close();
+        }
+        finally {
+          storage.unlock();
+        }
+        sums[0] = sum;
+      }
+    }).cpuBound().assertTiming();
+
+    // the same reads must be noticeably cheaper without the storage lock and the page LRU bookkeeping
+    PlatformTestUtil.startPerformanceTest("ReadOnlyMappedFile random reads", 700, new ThrowableRunnable() {
+      @Override
+      public void run() throws Exception {
+        final ReadOnlyMappedFile file = new ReadOnlyMappedFile(myFile);
+        long sum = 0;
+        try {
+          for (int address : addresses) {
+            sum += file.getInt(address);
+          }
+        }
+        finally {
+          file.close();
+        }
+        sums[1] = sum;
+      }
+    }).cpuBound().assertTiming();
+
+    assertEquals(sums[0], sums[1]);
+  }
+}
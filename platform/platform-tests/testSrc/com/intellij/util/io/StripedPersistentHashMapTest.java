@@ -0,0 +1,110 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.util.NotNullFactory;
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class StripedPersistentHashMapTest extends TestCase {
+  private static final NotNullFactory<EnumeratorStringDescriptor> STRING_DESCRIPTOR = new NotNullFactory<EnumeratorStringDescriptor>() {
+    @NotNull
+    @Override
+    public EnumeratorStringDescriptor create() {
+      return new EnumeratorStringDescriptor();
+    }
+  };
+
+  private File myFile;
+  private StripedPersistentHashMap<String, String> myMap;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myFile = FileUtil.createTempFile("striped", "map");
+    myMap = new StripedPersistentHashMap<String, String>(myFile, STRING_DESCRIPTOR, STRING_DESCRIPTOR, 4);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myMap.close();
+    StripedPersistentHashMap.deleteFilesStartingWith(myFile);
+    super.tearDown();
+  }
+
+  public void testPutGetRemove() throws IOException {
+    for (int i = 0; i < 1000; i++) {
+      myMap.put("key" + i, "value" + i);
+    }
+    myMap.remove("key5");
+    myMap.appendData("key7", new PersistentHashMap.ValueDataAppender() {
+      @Override
+      public void append(DataOutput out) throws IOException {
+        out.writeUTF("");
+      }
+    });
+
+    assertNull(myMap.get("key5"));
+    assertFalse(myMap.containsMapping("key5"));
+    assertEquals("value6", myMap.get("key6"));
+    assertEquals(999, myMap.getAllKeysWithExistingMapping().size());
+
+    myMap.close();
+    myMap = new StripedPersistentHashMap<String, String>(myFile, STRING_DESCRIPTOR, STRING_DESCRIPTOR, 8);
+    assertEquals(4, myMap.getSegmentsCount());
+    assertEquals("value999", myMap.get("key999"));
+    assertNull(myMap.get("key5"));
+  }
+
+  public void testConcurrentAccess() throws Exception {
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int thread = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 500; i++) {
+              String key = thread + "_" + i;
+              myMap.put(key, key);
+              assertEquals(key, myMap.get(key));
+            }
+          }
+          catch (Throwable e) {
+            failure.set(e);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (failure.get() != null) throw new RuntimeException(failure.get());
+
+    Set<String> keys = new HashSet<String>(myMap.getAllKeysWithExistingMapping());
+    assertEquals(2000, keys.size());
+  }
+}
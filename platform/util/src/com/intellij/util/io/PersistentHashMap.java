@@ -20,19 +20,21 @@ import com.intellij.openapi.util.LowMemoryWatcher;
 import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.CommonProcessors;
+import com.intellij.util.ConcurrencyUtil;
 import com.intellij.util.Processor;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.LimitedPool;
 import com.intellij.util.containers.SLRUCache;
 import com.intellij.util.containers.hash.EqualityPolicy;
+import gnu.trove.TIntLongHashMap;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
 
 /**
  * @author Eugene Zhuravlev
@@ -45,12 +47,16 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   private PersistentHashMapValueStorage myValueStorage;
   protected final DataExternalizer<Value> myValueExternalizer;
   private static final long NULL_ADDR = 0;
-  private static final int INITIAL_INDEX_SIZE;
+  public static final int INITIAL_INDEX_SIZE;
   static {
     String property = System.getProperty("idea.initialIndexSize");
     INITIAL_INDEX_SIZE = property == null ? 4 * 1024 : Integer.valueOf(property);
   }
 
+  private static final boolean ourBackgroundCompaction = SystemProperties.getBooleanProperty("idea.persistent.hash.map.background.compaction", true);
+  private static final ExecutorService ourCompactionExecutor = ConcurrencyUtil.newSingleThreadExecutor("PersistentHashMap compaction", Thread.MIN_PRIORITY);
+  private static final Set<String> ourFilesBeingCompacted = Collections.synchronizedSet(new HashSet<String>());
+
   @NonNls
   public static final String DATA_FILE_EXTENSION = ".values";
   private long myLiveAndGarbageKeysCounter; // first four bytes contain live keys count (updated via LIVE_KEY_MASK), last four bytes - number of dead keys
@@ -107,7 +113,15 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   }
   
   public PersistentHashMap(@NotNull final File file, @NotNull KeyDescriptor<Key> keyDescriptor, @NotNull DataExternalizer<Value> valueExternalizer, final int initialSize) throws IOException {
-    super(checkDataFiles(file), keyDescriptor, initialSize);
+    this(file, keyDescriptor, valueExternalizer, initialSize, null);
+  }
+
+  public PersistentHashMap(@NotNull final File file,
+                           @NotNull KeyDescriptor<Key> keyDescriptor,
+                           @NotNull DataExternalizer<Value> valueExternalizer,
+                           final int initialSize,
+                           @Nullable PagedFileStorage.StorageLockContext lockContext) throws IOException {
+    super(checkDataFiles(file), keyDescriptor, initialSize, lockContext);
     myAppendCache = createAppendCache(keyDescriptor);
     final PersistentEnumeratorBase.RecordBufferHandler<PersistentEnumeratorBase> recordHandler = myEnumerator.getRecordHandler();
     myParentValueRefOffset = recordHandler.getRecordBuffer(myEnumerator).length;
@@ -155,7 +169,12 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
       myCanReEnumerate = myEnumerator.canReEnumerate();
 
       if (makesSenseToCompact()) {
-        compact();
+        if (ourBackgroundCompaction) {
+          scheduleBackgroundCompaction();
+        }
+        else {
+          compact();
+        }
       }
     }
     catch (IOException e) {
@@ -249,6 +268,30 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     return (int)myLiveAndGarbageKeysCounter;
   }
 
+  public int getLiveKeysCount() {
+    return (int)(myLiveAndGarbageKeysCounter / LIVE_KEY_MASK);
+  }
+
+  public long getValueStorageSize() {
+    synchronized (myEnumerator) {
+      return myValueStorage.getSize();
+    }
+  }
+
+  /**
+   * @return estimated part of the value storage occupied by unreachable values, from 0 to 1
+   */
+  public double getGarbageRatio() {
+    synchronized (myEnumerator) {
+      final long fileSize = myValueStorage.getSize();
+      if (fileSize == 0) return 0;
+      final int liveKeys = getLiveKeysCount();
+      final int deadKeys = (int)(myLiveAndGarbageKeysCounter & DEAD_KEY_NUMBER_MASK);
+      final double deadKeysRatio = liveKeys + deadKeys > 0 ? (double)deadKeys / (liveKeys + deadKeys) : 0;
+      return Math.min(1, Math.max(deadKeysRatio, (double)myReadCompactionGarbageSize / fileSize));
+    }
+  }
+
   public File getBaseFile() {
     return myEnumerator.myFile;
   }
@@ -258,7 +301,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     final long fileSize = getDataFile(myEnumerator.myFile).length();
     final int megabyte = 1024 * 1024;
 
-    if (fileSize > 5 * megabyte) { // file is longer than 5MB and (more than 50% of keys is garbage or approximate benefit larger than 100M)
+    if (fileSize > 5 * megabyte && !ourFilesBeingCompacted.contains(getDataFile(myEnumerator.myFile).getPath())) { // file is longer than 5MB and (more than 50% of keys is garbage or approximate benefit larger than 100M)
       int liveKeys = (int)(myLiveAndGarbageKeysCounter / LIVE_KEY_MASK);
       int deadKeys = (int)(myLiveAndGarbageKeysCounter & DEAD_KEY_NUMBER_MASK);
 
@@ -612,6 +655,187 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     }
   }
 
+  private void scheduleBackgroundCompaction() {
+    final String dataPath = getDataFile(myEnumerator.myFile).getPath();
+    if (!ourFilesBeingCompacted.add(dataPath)) return;
+    ourCompactionExecutor.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          doCompactOnline(dataPath);
+        }
+        catch (Throwable t) {
+          LOG.warn("Background compaction of " + dataPath + " failed", t);
+        }
+        finally {
+          ourFilesBeingCompacted.remove(dataPath);
+        }
+      }
+    });
+  }
+
+  /**
+   * Compacts the value storage while the map keeps serving requests. Live values are copied from the snapshot of the value
+   * file without holding the map lock, then the values changed meanwhile are copied under the lock and the new value
+   * storage replaces the old one.
+   *
+   * @return false if the map was closed or the storage is already being compacted
+   */
+  public boolean compactOnline() throws IOException {
+    final String dataPath = getDataFile(myEnumerator.myFile).getPath();
+    if (!ourFilesBeingCompacted.add(dataPath)) return false;
+    try {
+      return doCompactOnline(dataPath);
+    }
+    finally {
+      ourFilesBeingCompacted.remove(dataPath);
+    }
+  }
+
+  private boolean doCompactOnline(@NotNull String dataPath) throws IOException {
+    final long started = System.currentTimeMillis();
+    final List<CompactionRecordInfo> infos = new ArrayList<CompactionRecordInfo>(10000);
+    final TIntLongHashMap snapshotAddresses = new TIntLongHashMap();
+    final long snapshotSize;
+
+    synchronized (myEnumerator) {
+      if (myEnumerator.isClosed()) return false;
+      LOG.info("Compacting in background " + myEnumerator.myFile.getPath() + ", garbage ratio:" + getGarbageRatio());
+      myEnumerator.lockStorage();
+      try {
+        clearAppenderCaches();
+      }
+      finally {
+        myEnumerator.unlockStorage();
+      }
+      snapshotSize = myValueStorage.getSize();
+
+      traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
+        @Override
+        public boolean process(final int keyId) throws IOException {
+          final long record = readValueId(keyId);
+          if (record != NULL_ADDR) {
+            infos.add(new CompactionRecordInfo(getCurrentKey(), record, keyId));
+            snapshotAddresses.put(keyId, record);
+          }
+          return true;
+        }
+      });
+    }
+
+    // the value storage is append only, so the data below snapshotSize doesn't change while we copy it
+    final File newFile = new File(dataPath + ".new");
+    FileUtil.delete(newFile);
+    final PersistentHashMapValueStorage newStorage = PersistentHashMapValueStorage.create(newFile.getPath());
+    boolean swapped = false;
+    try {
+      if (!infos.isEmpty()) {
+        final PersistentHashMapValueStorage snapshot = PersistentHashMapValueStorage.createSnapshot(dataPath, snapshotSize);
+        try {
+          snapshot.compactValues(infos, newStorage);
+        }
+        finally {
+          snapshot.dispose();
+        }
+      }
+
+      final TIntLongHashMap newAddresses = new TIntLongHashMap(infos.size());
+      for (CompactionRecordInfo info : infos) {
+        newAddresses.put(info.address, info.newValueAddress);
+      }
+      infos.clear();
+
+      synchronized (myEnumerator) {
+        if (myEnumerator.isClosed()) return false;
+        final long copyStarted = System.currentTimeMillis();
+        final long sizeBefore = myValueStorage.getSize();
+        myEnumerator.lockStorage();
+        try {
+          clearAppenderCaches();
+        }
+        finally {
+          myEnumerator.unlockStorage();
+        }
+
+        // the map isn't touched until the new storage is in place, so a failure while copying leaves it intact
+        final List<CompactionRecordInfo> updates = new ArrayList<CompactionRecordInfo>(newAddresses.size());
+        traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
+          @Override
+          public boolean process(final int keyId) throws IOException {
+            final long record = readValueId(keyId);
+            if (record != NULL_ADDR) {
+              CompactionRecordInfo update = new CompactionRecordInfo(getCurrentKey(), record, keyId);
+              if (snapshotAddresses.containsKey(keyId) && snapshotAddresses.get(keyId) == record) {
+                update.newValueAddress = newAddresses.get(keyId);
+              }
+              else {
+                // value was changed after the snapshot had been taken
+                PersistentHashMapValueStorage.ReadResult readResult = myValueStorage.readBytes(record);
+                update.newValueAddress = newStorage.appendBytes(readResult.buffer, 0, readResult.buffer.length, 0);
+              }
+              updates.add(update);
+            }
+            return true;
+          }
+        });
+
+        newStorage.dispose();
+        swapped = true;
+        boolean reopened = false;
+        try {
+          myValueStorage.dispose();
+          FileUtil.rename(newFile, new File(dataPath));
+          myValueStorage = PersistentHashMapValueStorage.create(dataPath);
+          reopened = true;
+          for (CompactionRecordInfo update : updates) {
+            updateValueId(update.address, update.newValueAddress, update.valueAddress, null, update.key);
+          }
+        }
+        catch (IOException e) {
+          handleFailedSwap(dataPath, newFile, reopened);
+          throw e;
+        }
+        catch (RuntimeException e) {
+          handleFailedSwap(dataPath, newFile, reopened);
+          throw e;
+        }
+
+        myLiveAndGarbageKeysCounter = (long)updates.size() * LIVE_KEY_MASK;
+        myReadCompactionGarbageSize = 0;
+        myEnumerator.putMetaData(myLiveAndGarbageKeysCounter);
+        myEnumerator.putMetaData2(myLargeIndexWatermarkId);
+        LOG.info("Compacted " + myEnumerator.myFile.getPath() + ":" + sizeBefore + " bytes into " + myValueStorage.getSize() +
+                 " bytes in " + (System.currentTimeMillis() - started) + "ms, map was locked for " +
+                 (System.currentTimeMillis() - copyStarted) + "ms.");
+      }
+      return true;
+    }
+    finally {
+      if (!swapped) {
+        newStorage.dispose();
+        FileUtil.delete(newFile);
+      }
+    }
+  }
+
+  /**
+   * Called when the value storage was closed for the swap but the map couldn't be switched to the compacted one: the value
+   * addresses can't be trusted anymore, so the map is marked corrupted to be rebuilt when it is opened next time.
+   */
+  private void handleFailedSwap(@NotNull String dataPath, @NotNull File newFile, boolean reopened) {
+    LOG.error("Failed to replace value storage of " + myEnumerator.myFile.getPath() + " with the compacted one");
+    myEnumerator.markCorrupted();
+    FileUtil.delete(newFile);
+    if (!reopened) {
+      try {
+        myValueStorage = PersistentHashMapValueStorage.create(dataPath);
+      }
+      catch (IOException e) {
+        LOG.warn(e);
+      }
+    }
+  }
+
   private void newCompact(PersistentHashMapValueStorage newStorage) throws IOException {
     long started = System.currentTimeMillis();
     final List<CompactionRecordInfo> infos = new ArrayList<CompactionRecordInfo>(10000);
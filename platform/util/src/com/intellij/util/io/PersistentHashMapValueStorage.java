@@ -19,7 +19,9 @@
  */
 package com.intellij.util.io;
 
+import com.intellij.openapi.util.SystemInfo;
 import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.SLRUCache;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -37,6 +39,7 @@ public class PersistentHashMapValueStorage {
   private final File myFile;
   private final String myPath;
   private boolean myCompactionMode = false;
+  private final boolean mySnapshot;
 
   private static final int CACHE_PROTECTED_QUEUE_SIZE = 10;
   private static final int CACHE_PROBATIONAL_QUEUE_SIZE = 20;
@@ -53,10 +56,14 @@ public class PersistentHashMapValueStorage {
     }
   };
 
+  // reading flushed values from memory mapped file doesn't need a system call per chunk; mapped files can't be renamed on Windows though
+  private static final boolean ourMappedReads = SystemInfo.is64Bit && SystemProperties.getBooleanProperty("idea.persistent.hash.map.mapped.reads", !SystemInfo.isWindows);
+
   private static final FileAccessorCache<RAReader> ourReadersCache = new FileAccessorCache<RAReader>(CACHE_PROTECTED_QUEUE_SIZE, CACHE_PROBATIONAL_QUEUE_SIZE) {
     @NotNull
     public CacheValue<RAReader> createValue(String path) {
-      return new CachedReader(new FileReader(new File(path)));
+      File file = new File(path);
+      return new CachedReader(ourMappedReads ? new MappedReader(file) : new FileReader(file));
     }
   };
 
@@ -64,12 +71,22 @@ public class PersistentHashMapValueStorage {
     myPath = path;
     myFile = new File(path);
     mySize = myFile.length();  // volatile write
+    mySnapshot = false;
 
     if (mySize == 0) {
       appendBytes(new ByteSequence("Header Record For PersistentHashMapValueStorage".getBytes()), 0);
     }
   }
 
+  private PersistentHashMapValueStorage(String path, long size) {
+    myPath = path;
+    myFile = new File(path);
+    mySize = size;
+    mySnapshot = true;
+    myCompactionModeReader = new FileReader(myFile);
+    myCompactionMode = true;
+  }
+
   private long smallWrites;
   private int smallWritesCount;
   private long largeWrites;
@@ -381,8 +398,10 @@ public class PersistentHashMapValueStorage {
 
   public void dispose() {
     if (mySize < 0) assert false; // volatile read
-    ourReadersCache.remove(myPath);
-    ourAppendersCache.remove(myPath);
+    if (!mySnapshot) {
+      ourReadersCache.remove(myPath);
+      ourAppendersCache.remove(myPath);
+    }
 
     if (myCompactionModeReader != null) {
       myCompactionModeReader.dispose();
@@ -401,6 +420,14 @@ public class PersistentHashMapValueStorage {
     return new PersistentHashMapValueStorage(path);
   }
 
+  /**
+   * Creates read-only view of the first <code>size</code> bytes of the storage, which is not affected by appends to the storage.
+   * The view has its own file handle and is intended for compacting the values while the storage itself stays in use.
+   */
+  static PersistentHashMapValueStorage createSnapshot(final String path, final long size) {
+    return new PersistentHashMapValueStorage(path, size);
+  }
+
   private interface RAReader {
     void get(long addr, byte[] dst, int off, int len) throws IOException;
     void dispose();
@@ -433,6 +460,22 @@ public class PersistentHashMapValueStorage {
     }
   }
 
+  private static class MappedReader implements RAReader {
+    private final ReadOnlyMappedFile myFile;
+
+    private MappedReader(File file) {
+      myFile = new ReadOnlyMappedFile(file);
+    }
+
+    public void get(final long addr, final byte[] dst, final int off, final int len) throws IOException {
+      myFile.get(addr, dst, off, len);
+    }
+
+    public void dispose() {
+      myFile.close();
+    }
+  }
+
   private static abstract class FileAccessorCache<T> extends SLRUCache<String, CacheValue<T>> {
     private final Object myLock = new Object();
     private FileAccessorCache(int protectedQueueSize, int probationalQueueSize) {
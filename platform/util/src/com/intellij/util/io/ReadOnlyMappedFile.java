@@ -0,0 +1,178 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.util.SystemProperties;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only view of an immutable or append-only file. Unlike {@link PagedFileStorage} the file is mapped in fixed-size
+ * segments which are kept until the view is closed, so reads take neither {@link PagedFileStorage.StorageLock} nor
+ * any other lock and don't touch the LRU of mapped pages. A segment is mapped only once the file covers it completely,
+ * so every complete segment is mapped at most once. The incomplete tail of the file is mapped up to the current end of
+ * the file and is remapped only when a read needs the data appended after that; the superseded tail mappings are
+ * released when the view is closed. Only the data already flushed to the file can be read.
+ * <p/>
+ * Reads may be performed concurrently, but {@link #close()} should be called only when there are no reads in progress.
+ */
+public class ReadOnlyMappedFile implements Closeable {
+  public static final int DEFAULT_SEGMENT_SIZE =
+    SystemProperties.getIntProperty("idea.mapped.file.segment.size", SystemInfo.is64Bit ? 8 : 1) * PagedFileStorage.MB;
+
+  private final File myFile;
+  private final int mySegmentSize;
+  private volatile ReadOnlyMappedBufferWrapper[] mySegments = new ReadOnlyMappedBufferWrapper[0];
+  private volatile ReadOnlyMappedBufferWrapper myTail;
+  private final List<ReadOnlyMappedBufferWrapper> mySupersededTails = new ArrayList<ReadOnlyMappedBufferWrapper>();
+  private boolean myClosed;
+
+  public ReadOnlyMappedFile(@NotNull File file) {
+    this(file, DEFAULT_SEGMENT_SIZE);
+  }
+
+  public ReadOnlyMappedFile(@NotNull File file, int segmentSize) {
+    assert segmentSize > 0 : segmentSize;
+    myFile = file;
+    mySegmentSize = segmentSize;
+  }
+
+  @NotNull
+  public File getFile() {
+    return myFile;
+  }
+
+  public int getInt(long addr) throws IOException {
+    final int offset = (int)(addr % mySegmentSize);
+    if (offset + 4 <= mySegmentSize) {
+      return getSegmentBuffer((int)(addr / mySegmentSize), offset + 4).getInt(offset);
+    }
+    final byte[] buffer = new byte[4];
+    get(addr, buffer, 0, buffer.length);
+    return Bits.getInt(buffer, 0);
+  }
+
+  public long getLong(long addr) throws IOException {
+    final int offset = (int)(addr % mySegmentSize);
+    if (offset + 8 <= mySegmentSize) {
+      return getSegmentBuffer((int)(addr / mySegmentSize), offset + 8).getLong(offset);
+    }
+    final byte[] buffer = new byte[8];
+    get(addr, buffer, 0, buffer.length);
+    return Bits.getLong(buffer, 0);
+  }
+
+  public void get(long addr, @NotNull byte[] dst, int off, int len) throws IOException {
+    while (len > 0) {
+      final int offset = (int)(addr % mySegmentSize);
+      final int chunk = Math.min(len, mySegmentSize - offset);
+      // duplicate as bulk get is relative and the buffer is shared between threads
+      final ByteBuffer buffer = getSegmentBuffer((int)(addr / mySegmentSize), offset + chunk).duplicate();
+      buffer.position(offset);
+      buffer.get(dst, off, chunk);
+
+      addr += chunk;
+      off += chunk;
+      len -= chunk;
+    }
+  }
+
+  /**
+   * @return the buffer of the given segment which contains at least {@code requiredLength} bytes
+   */
+  @NotNull
+  private ByteBuffer getSegmentBuffer(int segment, int requiredLength) throws IOException {
+    final ReadOnlyMappedBufferWrapper[] segments = mySegments;
+    if (segment < segments.length) {
+      final ReadOnlyMappedBufferWrapper wrapper = segments[segment];
+      if (wrapper != null) {
+        final ByteBuffer buffer = wrapper.getCachedBuffer();
+        if (buffer != null) return buffer;
+      }
+    }
+    final ReadOnlyMappedBufferWrapper tail = myTail;
+    if (tail != null && tail.myPosition == (long)segment * mySegmentSize && tail.myLength >= requiredLength) {
+      final ByteBuffer buffer = tail.getCachedBuffer();
+      if (buffer != null) return buffer;
+    }
+    return mapSegment(segment, requiredLength);
+  }
+
+  @NotNull
+  private synchronized ByteBuffer mapSegment(int segment, int requiredLength) throws IOException {
+    if (myClosed) throw new IOException("Already closed: " + myFile);
+
+    ReadOnlyMappedBufferWrapper[] segments = mySegments;
+    if (segment < segments.length && segments[segment] != null) {
+      return segments[segment].getBuffer();
+    }
+
+    final long position = (long)segment * mySegmentSize;
+    final long fileLength = myFile.length();
+    if (position + mySegmentSize > fileLength) {
+      if (position + requiredLength > fileLength) {
+        throw new IOException("Attempt to read beyond the end of " + myFile + ": " + (position + requiredLength) + " > " + fileLength);
+      }
+      final ReadOnlyMappedBufferWrapper tail = myTail;
+      if (tail != null && tail.myPosition == position && tail.myLength >= requiredLength) {
+        return tail.getBuffer();
+      }
+      // the previous tail may still be used by concurrent reads, so it can't be unmapped until the view is closed
+      if (tail != null) mySupersededTails.add(tail);
+      final ReadOnlyMappedBufferWrapper newTail = new ReadOnlyMappedBufferWrapper(myFile, position, fileLength - position);
+      final ByteBuffer buffer = newTail.getBuffer();
+      myTail = newTail;
+      return buffer;
+    }
+
+    if (segment >= segments.length) {
+      final ReadOnlyMappedBufferWrapper[] newSegments = new ReadOnlyMappedBufferWrapper[segment + 1];
+      System.arraycopy(segments, 0, newSegments, 0, segments.length);
+      segments = newSegments;
+    }
+
+    final ReadOnlyMappedBufferWrapper wrapper = new ReadOnlyMappedBufferWrapper(myFile, position, mySegmentSize);
+    final ByteBuffer buffer = wrapper.getBuffer();
+    segments[segment] = wrapper;
+    mySegments = segments;
+    return buffer;
+  }
+
+  @Override
+  public synchronized void close() {
+    myClosed = true;
+    for (ReadOnlyMappedBufferWrapper wrapper : mySegments) {
+      if (wrapper != null) wrapper.dispose();
+    }
+    mySegments = new ReadOnlyMappedBufferWrapper[0];
+    final ReadOnlyMappedBufferWrapper tail = myTail;
+    if (tail != null) {
+      myTail = null;
+      tail.dispose();
+    }
+    for (ReadOnlyMappedBufferWrapper wrapper : mySupersededTails) {
+      wrapper.dispose();
+    }
+    mySupersededTails.clear();
+  }
+}
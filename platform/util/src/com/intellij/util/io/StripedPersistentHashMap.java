@@ -0,0 +1,269 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.NotNullFactory;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.CommonProcessors;
+import com.intellij.util.Processor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * {@link PersistentMap} that partitions the key space into several independent {@link PersistentHashMap} segments.
+ * Every segment has its own files, monitor and {@link PagedFileStorage.StorageLockContext}, so operations with keys
+ * from different segments (in particular concurrent reads) don't block each other.
+ * <p/>
+ * The number of segments is stored in the base file and can't be changed for existing storage.
+ */
+public class StripedPersistentHashMap<Key, Value> implements PersistentMap<Key, Value> {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.util.io.StripedPersistentHashMap");
+  private static final int VERSION = 1;
+  public static final int DEFAULT_SEGMENTS_COUNT = Math.max(2, Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 2));
+
+  private final File myFile;
+  private final KeyDescriptor<Key> myKeyDescriptor;
+  private final PersistentHashMap<Key, Value>[] mySegments;
+
+  public StripedPersistentHashMap(@NotNull File file,
+                                  @NotNull NotNullFactory<? extends KeyDescriptor<Key>> keyDescriptorFactory,
+                                  @NotNull NotNullFactory<? extends DataExternalizer<Value>> valueExternalizerFactory) throws IOException {
+    this(file, keyDescriptorFactory, valueExternalizerFactory, DEFAULT_SEGMENTS_COUNT);
+  }
+
+  /**
+   * Descriptors and externalizers often keep reusable buffers, so every segment gets its own instances created by the given factories.
+   * {@link KeyDescriptor#getHashCode(Object)} of the extra key descriptor used to choose the segment may be called concurrently.
+   */
+  public StripedPersistentHashMap(@NotNull File file,
+                                  @NotNull final NotNullFactory<? extends KeyDescriptor<Key>> keyDescriptorFactory,
+                                  @NotNull final NotNullFactory<? extends DataExternalizer<Value>> valueExternalizerFactory,
+                                  int segmentsCount) throws IOException {
+    this(file, keyDescriptorFactory.create(), new SegmentFactory<Key, Value>() {
+      @NotNull
+      @Override
+      public PersistentHashMap<Key, Value> createSegment(@NotNull File segmentFile,
+                                                         @NotNull PagedFileStorage.StorageLockContext lockContext) throws IOException {
+        return new PersistentHashMap<Key, Value>(segmentFile, keyDescriptorFactory.create(), valueExternalizerFactory.create(),
+                                                 PersistentHashMap.INITIAL_INDEX_SIZE, lockContext);
+      }
+    }, segmentsCount);
+  }
+
+  /**
+   * @param keyDescriptor   is used to choose the segment for a key, its {@link KeyDescriptor#getHashCode(Object)} may be called
+   *                        concurrently
+   * @param segmentFactory  creates segments (possibly {@link PersistentHashMap} subclasses) with the given files and lock contexts
+   */
+  public StripedPersistentHashMap(@NotNull File file,
+                                  @NotNull KeyDescriptor<Key> keyDescriptor,
+                                  @NotNull SegmentFactory<Key, Value> segmentFactory,
+                                  int segmentsCount) throws IOException {
+    assert segmentsCount > 0 : segmentsCount;
+    myFile = file;
+    myKeyDescriptor = keyDescriptor;
+    segmentsCount = checkSegmentsCount(file, segmentsCount);
+
+    //noinspection unchecked
+    mySegments = new PersistentHashMap[segmentsCount];
+    try {
+      for (int i = 0; i < segmentsCount; i++) {
+        mySegments[i] = segmentFactory.createSegment(getSegmentFile(file, i), new PagedFileStorage.StorageLockContext(true));
+      }
+    }
+    catch (IOException e) {
+      closeSegments();
+      throw e;
+    }
+    catch (RuntimeException e) {
+      closeSegments();
+      throw e;
+    }
+  }
+
+  private static int checkSegmentsCount(@NotNull File file, int segmentsCount) throws IOException {
+    if (file.exists() && file.length() > 0) {
+      final DataInputStream input = new DataInputStream(new FileInputStream(file));
+      try {
+        if (input.readInt() != VERSION) throw new PersistentEnumeratorBase.CorruptedException(file);
+        return input.readInt();
+      }
+      catch (EOFException e) {
+        throw new PersistentEnumeratorBase.CorruptedException(file);
+      }
+      finally {
+        input.close();
+      }
+    }
+
+    for (int i = 0; i < segmentsCount; i++) {
+      IOUtil.deleteAllFilesStartingWith(getSegmentFile(file, i));
+    }
+    FileUtil.createParentDirs(file);
+    final DataOutputStream output = new DataOutputStream(new FileOutputStream(file));
+    try {
+      output.writeInt(VERSION);
+      output.writeInt(segmentsCount);
+    }
+    finally {
+      output.close();
+    }
+    return segmentsCount;
+  }
+
+  @NotNull
+  private static File getSegmentFile(@NotNull File file, int segment) {
+    return new File(file.getParentFile(), file.getName() + ".s" + segment);
+  }
+
+  public static void deleteFilesStartingWith(@NotNull File prefixFile) {
+    IOUtil.deleteAllFilesStartingWith(prefixFile);
+  }
+
+  public int getSegmentsCount() {
+    return mySegments.length;
+  }
+
+  public interface SegmentFactory<Key, Value> {
+    @NotNull
+    PersistentHashMap<Key, Value> createSegment(@NotNull File segmentFile, @NotNull PagedFileStorage.StorageLockContext lockContext)
+      throws IOException;
+  }
+
+  /**
+   * @return the segment which stores the given key
+   */
+  @NotNull
+  public PersistentHashMap<Key, Value> segmentFor(Key key) {
+    int hash = myKeyDescriptor.getHashCode(key);
+    // same bit spreading as in java.util.HashMap, so keys which differ only in higher bits are distributed as well
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    hash ^= (hash >>> 7) ^ (hash >>> 4);
+    return mySegments[(hash & 0x7fffffff) % mySegments.length];
+  }
+
+  @Override
+  public Value get(Key key) throws IOException {
+    return segmentFor(key).get(key);
+  }
+
+  @Override
+  public void put(Key key, Value value) throws IOException {
+    segmentFor(key).put(key, value);
+  }
+
+  public void appendData(Key key, @NotNull PersistentHashMap.ValueDataAppender appender) throws IOException {
+    segmentFor(key).appendData(key, appender);
+  }
+
+  public boolean containsMapping(Key key) throws IOException {
+    return segmentFor(key).containsMapping(key);
+  }
+
+  public void remove(Key key) throws IOException {
+    segmentFor(key).remove(key);
+  }
+
+  @Override
+  public boolean processKeys(Processor<Key> processor) throws IOException {
+    for (PersistentHashMap<Key, Value> segment : mySegments) {
+      if (!segment.processKeys(processor)) return false;
+    }
+    return true;
+  }
+
+  public boolean processKeysWithExistingMapping(Processor<Key> processor) throws IOException {
+    for (PersistentHashMap<Key, Value> segment : mySegments) {
+      if (!segment.processKeysWithExistingMapping(processor)) return false;
+    }
+    return true;
+  }
+
+  @NotNull
+  public Collection<Key> getAllKeysWithExistingMapping() throws IOException {
+    final List<Key> values = new ArrayList<Key>();
+    processKeysWithExistingMapping(new CommonProcessors.CollectProcessor<Key>(values));
+    return values;
+  }
+
+  public void dropMemoryCaches() {
+    for (PersistentHashMap<Key, Value> segment : mySegments) {
+      segment.dropMemoryCaches();
+    }
+  }
+
+  public File getBaseFile() {
+    return myFile;
+  }
+
+  @Override
+  public boolean isClosed() {
+    for (PersistentHashMap<Key, Value> segment : mySegments) {
+      if (!segment.isClosed()) return false;
+    }
+    return true;
+  }
+
+  @Override
+  public boolean isDirty() {
+    for (PersistentHashMap<Key, Value> segment : mySegments) {
+      if (segment.isDirty()) return true;
+    }
+    return false;
+  }
+
+  @Override
+  public void force() {
+    for (PersistentHashMap<Key, Value> segment : mySegments) {
+      segment.force();
+    }
+  }
+
+  @Override
+  public void markDirty() throws IOException {
+    for (PersistentHashMap<Key, Value> segment : mySegments) {
+      segment.markDirty();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOException exception = closeSegments();
+    if (exception != null) throw exception;
+  }
+
+  @Nullable
+  private IOException closeSegments() {
+    IOException exception = null;
+    for (PersistentHashMap<Key, Value> segment : mySegments) {
+      if (segment == null) continue;
+      try {
+        segment.close();
+      }
+      catch (IOException e) {
+        if (exception == null) exception = e;
+        else LOG.info(e);
+      }
+    }
+    return exception;
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io.storage;
+
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.util.io.Bits;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pure java codec producing data in LZ4 block format. Compresses several times faster than deflate and decompresses
+ * an order of magnitude faster at the cost of somewhat worse compression ratio.
+ */
+public class Lz4StorageCodec extends StorageCodec {
+  public static final byte FORMAT_ID = 1;
+
+  private static final int MIN_MATCH = 4;
+  private static final int LAST_LITERALS = 5;
+  private static final int MATCH_FIND_LIMIT = 12;
+  private static final int MAX_OFFSET = 0xFFFF;
+  private static final int HASH_LOG = 14;
+
+  @Override
+  public byte getFormatId() {
+    return FORMAT_ID;
+  }
+
+  @Override
+  public void encode(@NotNull ByteSequence data, @NotNull BufferExposingByteArrayOutputStream out) throws IOException {
+    final int length = data.getLength();
+    final byte[] header = new byte[4];
+    Bits.putInt(header, 0, length);
+    out.write(header, 0, header.length);
+
+    final byte[] dst = new byte[length + length / 255 + 16];
+    final int compressedLength = compress(data.getBytes(), data.getOffset(), data.getOffset() + length, dst);
+    out.write(dst, 0, compressedLength);
+  }
+
+  @Override
+  public void decode(@NotNull byte[] data, int offset, @NotNull BufferExposingByteArrayOutputStream out) throws IOException {
+    if (data.length - offset < 4) throw new IOException("Malformed LZ4 data: no length header");
+    final int length = Bits.getInt(data, offset);
+    // a byte of LZ4 data can't expand to more than 255 bytes, so larger lengths come from a corrupted header
+    if (length < 0 || length > (long)(data.length - offset - 4) * 255) {
+      throw new IOException("Malformed LZ4 data: invalid length " + length);
+    }
+    final byte[] result = new byte[length];
+    try {
+      decompress(data, offset + 4, data.length, result, 0);
+    }
+    catch (IndexOutOfBoundsException e) {
+      throw new IOException("Malformed LZ4 data", e);
+    }
+    out.write(result, 0, result.length);
+  }
+
+  private static int hash(int value) {
+    return (value * -1640531535) >>> (32 - HASH_LOG);
+  }
+
+  private static int readInt(byte[] b, int off) {
+    return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8) | ((b[off + 2] & 0xFF) << 16) | (b[off + 3] << 24);
+  }
+
+  /**
+   * Compresses src[start, end) into dst.
+   * @return compressed length
+   */
+  static int compress(@NotNull byte[] src, int start, int end, @NotNull byte[] dst) {
+    final int[] table = new int[1 << HASH_LOG];
+    Arrays.fill(table, -1);
+
+    final int matchLimit = end - MATCH_FIND_LIMIT;
+    final int literalsLimit = end - LAST_LITERALS;
+    int anchor = start;
+    int p = start;
+    int dp = 0;
+
+    while (p < matchLimit) {
+      final int sequence = readInt(src, p);
+      final int h = hash(sequence);
+      int ref = table[h];
+      table[h] = p;
+      if (ref < 0 || p - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+        // skip faster through incompressible data
+        p += 1 + ((p - anchor) >>> 6);
+        continue;
+      }
+
+      while (p > anchor && ref > start && src[p - 1] == src[ref - 1]) {
+        p--;
+        ref--;
+      }
+      int matchLength = MIN_MATCH;
+      while (p + matchLength < literalsLimit && src[ref + matchLength] == src[p + matchLength]) matchLength++;
+
+      dp = writeSequence(src, anchor, p - anchor, p - ref, matchLength, dst, dp);
+      p += matchLength;
+      anchor = p;
+      if (p - 2 < matchLimit) table[hash(readInt(src, p - 2))] = p - 2;
+    }
+
+    return writeSequence(src, anchor, end - anchor, 0, 0, dst, dp);
+  }
+
+  private static int writeSequence(byte[] src, int literalsStart, int literalsLength, int offset, int matchLength, byte[] dst, int dp) {
+    final int token = dp++;
+    dst[token] = (byte)(Math.min(literalsLength, 15) << 4);
+    if (literalsLength >= 15) dp = writeLength(literalsLength - 15, dst, dp);
+    System.arraycopy(src, literalsStart, dst, dp, literalsLength);
+    dp += literalsLength;
+
+    if (matchLength == 0) return dp; // last literals
+
+    dst[dp++] = (byte)offset;
+    dst[dp++] = (byte)(offset >>> 8);
+    final int length = matchLength - MIN_MATCH;
+    dst[token] |= Math.min(length, 15);
+    if (length >= 15) dp = writeLength(length - 15, dst, dp);
+    return dp;
+  }
+
+  private static int writeLength(int length, byte[] dst, int dp) {
+    while (length >= 255) {
+      dst[dp++] = (byte)255;
+      length -= 255;
+    }
+    dst[dp++] = (byte)length;
+    return dp;
+  }
+
+  /**
+   * Decompresses src[sp, srcEnd) into dst starting from dp.
+   */
+  static void decompress(@NotNull byte[] src, int sp, int srcEnd, @NotNull byte[] dst, int dp) throws IOException {
+    while (sp < srcEnd) {
+      final int token = src[sp++] & 0xFF;
+      int literalsLength = token >>> 4;
+      if (literalsLength == 15) {
+        int b;
+        do {
+          b = src[sp++] & 0xFF;
+          literalsLength += b;
+        }
+        while (b == 255);
+      }
+      System.arraycopy(src, sp, dst, dp, literalsLength);
+      sp += literalsLength;
+      dp += literalsLength;
+      if (sp >= srcEnd) break;
+
+      final int offset = (src[sp++] & 0xFF) | ((src[sp++] & 0xFF) << 8);
+      int matchLength = token & 0x0F;
+      if (matchLength == 15) {
+        int b;
+        do {
+          b = src[sp++] & 0xFF;
+          matchLength += b;
+        }
+        while (b == 255);
+      }
+      matchLength += MIN_MATCH;
+
+      int ref = dp - offset;
+      if (offset == 0 || ref < 0) throw new IOException("Malformed LZ4 data: offset " + offset + " at " + dp);
+      if (offset >= matchLength) {
+        System.arraycopy(dst, ref, dst, dp, matchLength);
+        dp += matchLength;
+      }
+      else {
+        for (int i = 0; i < matchLength; i++) dst[dp++] = dst[ref++];
+      }
+    }
+    if (dp != dst.length) throw new IOException("Malformed LZ4 data: decoded " + dp + " bytes instead of " + dst.length);
+  }
+}
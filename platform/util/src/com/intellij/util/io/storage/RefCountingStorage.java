@@ -21,21 +21,18 @@ package com.intellij.util.io.storage;
 
 import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.ByteSequence;
-import com.intellij.openapi.util.io.StreamUtil;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.util.containers.ConcurrentHashMap;
 import com.intellij.util.io.PagePool;
 import com.intellij.util.io.UnsyncByteArrayInputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.DataInputStream;
-import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.util.Map;
 import java.util.concurrent.*;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
 
 public class RefCountingStorage extends AbstractStorage {
   private final Map<Integer, Future<?>> myPendingWriteRequests = new ConcurrentHashMap<Integer, Future<?>>();
@@ -50,12 +47,26 @@ public class RefCountingStorage extends AbstractStorage {
   private final boolean myDoNotZipCaches = Boolean.valueOf(System.getProperty("idea.doNotZipCaches")).booleanValue();
   private static final int MAX_PENDING_WRITE_SIZE = 20 * 1024 * 1024;
 
+  private final StorageCodec myCodec;
+
   public RefCountingStorage(String path) throws IOException {
-    super(path);
+    this(path, CapacityAllocationPolicy.DEFAULT);
   }
 
   public RefCountingStorage(String path, CapacityAllocationPolicy capacityAllocationPolicy) throws IOException {
+    this(path, capacityAllocationPolicy, null);
+  }
+
+  /**
+   * @param codec codec to compress the records with, by default LZ4 is used unless <code>idea.storage.codec=deflate</code> property is set.
+   *              Records are read with the codec they were written with, so the storage may contain records written with different codecs.
+   */
+  public RefCountingStorage(String path, CapacityAllocationPolicy capacityAllocationPolicy, @Nullable StorageCodec codec) throws IOException {
     super(path, capacityAllocationPolicy);
+    if (codec == null) {
+      codec = "deflate".equals(System.getProperty("idea.storage.codec")) ? StorageCodec.DEFLATE : new Lz4StorageCodec();
+    }
+    myCodec = codec;
   }
 
   public DataInputStream readStream(int record) throws IOException {
@@ -73,41 +84,30 @@ public class RefCountingStorage extends AbstractStorage {
   private BufferExposingByteArrayOutputStream internalReadStream(int record) throws IOException {
     waitForPendingWriteForRecord(record);
 
-    synchronized (myLock) {
+    // decompress outside of the storage lock
+    byte[] result = super.readBytes(record);
+    final BufferExposingByteArrayOutputStream outputStream = new BufferExposingByteArrayOutputStream(Math.max(32, result.length * 3));
+    if (result.length == 0) return outputStream;
 
-      byte[] result = super.readBytes(record);
-      InflaterInputStream in = new CustomInflaterInputStream(result);
-      try {
-        final BufferExposingByteArrayOutputStream outputStream = new BufferExposingByteArrayOutputStream();
-        StreamUtil.copyStreamContent(in, outputStream);
-        return outputStream;
-      }
-      finally {
-        in.close();
-      }
+    final byte formatId = result[0];
+    if (StorageCodec.isDeflateRecord(formatId)) {
+      StorageCodec.DEFLATE.decode(result, 0, outputStream);
     }
+    else {
+      getCodec(formatId).decode(result, 1, outputStream);
+    }
+    return outputStream;
   }
 
-  private static class CustomInflaterInputStream extends InflaterInputStream {
-    public CustomInflaterInputStream(byte[] compressedData) {
-      super(new UnsyncByteArrayInputStream(compressedData), new Inflater(), 1);
-      // force to directly use compressed data, this ensures less round trips with native extraction code and copy streams
-      this.buf = compressedData;
-      this.len = -1;
+  @NotNull
+  private StorageCodec getCodec(byte formatId) throws IOException {
+    if (myCodec.getFormatId() == formatId) {
+      return myCodec;
     }
-
-    @Override
-    protected void fill() throws IOException {
-      if (len >= 0) throw new EOFException();
-      len = buf.length;
-      inf.setInput(buf, 0, len);
-    }
-
-    @Override
-    public void close() throws IOException {
-      super.close();
-      inf.end(); // custom inflater need explicit dispose
+    if (formatId == Lz4StorageCodec.FORMAT_ID) {
+      return new Lz4StorageCodec();
     }
+    throw new IOException("Unknown record format: " + formatId);
   }
 
   private void waitForPendingWriteForRecord(int record) {
@@ -155,13 +155,11 @@ public class RefCountingStorage extends AbstractStorage {
 
   private void zipAndWrite(ByteSequence bytes, int record, boolean fixedSize) throws IOException {
     BufferExposingByteArrayOutputStream s = new BufferExposingByteArrayOutputStream();
-    DeflaterOutputStream out = new DeflaterOutputStream(s);
-    try {
-      out.write(bytes.getBytes(), bytes.getOffset(), bytes.getLength());
-    }
-    finally {
-      out.close();
+    final StorageCodec codec = myCodec;
+    if (codec != StorageCodec.DEFLATE) {
+      s.write(codec.getFormatId());
     }
+    codec.encode(bytes, s);
 
     synchronized (myLock) {
       doWrite(record, fixedSize, s);
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io.storage;
+
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.openapi.util.io.StreamUtil;
+import com.intellij.util.io.UnsyncByteArrayInputStream;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression of the records of {@link RefCountingStorage}. Every record written with a codec other than {@link #DEFLATE} starts
+ * with the {@link #getFormatId() format id} of the codec, so the records written with different codecs can be read from the same storage.
+ */
+public abstract class StorageCodec {
+  /**
+   * Format used before the codecs were introduced: records contain plain zlib streams without the format id. The first byte of
+   * zlib stream always has 8 in the lower four bits, so format ids of other codecs must not.
+   */
+  public static final StorageCodec DEFLATE = new StorageCodec() {
+    @Override
+    public byte getFormatId() {
+      return 0x78;
+    }
+
+    @Override
+    public void encode(@NotNull ByteSequence data, @NotNull BufferExposingByteArrayOutputStream out) throws IOException {
+      DeflaterOutputStream stream = new DeflaterOutputStream(out);
+      try {
+        stream.write(data.getBytes(), data.getOffset(), data.getLength());
+      }
+      finally {
+        stream.close();
+      }
+    }
+
+    @Override
+    public void decode(@NotNull byte[] data, int offset, @NotNull BufferExposingByteArrayOutputStream out) throws IOException {
+      InflaterInputStream in = new CustomInflaterInputStream(data, offset);
+      try {
+        StreamUtil.copyStreamContent(in, out);
+      }
+      finally {
+        in.close();
+      }
+    }
+  };
+
+  public abstract byte getFormatId();
+
+  public abstract void encode(@NotNull ByteSequence data, @NotNull BufferExposingByteArrayOutputStream out) throws IOException;
+
+  /**
+   * Decodes the data starting at the given offset till the end of the array.
+   */
+  public abstract void decode(@NotNull byte[] data, int offset, @NotNull BufferExposingByteArrayOutputStream out) throws IOException;
+
+  static boolean isDeflateRecord(byte firstByte) {
+    return (firstByte & 0x0F) == 8;
+  }
+
+  private static class CustomInflaterInputStream extends InflaterInputStream {
+    private final int myOffset;
+
+    public CustomInflaterInputStream(byte[] compressedData, int offset) {
+      super(new UnsyncByteArrayInputStream(compressedData), new Inflater(), 1);
+      // force to directly use compressed data, this ensures less round trips with native extraction code and copy streams
+      this.buf = compressedData;
+      this.len = -1;
+      myOffset = offset;
+    }
+
+    @Override
+    protected void fill() throws IOException {
+      if (len >= 0) throw new EOFException();
+      len = buf.length - myOffset;
+      inf.setInput(buf, myOffset, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      super.close();
+      inf.end(); // custom inflater need explicit dispose
+    }
+  }
+}
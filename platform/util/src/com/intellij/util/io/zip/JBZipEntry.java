@@ -461,6 +461,30 @@ public class JBZipEntry implements Cloneable {
     }
   }
 
+  /**
+   * Returns the stream of the entry data as it's stored in the archive, i.e. compressed for {@link ZipEntry#DEFLATED} entries.
+   * Together with {@link #setRawData(InputStream, long)} allows to copy entries between archives without recompressing them.
+   */
+  public InputStream getRawInputStream() throws IOException {
+    if (csize == -1) throw new IOException("no data");
+    return new BoundedInputStream(calcDataOffset(), csize);
+  }
+
+  /**
+   * Writes the data which is already compressed according to the {@link #getMethod() method} of the entry, the uncompressed size
+   * and crc of the entry must be set.
+   */
+  public void setRawData(byte[] bytes, int length) throws IOException {
+    myFile.getOutputStream().putNextEntryRawBytes(this, bytes, length);
+  }
+
+  /**
+   * Same as {@link #setRawData(byte[], int)}, but copies the data from the stream without loading it into memory.
+   */
+  public void setRawData(InputStream stream, long length) throws IOException {
+    myFile.getOutputStream().putNextEntryRawContent(this, stream, length);
+  }
+
   private long calcDataOffset() throws IOException {
     long offset = getHeaderOffset();
     myFile.archive.seek(offset + JBZipFile.LFH_OFFSET_FOR_FILENAME_LENGTH);
@@ -22,7 +22,9 @@ package com.intellij.util.io.zip;
 
 import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.util.List;
@@ -422,4 +424,39 @@ class JBZipOutputStream {
     writeLocalFileHeader(entry);
     writeOut(outputBytes, 0, outputBytesLength);
   }
+
+  public void putNextEntryRawBytes(JBZipEntry entry, byte[] rawBytes, int length) throws IOException {
+    if (entry.getMethod() == -1 || entry.getSize() == -1 || entry.getCrc() == -1) {
+      throw new IllegalArgumentException("method, size and crc must be set for entry " + entry.getName());
+    }
+
+    if (entry.getTime() == -1) {
+      entry.setTime(System.currentTimeMillis());
+    }
+
+    entry.setCompressedSize(length);
+    writeLocalFileHeader(entry);
+    writeOut(rawBytes, 0, length);
+  }
+
+  public void putNextEntryRawContent(JBZipEntry entry, InputStream rawStream, long length) throws IOException {
+    if (entry.getMethod() == -1 || entry.getSize() == -1 || entry.getCrc() == -1) {
+      throw new IllegalArgumentException("method, size and crc must be set for entry " + entry.getName());
+    }
+
+    if (entry.getTime() == -1) {
+      entry.setTime(System.currentTimeMillis());
+    }
+
+    entry.setCompressedSize(length);
+    writeLocalFileHeader(entry);
+    final byte[] buffer = new byte[8192];
+    long remaining = length;
+    while (remaining > 0) {
+      final int read = rawStream.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+      if (read < 0) throw new EOFException("Unexpected end of data of entry " + entry.getName());
+      writeOut(buffer, 0, read);
+      remaining -= read;
+    }
+  }
 }
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.text;
+
+import com.intellij.util.ArrayUtil;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Immutable text represented as a balanced tree (rope) of char array chunks.
+ * <p/>
+ * {@link #insert(int, CharSequence)}, {@link #delete(int, int)} and {@link #subtext(int, int)} take O(log n) time and share
+ * unchanged chunks with the original text, so an instance can be handed to other threads as a snapshot which is not affected by
+ * subsequent modifications. {@link #charAt(int)} is O(log n) too, but sequential access within a chunk is O(1).
+ */
+public final class ImmutableText implements CharSequence {
+  private static final int LEAF_SIZE = 512;
+  public static final ImmutableText EMPTY = new ImmutableText(new Leaf(ArrayUtil.EMPTY_CHAR_ARRAY, 0, 0));
+
+  private final Node myRoot;
+  private volatile LeafPosition myLastLeaf; // speeds up sequential charAt() calls
+
+  private ImmutableText(@NotNull Node root) {
+    myRoot = root;
+  }
+
+  @NotNull
+  public static ImmutableText valueOf(@NotNull CharSequence text) {
+    if (text instanceof ImmutableText) return (ImmutableText)text;
+    if (text.length() == 0) return EMPTY;
+    return new ImmutableText(buildNode(text, 0, text.length()));
+  }
+
+  private static Node buildNode(CharSequence text, int start, int end) {
+    int length = end - start;
+    if (length <= LEAF_SIZE) {
+      char[] chars = new char[length];
+      if (text instanceof String) {
+        ((String)text).getChars(start, end, chars, 0);
+      }
+      else {
+        for (int i = 0; i < length; i++) {
+          chars[i] = text.charAt(start + i);
+        }
+      }
+      return new Leaf(chars, 0, length);
+    }
+    // split at a chunk boundary, so that all leaves but the last are full
+    int leftLength = (length / LEAF_SIZE + 1) / 2 * LEAF_SIZE;
+    return new Concat(buildNode(text, start, start + leftLength), buildNode(text, start + leftLength, end));
+  }
+
+  @NotNull
+  public ImmutableText concat(@NotNull CharSequence text) {
+    return new ImmutableText(join(myRoot, valueOf(text).myRoot));
+  }
+
+  @NotNull
+  public ImmutableText insert(int index, @NotNull CharSequence text) {
+    checkRange(index, index);
+    if (text.length() == 0) return this;
+    return new ImmutableText(join(join(sub(myRoot, 0, index), valueOf(text).myRoot), sub(myRoot, index, length())));
+  }
+
+  @NotNull
+  public ImmutableText delete(int start, int end) {
+    checkRange(start, end);
+    if (start == end) return this;
+    return new ImmutableText(join(sub(myRoot, 0, start), sub(myRoot, end, length())));
+  }
+
+  @NotNull
+  public ImmutableText replace(int start, int end, @NotNull CharSequence text) {
+    return delete(start, end).insert(start, text);
+  }
+
+  @NotNull
+  public ImmutableText subtext(int start, int end) {
+    checkRange(start, end);
+    if (start == 0 && end == length()) return this;
+    if (start == end) return EMPTY;
+    return new ImmutableText(sub(myRoot, start, end));
+  }
+
+  @Override
+  public int length() {
+    return myRoot.length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= length()) {
+      throw new IndexOutOfBoundsException("Wrong offset: " + index + "; length: " + length());
+    }
+    LeafPosition last = myLastLeaf;
+    if (last == null || index < last.myStart || index >= last.myStart + last.myLeaf.length) {
+      last = findLeaf(index);
+      myLastLeaf = last;
+    }
+    return last.myLeaf.charAt(index - last.myStart);
+  }
+
+  private LeafPosition findLeaf(int index) {
+    Node node = myRoot;
+    int start = 0;
+    while (node instanceof Concat) {
+      Concat concat = (Concat)node;
+      if (index < start + concat.myLeft.length) {
+        node = concat.myLeft;
+      }
+      else {
+        start += concat.myLeft.length;
+        node = concat.myRight;
+      }
+    }
+    return new LeafPosition((Leaf)node, start);
+  }
+
+  @NotNull
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return subtext(start, end);
+  }
+
+  /**
+   * Copies characters in [start, end) range to the given array
+   */
+  public void getChars(int start, int end, @NotNull char[] dest, int destPos) {
+    checkRange(start, end);
+    myRoot.getChars(start, end, dest, destPos);
+  }
+
+  @NotNull
+  public char[] toCharArray() {
+    char[] result = new char[length()];
+    myRoot.getChars(0, length(), result, 0);
+    return result;
+  }
+
+  @NotNull
+  @Override
+  public String toString() {
+    return StringFactory.createShared(toCharArray());
+  }
+
+  int getDepth() {
+    return myRoot.depth;
+  }
+
+  private void checkRange(int start, int end) {
+    if (start < 0 || start > end || end > length()) {
+      throw new IndexOutOfBoundsException("Wrong range: [" + start + ", " + end + "); length: " + length());
+    }
+  }
+
+  private static Node sub(Node node, int start, int end) {
+    if (start == 0 && end == node.length) return node;
+    if (node instanceof Leaf) {
+      Leaf leaf = (Leaf)node;
+      return new Leaf(leaf.myChars, leaf.myOffset + start, end - start);
+    }
+    Concat concat = (Concat)node;
+    int leftLength = concat.myLeft.length;
+    if (end <= leftLength) return sub(concat.myLeft, start, end);
+    if (start >= leftLength) return sub(concat.myRight, start - leftLength, end - leftLength);
+    return join(sub(concat.myLeft, start, leftLength), sub(concat.myRight, 0, end - leftLength));
+  }
+
+  /**
+   * Concatenates two balanced trees keeping the result balanced (depths of siblings differ at most by one)
+   */
+  private static Node join(Node left, Node right) {
+    if (left.length == 0) return right;
+    if (right.length == 0) return left;
+    if (left.length + right.length <= LEAF_SIZE) {
+      return mergeLeaves(left, right);
+    }
+    if (right instanceof Leaf && right.length < LEAF_SIZE / 2 && left instanceof Concat) {
+      Concat concat = (Concat)left;
+      if (concat.myRight instanceof Leaf && concat.myRight.length + right.length <= LEAF_SIZE) {
+        return join(concat.myLeft, mergeLeaves(concat.myRight, right));
+      }
+    }
+    if (left instanceof Leaf && left.length < LEAF_SIZE / 2 && right instanceof Concat) {
+      Concat concat = (Concat)right;
+      if (concat.myLeft instanceof Leaf && concat.myLeft.length + left.length <= LEAF_SIZE) {
+        return join(mergeLeaves(left, concat.myLeft), concat.myRight);
+      }
+    }
+
+    if (left.depth > right.depth + 1) {
+      Concat concat = (Concat)left;
+      Node a = concat.myLeft;
+      Node t = join(concat.myRight, right);
+      if (t.depth <= a.depth + 1) return new Concat(a, t);
+      Concat tc = (Concat)t;
+      if (tc.myLeft.depth > tc.myRight.depth) {
+        Concat c = (Concat)tc.myLeft;
+        return new Concat(new Concat(a, c.myLeft), new Concat(c.myRight, tc.myRight));
+      }
+      return new Concat(new Concat(a, tc.myLeft), tc.myRight);
+    }
+    if (right.depth > left.depth + 1) {
+      Concat concat = (Concat)right;
+      Node a = concat.myRight;
+      Node t = join(left, concat.myLeft);
+      if (t.depth <= a.depth + 1) return new Concat(t, a);
+      Concat tc = (Concat)t;
+      if (tc.myRight.depth > tc.myLeft.depth) {
+        Concat c = (Concat)tc.myRight;
+        return new Concat(new Concat(tc.myLeft, c.myLeft), new Concat(c.myRight, a));
+      }
+      return new Concat(tc.myLeft, new Concat(tc.myRight, a));
+    }
+    return new Concat(left, right);
+  }
+
+  private static Leaf mergeLeaves(Node left, Node right) {
+    char[] chars = new char[left.length + right.length];
+    left.getChars(0, left.length, chars, 0);
+    right.getChars(0, right.length, chars, left.length);
+    return new Leaf(chars, 0, chars.length);
+  }
+
+  private abstract static class Node {
+    final int length;
+    final int depth;
+
+    Node(int length, int depth) {
+      this.length = length;
+      this.depth = depth;
+    }
+
+    abstract void getChars(int start, int end, char[] dest, int destPos);
+  }
+
+  private static final class Leaf extends Node {
+    private final char[] myChars; // shared between leaves created by sub(), never modified
+    private final int myOffset;
+
+    Leaf(char[] chars, int offset, int length) {
+      super(length, 0);
+      myChars = chars;
+      myOffset = offset;
+    }
+
+    char charAt(int index) {
+      return myChars[myOffset + index];
+    }
+
+    @Override
+    void getChars(int start, int end, char[] dest, int destPos) {
+      System.arraycopy(myChars, myOffset + start, dest, destPos, end - start);
+    }
+  }
+
+  private static final class Concat extends Node {
+    private final Node myLeft;
+    private final Node myRight;
+
+    Concat(Node left, Node right) {
+      super(left.length + right.length, Math.max(left.depth, right.depth) + 1);
+      myLeft = left;
+      myRight = right;
+    }
+
+    @Override
+    void getChars(int start, int end, char[] dest, int destPos) {
+      int leftLength = myLeft.length;
+      if (start < leftLength) {
+        myLeft.getChars(start, Math.min(end, leftLength), dest, destPos);
+      }
+      if (end > leftLength) {
+        int rightStart = Math.max(start, leftLength);
+        myRight.getChars(rightStart - leftLength, end - leftLength, dest, destPos + rightStart - start);
+      }
+    }
+  }
+
+  private static final class LeafPosition {
+    private final Leaf myLeaf;
+    private final int myStart;
+
+    private LeafPosition(Leaf leaf, int start) {
+      myLeaf = leaf;
+      myStart = start;
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io.storage;
+
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class RefCountingStorageTest extends TestCase {
+  private String getFileName() {
+    return FileUtil.getTempDirectory() + File.separatorChar + getName();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    AbstractStorage.deleteFiles(getFileName());
+    super.tearDown();
+  }
+
+  private static byte[] createContent(int seed) {
+    final StringBuilder builder = new StringBuilder();
+    final Random random = new Random(seed);
+    for (int i = 0; i < 200; i++) {
+      builder.append("  public void method").append(random.nextInt(1000)).append("(String s) {\n    return s.length();\n  }\n");
+    }
+    return builder.toString().getBytes();
+  }
+
+  private static void assertRoundTrip(StorageCodec codec, byte[] data) throws IOException {
+    final BufferExposingByteArrayOutputStream encoded = new BufferExposingByteArrayOutputStream();
+    codec.encode(new ByteSequence(data), encoded);
+    final BufferExposingByteArrayOutputStream decoded = new BufferExposingByteArrayOutputStream();
+    codec.decode(encoded.toByteArray(), 0, decoded);
+    assertTrue(Arrays.equals(data, decoded.toByteArray()));
+  }
+
+  public void testLz4RoundTrip() throws IOException {
+    final Lz4StorageCodec codec = new Lz4StorageCodec();
+    assertRoundTrip(codec, new byte[0]);
+    assertRoundTrip(codec, "short".getBytes());
+    assertRoundTrip(codec, new byte[100000]);
+    assertRoundTrip(codec, createContent(0));
+
+    final byte[] random = new byte[100000];
+    new Random(0).nextBytes(random);
+    assertRoundTrip(codec, random);
+  }
+
+  public void testLz4RejectsCorruptedLength() throws IOException {
+    final Lz4StorageCodec codec = new Lz4StorageCodec();
+    final BufferExposingByteArrayOutputStream encoded = new BufferExposingByteArrayOutputStream();
+    codec.encode(new ByteSequence("some content".getBytes()), encoded);
+
+    final byte[] negative = encoded.toByteArray();
+    negative[0] = (byte)0x80;
+    assertMalformed(codec, negative);
+
+    final byte[] tooLarge = encoded.toByteArray();
+    tooLarge[0] = 0x10;
+    assertMalformed(codec, tooLarge);
+
+    assertMalformed(codec, new byte[2]);
+  }
+
+  private static void assertMalformed(Lz4StorageCodec codec, byte[] data) {
+    try {
+      codec.decode(data, 0, new BufferExposingByteArrayOutputStream());
+      fail();
+    }
+    catch (IOException ignored) {
+    }
+  }
+
+  public void testRecordsWrittenWithDifferentCodecsAreReadable() throws IOException {
+    final byte[] content = createContent(0);
+    RefCountingStorage storage = new RefCountingStorage(getFileName(), CapacityAllocationPolicy.DEFAULT, StorageCodec.DEFLATE);
+    final int deflateRecord = storage.acquireNewRecord();
+    storage.writeBytes(deflateRecord, new ByteSequence(content), false);
+    storage.dispose();
+
+    storage = new RefCountingStorage(getFileName());
+    final int lz4Record = storage.acquireNewRecord();
+    storage.writeBytes(lz4Record, new ByteSequence(content), false);
+    storage.dispose();
+
+    storage = new RefCountingStorage(getFileName(), CapacityAllocationPolicy.DEFAULT, StorageCodec.DEFLATE);
+    try {
+      assertTrue(Arrays.equals(content, storage.readBytes(deflateRecord)));
+      assertTrue(Arrays.equals(content, storage.readBytes(lz4Record)));
+    }
+    finally {
+      storage.dispose();
+    }
+  }
+}
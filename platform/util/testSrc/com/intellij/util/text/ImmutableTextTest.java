@@ -0,0 +1,85 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.text;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class ImmutableTextTest extends TestCase {
+  public void testEditsMatchStringBuilder() {
+    Random random = new Random(42);
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      expected.append((char)('a' + random.nextInt(26)));
+      if (i % 80 == 0) expected.append('\n');
+    }
+    ImmutableText text = ImmutableText.valueOf(expected);
+    assertEquals(expected.toString(), text.toString());
+
+    for (int i = 0; i < 3000; i++) {
+      int start = random.nextInt(expected.length() + 1);
+      if (random.nextBoolean()) {
+        String inserted = randomString(random, random.nextInt(i % 100 == 0 ? 2000 : 10));
+        expected.insert(start, inserted);
+        text = text.insert(start, inserted);
+      }
+      else {
+        int end = Math.min(expected.length(), start + random.nextInt(30));
+        expected.delete(start, end);
+        text = text.delete(start, end);
+      }
+      assertEquals(expected.length(), text.length());
+    }
+    assertEquals(expected.toString(), text.toString());
+
+    for (int i = 0; i < expected.length(); i++) {
+      assertEquals(expected.charAt(i), text.charAt(i));
+    }
+    int start = expected.length() / 3;
+    int end = expected.length() / 2;
+    assertEquals(expected.substring(start, end), text.subSequence(start, end).toString());
+
+    char[] chars = new char[end - start + 2];
+    text.getChars(start, end, chars, 1);
+    assertEquals(expected.substring(start, end), new String(chars, 1, end - start));
+  }
+
+  public void testSnapshotIsNotAffectedByEdits() {
+    ImmutableText text = ImmutableText.valueOf("abcdef");
+    ImmutableText snapshot = text;
+    text = text.replace(1, 3, "XYZ");
+    assertEquals("aXYZdef", text.toString());
+    assertEquals("abcdef", snapshot.toString());
+  }
+
+  public void testTreeStaysBalanced() {
+    ImmutableText text = ImmutableText.EMPTY;
+    for (int i = 0; i < 100000; i++) {
+      text = text.insert(text.length() / 2, "0123456789");
+    }
+    assertEquals(1000000, text.length());
+    assertTrue(String.valueOf(text.getDepth()), text.getDepth() < 30);
+  }
+
+  private static String randomString(Random random, int length) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      builder.append(random.nextInt(10) == 0 ? '\n' : (char)('A' + random.nextInt(26)));
+    }
+    return builder.toString();
+  }
+}